@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.cache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.util.Messages;
+
+/**
+ * A persistent store of the indexes archive file systems build when they are opened.
+ * <p>
+ * Each index is kept in a file of its own, named after the type of the index and
+ * the URI of the archive. The file starts with the URI, size, last modification
+ * time and entity tag of the archive the index was built from, and an index is
+ * only handed out if all of them still match the archive. Archives without a
+ * modification time or entity tag are not cached.
+ * <p>
+ * Indexes are written to a temporary file which is then renamed, so concurrent
+ * readers, even in other processes, see either the old or the new index. One
+ * instance can be shared by the options of many file systems, see
+ * {@link org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder#setArchiveIndexCache}.
+ *
+ * @since 2.1
+ */
+public class ArchiveIndexCache
+{
+    private static final Log LOG = LogFactory.getLog(ArchiveIndexCache.class);
+
+    private static final int MAGIC = 0x56464149;
+    private static final int VERSION = 1;
+
+    private static final String ETAG = "ETag";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache in the default temporary directory of
+     * {@link org.apache.commons.vfs2.impl.DefaultFileReplicator}.
+     */
+    public ArchiveIndexCache()
+    {
+        this(new File(new File(System.getProperty("java.io.tmpdir"), "vfs_cache"), "archive-index"));
+    }
+
+    /**
+     * Creates a cache.
+     * @param directory The directory to keep the indexes in, it is created when the first index is stored.
+     */
+    public ArchiveIndexCache(final File directory)
+    {
+        this.directory = directory.getAbsoluteFile();
+    }
+
+    /**
+     * Returns the directory the indexes are kept in.
+     * @return The directory.
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Opens the stored index of an archive.
+     *
+     * @param archive The archive.
+     * @param type The type of the index, such as "zip".
+     * @return The index positioned after its header, or null if no index of the
+     * current version of the archive is stored. The caller must close the stream.
+     */
+    public DataInputStream get(final FileObject archive, final String type)
+    {
+        final Identity identity = identify(archive);
+        final File file = identity != null ? getFile(identity.uri, type) : null;
+        if (file == null || !file.isFile())
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() == MAGIC && in.readInt() == VERSION && type.equals(in.readUTF())
+                && identity.equals(Identity.read(in)))
+            {
+                hits.incrementAndGet();
+                final DataInputStream index = in;
+                in = null;
+                return index;
+            }
+        }
+        catch (final IOException e)
+        {
+            // a truncated or foreign file, rebuilding the index replaces it
+        }
+        finally
+        {
+            close(in);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the index of an archive, replacing any index stored before.
+     * Failures are logged and otherwise ignored.
+     *
+     * @param archive The archive.
+     * @param type The type of the index, such as "zip".
+     * @param index The content of the index.
+     */
+    public void put(final FileObject archive, final String type, final byte[] index)
+    {
+        final Identity identity = identify(archive);
+        if (identity == null)
+        {
+            return;
+        }
+
+        final File file = getFile(identity.uri, type);
+        File temp = null;
+        try
+        {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            {
+                throw new IOException("Could not create " + directory);
+            }
+            temp = File.createTempFile(type, ".tmp", directory);
+            final DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(type);
+                identity.write(out);
+                out.write(index);
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+            {
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+            temp = null;
+        }
+        catch (final IOException e)
+        {
+            LOG.warn(Messages.getString("vfs.cache/write-archive-index.warn", archive.getName()), e);
+        }
+        finally
+        {
+            if (temp != null)
+            {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of lookups which found a valid index.
+     * @return The hit count.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which found no index or an index of another version of the archive.
+     * @return The miss count.
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    private File getFile(final String uri, final String type)
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(uri.getBytes(UTF8));
+            final StringBuilder name = new StringBuilder(type.length() + digest.length * 2 + 5);
+            name.append(type).append('-');
+            for (final byte b : digest)
+            {
+                name.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+            return new File(directory, name.append(".idx").toString());
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Determines the current version of an archive.
+     * @return The identity or null if the version of the archive cannot be told.
+     */
+    private static Identity identify(final FileObject archive)
+    {
+        try
+        {
+            final FileContent content = archive.getContent();
+            final long size = content.getSize();
+            long lastModified;
+            try
+            {
+                lastModified = content.getLastModifiedTime();
+            }
+            catch (final FileSystemException e)
+            {
+                lastModified = 0;
+            }
+            String etag;
+            try
+            {
+                final Object value = content.getAttribute(ETAG);
+                etag = value != null ? value.toString() : "";
+            }
+            catch (final FileSystemException e)
+            {
+                etag = "";
+            }
+            if (lastModified <= 0 && etag.length() == 0)
+            {
+                return null;
+            }
+            return new Identity(archive.getName().getURI(), size, lastModified, etag);
+        }
+        catch (final FileSystemException e)
+        {
+            return null;
+        }
+    }
+
+    private static void close(final InputStream in)
+    {
+        if (in != null)
+        {
+            try
+            {
+                in.close();
+            }
+            catch (final IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Identifies a specific version of an archive.
+     */
+    private static final class Identity
+    {
+        private final String uri;
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+
+        Identity(final String uri, final long size, final long lastModified, final String etag)
+        {
+            this.uri = uri;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        static Identity read(final DataInputStream in) throws IOException
+        {
+            return new Identity(in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+        }
+
+        void write(final OutputStream out) throws IOException
+        {
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeUTF(uri);
+            data.writeLong(size);
+            data.writeLong(lastModified);
+            data.writeUTF(etag);
+            data.flush();
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (!(o instanceof Identity))
+            {
+                return false;
+            }
+            final Identity that = (Identity) o;
+            return size == that.size && lastModified == that.lastModified && uri.equals(that.uri)
+                && etag.equals(that.etag);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return uri.hashCode();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded LRU cache of file content blocks.
+ * <p>
+ * Blocks are keyed by file URI, a version of the file and the index of the
+ * block within the file. The version is built from whatever validators the
+ * file offers, such as its modification time, size and entity tag, so a
+ * changed file does not hit the blocks of its old content.
+ * One instance is meant to be shared by all random access contents which should
+ * read through it, see
+ * {@link org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder#setRandomAccessBlockCache}.
+ * <p>
+ * Blocks can be kept in direct (off-heap) buffers to take large caches out of
+ * the garbage collected heap.
+ *
+ * @since 2.1
+ */
+public class BlockCache
+{
+    /** The default block size */
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final long maxSize;
+    private final int blockSize;
+    private final boolean direct;
+
+    /** The blocks in access order, guarded by this. */
+    private final Map<Key, ByteBuffer> blocks = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a heap cache with 64 KB blocks.
+     * @param maxSize The maximum number of bytes to cache.
+     */
+    public BlockCache(final long maxSize)
+    {
+        this(maxSize, DEFAULT_BLOCK_SIZE, false);
+    }
+
+    /**
+     * Creates a cache.
+     * @param maxSize The maximum number of bytes to cache.
+     * @param blockSize The size of a block in bytes.
+     * @param direct true to keep blocks in direct buffers outside of the heap.
+     */
+    public BlockCache(final long maxSize, final int blockSize, final boolean direct)
+    {
+        if (blockSize < 1)
+        {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.blockSize = blockSize;
+        this.direct = direct;
+    }
+
+    /**
+     * Returns the size of a block.
+     * @return The block size in bytes.
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * Copies a cached block into a buffer.
+     *
+     * @param uri The URI of the file.
+     * @param version The version of the file.
+     * @param index The index of the block within the file.
+     * @param buffer The buffer to copy the block into, at least {@link #getBlockSize()} bytes.
+     * @return The length of the block or -1 if it is not cached.
+     */
+    public int get(final String uri, final String version, final long index, final byte[] buffer)
+    {
+        final ByteBuffer block;
+        synchronized (this)
+        {
+            block = blocks.get(new Key(uri, version, index));
+        }
+        if (block == null)
+        {
+            misses.incrementAndGet();
+            return -1;
+        }
+        hits.incrementAndGet();
+
+        // cached buffers are never modified, a duplicate gives us a private position
+        final ByteBuffer data = block.duplicate();
+        data.clear();
+        final int length = data.remaining();
+        data.get(buffer, 0, length);
+        return length;
+    }
+
+    /**
+     * Adds a block to the cache, evicting the least recently used blocks if necessary.
+     *
+     * @param uri The URI of the file.
+     * @param version The version of the file.
+     * @param index The index of the block within the file.
+     * @param buffer The content of the block.
+     * @param length The length of the block.
+     */
+    public void put(final String uri, final String version, final long index, final byte[] buffer,
+                    final int length)
+    {
+        if (length > maxSize)
+        {
+            return;
+        }
+
+        final ByteBuffer block = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        block.put(buffer, 0, length);
+
+        synchronized (this)
+        {
+            final ByteBuffer old = blocks.put(new Key(uri, version, index), block);
+            if (old != null)
+            {
+                size -= old.capacity();
+            }
+            size += length;
+
+            final Iterator<ByteBuffer> iterator = blocks.values().iterator();
+            while (size > maxSize && iterator.hasNext())
+            {
+                size -= iterator.next().capacity();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all blocks from the cache.
+     */
+    public synchronized void clear()
+    {
+        blocks.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of bytes currently cached.
+     * @return The cached bytes.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of bytes to cache.
+     * @return The maximum size.
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of lookups which found their block.
+     * @return The hit count.
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which did not find their block.
+     * @return The miss count.
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of blocks removed to stay within the maximum size.
+     * @return The eviction count.
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Identifies a block of a specific version of a file.
+     */
+    private static final class Key
+    {
+        private final String uri;
+        private final String version;
+        private final long index;
+
+        Key(final String uri, final String version, final long index)
+        {
+            this.uri = uri;
+            this.version = version;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key that = (Key) o;
+            return index == that.index && version.equals(that.version) && uri.equals(that.uri);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = uri.hashCode();
+            result = 31 * result + version.hashCode();
+            result = 31 * result + (int) (index ^ (index >>> 32));
+            return result;
+        }
+    }
+}
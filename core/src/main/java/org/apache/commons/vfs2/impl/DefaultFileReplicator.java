@@ -17,27 +17,62 @@
 package org.apache.commons.vfs2.impl;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSelector;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.VfsLog;
 import org.apache.commons.vfs2.provider.AbstractVfsComponent;
-import org.apache.commons.vfs2.provider.FileReplicator;
+import org.apache.commons.vfs2.provider.ReleasableFileReplicator;
 import org.apache.commons.vfs2.provider.TemporaryFileStore;
 import org.apache.commons.vfs2.provider.UriParser;
+import org.apache.commons.vfs2.provider.local.LocalFileSystem;
 import org.apache.commons.vfs2.util.Messages;
 
 /**
  * A simple file replicator and temporary file store.
+ * <p>
+ * Replicas of single files are cached by the URI of their source and reused as
+ * long as the size and last modified time of the source do not change, so a
+ * file which is replicated again, by the same or another file system, is not
+ * copied again. Concurrent replications of the same source share one copy. The
+ * cached replicas are evicted least recently used first when their total size
+ * exceeds the quota, 256 MB by default. Each caller gets a file of its own,
+ * which is a hard link to the cached replica where the platform supports hard
+ * links and a copy otherwise. Local files are not cached but copied, a link
+ * would let the replica change with the source. The replicas must not be
+ * modified.
+ * <p>
+ * Files are allocated and replicated concurrently. Released replicas are
+ * deleted one by one on a background thread, the remaining files when the
+ * replicator is closed.
  */
 public class DefaultFileReplicator
     extends AbstractVfsComponent
-    implements FileReplicator, TemporaryFileStore
+    implements ReleasableFileReplicator, TemporaryFileStore
 {
     private static final Log log = LogFactory.getLog(DefaultFileReplicator.class);
     private static final int MASK = 0xffff;
@@ -49,9 +84,51 @@ public class DefaultFileReplicator
             '?', '/', '\\', ' ', '&', '"', '\'', '*', '#', ';', ':', '<', '>', '|'
         };
 
-    private final ArrayList<Object> copies = new ArrayList<Object>();
-    private long filecount;
-    private File tempDir;
+    /** Files.createLink(Path, Path) and File.toPath(), null before Java 7. */
+    private static final Method CREATE_LINK;
+    private static final Method TO_PATH;
+
+    static
+    {
+        Method createLink = null;
+        Method toPath = null;
+        try
+        {
+            final Class<?> pathClass = Class.forName("java.nio.file.Path");
+            createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+            toPath = File.class.getMethod("toPath");
+        }
+        catch (final Exception e)
+        {
+            // hard links are not supported, replicas are copied
+            createLink = null;
+        }
+        CREATE_LINK = createLink;
+        TO_PATH = toPath;
+    }
+
+    /** The default quota of the replica cache in bytes. */
+    private static final long DEFAULT_CACHE_QUOTA = 256 * 1024 * 1024;
+
+    /** The seconds the cleanup thread is kept when there is nothing to delete. */
+    private static final long CLEANER_KEEP_ALIVE = 10;
+
+    private final Set<Object> copies = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /** The cached replicas by source URI, the least recently used first. */
+    private final LinkedHashMap<String, Replica> replicas = new LinkedHashMap<String, Replica>(16, 0.75f, true);
+
+    /** The replications in progress by source URI. */
+    private final Map<String, FutureTask<Replica>> pending = new HashMap<String, FutureTask<Replica>>();
+
+    /** The total size of the cached replicas. */
+    private long cacheSize;
+    private long cacheQuota = DEFAULT_CACHE_QUOTA;
+
+    /** Deletes released files in the background, created on first use, guarded by this. */
+    private ThreadPoolExecutor cleaner;
+    private final AtomicLong filecount = new AtomicLong();
+    private volatile File tempDir;
     private boolean tempDirMessageLogged;
 
     public DefaultFileReplicator()
@@ -68,14 +145,41 @@ public class DefaultFileReplicator
         this.tempDir = tempDir;
     }
 
-    protected void addFile(final Object file)
+    /**
+     * Returns the quota of the replica cache.
+     *
+     * @return The maximum total size of the cached replicas in bytes.
+     * @since 2.1
+     */
+    public long getCacheQuota()
+    {
+        synchronized (replicas)
+        {
+            return cacheQuota;
+        }
+    }
+
+    /**
+     * Sets the quota of the replica cache, which is 256 MB by default.
+     * Least recently used replicas are evicted when the cached replicas exceed it.
+     *
+     * @param cacheQuota The maximum total size of the cached replicas in bytes, 0 disables the cache.
+     * @since 2.1
+     */
+    public void setCacheQuota(final long cacheQuota)
     {
-        synchronized (copies)
+        synchronized (replicas)
         {
-            copies.add(file);
+            this.cacheQuota = cacheQuota;
+            evict(null);
         }
     }
 
+    protected void addFile(final Object file)
+    {
+        copies.add(file);
+    }
+
     /**
      * Allocates a new temporary file.
      * @param baseName the base file name.
@@ -87,12 +191,60 @@ public class DefaultFileReplicator
     {
         // Create a unique-ish file name
         final String basename = createFilename(baseName);
-        synchronized (this)
+
+        return createAndAddFile(tempDir, basename);
+    }
+
+    /**
+     * Deletes a replica which is no longer used on a background thread.
+     * Files which have not been allocated by this replicator are left alone.
+     *
+     * @param file The replica.
+     * @since 2.1
+     */
+    @Override
+    public void releaseFile(final File file)
+    {
+        if (!copies.remove(file))
         {
-            filecount++;
+            return;
         }
+        try
+        {
+            getCleaner().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    deleteFile(file);
+                }
+            });
+        }
+        catch (final RejectedExecutionException e)
+        {
+            // the replicator is being closed
+            deleteFile(file);
+        }
+    }
 
-        return createAndAddFile(tempDir, basename);
+    private synchronized ThreadPoolExecutor getCleaner()
+    {
+        if (cleaner == null)
+        {
+            cleaner = new ThreadPoolExecutor(1, 1, CLEANER_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(final Runnable r)
+                    {
+                        final Thread thread = new Thread(r, "vfs temporary file cleaner");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            cleaner.allowCoreThreadTimeOut(true);
+        }
+        return cleaner;
     }
 
     /**
@@ -101,20 +253,44 @@ public class DefaultFileReplicator
     @Override
     public void close()
     {
-        // Delete the temporary files
-        synchronized (copies)
+        synchronized (replicas)
+        {
+            replicas.clear();
+            cacheSize = 0;
+        }
+
+        // Let the released files be deleted
+        final ThreadPoolExecutor pendingCleaner;
+        synchronized (this)
         {
-            while (copies.size() > 0)
+            pendingCleaner = cleaner;
+            cleaner = null;
+        }
+        if (pendingCleaner != null)
+        {
+            pendingCleaner.shutdown();
+            try
+            {
+                pendingCleaner.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e)
             {
-                final File file = (File) removeFile();
-                deleteFile(file);
+                Thread.currentThread().interrupt();
             }
         }
 
+        // Delete the temporary files
+        File file;
+        while ((file = (File) removeFile()) != null)
+        {
+            deleteFile(file);
+        }
+
         // Clean up the temp directory, if it is empty
-        if (tempDir != null && tempDir.exists() && tempDir.list().length == 0)
+        final File dir = tempDir;
+        if (dir != null && dir.exists() && dir.list().length == 0)
         {
-            tempDir.delete();
+            dir.delete();
             tempDir = null;
         }
     }
@@ -154,7 +330,7 @@ public class DefaultFileReplicator
         // imario@apache.org: BUG34976 get rid of maybe reserved and dangerous characters
         // e.g. to allow replication of http://hostname.org/fileservlet?file=abc.txt
         final String safeBasename = UriParser.encode(baseName, TMP_RESERVED_CHARS).replace('%', '_');
-        return "tmp_" + getFilecount() + "_" + safeBasename;
+        return "tmp_" + filecount.incrementAndGet() + "_" + safeBasename;
     }
 
     /**
@@ -177,7 +353,7 @@ public class DefaultFileReplicator
 
     protected long getFilecount()
     {
-        return filecount;
+        return filecount.get();
     }
 
     /**
@@ -194,7 +370,7 @@ public class DefaultFileReplicator
             tempDir = new File(baseTmpDir, "vfs_cache").getAbsoluteFile();
         }
 
-        filecount = random.nextInt() & MASK;
+        filecount.set(random.nextInt() & MASK);
 
         if (!tempDirMessageLogged)
         {
@@ -208,14 +384,20 @@ public class DefaultFileReplicator
     /**
      * removes a file from the copies list. Will be used for cleanup. <br/>
      * Notice: The system awaits that the returning object can be cast to a java.io.File
-     * @return the File that was removed.
+     * @return the File that was removed, null if there are no more files.
      */
     protected Object removeFile()
     {
-        synchronized (copies)
+        final Iterator<Object> iterator = copies.iterator();
+        while (iterator.hasNext())
         {
-            return copies.remove(0);
+            final Object file = iterator.next();
+            if (copies.remove(file))
+            {
+                return file;
+            }
         }
+        return null;
     }
 
     /**
@@ -224,10 +406,7 @@ public class DefaultFileReplicator
      */
     protected void removeFile(final Object file)
     {
-        synchronized (copies)
-        {
-            copies.remove(file);
-        }
+        copies.remove(file);
     }
 
     /**
@@ -245,10 +424,273 @@ public class DefaultFileReplicator
         final String basename = srcFile.getName().getBaseName();
         final File file = allocateFile(basename);
 
+        // a local source can change under a link, only the replicas owned by the cache are linked
+        if (isSingleFile(srcFile, selector) && !(srcFile.getFileSystem() instanceof LocalFileSystem)
+            && replicateCached(srcFile, file))
+        {
+            return file;
+        }
+
         // Copy from the source file
         final FileObject destFile = getContext().toFileObject(file);
         destFile.copyFrom(srcFile, selector);
 
         return file;
     }
+
+    /**
+     * Determines if a replica holds the source file only.
+     */
+    private static boolean isSingleFile(final FileObject srcFile, final FileSelector selector)
+        throws FileSystemException
+    {
+        return (selector == Selectors.SELECT_SELF
+            || selector == Selectors.SELECT_SELF_AND_CHILDREN
+            || selector == Selectors.SELECT_ALL)
+            && srcFile.getType() == FileType.FILE;
+    }
+
+    /**
+     * Provides a replica of a file from the cache, the file is copied into the cache first if needed.
+     *
+     * @return true if the replica has been provided, false if the file is not cached.
+     */
+    private boolean replicateCached(final FileObject srcFile, final File file) throws FileSystemException
+    {
+        final long size;
+        final long lastModified;
+        try
+        {
+            size = srcFile.getContent().getSize();
+            lastModified = srcFile.getContent().getLastModifiedTime();
+        }
+        catch (final FileSystemException e)
+        {
+            // a source which cannot be validated is not cached
+            return false;
+        }
+
+        final String key = srcFile.getName().getURI();
+        Replica replica = null;
+        FutureTask<Replica> task;
+        boolean copier = false;
+        synchronized (replicas)
+        {
+            if (size > cacheQuota)
+            {
+                return false;
+            }
+            final Replica cached = replicas.get(key);
+            if (cached != null && cached.size == size && cached.lastModified == lastModified)
+            {
+                cached.users++;
+                replica = cached;
+                task = null;
+            }
+            else
+            {
+                task = pending.get(key);
+                if (task == null)
+                {
+                    task = new FutureTask<Replica>(new Callable<Replica>()
+                    {
+                        @Override
+                        public Replica call() throws FileSystemException
+                        {
+                            return copyToCache(key, srcFile, size, lastModified);
+                        }
+                    });
+                    pending.put(key, task);
+                    copier = true;
+                }
+            }
+        }
+
+        if (replica == null)
+        {
+            if (copier)
+            {
+                task.run();
+            }
+            replica = await(task, srcFile);
+            synchronized (replicas)
+            {
+                if (replica.evicted)
+                {
+                    return false;
+                }
+                replica.users++;
+            }
+        }
+
+        try
+        {
+            linkOrCopy(replica.file, file);
+        }
+        finally
+        {
+            synchronized (replicas)
+            {
+                replica.users--;
+                if (replica.evicted && replica.users == 0)
+                {
+                    releaseFile(replica.file);
+                }
+            }
+        }
+        return true;
+    }
+
+    private Replica await(final FutureTask<Replica> task, final FileObject srcFile) throws FileSystemException
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new FileSystemException("vfs.impl/replicate-file.error", srcFile.getName(), e);
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof FileSystemException)
+            {
+                throw (FileSystemException) e.getCause();
+            }
+            throw new FileSystemException("vfs.impl/replicate-file.error", srcFile.getName(), e.getCause());
+        }
+    }
+
+    /**
+     * Copies a source file into the cache, replacing an outdated replica.
+     */
+    private Replica copyToCache(final String key, final FileObject srcFile, final long size, final long lastModified)
+        throws FileSystemException
+    {
+        File cacheFile = null;
+        boolean cached = false;
+        try
+        {
+            cacheFile = allocateFile("cache_" + srcFile.getName().getBaseName());
+            getContext().toFileObject(cacheFile).copyFrom(srcFile, Selectors.SELECT_SELF);
+
+            final Replica replica = new Replica(cacheFile, size, lastModified);
+            synchronized (replicas)
+            {
+                pending.remove(key);
+                final Replica outdated = replicas.remove(key);
+                if (outdated != null)
+                {
+                    cacheSize -= outdated.size;
+                    release(outdated);
+                }
+                replicas.put(key, replica);
+                cached = true;
+                cacheSize += size;
+                evict(replica);
+            }
+            return replica;
+        }
+        finally
+        {
+            if (!cached)
+            {
+                // the next replication of the source copies it again instead of waiting for this failure
+                synchronized (replicas)
+                {
+                    pending.remove(key);
+                }
+                if (cacheFile != null)
+                {
+                    removeFile(cacheFile);
+                    cacheFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used replicas until the cache fits its quota.
+     * Must be called holding the lock of the cache.
+     *
+     * @param keep A replica which is not evicted, may be null.
+     */
+    private void evict(final Replica keep)
+    {
+        final Iterator<Replica> iterator = replicas.values().iterator();
+        while (cacheSize > cacheQuota && iterator.hasNext())
+        {
+            final Replica replica = iterator.next();
+            if (replica != keep)
+            {
+                iterator.remove();
+                cacheSize -= replica.size;
+                release(replica);
+            }
+        }
+    }
+
+    /**
+     * Releases an evicted replica once it is no longer linked or copied.
+     * Must be called holding the lock of the cache.
+     */
+    private void release(final Replica replica)
+    {
+        replica.evicted = true;
+        if (replica.users == 0)
+        {
+            releaseFile(replica.file);
+        }
+    }
+
+    /**
+     * Provides a file as a hard link to a cached replica, or as a copy where hard links are not supported.
+     */
+    private void linkOrCopy(final File source, final File file) throws FileSystemException
+    {
+        if (CREATE_LINK != null)
+        {
+            file.getParentFile().mkdirs();
+            try
+            {
+                CREATE_LINK.invoke(null, TO_PATH.invoke(file), TO_PATH.invoke(source));
+                return;
+            }
+            catch (final InvocationTargetException e)
+            {
+                // no hard links on this file system or across file systems, copy instead
+                file.delete();
+            }
+            catch (final IllegalAccessException e)
+            {
+                // copy instead
+                file.delete();
+            }
+        }
+        getContext().toFileObject(file).copyFrom(getContext().toFileObject(source), Selectors.SELECT_SELF);
+    }
+
+    /**
+     * A replica in the cache.
+     */
+    private static final class Replica
+    {
+        private final File file;
+        private final long size;
+        private final long lastModified;
+
+        /** The number of callers linking or copying the replica. */
+        private int users;
+
+        /** Whether the replica has left the cache, it is deleted once it has no users. */
+        private boolean evicted;
+
+        Replica(final File file, final long size, final long lastModified)
+        {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
 }
@@ -21,6 +21,8 @@ import org.apache.commons.vfs2.FileSystemConfigBuilder;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.UserAuthenticator;
+import org.apache.commons.vfs2.cache.ArchiveIndexCache;
+import org.apache.commons.vfs2.cache.BlockCache;
 
 /**
  * Default options usable for all file systems.
@@ -30,6 +32,15 @@ public class DefaultFileSystemConfigBuilder extends FileSystemConfigBuilder
     /** The default FileSystemConfigBuilder */
     private static final DefaultFileSystemConfigBuilder BUILDER = new DefaultFileSystemConfigBuilder();
 
+    /** The default size of a read-ahead block. */
+    private static final int DEFAULT_READ_AHEAD_BLOCK_SIZE = 64 * 1024;
+
+    private static final String READ_AHEAD_BLOCK_COUNT = "readAheadBlockCount";
+    private static final String READ_AHEAD_BLOCK_SIZE = "readAheadBlockSize";
+    private static final String RANDOM_ACCESS_BLOCK_CACHE = "randomAccessBlockCache";
+    private static final String CHECKPOINT_INTERVAL = "checkpointInterval";
+    private static final String ARCHIVE_INDEX_CACHE = "archiveIndexCache";
+
     /**
      * Gets the singleton builder.
      *
@@ -62,6 +73,143 @@ public class DefaultFileSystemConfigBuilder extends FileSystemConfigBuilder
         return (UserAuthenticator) getParam(opts, "userAuthenticator");
     }
 
+    /**
+     * Sets the number of blocks an input stream reads ahead of its consumer.
+     * <p>
+     * If set to a positive value, the content of a file is read on a background
+     * thread which keeps up to this many blocks in memory. This hides the
+     * round-trip latency of remote file systems for sequential reads.
+     * The default is 0 which disables read-ahead.
+     *
+     * @param opts The FileSystemOptions.
+     * @param blockCount The number of blocks to keep in flight.
+     * @since 2.1
+     */
+    public void setReadAheadBlockCount(final FileSystemOptions opts, final int blockCount)
+    {
+        setParam(opts, READ_AHEAD_BLOCK_COUNT, Integer.valueOf(blockCount));
+    }
+
+    /**
+     * @see #setReadAheadBlockCount
+     * @param opts The FileSystemOptions.
+     * @return The number of blocks to keep in flight, 0 if read-ahead is disabled.
+     * @since 2.1
+     */
+    public int getReadAheadBlockCount(final FileSystemOptions opts)
+    {
+        return getInteger(opts, READ_AHEAD_BLOCK_COUNT, 0);
+    }
+
+    /**
+     * Sets the size of a single read-ahead block.
+     *
+     * @param opts The FileSystemOptions.
+     * @param blockSize The block size in bytes.
+     * @see #setReadAheadBlockCount
+     * @since 2.1
+     */
+    public void setReadAheadBlockSize(final FileSystemOptions opts, final int blockSize)
+    {
+        setParam(opts, READ_AHEAD_BLOCK_SIZE, Integer.valueOf(blockSize));
+    }
+
+    /**
+     * @see #setReadAheadBlockSize
+     * @param opts The FileSystemOptions.
+     * @return The block size in bytes, 64 KB by default.
+     * @since 2.1
+     */
+    public int getReadAheadBlockSize(final FileSystemOptions opts)
+    {
+        return getInteger(opts, READ_AHEAD_BLOCK_SIZE, DEFAULT_READ_AHEAD_BLOCK_SIZE);
+    }
+
+    /**
+     * Sets the block cache read-only random access content of remote files reads through.
+     * <p>
+     * The same cache instance can be set on the options of many file systems to share
+     * blocks between them. Supported by the HTTP, SFTP and HDFS providers.
+     *
+     * @param opts The FileSystemOptions.
+     * @param cache The cache or null to read directly from the file.
+     * @since 2.1
+     */
+    public void setRandomAccessBlockCache(final FileSystemOptions opts, final BlockCache cache)
+    {
+        setParam(opts, RANDOM_ACCESS_BLOCK_CACHE, cache);
+    }
+
+    /**
+     * @see #setRandomAccessBlockCache
+     * @param opts The FileSystemOptions.
+     * @return The cache or null if none is configured.
+     * @since 2.1
+     */
+    public BlockCache getRandomAccessBlockCache(final FileSystemOptions opts)
+    {
+        return (BlockCache) getParam(opts, RANDOM_ACCESS_BLOCK_CACHE);
+    }
+
+    /**
+     * Sets the interval of the checkpoints compressed files are indexed with.
+     * <p>
+     * If set to a positive value, the gzip and bzip2 providers build an index
+     * of checkpoints into the compressed file on first random access, and the
+     * tgz and tbz2 providers while they list the archive. Content can then be
+     * decompressed from the closest checkpoint on instead of from the start,
+     * which adds {@link org.apache.commons.vfs2.Capability#RANDOM_ACCESS_READ}.
+     * A gzip file gets a checkpoint about every interval uncompressed bytes, a
+     * bzip2 file at every block. The default is 0 which disables the index.
+     *
+     * @param opts The FileSystemOptions.
+     * @param interval The number of uncompressed bytes between two checkpoints.
+     * @since 2.1
+     */
+    public void setCheckpointInterval(final FileSystemOptions opts, final long interval)
+    {
+        setParam(opts, CHECKPOINT_INTERVAL, Long.valueOf(interval));
+    }
+
+    /**
+     * @see #setCheckpointInterval
+     * @param opts The FileSystemOptions.
+     * @return The number of uncompressed bytes between two checkpoints, 0 if compressed files are not indexed.
+     * @since 2.1
+     */
+    public long getCheckpointInterval(final FileSystemOptions opts)
+    {
+        return getLong(opts, CHECKPOINT_INTERVAL, 0);
+    }
+
+    /**
+     * Sets the persistent cache archive file systems store their index of the entries in.
+     * <p>
+     * The option is read from the options of the zip, jar, tar, gzip and bzip2
+     * file systems. Once the index of an archive is stored, opening the same
+     * version of the archive again reads the index instead of the archive.
+     * Checkpoint indexes of compressed files are stored as well.
+     *
+     * @param opts The FileSystemOptions.
+     * @param cache The cache or null to index archives every time they are opened.
+     * @since 2.1
+     */
+    public void setArchiveIndexCache(final FileSystemOptions opts, final ArchiveIndexCache cache)
+    {
+        setParam(opts, ARCHIVE_INDEX_CACHE, cache);
+    }
+
+    /**
+     * @see #setArchiveIndexCache
+     * @param opts The FileSystemOptions.
+     * @return The cache or null if none is configured.
+     * @since 2.1
+     */
+    public ArchiveIndexCache getArchiveIndexCache(final FileSystemOptions opts)
+    {
+        return (ArchiveIndexCache) getParam(opts, ARCHIVE_INDEX_CACHE);
+    }
+
     /**
      * Dummy class that implements FileSystem.
      */
@@ -27,6 +27,7 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSelector;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.provider.FileReplicator;
+import org.apache.commons.vfs2.provider.ReleasableFileReplicator;
 import org.apache.commons.vfs2.provider.VfsComponent;
 import org.apache.commons.vfs2.provider.VfsComponentContext;
 
@@ -35,7 +36,7 @@ import org.apache.commons.vfs2.provider.VfsComponentContext;
  * the replication as a privileged action.
  */
 public class PrivilegedFileReplicator
-    implements FileReplicator, VfsComponent
+    implements ReleasableFileReplicator, VfsComponent
 {
     private final FileReplicator replicator;
     private final VfsComponent replicatorComponent;
@@ -122,6 +123,11 @@ public class PrivilegedFileReplicator
     public File replicateFile(final FileObject srcFile, final FileSelector selector)
         throws FileSystemException
     {
+        if (System.getSecurityManager() == null)
+        {
+            // nothing to elevate
+            return replicator.replicateFile(srcFile, selector);
+        }
         try
         {
             final ReplicateAction action = new ReplicateAction(srcFile, selector);
@@ -133,6 +139,28 @@ public class PrivilegedFileReplicator
         }
     }
 
+    /**
+     * Gives back a replica to the wrapped replicator, if it takes replicas back.
+     * @param file The replica.
+     * @since 2.1
+     */
+    @Override
+    public void releaseFile(final File file)
+    {
+        if (replicator instanceof ReleasableFileReplicator)
+        {
+            AccessController.doPrivileged(new PrivilegedAction<Object>()
+            {
+                @Override
+                public Object run()
+                {
+                    ((ReleasableFileReplicator) replicator).releaseFile(file);
+                    return null;
+                }
+            });
+        }
+    }
+
     /**
      * An action that initialises the wrapped replicator.
      */
@@ -342,7 +342,7 @@ public abstract class AbstractFileObject<AFS extends AbstractFileSystem> impleme
             {
                 if (srcFile.getType().hasContent())
                 {
-                    FileUtil.copyContent(srcFile, destFile);
+                    copyContent(srcFile, destFile);
                 }
                 else if (srcFile.getType().hasChildren())
                 {
@@ -356,6 +356,35 @@ public abstract class AbstractFileObject<AFS extends AbstractFileSystem> impleme
         }
     }
 
+    /**
+     * Copies the content of a file, the source or the destination file may transfer it in a way of its own.
+     */
+    private static void copyContent(final FileObject srcFile, final FileObject destFile) throws IOException
+    {
+        final AbstractFileObject<?> src = FileObjectUtils.getAbstractFileObject(srcFile);
+        final AbstractFileObject<?> dest = FileObjectUtils.getAbstractFileObject(destFile);
+        try
+        {
+            if (src != null && src.doCopyContentTo(destFile))
+            {
+                return;
+            }
+            if (dest != null && dest.doCopyContentFrom(srcFile))
+            {
+                return;
+            }
+        }
+        catch (final IOException e)
+        {
+            throw e;
+        }
+        catch (final Exception e)
+        {
+            throw new FileSystemException(e);
+        }
+        FileUtil.copyContent(srcFile, destFile);
+    }
+
     /**
      * Creates this file, if it does not exist.
      * @throws FileSystemException if an error occurs.
@@ -610,6 +639,59 @@ public abstract class AbstractFileObject<AFS extends AbstractFileSystem> impleme
     {
     }
 
+    /**
+     * Copies the content of this file to another file, when {@link #copyFrom} copies
+     * this file.  Is only called if {@link #doGetType} returns {@link FileType#FILE}.
+     * <p/>
+     * This implementation returns false, the content is then copied from the input
+     * stream of this file to the output stream of the other file.  Providers which
+     * can transfer the content faster override this.
+     * @param destFile The file to copy the content to, which is not a folder.
+     * @return true if the content has been copied.
+     * @throws Exception if an error occurs.
+     * @since 2.1
+     */
+    protected boolean doCopyContentTo(final FileObject destFile) throws Exception
+    {
+        return false;
+    }
+
+    /**
+     * Copies the content of another file to this file, when {@link #copyFrom} copies
+     * a file which does not transfer the content itself.  Is only called if the other
+     * file is a file.
+     * <p/>
+     * This implementation returns false, the content is then copied from the input
+     * stream of the other file to the output stream of this file.  Providers which
+     * can transfer the content faster override this.
+     * @param srcFile The file to copy the content from.
+     * @return true if the content has been copied.
+     * @throws Exception if an error occurs.
+     * @since 2.1
+     */
+    protected boolean doCopyContentFrom(final FileObject srcFile) throws Exception
+    {
+        return false;
+    }
+
+    /**
+     * Creates an upload which writes segments of another file to this file at the same
+     * time, for {@link SegmentedUpload#copy}.
+     * <p/>
+     * This implementation returns null, the content is then copied through streams.
+     * @param srcFile The file to copy, which supports random access reads.
+     * @param threads The number of segments which are written at the same time.
+     * @param segmentSize The size of a segment.
+     * @return The upload, or null if the provider does not upload in segments.
+     * @throws Exception if an error occurs.
+     * @since 2.1
+     */
+    protected SegmentedUpload doCreateSegmentedUpload(final FileObject srcFile, final int threads,
+                                                      final long segmentSize) throws Exception
+    {
+        return null;
+    }
+
     /**
      * Create a FileContent implementation.
      * @return The FileContent.
@@ -467,6 +467,36 @@ public abstract class AbstractFileSystem
         return 0;
     }
 
+    /**
+     * Gives back a replica created by {@link #replicateFile} which is no longer used, so its
+     * temporary files can be deleted before the file system manager is closed. Local files
+     * replicated by the local file system are left alone.
+     *
+     * @param file The replica.
+     * @since 2.1
+     */
+    protected void releaseReplica(final File file)
+    {
+        if (file == null || getContext() == null)
+        {
+            return;
+        }
+        final FileReplicator replicator;
+        try
+        {
+            replicator = getContext().getReplicator();
+        }
+        catch (final FileSystemException e)
+        {
+            // no replicator, nothing to release
+            return;
+        }
+        if (replicator instanceof ReleasableFileReplicator)
+        {
+            ((ReleasableFileReplicator) replicator).releaseFile(file);
+        }
+    }
+
     /**
      * Creates a temporary local copy of a file and its descendants.
      */
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.cache.BlockCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Read-only random access content which reads whole blocks through a shared
+ * {@link BlockCache} and only falls back to the wrapped content on a miss.
+ *
+ * @since 2.1
+ */
+public class BlockCachingRandomAccessContent extends AbstractRandomAccessStreamContent
+{
+    private final RandomAccessContent content;
+    private final BlockCache cache;
+    private final String uri;
+    private final String version;
+    private final long length;
+
+    private final byte[] block;
+    private long blockIndex = -1;
+    private int blockLength;
+
+    private long filePointer;
+    private final DataInputStream dis;
+
+    /**
+     * Creates the content.
+     *
+     * @param content The content to read blocks from on a cache miss.
+     * @param cache The cache to read through.
+     * @param uri The URI identifying the file in the cache.
+     * @param version The version of the file, blocks of other versions are not used.
+     * @throws IOException if the length of the content cannot be determined.
+     */
+    public BlockCachingRandomAccessContent(final RandomAccessContent content, final BlockCache cache,
+                                           final String uri, final String version) throws IOException
+    {
+        super(RandomAccessMode.READ);
+        this.content = content;
+        this.cache = cache;
+        this.uri = uri;
+        this.version = version;
+        this.length = content.length();
+        this.block = new byte[cache.getBlockSize()];
+        this.dis = new DataInputStream(new BlockInputStream());
+    }
+
+    /**
+     * Wraps the content of a file with a block caching content if a
+     * {@link BlockCache} is configured for its file system and the content is
+     * opened read-only.
+     *
+     * @param file The file the content belongs to.
+     * @param content The content created by the provider.
+     * @param mode The access mode.
+     * @return The content to hand out.
+     * @throws IOException if the content cannot be wrapped.
+     */
+    public static RandomAccessContent decorate(final FileObject file, final RandomAccessContent content,
+                                               final RandomAccessMode mode) throws IOException
+    {
+        return decorate(file, content, mode, null);
+    }
+
+    /**
+     * Wraps the content of a file with a block caching content if a
+     * {@link BlockCache} is configured for its file system and the content is
+     * opened read-only.
+     * <p>
+     * The cached blocks belong to the modification time, the size and the entity
+     * tag of the file. A file without a modification time and an entity tag is not
+     * cached, its size alone does not tell a rewritten file apart.
+     *
+     * @param file The file the content belongs to.
+     * @param content The content created by the provider.
+     * @param mode The access mode.
+     * @param entityTag The entity tag of the file, null if the provider has none.
+     * @return The content to hand out.
+     * @throws IOException if the content cannot be wrapped.
+     */
+    public static RandomAccessContent decorate(final FileObject file, final RandomAccessContent content,
+                                               final RandomAccessMode mode, final String entityTag)
+        throws IOException
+    {
+        final BlockCache cache = DefaultFileSystemConfigBuilder.getInstance()
+            .getRandomAccessBlockCache(file.getFileSystem().getFileSystemOptions());
+        if (cache == null || mode.requestWrite())
+        {
+            return content;
+        }
+
+        final StringBuilder version = new StringBuilder();
+        version.append(content.length());
+        try
+        {
+            version.append('/').append(file.getContent().getLastModifiedTime());
+        }
+        catch (final FileSystemException e)
+        {
+            if (entityTag == null)
+            {
+                // no validator, a cached block could belong to an older content of the same size
+                return content;
+            }
+        }
+        if (entityTag != null)
+        {
+            version.append('/').append(entityTag);
+        }
+        return new BlockCachingRandomAccessContent(content, cache, file.getName().getURI(), version.toString());
+    }
+
+    @Override
+    public long getFilePointer() throws IOException
+    {
+        return filePointer;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException
+    {
+        if (pos < 0)
+        {
+            throw new FileSystemException("vfs.provider/random-access-invalid-position.error",
+                    Long.valueOf(pos));
+        }
+        filePointer = pos;
+    }
+
+    @Override
+    public long length() throws IOException
+    {
+        return length;
+    }
+
+    @Override
+    protected DataInputStream getDataInputStream() throws IOException
+    {
+        return dis;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        content.close();
+    }
+
+    /**
+     * Makes the block containing the file pointer the current block.
+     * @return false if the file pointer is at or beyond the end of the file.
+     */
+    private boolean loadBlock() throws IOException
+    {
+        if (filePointer >= length)
+        {
+            return false;
+        }
+
+        final int blockSize = block.length;
+        final long index = filePointer / blockSize;
+        if (index == blockIndex)
+        {
+            return true;
+        }
+
+        int read = cache.get(uri, version, index, block);
+        if (read < 0)
+        {
+            final long start = index * blockSize;
+            read = (int) Math.min(blockSize, length - start);
+            content.seek(start);
+            content.readFully(block, 0, read);
+            cache.put(uri, version, index, block, read);
+        }
+        blockIndex = index;
+        blockLength = read;
+        return true;
+    }
+
+    /**
+     * Reads from the current block, loading blocks as the file pointer moves.
+     */
+    private final class BlockInputStream extends InputStream
+    {
+        @Override
+        public int read() throws IOException
+        {
+            if (!loadBlock())
+            {
+                return -1;
+            }
+            final int offset = (int) (filePointer - blockIndex * block.length);
+            filePointer++;
+            return block[offset] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!loadBlock())
+            {
+                return -1;
+            }
+            final int offset = (int) (filePointer - blockIndex * block.length);
+            final int count = Math.min(len, blockLength - offset);
+            System.arraycopy(block, offset, b, off, count);
+            filePointer += count;
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = Math.max(0, Math.min(n, length - filePointer));
+            filePointer += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - filePointer));
+        }
+    }
+}
@@ -29,11 +29,14 @@ import org.apache.commons.vfs2.FileContentInfo;
 import org.apache.commons.vfs2.FileContentInfoFactory;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
 import org.apache.commons.vfs2.util.MonitorInputStream;
 import org.apache.commons.vfs2.util.MonitorOutputStream;
 import org.apache.commons.vfs2.util.MonitorRandomAccessContent;
 import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.apache.commons.vfs2.util.ReadAheadInputStream;
 
 /**
  * The content of a file.
@@ -408,7 +411,17 @@ public final class DefaultFileContent implements FileContent
         */
 
         // Get the raw input stream
-        final InputStream instr = fileObject.getInputStream();
+        InputStream instr = fileObject.getInputStream();
+
+        // Read ahead on a background thread if configured for this file system
+        final FileSystemOptions opts = fileObject.getFileSystem().getFileSystemOptions();
+        final DefaultFileSystemConfigBuilder builder = DefaultFileSystemConfigBuilder.getInstance();
+        final int readAheadBlocks = builder.getReadAheadBlockCount(opts);
+        if (readAheadBlocks > 0)
+        {
+            instr = new ReadAheadInputStream(instr, builder.getReadAheadBlockSize(opts), readAheadBlocks,
+                "vfs-read-ahead " + fileObject.getName().getFriendlyURI());
+        }
 
         final InputStream wrappedInstr = new FileContentInputStream(fileObject, instr);
 
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider;
+
+import java.io.File;
+
+/**
+ * A file replicator whose replicas can be given back before it is closed.
+ *
+ * @since 2.1
+ */
+public interface ReleasableFileReplicator extends FileReplicator
+{
+    /**
+     * Gives back a replica which is no longer used, so its temporary files can be deleted.
+     * Files which have not been created by this replicator are left alone.
+     *
+     * @param file The replica returned by {@link #replicateFile}.
+     */
+    void releaseFile(File file);
+}
@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileUtil;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.FileObjectUtils;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Uploads a file in segments which are written at the same time.
+ * <p>
+ * The content of the source file is cut into segments of a fixed size. Each
+ * segment is read from the same offset of the source, which therefore needs
+ * random access reads, and written on a connection of its own to the same
+ * offset of the destination. How a segment is written is up to the provider of
+ * the destination. The size of the destination is checked when all segments
+ * have been written, the destination is only complete if the upload succeeds.
+ *
+ * @since 2.1
+ */
+public abstract class SegmentedUpload
+{
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final FileObject srcFile;
+    private final FileObject destFile;
+    private final int threads;
+    private final long segmentSize;
+
+    private RandomAccessContent content;
+    private long size;
+
+    /** Set when a segment failed or the upload ended, running segments stop then. */
+    private volatile boolean stopped;
+
+    /** The failure of the segment which failed first. */
+    private volatile Exception failure;
+
+    /**
+     * Creates the upload.
+     *
+     * @param srcFile The file to read, which supports random access reads.
+     * @param destFile The file to write.
+     * @param threads The number of segments which are written at the same time.
+     * @param segmentSize The size of a segment.
+     */
+    protected SegmentedUpload(final FileObject srcFile, final FileObject destFile, final int threads,
+                              final long segmentSize)
+    {
+        this.srcFile = srcFile;
+        this.destFile = destFile;
+        this.threads = Math.max(1, threads);
+        this.segmentSize = Math.max(1, segmentSize);
+    }
+
+    /**
+     * Copies the content of a file in segments, if the provider of the destination supports it.
+     * <p>
+     * Files which are not larger than a segment, sources without random access reads
+     * and destinations whose provider does not upload in segments are copied through
+     * streams instead.
+     *
+     * @param srcFile The file to copy.
+     * @param destFile The file to write.
+     * @param threads The number of segments which are written at the same time.
+     * @param segmentSize The size of a segment.
+     * @return true if the content has been uploaded in segments.
+     * @throws FileSystemException if the content cannot be copied.
+     */
+    public static boolean copy(final FileObject srcFile, final FileObject destFile, final int threads,
+                               final long segmentSize) throws FileSystemException
+    {
+        final AbstractFileObject<?> dest = FileObjectUtils.getAbstractFileObject(destFile);
+        try
+        {
+            if (threads > 1 && dest != null
+                && srcFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)
+                && srcFile.getContent().getSize() > segmentSize)
+            {
+                final SegmentedUpload upload = dest.doCreateSegmentedUpload(srcFile, threads, segmentSize);
+                if (upload != null)
+                {
+                    upload.upload();
+                    return true;
+                }
+            }
+            FileUtil.copyContent(srcFile, destFile);
+            return false;
+        }
+        catch (final FileSystemException e)
+        {
+            throw e;
+        }
+        catch (final Exception e)
+        {
+            throw new FileSystemException("vfs.provider/copy-file.error", e, srcFile, destFile);
+        }
+    }
+
+    /**
+     * Uploads the file, creating the folder of the destination if it does not exist.
+     *
+     * @throws IOException if a segment cannot be read or written, or the destination has the wrong size.
+     */
+    public final void upload() throws IOException
+    {
+        final FileObject parent = destFile.getParent();
+        if (parent != null)
+        {
+            parent.createFolder();
+        }
+        size = srcFile.getContent().getSize();
+        content = srcFile.getContent().getRandomAccessContent(RandomAccessMode.READ);
+        final long segments = (size + segmentSize - 1) / segmentSize;
+        final ExecutorService executor = Executors.newFixedThreadPool((int) Math.max(1, Math.min(threads, segments)),
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "segment upload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            prepare();
+            final List<Future<Void>> pending = new ArrayList<Future<Void>>();
+            int index = 0;
+            for (long offset = 0; offset < size; offset += segmentSize)
+            {
+                final int segment = index++;
+                final long start = offset;
+                final long end = Math.min(size, offset + segmentSize);
+                pending.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        try
+                        {
+                            uploadSegment(segment, start, end);
+                            return null;
+                        }
+                        catch (final IOException e)
+                        {
+                            fail(e);
+                            throw e;
+                        }
+                        catch (final RuntimeException e)
+                        {
+                            fail(e);
+                            throw e;
+                        }
+                    }
+                }));
+            }
+            for (final Future<Void> segment : pending)
+            {
+                try
+                {
+                    get(segment);
+                }
+                catch (final IOException e)
+                {
+                    // report the segment which failed first, not the ones it stopped
+                    if (failure instanceof IOException)
+                    {
+                        throw (IOException) failure;
+                    }
+                    throw e;
+                }
+            }
+        }
+        finally
+        {
+            stopped = true;
+            executor.shutdownNow();
+            awaitTermination(executor);
+            content.close();
+            destFile.refresh();
+        }
+        final long uploaded = getUploadedSize();
+        if (uploaded != size)
+        {
+            throw new FileSystemException("vfs.provider/segmented-upload-size.error", destFile,
+                Long.valueOf(uploaded), Long.valueOf(size));
+        }
+    }
+
+    /**
+     * Returns the file which is read.
+     *
+     * @return The source file.
+     */
+    protected FileObject getSrcFile()
+    {
+        return srcFile;
+    }
+
+    /**
+     * Returns the file which is written.
+     *
+     * @return The destination file.
+     */
+    protected FileObject getDestFile()
+    {
+        return destFile;
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return The number of bytes which are uploaded.
+     */
+    protected long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the size of a segment, only the last segment may be shorter.
+     *
+     * @return The size of a segment.
+     */
+    protected long getSegmentSize()
+    {
+        return segmentSize;
+    }
+
+    /**
+     * Determines if the upload stops, because a segment failed.  Segments which wait check this.
+     *
+     * @return true if the running segments should stop.
+     */
+    protected boolean isStopped()
+    {
+        return stopped;
+    }
+
+    /**
+     * Opens a stream which reads a range of the source file.  The stream fails once the
+     * upload stops.
+     *
+     * @param start The offset of the first byte to read.
+     * @param end The offset after the last byte to read.
+     * @return The stream, which needs not be closed.
+     */
+    protected InputStream openSegment(final long start, final long end)
+    {
+        return new SegmentInputStream(start, end);
+    }
+
+    /**
+     * Copies a range of the source file to a stream.
+     *
+     * @param start The offset of the first byte to copy.
+     * @param end The offset after the last byte to copy.
+     * @param out The stream to write the bytes to.
+     * @throws IOException if the bytes cannot be read or written, or the upload stops.
+     */
+    protected void copySegment(final long start, final long end, final OutputStream out) throws IOException
+    {
+        final InputStream in = openSegment(start, end);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) >= 0)
+        {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Prepares the destination before the segments are written.
+     * This implementation does nothing.
+     *
+     * @throws IOException if the destination cannot be prepared.
+     */
+    protected void prepare() throws IOException
+    {
+    }
+
+    /**
+     * Writes a segment to the same offset of the destination.  Called on a thread of its own.
+     *
+     * @param index The number of the segment, starting at 0.
+     * @param start The offset of the first byte of the segment.
+     * @param end The offset after the last byte of the segment.
+     * @throws IOException if the segment cannot be written.
+     */
+    protected abstract void uploadSegment(int index, long start, long end) throws IOException;
+
+    /**
+     * Returns the size of the destination once all segments have been written.
+     *
+     * @return The size of the destination.
+     * @throws IOException if the size cannot be determined.
+     */
+    protected abstract long getUploadedSize() throws IOException;
+
+    /**
+     * Stops the upload when a segment failed.
+     */
+    private synchronized void fail(final Exception e)
+    {
+        if (failure == null)
+        {
+            failure = e;
+        }
+        stopped = true;
+    }
+
+    /**
+     * Waits for a segment, stopping the upload when it failed.
+     */
+    private static void get(final Future<Void> segment) throws IOException
+    {
+        try
+        {
+            segment.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while uploading.");
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Waits for the running segments to stop, they must not read from the closed source.
+     */
+    private static void awaitTermination(final ExecutorService executor)
+    {
+        try
+        {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+            {
+                // segments stop after their current read
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads a range of the shared random access content of the source.
+     */
+    private final class SegmentInputStream extends InputStream
+    {
+        private final long end;
+        private long position;
+
+        SegmentInputStream(final long start, final long end)
+        {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (stopped)
+            {
+                throw new InterruptedIOException("The upload stopped.");
+            }
+            if (position >= end)
+            {
+                return -1;
+            }
+            final int n = (int) Math.min(len, end - position);
+            synchronized (content)
+            {
+                content.seek(position);
+                content.readFully(b, off, n);
+            }
+            position += n;
+            return n;
+        }
+    }
+}
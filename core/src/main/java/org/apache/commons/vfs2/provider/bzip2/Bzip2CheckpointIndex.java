@@ -0,0 +1,592 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.bzip2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.vfs2.provider.compressed.CheckpointIndex;
+
+/**
+ * A checkpoint index of a bzip2 file.
+ * <p>
+ * Every bzip2 block is compressed independently, so each block is a
+ * checkpoint. Blocks are found by their bit aligned magic numbers and
+ * decompressed by wrapping them into a single block bzip2 stream of their
+ * own, which is why the index can be built by decompressing the blocks in
+ * parallel.
+ *
+ * @since 2.1
+ */
+public class Bzip2CheckpointIndex extends CheckpointIndex
+{
+    /** Identifies a bzip2 index. */
+    private static final int TYPE = 0x627a;
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xFFFFFFFFFFFFL;
+    private static final int MAGIC_BITS = 48;
+    private static final int CRC_BITS = 32;
+
+    private final long[] blockEnds;
+    private final byte[] levels;
+
+    private Bzip2CheckpointIndex(final long compressedLength, final long uncompressedLength,
+                                 final long[] uncompressedOffsets, final long[] bitOffsets,
+                                 final long[] blockEnds, final byte[] levels)
+    {
+        super(compressedLength, uncompressedLength, uncompressedOffsets, bitOffsets);
+        this.blockEnds = blockEnds;
+        this.levels = levels;
+    }
+
+    private Bzip2CheckpointIndex(final DataInputStream in) throws IOException
+    {
+        super(in);
+        if (in.readInt() != TYPE)
+        {
+            throw new IOException("Not a bzip2 checkpoint index.");
+        }
+        final int count = getCheckpointCount();
+        blockEnds = new long[count];
+        levels = new byte[count];
+        for (int i = 0; i < count; i++)
+        {
+            blockEnds[i] = in.readLong();
+            levels[i] = in.readByte();
+        }
+    }
+
+    /**
+     * Builds the index of a bzip2 file, decompressing its blocks on as many threads as there are processors.
+     *
+     * @param file The bzip2 file.
+     * @return The index.
+     * @throws IOException if the file cannot be read or is not a bzip2 file.
+     */
+    public static Bzip2CheckpointIndex build(final File file) throws IOException
+    {
+        return build(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds the index of a bzip2 file.
+     *
+     * @param file The bzip2 file.
+     * @param threads The number of threads to decompress the blocks with.
+     * @return The index.
+     * @throws IOException if the file cannot be read or is not a bzip2 file.
+     */
+    public static Bzip2CheckpointIndex build(final File file, final int threads) throws IOException
+    {
+        final List<Marker> markers = findMarkers(file);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                final Thread thread = new Thread(r, "bzip2 index builder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try
+        {
+            // decompress every candidate block up to the next marker in parallel
+            final List<Future<Long>> sizes = new ArrayList<Future<Long>>(markers.size());
+            for (int i = 0; i < markers.size(); i++)
+            {
+                final Marker marker = markers.get(i);
+                if (marker.end || i + 1 == markers.size())
+                {
+                    sizes.add(null);
+                    continue;
+                }
+                final long end = markers.get(i + 1).bitOffset;
+                sizes.add(executor.submit(new Callable<Long>()
+                {
+                    @Override
+                    public Long call()
+                    {
+                        return Long.valueOf(decompressedSize(file, marker.level, marker.bitOffset, end));
+                    }
+                }));
+            }
+            return link(file, markers, sizes);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Chains the decompressed candidate blocks to the blocks of the file.
+     * A candidate which cannot be decompressed up to the next marker was either
+     * cut short by a magic number which happens to occur inside a block, then
+     * it is extended to the following marker, or is no block at all.
+     */
+    private static Bzip2CheckpointIndex link(final File file, final List<Marker> markers,
+                                             final List<Future<Long>> sizes) throws IOException
+    {
+        final List<long[]> blocks = new ArrayList<long[]>();
+        final List<Byte> blockLevels = new ArrayList<Byte>();
+        long uncompressed = 0;
+        // the first block follows the stream header
+        long expectedStart = 32;
+        int i = 0;
+        while (i < markers.size())
+        {
+            final Marker marker = markers.get(i);
+            if (marker.end)
+            {
+                if (expectedStart != marker.bitOffset)
+                {
+                    throw new IOException("Corrupt bzip2 block in " + file);
+                }
+                expectedStart = marker.getNextStreamStart();
+                i++;
+                continue;
+            }
+
+            long size = -1;
+            int next = i + 1;
+            while (next < markers.size())
+            {
+                size = next == i + 1 ? get(sizes.get(i))
+                    : decompressedSize(file, marker.level, marker.bitOffset, markers.get(next).bitOffset);
+                if (size >= 0 || markers.get(next).end)
+                {
+                    break;
+                }
+                next++;
+            }
+            if (size < 0)
+            {
+                // a magic number in the middle of a block
+                i++;
+                continue;
+            }
+            if (expectedStart != marker.bitOffset)
+            {
+                throw new IOException("Corrupt bzip2 block in " + file);
+            }
+            final long end = markers.get(next).bitOffset;
+            blocks.add(new long[] {uncompressed, marker.bitOffset, end});
+            blockLevels.add(Byte.valueOf(marker.level));
+            uncompressed += size;
+            expectedStart = end;
+            i = next;
+        }
+
+        final int count = blocks.size();
+        final long[] uncompressedOffsets = new long[count];
+        final long[] bitOffsets = new long[count];
+        final long[] blockEnds = new long[count];
+        final byte[] levels = new byte[count];
+        for (int j = 0; j < count; j++)
+        {
+            uncompressedOffsets[j] = blocks.get(j)[0];
+            bitOffsets[j] = blocks.get(j)[1];
+            blockEnds[j] = blocks.get(j)[2];
+            levels[j] = blockLevels.get(j).byteValue();
+        }
+        return new Bzip2CheckpointIndex(file.length(), uncompressed, uncompressedOffsets, bitOffsets,
+            blockEnds, levels);
+    }
+
+    private static long get(final Future<Long> size) throws IOException
+    {
+        try
+        {
+            return size.get().longValue();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building the bzip2 index.");
+        }
+        catch (final ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Finds the bit offsets of all block and end of stream magic numbers.
+     */
+    private static List<Marker> findMarkers(final File file) throws IOException
+    {
+        final List<Marker> markers = new ArrayList<Marker>();
+        final MarkerScanner scanner = new MarkerScanner(file);
+        try
+        {
+            Marker marker;
+            while ((marker = scanner.next()) != null)
+            {
+                markers.add(marker);
+            }
+        }
+        finally
+        {
+            scanner.close();
+        }
+        return markers;
+    }
+
+    /**
+     * Reads the block size of the stream starting at the given offset.
+     * @return The block size in units of 100 KB, 0 if no stream starts at the offset.
+     */
+    private static byte readLevel(final RandomAccessFile file, final long offset) throws IOException
+    {
+        if (offset + 4 > file.length())
+        {
+            return 0;
+        }
+        file.seek(offset);
+        final byte[] header = new byte[4];
+        file.readFully(header);
+        if (header[0] != 'B' || header[1] != 'Z' || header[2] != 'h' || header[3] < '1' || header[3] > '9')
+        {
+            return 0;
+        }
+        return (byte) (header[3] - '0');
+    }
+
+    /**
+     * Decompresses a candidate block.
+     * @return The size of the decompressed block or -1 if the bits are no valid block.
+     */
+    private static long decompressedSize(final File file, final int level, final long start, final long end)
+    {
+        try
+        {
+            final InputStream in = openBlock(file, level, start, end);
+            try
+            {
+                final byte[] buffer = new byte[65536];
+                long size = 0;
+                int n;
+                while ((n = in.read(buffer)) >= 0)
+                {
+                    size += n;
+                }
+                return size;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (final IOException e)
+        {
+            return -1;
+        }
+        catch (final RuntimeException e)
+        {
+            // invalid data may throw index out of bounds exceptions
+            return -1;
+        }
+    }
+
+    /**
+     * Wraps the bits of a block into a bzip2 stream of its own.
+     */
+    static InputStream openBlock(final File file, final int level, final long start, final long end)
+        throws IOException
+    {
+        final long bits = end - start;
+        if (bits < MAGIC_BITS + CRC_BITS || bits > Integer.MAX_VALUE)
+        {
+            throw new IOException("Invalid bzip2 block in " + file);
+        }
+        final byte[] block = new byte[(int) ((bits + 7) >>> 3)];
+        final DataInputStream in = new DataInputStream(openBits(file, start, true));
+        try
+        {
+            in.readFully(block);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        final byte[] stream = new byte[4 + block.length + (MAGIC_BITS + CRC_BITS) / 8 + 1];
+        stream[0] = 'B';
+        stream[1] = 'Z';
+        stream[2] = 'h';
+        stream[3] = (byte) ('0' + level);
+        final int fullBytes = (int) (bits >>> 3);
+        System.arraycopy(block, 0, stream, 4, fullBytes);
+        long bitPos = (4L + fullBytes) * 8;
+        bitPos = writeBits(stream, bitPos, (block[block.length - 1] & 0xFF) >>> (8 - (int) (bits & 7)),
+            (int) (bits & 7));
+        // the combined CRC of a single block stream is the CRC of the block
+        final long crc = (block[6] & 0xFFL) << 24 | (block[7] & 0xFF) << 16 | (block[8] & 0xFF) << 8
+            | block[9] & 0xFF;
+        bitPos = writeBits(stream, bitPos, END_MAGIC, MAGIC_BITS);
+        writeBits(stream, bitPos, crc, CRC_BITS);
+        return new BZip2CompressorInputStream(new ByteArrayInputStream(stream));
+    }
+
+    /**
+     * Writes the lowest bits of a value most significant bit first.
+     * @return The bit position after the written bits.
+     */
+    private static long writeBits(final byte[] buffer, final long bitPos, final long value, final int count)
+    {
+        long pos = bitPos;
+        for (int i = count - 1; i >= 0; i--)
+        {
+            if ((value >>> i & 1) != 0)
+            {
+                buffer[(int) (pos >>> 3)] |= 0x80 >>> (pos & 7);
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    @Override
+    protected void writeCheckpoints(final DataOutputStream out) throws IOException
+    {
+        out.writeInt(TYPE);
+        for (int i = 0; i < blockEnds.length; i++)
+        {
+            out.writeLong(blockEnds[i]);
+            out.writeByte(levels[i]);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(java.io.OutputStream)}.
+     *
+     * @param in The stream to read from.
+     * @return The index.
+     * @throws IOException if the index cannot be read.
+     */
+    public static Bzip2CheckpointIndex read(final InputStream in) throws IOException
+    {
+        return new Bzip2CheckpointIndex(new DataInputStream(in));
+    }
+
+    @Override
+    protected InputStream openCheckpoint(final File file, final int checkpoint) throws IOException
+    {
+        return new BlockChainInputStream(file, checkpoint);
+    }
+
+    /**
+     * Decompresses the blocks from a checkpoint on, one after the other.
+     */
+    private final class BlockChainInputStream extends InputStream
+    {
+        private final File file;
+        private int block;
+        private InputStream current;
+
+        BlockChainInputStream(final File file, final int block) throws IOException
+        {
+            this.file = file;
+            this.block = block;
+            this.current = openBlock(file, levels[block], getBitOffset(block), blockEnds[block]);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            while (current != null)
+            {
+                final int n = current.read(b, off, len);
+                if (n > 0)
+                {
+                    return n;
+                }
+                if (n == 0)
+                {
+                    continue;
+                }
+                current.close();
+                current = null;
+                if (++block < blockEnds.length)
+                {
+                    current = openBlock(file, levels[block], getBitOffset(block), blockEnds[block]);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (current != null)
+            {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * The position of a magic number.
+     */
+    static final class Marker
+    {
+        private final long bitOffset;
+        private final byte level;
+        private final boolean end;
+
+        Marker(final long bitOffset, final byte level, final boolean end)
+        {
+            this.bitOffset = bitOffset;
+            this.level = level;
+            this.end = end;
+        }
+
+        long getBitOffset()
+        {
+            return bitOffset;
+        }
+
+        byte getLevel()
+        {
+            return level;
+        }
+
+        boolean isEnd()
+        {
+            return end;
+        }
+
+        /**
+         * The next stream starts after the combined CRC and padding.
+         * @return The bit offset of the first block of the stream following this end of stream marker.
+         */
+        long getNextStreamStart()
+        {
+            return ((bitOffset + MAGIC_BITS + CRC_BITS + 7) >>> 3) * 8 + 32;
+        }
+    }
+
+    /**
+     * Finds the block and end of stream magic numbers of a file one after the other.
+     */
+    static final class MarkerScanner
+    {
+        private final RandomAccessFile headers;
+        private final InputStream in;
+        private final LinkedList<Marker> found = new LinkedList<Marker>();
+        private byte level;
+        private long window;
+        private long bytes;
+
+        MarkerScanner(final File file) throws IOException
+        {
+            headers = new RandomAccessFile(file, "r");
+            try
+            {
+                level = readLevel(headers, 0);
+                if (level == 0)
+                {
+                    throw new IOException("File \"" + file + "\" is not bzip2 compressed.");
+                }
+                in = new BufferedInputStream(new FileInputStream(file), 65536);
+            }
+            catch (final IOException e)
+            {
+                headers.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return The next marker or null at the end of the file.
+         */
+        Marker next() throws IOException
+        {
+            int b;
+            while (found.isEmpty() && (b = in.read()) >= 0)
+            {
+                window = window << 8 | b;
+                bytes++;
+                for (int shift = 7; shift >= 0; shift--)
+                {
+                    if (bytes * 8 < MAGIC_BITS + shift)
+                    {
+                        continue;
+                    }
+                    final long value = window >>> shift & MAGIC_MASK;
+                    final long bitOffset = bytes * 8 - shift - MAGIC_BITS;
+                    if (value == BLOCK_MAGIC)
+                    {
+                        found.add(new Marker(bitOffset, level, false));
+                    }
+                    else if (value == END_MAGIC)
+                    {
+                        final Marker marker = new Marker(bitOffset, level, true);
+                        found.add(marker);
+                        // a concatenated stream may follow
+                        level = readLevel(headers, (bitOffset + MAGIC_BITS + CRC_BITS + 7) >>> 3);
+                    }
+                }
+            }
+            return found.poll();
+        }
+
+        void close() throws IOException
+        {
+            try
+            {
+                in.close();
+            }
+            finally
+            {
+                headers.close();
+            }
+        }
+    }
+}
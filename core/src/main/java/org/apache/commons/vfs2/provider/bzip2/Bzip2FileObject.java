@@ -16,6 +16,7 @@
  */
 package org.apache.commons.vfs2.provider.bzip2;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -23,8 +24,10 @@ import java.io.OutputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.compressed.CompressedFileFileObject;
+import org.apache.commons.vfs2.provider.local.LocalFileSystem;
 
 /**
  * the bzip2 file.
@@ -39,6 +42,14 @@ public class Bzip2FileObject extends CompressedFileFileObject<Bzip2FileSystem>
     @Override
     protected InputStream doGetInputStream() throws Exception
     {
+        final int threads = Bzip2FileSystemConfigBuilder.getInstance().getThreads(
+            getFileSystem().getFileSystemOptions());
+        if (threads > 1 && getContainer().getFileSystem() instanceof LocalFileSystem)
+        {
+            final File file = getContainer().getFileSystem().replicateFile(getContainer(), Selectors.SELECT_SELF);
+            return new ParallelBzip2InputStream(file, threads);
+        }
+
         // check file
         final InputStream is = getContainer().getContent().getInputStream();
         return wrapInputStream(getName().getURI(), is);
@@ -24,6 +24,7 @@ import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemConfigBuilder;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.compressed.CompressedFileFileProvider;
@@ -59,6 +60,17 @@ public class Bzip2FileProvider extends CompressedFileFileProvider
         return new Bzip2FileSystem(name, file, fileSystemOptions);
     }
 
+    /**
+     * Returns the configuration builder of the bzip2 file systems.
+     * @return The {@link Bzip2FileSystemConfigBuilder}.
+     * @since 2.1
+     */
+    @Override
+    public FileSystemConfigBuilder getConfigBuilder()
+    {
+        return Bzip2FileSystemConfigBuilder.getInstance();
+    }
+
     @Override
     public Collection<Capability> getCapabilities()
     {
@@ -16,6 +16,9 @@
  */
 package org.apache.commons.vfs2.provider.bzip2;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 
 import org.apache.commons.vfs2.Capability;
@@ -24,6 +27,7 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.AbstractFileName;
+import org.apache.commons.vfs2.provider.compressed.CheckpointIndex;
 import org.apache.commons.vfs2.provider.compressed.CompressedFileFileSystem;
 
 /**
@@ -46,5 +50,27 @@ public class Bzip2FileSystem extends CompressedFileFileSystem
     protected void addCapabilities(final Collection<Capability> caps)
     {
         caps.addAll(Bzip2FileProvider.capabilities);
+        if (getCheckpointInterval() > 0)
+        {
+            caps.add(Capability.RANDOM_ACCESS_READ);
+        }
+    }
+
+    /**
+     * Builds the checkpoint index of the bzip2 file.
+     */
+    @Override
+    protected CheckpointIndex createCheckpointIndex(final File file, final long interval) throws IOException
+    {
+        return Bzip2CheckpointIndex.build(file);
+    }
+
+    /**
+     * Reads a checkpoint index of a bzip2 file.
+     */
+    @Override
+    protected CheckpointIndex readCheckpointIndex(final InputStream in) throws IOException
+    {
+        return Bzip2CheckpointIndex.read(in);
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.bzip2;
+
+import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemConfigBuilder;
+import org.apache.commons.vfs2.FileSystemOptions;
+
+/**
+ * Config Builder for the bzip2 filesystem.
+ *
+ * @since 2.1
+ */
+public final class Bzip2FileSystemConfigBuilder extends FileSystemConfigBuilder
+{
+    /** threads key. */
+    private static final String THREADS_KEY = "threads";
+
+    /** config builder SINGLETON. */
+    private static final Bzip2FileSystemConfigBuilder SINGLETON = new Bzip2FileSystemConfigBuilder();
+
+    /**
+     * Constructor
+     */
+    private Bzip2FileSystemConfigBuilder()
+    {
+        super("bzip2.");
+    }
+
+    /**
+     * Gets the singleton builder.
+     *
+     * @return the singleton builder.
+     */
+    public static Bzip2FileSystemConfigBuilder getInstance()
+    {
+        return SINGLETON;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<? extends FileSystem> getConfigClass()
+    {
+        return Bzip2FileSystem.class;
+    }
+
+    /**
+     * Defaults to 1.
+     *
+     * @param opts The FileSystem options.
+     * @return The number of threads a bzip2 file is decompressed with.
+     * @see #setThreads(FileSystemOptions, int)
+     */
+    public int getThreads(final FileSystemOptions opts)
+    {
+        return getInteger(opts, THREADS_KEY, 1);
+    }
+
+    /**
+     * Sets the number of threads a bzip2 file is decompressed with.
+     * <p>
+     * With more than one thread, the blocks of a local bzip2 file are
+     * decompressed in parallel. This applies to the bzip2 provider and to
+     * compressed tar files of the tbz2 scheme. The default of 1 decompresses
+     * on the calling thread.
+     *
+     * @param opts The FileSystem options.
+     * @param threads The number of threads.
+     */
+    public void setThreads(final FileSystemOptions opts, final int threads)
+    {
+        setParam(opts, THREADS_KEY, Integer.valueOf(threads));
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.bzip2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.vfs2.provider.bzip2.Bzip2CheckpointIndex.Marker;
+import org.apache.commons.vfs2.provider.bzip2.Bzip2CheckpointIndex.MarkerScanner;
+
+/**
+ * Reads a bzip2 file whose blocks are decompressed in parallel.
+ * <p>
+ * Every bzip2 block is compressed independently and starts with a bit aligned
+ * magic number. The file is scanned for these magic numbers ahead of the reader
+ * and the bits between two of them are decompressed on a pool of threads as a
+ * block of its own. The blocks are returned in file order. A magic number which
+ * happens to occur inside a block cuts it short, the block then fails its CRC
+ * check and is decompressed again up to the following magic number. At most two
+ * blocks per thread are in flight at any time. Concatenated streams, as written
+ * by parallel bzip2 compressors, are read one after the other.
+ *
+ * @since 2.1
+ */
+public class ParallelBzip2InputStream extends InputStream
+{
+    /** The bit offset of the first block of a stream, after the "BZh" header and the block size. */
+    private static final long FIRST_BLOCK = 32;
+
+    private final File file;
+    private final ExecutorService executor;
+    private final MarkerScanner scanner;
+    private final int maxPending;
+
+    /** The markers found ahead of the reader, each block marker with its decompression up to the next marker. */
+    private final LinkedList<Candidate> candidates = new LinkedList<Candidate>();
+
+    private boolean scanned;
+    private long expectedStart = FIRST_BLOCK;
+    private boolean inStream = true;
+
+    private byte[] block = new byte[0];
+    private int pos;
+    private boolean eof;
+    private boolean closed;
+
+    /**
+     * Creates the stream.
+     *
+     * @param file The bzip2 file.
+     * @param threads The number of threads to decompress with.
+     * @throws IOException if the file cannot be read or is not a bzip2 file.
+     */
+    public ParallelBzip2InputStream(final File file, final int threads) throws IOException
+    {
+        this.file = file;
+        this.maxPending = Math.max(1, threads) * 2;
+        this.scanner = new MarkerScanner(file);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                final Thread thread = new Thread(r, "bzip2 decompressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    /**
+     * Reads up to the given number of bytes, only less at the end of the content.
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException
+    {
+        ensureOpen();
+        if (len == 0)
+        {
+            return 0;
+        }
+        int count = 0;
+        while (count < len)
+        {
+            if (pos == block.length)
+            {
+                if (eof || (block = nextBlock()) == null)
+                {
+                    eof = true;
+                    block = new byte[0];
+                    pos = 0;
+                    break;
+                }
+                pos = 0;
+                continue;
+            }
+            final int n = Math.min(len - count, block.length - pos);
+            System.arraycopy(block, pos, b, off + count, n);
+            pos += n;
+            count += n;
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        ensureOpen();
+        return block.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        for (final Candidate candidate : candidates)
+        {
+            if (candidate.block != null)
+            {
+                candidate.block.cancel(false);
+            }
+        }
+        candidates.clear();
+        executor.shutdownNow();
+        scanner.close();
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed.");
+        }
+    }
+
+    /**
+     * Returns the content of the next block in the file.
+     * @return The decompressed block, null at the end of the content.
+     */
+    private byte[] nextBlock() throws IOException
+    {
+        while (true)
+        {
+            fill();
+            if (candidates.isEmpty())
+            {
+                if (inStream)
+                {
+                    throw new IOException("Unexpected end of bzip2 file " + file);
+                }
+                return null;
+            }
+
+            final Candidate head = candidates.getFirst();
+            if (head.marker.getBitOffset() != expectedStart || head.marker.getLevel() == 0)
+            {
+                if (inStream)
+                {
+                    throw new IOException("Corrupt bzip2 block in " + file);
+                }
+                // trailing data after the last stream
+                return null;
+            }
+            if (head.marker.isEnd())
+            {
+                candidates.removeFirst();
+                expectedStart = head.marker.getNextStreamStart();
+                inStream = false;
+                continue;
+            }
+            inStream = true;
+
+            if (head.block == null)
+            {
+                throw new IOException("Unexpected end of bzip2 file " + file);
+            }
+            byte[] data = get(head.block);
+            int next = 1;
+            while (data == null)
+            {
+                // cut short by a magic number inside the block, extend it to the next marker
+                if (candidates.get(next).marker.isEnd() || !ensureScanned(next + 1))
+                {
+                    throw new IOException("Corrupt bzip2 block in " + file);
+                }
+                next++;
+                data = decompress(file, head.marker, candidates.get(next).marker.getBitOffset());
+            }
+            expectedStart = candidates.get(next).marker.getBitOffset();
+            for (int i = 0; i < next; i++)
+            {
+                final Candidate skipped = candidates.removeFirst();
+                if (skipped.block != null)
+                {
+                    skipped.block.cancel(false);
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Scans ahead until enough blocks are in flight.
+     */
+    private void fill() throws IOException
+    {
+        while (!scanned && candidates.size() <= maxPending)
+        {
+            scanNext();
+        }
+    }
+
+    /**
+     * Scans ahead until the marker at the given position is known.
+     * @return true if there is such a marker.
+     */
+    private boolean ensureScanned(final int index) throws IOException
+    {
+        while (!scanned && candidates.size() <= index)
+        {
+            scanNext();
+        }
+        return candidates.size() > index;
+    }
+
+    /**
+     * Finds the next marker and starts to decompress the block which ends there.
+     */
+    private void scanNext() throws IOException
+    {
+        final Marker marker = scanner.next();
+        if (marker == null)
+        {
+            scanned = true;
+            return;
+        }
+        final Candidate last = candidates.peekLast();
+        if (last != null && !last.marker.isEnd() && last.marker.getLevel() != 0)
+        {
+            final Marker start = last.marker;
+            final long end = marker.getBitOffset();
+            last.block = executor.submit(new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call()
+                {
+                    return decompress(file, start, end);
+                }
+            });
+        }
+        candidates.add(new Candidate(marker));
+    }
+
+    private static byte[] get(final Future<byte[]> block) throws IOException
+    {
+        try
+        {
+            return block.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing.");
+        }
+        catch (final ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Decompresses a candidate block.
+     * @return The content of the block or null if the bits are no valid block.
+     */
+    private static byte[] decompress(final File file, final Marker start, final long end)
+    {
+        try
+        {
+            final InputStream in = Bzip2CheckpointIndex.openBlock(file, start.getLevel(), start.getBitOffset(), end);
+            try
+            {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream(start.getLevel() * 100000);
+                final byte[] buffer = new byte[65536];
+                int n;
+                while ((n = in.read(buffer)) >= 0)
+                {
+                    content.write(buffer, 0, n);
+                }
+                return content.toByteArray();
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (final IOException e)
+        {
+            return null;
+        }
+        catch (final RuntimeException e)
+        {
+            // invalid data may throw index out of bounds exceptions
+            return null;
+        }
+    }
+
+    /**
+     * A marker found ahead of the reader.
+     */
+    private static final class Candidate
+    {
+        private final Marker marker;
+
+        /** The decompressed bits up to the next marker, null for end of stream markers. */
+        private Future<byte[]> block;
+
+        Candidate(final Marker marker)
+        {
+            this.marker = marker;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.compressed;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An index of checkpoints into a compressed file, from which its content can be
+ * decompressed without decompressing everything before.
+ * <p>
+ * A checkpoint maps an offset into the uncompressed content to the bit offset
+ * of the compressed data it starts at. An index is immutable once it is built,
+ * so it can be shared by any number of threads, each of which reads the
+ * compressed file through streams of its own.
+ *
+ * @since 2.1
+ */
+public abstract class CheckpointIndex
+{
+    /** Identifies a serialized index. */
+    private static final int MAGIC = 0x56465349;
+
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final long compressedLength;
+    private final long uncompressedLength;
+    private final long[] uncompressedOffsets;
+    private final long[] bitOffsets;
+
+    /**
+     * Creates an index.
+     *
+     * @param compressedLength The length of the compressed file.
+     * @param uncompressedLength The length of the uncompressed content.
+     * @param uncompressedOffsets The offsets of the checkpoints into the uncompressed content, ascending.
+     * @param bitOffsets The bit offsets of the checkpoints into the compressed file.
+     */
+    protected CheckpointIndex(final long compressedLength, final long uncompressedLength,
+                              final long[] uncompressedOffsets, final long[] bitOffsets)
+    {
+        this.compressedLength = compressedLength;
+        this.uncompressedLength = uncompressedLength;
+        this.uncompressedOffsets = uncompressedOffsets;
+        this.bitOffsets = bitOffsets;
+    }
+
+    /**
+     * Reads the checkpoints of an index written by {@link #write(OutputStream)}.
+     *
+     * @param in The stream to read from.
+     * @throws IOException if the index cannot be read.
+     */
+    protected CheckpointIndex(final DataInputStream in) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        {
+            throw new IOException("Not a checkpoint index.");
+        }
+        compressedLength = in.readLong();
+        uncompressedLength = in.readLong();
+        final int count = in.readInt();
+        uncompressedOffsets = new long[count];
+        bitOffsets = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            uncompressedOffsets[i] = in.readLong();
+            bitOffsets[i] = in.readLong();
+        }
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param out The stream to write to, it is not closed.
+     * @throws IOException if the index cannot be written.
+     */
+    public void write(final OutputStream out) throws IOException
+    {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(compressedLength);
+        data.writeLong(uncompressedLength);
+        data.writeInt(uncompressedOffsets.length);
+        for (int i = 0; i < uncompressedOffsets.length; i++)
+        {
+            data.writeLong(uncompressedOffsets[i]);
+            data.writeLong(bitOffsets[i]);
+        }
+        writeCheckpoints(data);
+        data.flush();
+    }
+
+    /**
+     * Writes the format specific data of the checkpoints.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if the data cannot be written.
+     */
+    protected abstract void writeCheckpoints(DataOutputStream out) throws IOException;
+
+    /**
+     * Opens a stream of the uncompressed content starting at a checkpoint.
+     *
+     * @param file The compressed file.
+     * @param checkpoint The number of the checkpoint.
+     * @return The uncompressed content from the offset of the checkpoint on.
+     * @throws IOException if the file cannot be read.
+     */
+    protected abstract InputStream openCheckpoint(File file, int checkpoint) throws IOException;
+
+    /**
+     * Opens a stream of the uncompressed content starting at an arbitrary position.
+     * Only the content between the closest checkpoint and the position is decompressed
+     * and skipped.
+     *
+     * @param file The compressed file the index was built from.
+     * @param position The offset into the uncompressed content.
+     * @return The uncompressed content from the position on.
+     * @throws IOException if the file cannot be read.
+     */
+    public InputStream getInputStream(final File file, final long position) throws IOException
+    {
+        if (file.length() != compressedLength)
+        {
+            throw new IOException("The checkpoint index does not match " + file);
+        }
+        if (uncompressedOffsets.length == 0)
+        {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        int checkpoint = Arrays.binarySearch(uncompressedOffsets, position);
+        if (checkpoint < 0)
+        {
+            checkpoint = Math.max(0, -checkpoint - 2);
+        }
+        final InputStream in = openCheckpoint(file, checkpoint);
+        try
+        {
+            skipFully(in, position - uncompressedOffsets[checkpoint]);
+        }
+        catch (final IOException e)
+        {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    /**
+     * @return The length of the compressed file the index was built from.
+     */
+    public long getCompressedLength()
+    {
+        return compressedLength;
+    }
+
+    /**
+     * @return The length of the uncompressed content.
+     */
+    public long getUncompressedLength()
+    {
+        return uncompressedLength;
+    }
+
+    /**
+     * @return The number of checkpoints.
+     */
+    public int getCheckpointCount()
+    {
+        return uncompressedOffsets.length;
+    }
+
+    /**
+     * @param checkpoint The number of the checkpoint.
+     * @return The offset of the checkpoint into the uncompressed content.
+     */
+    protected long getUncompressedOffset(final int checkpoint)
+    {
+        return uncompressedOffsets[checkpoint];
+    }
+
+    /**
+     * @param checkpoint The number of the checkpoint.
+     * @return The bit offset of the checkpoint into the compressed file.
+     */
+    protected long getBitOffset(final int checkpoint)
+    {
+        return bitOffsets[checkpoint];
+    }
+
+    /**
+     * Opens a file at a bit offset. The stream returns the bits of the file
+     * from the offset on, shifted so they are aligned to bytes.
+     *
+     * @param file The file.
+     * @param bitOffset The offset of the first bit.
+     * @param msbFirst true if the bits of a byte are used starting at the most
+     * significant bit, as in bzip2, false if starting at the least significant bit, as in deflate.
+     * @return The stream.
+     * @throws IOException if the file cannot be opened.
+     */
+    protected static InputStream openBits(final File file, final long bitOffset, final boolean msbFirst)
+        throws IOException
+    {
+        final FileInputStream fis = new FileInputStream(file);
+        try
+        {
+            fis.getChannel().position(bitOffset >>> 3);
+        }
+        catch (final IOException e)
+        {
+            fis.close();
+            throw e;
+        }
+        final int shift = (int) (bitOffset & 7);
+        if (shift == 0)
+        {
+            return new BufferedInputStream(fis, BUFFER_SIZE);
+        }
+        return new BitShiftingInputStream(fis, shift, msbFirst);
+    }
+
+    /**
+     * Skips exactly the given number of bytes.
+     *
+     * @param in The stream.
+     * @param count The number of bytes to skip.
+     * @throws IOException if the stream ends before.
+     */
+    protected static void skipFully(final InputStream in, final long count) throws IOException
+    {
+        long remaining = count;
+        byte[] buffer = null;
+        while (remaining > 0)
+        {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0)
+            {
+                // decompressing streams may not skip, read instead
+                if (buffer == null)
+                {
+                    buffer = new byte[BUFFER_SIZE];
+                }
+                skipped = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (skipped < 0)
+                {
+                    throw new EOFException("Unexpected end of compressed data.");
+                }
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Realigns the bits of a stream to bytes.
+     */
+    private static final class BitShiftingInputStream extends FilterInputStream
+    {
+        private final int shift;
+        private final boolean msbFirst;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int pos;
+        private int limit;
+        private boolean eof;
+
+        BitShiftingInputStream(final InputStream in, final int shift, final boolean msbFirst)
+        {
+            super(in);
+            this.shift = shift;
+            this.msbFirst = msbFirst;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            // every byte needs the next one as well
+            if (limit - pos < 2 && !eof)
+            {
+                fill();
+            }
+            if (pos >= limit)
+            {
+                return -1;
+            }
+
+            int n = 0;
+            while (n < len && pos < limit)
+            {
+                final int current = buffer[pos] & 0xFF;
+                final int next;
+                if (pos + 1 < limit)
+                {
+                    next = buffer[pos + 1] & 0xFF;
+                }
+                else if (eof)
+                {
+                    next = 0;
+                }
+                else
+                {
+                    break;
+                }
+                if (msbFirst)
+                {
+                    b[off + n] = (byte) (current << shift | next >>> (8 - shift));
+                }
+                else
+                {
+                    b[off + n] = (byte) (current >>> shift | next << (8 - shift));
+                }
+                n++;
+                pos++;
+            }
+            return n;
+        }
+
+        /**
+         * Moves the remaining bytes to the start of the buffer and reads at least two bytes or up to the end.
+         */
+        private void fill() throws IOException
+        {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            while (limit < 2 && !eof)
+            {
+                final int count = in.read(buffer, limit, buffer.length - limit);
+                if (count < 0)
+                {
+                    eof = true;
+                }
+                else
+                {
+                    limit += count;
+                }
+            }
+        }
+
+        @Override
+        public long skip(final long n) throws IOException
+        {
+            final byte[] b = new byte[(int) Math.min(BUFFER_SIZE, n)];
+            long skipped = 0;
+            while (skipped < n)
+            {
+                final int count = read(b, 0, (int) Math.min(b.length, n - skipped));
+                if (count < 0)
+                {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return Math.max(0, limit - pos - 1);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.compressed;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.AbstractRandomAccessStreamContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Read-only random access to a range of the uncompressed content of a file
+ * with a {@link CheckpointIndex}.
+ * <p>
+ * Short forward seeks skip ahead in the current stream, everything else
+ * reopens the content at the closest checkpoint.
+ *
+ * @since 2.1
+ */
+public class CheckpointRandomAccessContent extends AbstractRandomAccessStreamContent
+{
+    /** Forward seeks up to this distance skip instead of reopening the content. */
+    private static final long MAX_SKIP = 1024 * 1024;
+
+    private final CheckpointIndex index;
+    private final File file;
+    private final long start;
+    private final long length;
+
+    private long filePointer;
+    private InputStream in;
+    private long inPosition;
+    private final DataInputStream dis;
+
+    /**
+     * Creates random access to the whole uncompressed content.
+     *
+     * @param index The index of the file.
+     * @param file The compressed file.
+     */
+    public CheckpointRandomAccessContent(final CheckpointIndex index, final File file)
+    {
+        this(index, file, 0, index.getUncompressedLength());
+    }
+
+    /**
+     * Creates random access to a range of the uncompressed content.
+     *
+     * @param index The index of the file, or null if the file is not compressed.
+     * @param file The compressed file.
+     * @param start The offset of the range into the uncompressed content.
+     * @param length The length of the range.
+     */
+    public CheckpointRandomAccessContent(final CheckpointIndex index, final File file, final long start,
+                                         final long length)
+    {
+        super(RandomAccessMode.READ);
+        this.index = index;
+        this.file = file;
+        this.start = start;
+        this.length = length;
+        this.dis = new DataInputStream(new ContentInputStream());
+    }
+
+    @Override
+    public long getFilePointer() throws IOException
+    {
+        return filePointer;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException
+    {
+        if (pos < 0)
+        {
+            throw new FileSystemException("vfs.provider/random-access-invalid-position.error",
+                    Long.valueOf(pos));
+        }
+        filePointer = pos;
+    }
+
+    @Override
+    public long length() throws IOException
+    {
+        return length;
+    }
+
+    @Override
+    protected DataInputStream getDataInputStream() throws IOException
+    {
+        return dis;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (in != null)
+        {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Makes sure the current stream is positioned at the file pointer.
+     */
+    private InputStream position() throws IOException
+    {
+        if (in != null && inPosition != filePointer)
+        {
+            final long distance = filePointer - inPosition;
+            if (distance > 0 && distance <= MAX_SKIP)
+            {
+                CheckpointIndex.skipFully(in, distance);
+                inPosition = filePointer;
+            }
+            else
+            {
+                in.close();
+                in = null;
+            }
+        }
+        if (in == null)
+        {
+            in = open(start + filePointer);
+            inPosition = filePointer;
+        }
+        return in;
+    }
+
+    private InputStream open(final long position) throws IOException
+    {
+        if (index != null)
+        {
+            return index.getInputStream(file, position);
+        }
+        final FileInputStream fis = new FileInputStream(file);
+        try
+        {
+            fis.getChannel().position(position);
+        }
+        catch (final IOException e)
+        {
+            fis.close();
+            throw e;
+        }
+        return new BufferedInputStream(fis);
+    }
+
+    /**
+     * Reads from the file pointer on.
+     */
+    private final class ContentInputStream extends InputStream
+    {
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (filePointer >= length)
+            {
+                return -1;
+            }
+            final int n = position().read(b, off, (int) Math.min(len, length - filePointer));
+            if (n > 0)
+            {
+                filePointer += n;
+                inPosition += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = Math.max(0, Math.min(n, length - filePointer));
+            filePointer += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - filePointer));
+        }
+    }
+}
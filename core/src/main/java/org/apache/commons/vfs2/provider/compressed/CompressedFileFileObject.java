@@ -20,8 +20,10 @@ import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 
 /**
  * A compressed file.
@@ -93,11 +95,14 @@ public abstract class CompressedFileFileObject<FS extends CompressedFileFileSyst
     /**
      * Returns the size of the file content (in bytes).  Is only called if
      * {@link #doGetType} returns {@link FileType#FILE}.
+     * The size is only known once the compressed file has been indexed for random access,
+     * asking for it does not index the file.
      */
     @Override
     protected long doGetContentSize()
     {
-        return -1;
+        final CheckpointIndex index = getAbstractFileSystem().getBuiltCheckpointIndex();
+        return index != null ? index.getUncompressedLength() : -1;
     }
 
     /**
@@ -109,6 +114,15 @@ public abstract class CompressedFileFileObject<FS extends CompressedFileFileSyst
         return container.getContent().getLastModifiedTime();
     }
 
+    /**
+     * Creates access to the content in random order through the checkpoint index of the compressed file.
+     */
+    @Override
+    protected RandomAccessContent doGetRandomAccessContent(final RandomAccessMode mode) throws Exception
+    {
+        return getAbstractFileSystem().getRandomAccessContent();
+    }
+
     protected FileObject getContainer()
     {
         return container;
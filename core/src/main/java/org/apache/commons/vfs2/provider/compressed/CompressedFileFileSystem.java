@@ -16,6 +16,12 @@
  */
 package org.apache.commons.vfs2.provider.compressed;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 
 import org.apache.commons.vfs2.Capability;
@@ -23,6 +29,10 @@ import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.cache.ArchiveIndexCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
 
@@ -32,6 +42,13 @@ import org.apache.commons.vfs2.provider.AbstractFileSystem;
 public abstract class CompressedFileFileSystem
     extends AbstractFileSystem
 {
+    /** The local copy of the container, guarded by this. */
+    private File replica;
+
+    /** The checkpoint index of the replica, built on first use, guarded by this. */
+    private CheckpointIndex checkpointIndex;
+    private long indexedLastModified;
+
     protected CompressedFileFileSystem(final FileName rootName,
                                        final FileObject parentLayer,
                                        final FileSystemOptions fileSystemOptions)
@@ -50,4 +67,193 @@ public abstract class CompressedFileFileSystem
      */
     @Override
     protected abstract FileObject createFile(final AbstractFileName name) throws FileSystemException;
+
+    /**
+     * Returns the number of uncompressed bytes between two checkpoints of the index.
+     *
+     * @return The interval, 0 if the compressed file is not indexed.
+     * @see DefaultFileSystemConfigBuilder#setCheckpointInterval
+     * @since 2.1
+     */
+    protected long getCheckpointInterval()
+    {
+        return DefaultFileSystemConfigBuilder.getInstance().getCheckpointInterval(getFileSystemOptions());
+    }
+
+    /**
+     * Builds the checkpoint index of a compressed file. The default implementation does not support an index.
+     *
+     * @param file The local compressed file.
+     * @param interval The number of uncompressed bytes between two checkpoints.
+     * @return The index or null if the format cannot be indexed.
+     * @throws IOException if the file cannot be read.
+     * @since 2.1
+     */
+    protected CheckpointIndex createCheckpointIndex(final File file, final long interval) throws IOException
+    {
+        return null;
+    }
+
+    /**
+     * Reads a checkpoint index written by {@link CheckpointIndex#write}. The default implementation
+     * does not support an index.
+     *
+     * @param in The stream to read from.
+     * @return The index or null if the format cannot be indexed.
+     * @throws IOException if the index cannot be read.
+     * @since 2.1
+     */
+    protected CheckpointIndex readCheckpointIndex(final InputStream in) throws IOException
+    {
+        return null;
+    }
+
+    /**
+     * Returns the checkpoint index of the compressed file, replicating and indexing it on first use.
+     * A local file is indexed again once it has been modified. The index is read from and stored in the
+     * {@link ArchiveIndexCache} if one is configured.
+     *
+     * @return The index or null if the compressed file is not indexed.
+     * @throws FileSystemException if the file cannot be indexed.
+     * @since 2.1
+     */
+    public synchronized CheckpointIndex getCheckpointIndex() throws FileSystemException
+    {
+        final long interval = getCheckpointInterval();
+        if (interval <= 0)
+        {
+            return null;
+        }
+        final CheckpointIndex built = getBuiltCheckpointIndex();
+        if (built != null)
+        {
+            return built;
+        }
+
+        if (replica == null)
+        {
+            replica = getParentLayer().getFileSystem().replicateFile(getParentLayer(), Selectors.SELECT_SELF);
+        }
+        final ArchiveIndexCache cache = DefaultFileSystemConfigBuilder.getInstance()
+            .getArchiveIndexCache(getFileSystemOptions());
+        try
+        {
+            indexedLastModified = replica.lastModified();
+            checkpointIndex = cache != null ? readCheckpointIndex(cache, interval) : null;
+            if (checkpointIndex == null)
+            {
+                checkpointIndex = createCheckpointIndex(replica, interval);
+                if (cache != null && checkpointIndex != null)
+                {
+                    writeCheckpointIndex(cache, interval);
+                }
+            }
+        }
+        catch (final IOException e)
+        {
+            throw new FileSystemException("vfs.provider.compressed/index-file.error", getParentLayer(), e);
+        }
+        return checkpointIndex;
+    }
+
+    /**
+     * Returns the checkpoint index if it has already been built for the current version of the
+     * compressed file, without replicating or indexing the file.
+     *
+     * @return The index or null if the compressed file has not been indexed yet.
+     * @since 2.1
+     */
+    public synchronized CheckpointIndex getBuiltCheckpointIndex()
+    {
+        if (checkpointIndex != null && replica.length() == checkpointIndex.getCompressedLength()
+            && replica.lastModified() == indexedLastModified)
+        {
+            return checkpointIndex;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the checkpoint index from the cache.
+     * @return The index or null if the cache holds no index of the current version of the file.
+     */
+    private CheckpointIndex readCheckpointIndex(final ArchiveIndexCache cache, final long interval)
+        throws FileSystemException
+    {
+        final DataInputStream in = cache.get(getParentLayer(), getRootName().getScheme());
+        if (in == null)
+        {
+            return null;
+        }
+        try
+        {
+            if (in.readLong() != interval)
+            {
+                return null;
+            }
+            final CheckpointIndex index = readCheckpointIndex(in);
+            return index != null && index.getCompressedLength() == replica.length() ? index : null;
+        }
+        catch (final IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch (final IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Stores the checkpoint index in the cache.
+     */
+    private void writeCheckpointIndex(final ArchiveIndexCache cache, final long interval) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        out.writeLong(interval);
+        checkpointIndex.write(out);
+        cache.put(getParentLayer(), getRootName().getScheme(), buffer.toByteArray());
+    }
+
+    /**
+     * Opens random access to the uncompressed content through the checkpoint index.
+     *
+     * @return The random access content.
+     * @throws FileSystemException if the compressed file cannot be indexed.
+     * @since 2.1
+     */
+    protected synchronized RandomAccessContent getRandomAccessContent() throws FileSystemException
+    {
+        final CheckpointIndex index = getCheckpointIndex();
+        if (index == null)
+        {
+            throw new FileSystemException("vfs.provider/random-access-read-not-supported.error");
+        }
+        return new CheckpointRandomAccessContent(index, replica);
+    }
+
+    /**
+     * Closes the file system and gives back the local copy of the container.
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+        final File released;
+        synchronized (this)
+        {
+            released = replica;
+            replica = null;
+            checkpointIndex = null;
+        }
+        releaseReplica(released);
+    }
 }
@@ -301,6 +301,24 @@ public class FTPClientWrapper implements FtpClient
         }
     }
 
+    @Override
+    public OutputStream storeFileStream(final String relPath, final long restartOffset) throws IOException
+    {
+        try
+        {
+            final FTPClient client = getFtpClient();
+            client.setRestartOffset(restartOffset);
+            return client.storeFileStream(relPath);
+        }
+        catch (final IOException e)
+        {
+            disconnect();
+            final FTPClient client = getFtpClient();
+            client.setRestartOffset(restartOffset);
+            return client.storeFileStream(relPath);
+        }
+    }
+
     @Override
     public boolean abort() throws IOException
     {
@@ -321,9 +339,30 @@ public class FTPClientWrapper implements FtpClient
         return true;
     }
 
+    @Override
+    public boolean sendNoOp() throws IOException
+    {
+        // a disconnected wrapper would reconnect, which is no check at all
+        return ftpClient != null && ftpClient.sendNoOp();
+    }
+
     @Override
     public String getReplyString() throws IOException
     {
         return getFtpClient().getReplyString();
     }
+
+    @Override
+    public boolean hasFeature(final String feature, final String value) throws IOException
+    {
+        try
+        {
+            return getFtpClient().hasFeature(feature, value);
+        }
+        catch (final IOException e)
+        {
+            disconnect();
+            return getFtpClient().hasFeature(feature, value);
+        }
+    }
 }
@@ -52,7 +52,38 @@ public interface FtpClient
 
     OutputStream storeFileStream(String relPath) throws IOException;
 
+    /**
+     * Stores a file from the given offset on, for uploads in segments.
+     *
+     * @param relPath The path of the file.
+     * @param restartOffset The offset to start writing at.
+     * @return The stream to write to, or null if the server rejected the command.
+     * @throws IOException if the command cannot be sent.
+     * @since 2.1
+     */
+    OutputStream storeFileStream(String relPath, long restartOffset) throws IOException;
+
     boolean abort() throws IOException;
 
+    /**
+     * Sends a NOOP command to check that the connection is still alive.
+     *
+     * @return true if the server acknowledged the command, false if the client is not connected or the command failed.
+     * @throws IOException if the command cannot be sent.
+     * @since 2.1
+     */
+    boolean sendNoOp() throws IOException;
+
     String getReplyString() throws IOException;
+
+    /**
+     * Checks if the server announces a feature in its reply to the FEAT command.
+     *
+     * @param feature The name of the feature, e.g. REST.
+     * @param value The value of the feature, e.g. STREAM.
+     * @return true if the server announces the feature with the value, false otherwise.
+     * @throws IOException if the command cannot be sent.
+     * @since 2.1
+     */
+    boolean hasFeature(String feature, String value) throws IOException;
 }
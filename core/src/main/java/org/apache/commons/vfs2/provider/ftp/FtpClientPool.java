@@ -0,0 +1,523 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * A pool of the connections of an FTP file system.
+ * <p>
+ * Opening a connection costs several round trips to the server for the login
+ * and the setup of the session, so released connections stay open for reuse.
+ * If a limit is configured, at most {@code maxTotal} connections are open at
+ * the same time and further borrowers wait for a connection to be released up
+ * to {@code maxWait}. An idle connection can be checked with a NOOP command
+ * before it is handed out, a connection which fails the check is closed and
+ * replaced. Connections which have not been used for the idle timeout are
+ * closed by the reaper of the provider, except for {@code minIdle} of them,
+ * and all idle connections are closed with the file system. The pool serves
+ * FTPS file systems as well.
+ *
+ * @since 2.1
+ */
+public class FtpClientPool
+{
+    private final FtpFileSystem fileSystem;
+    private final int maxTotal;
+    private final int minIdle;
+    private final long maxWait;
+    private final long idleTimeout;
+    private final boolean testOnBorrow;
+
+    /** The idle connections, most recently used first, guarded by this. */
+    private final LinkedList<IdleClient> idle = new LinkedList<IdleClient>();
+
+    /** The number of borrowed connections, including those being checked, guarded by this. */
+    private int active;
+
+    /** The number of connections being opened, guarded by this. */
+    private int opening;
+
+    /** Closes the idle connections, null until the file system is added to its provider, guarded by this. */
+    private ScheduledThreadPoolExecutor reaper;
+
+    /** The scheduled reap, null if none is scheduled, guarded by this. */
+    private ScheduledFuture<?> reap;
+
+    private long createdCount;
+    private long destroyedCount;
+    private long borrowedCount;
+    private long waitCount;
+    private long timeoutCount;
+    private long validationFailedCount;
+
+    /**
+     * Creates the pool.
+     *
+     * @param fileSystem The file system which opens the connections.
+     * @param maxTotal The maximum number of open connections.
+     * @param minIdle The number of idle connections which are kept open after the idle timeout.
+     * @param maxWait The time in milliseconds to wait for a connection, a negative value waits forever.
+     * @param idleTimeout The time in milliseconds after which an idle connection is closed.
+     * @param testOnBorrow true to check an idle connection with a NOOP command before it is handed out.
+     */
+    FtpClientPool(final FtpFileSystem fileSystem, final int maxTotal, final int minIdle, final long maxWait,
+                  final long idleTimeout, final boolean testOnBorrow)
+    {
+        this.fileSystem = fileSystem;
+        this.maxTotal = Math.max(1, maxTotal);
+        this.minIdle = Math.max(0, minIdle);
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * Adds a connection which has been opened outside of the pool as an idle connection.
+     *
+     * @param client The connection.
+     */
+    void add(final FtpClient client)
+    {
+        synchronized (this)
+        {
+            createdCount++;
+            if (active + opening + idle.size() < maxTotal && isUsable(client))
+            {
+                idle.addFirst(new IdleClient(client, System.nanoTime()));
+                notify();
+                if (scheduleReap(idleTimeout))
+                {
+                    return;
+                }
+                // the provider is closed
+                idle.removeFirst();
+            }
+            destroyedCount++;
+        }
+        fileSystem.closeConnection(client);
+    }
+
+    /**
+     * Borrows a connection, opening a new one if none is idle and the limit is not reached.
+     *
+     * @return The connection, to be handed back with {@link #release(FtpClient)}.
+     * @throws FileSystemException if the connection cannot be opened, no connection became free in time
+     * or the thread is interrupted while waiting.
+     */
+    FtpClient borrow() throws FileSystemException
+    {
+        while (true)
+        {
+            final FtpClient client = borrowIdle();
+            if (client == null)
+            {
+                return create();
+            }
+            if (!testOnBorrow || validate(client))
+            {
+                return client;
+            }
+            synchronized (this)
+            {
+                active--;
+                destroyedCount++;
+                validationFailedCount++;
+                notify();
+            }
+            fileSystem.closeConnection(client);
+        }
+    }
+
+    /**
+     * Takes an idle connection or reserves the opening of a new one, waiting if the limit is reached.
+     *
+     * @return The idle connection, null if a new connection is to be opened.
+     */
+    private FtpClient borrowIdle() throws FileSystemException
+    {
+        final List<FtpClient> stale = new ArrayList<FtpClient>();
+        try
+        {
+            synchronized (this)
+            {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+                boolean waited = false;
+                while (true)
+                {
+                    while (!idle.isEmpty())
+                    {
+                        final FtpClient client = idle.removeFirst().client;
+                        if (isUsable(client))
+                        {
+                            active++;
+                            borrowedCount++;
+                            return client;
+                        }
+                        destroyedCount++;
+                        stale.add(client);
+                    }
+                    if (active + opening < maxTotal)
+                    {
+                        opening++;
+                        return null;
+                    }
+                    if (!waited)
+                    {
+                        waitCount++;
+                        waited = true;
+                    }
+                    await(deadline);
+                }
+            }
+        }
+        finally
+        {
+            close(stale);
+        }
+    }
+
+    /**
+     * Opens a new connection whose opening has been reserved.
+     */
+    private FtpClient create() throws FileSystemException
+    {
+        final FtpClient client;
+        try
+        {
+            client = fileSystem.createWrapper();
+        }
+        catch (final FileSystemException e)
+        {
+            synchronized (this)
+            {
+                opening--;
+                notify();
+            }
+            throw e;
+        }
+        catch (final RuntimeException e)
+        {
+            synchronized (this)
+            {
+                opening--;
+                notify();
+            }
+            throw e;
+        }
+        synchronized (this)
+        {
+            opening--;
+            active++;
+            createdCount++;
+            borrowedCount++;
+        }
+        return client;
+    }
+
+    /**
+     * Waits for a connection to be released, guarded by this.
+     */
+    private void await(final long deadline) throws FileSystemException
+    {
+        try
+        {
+            if (maxWait < 0)
+            {
+                wait();
+                return;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                timeoutCount++;
+                throw new FileSystemException("vfs.provider.ftp/client-pool-exhausted.error",
+                    fileSystem.getRootName(), Integer.valueOf(maxTotal));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new FileSystemException(new InterruptedIOException(
+                "Interrupted while waiting for an FTP connection."));
+        }
+    }
+
+    /**
+     * Hands a connection back to the pool, a disconnected connection is dropped.
+     *
+     * @param client The connection.
+     */
+    void release(final FtpClient client)
+    {
+        synchronized (this)
+        {
+            active--;
+            notify();
+            if (isUsable(client))
+            {
+                idle.addFirst(new IdleClient(client, System.nanoTime()));
+                if (scheduleReap(idleTimeout))
+                {
+                    return;
+                }
+                // the provider is closed
+                idle.removeFirst();
+            }
+            destroyedCount++;
+        }
+        fileSystem.closeConnection(client);
+    }
+
+    /**
+     * Sets the executor which closes idle connections and schedules the reap of the current idle connections.
+     *
+     * @param reaper The executor, owned by the provider which shuts it down.
+     */
+    void setReaper(final ScheduledThreadPoolExecutor reaper)
+    {
+        synchronized (this)
+        {
+            this.reaper = reaper;
+            if (scheduleReap(idleTimeout))
+            {
+                return;
+            }
+        }
+        // the provider is closed
+        closeIdle();
+    }
+
+    /**
+     * Closes all idle connections and cancels the scheduled reap. Connections in use are kept until they are
+     * released.
+     */
+    void closeIdle()
+    {
+        final List<FtpClient> closed = new ArrayList<FtpClient>();
+        synchronized (this)
+        {
+            if (reap != null)
+            {
+                // drop the task, it keeps the file system reachable
+                reap.cancel(false);
+                reap = null;
+                reaper.purge();
+            }
+            while (!idle.isEmpty())
+            {
+                closed.add(idle.removeFirst().client);
+                destroyedCount++;
+            }
+        }
+        close(closed);
+    }
+
+    /**
+     * @return The number of borrowed connections.
+     */
+    public synchronized int getActiveCount()
+    {
+        return active;
+    }
+
+    /**
+     * @return The number of open connections which are not in use.
+     */
+    public synchronized int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    /**
+     * @return The maximum number of open connections.
+     */
+    public int getMaxTotal()
+    {
+        return maxTotal;
+    }
+
+    /**
+     * @return The number of connections opened so far.
+     */
+    public synchronized long getCreatedCount()
+    {
+        return createdCount;
+    }
+
+    /**
+     * @return The number of connections closed so far.
+     */
+    public synchronized long getDestroyedCount()
+    {
+        return destroyedCount;
+    }
+
+    /**
+     * @return The number of times a connection has been borrowed.
+     */
+    public synchronized long getBorrowedCount()
+    {
+        return borrowedCount;
+    }
+
+    /**
+     * @return The number of borrowers which had to wait for a connection.
+     */
+    public synchronized long getWaitCount()
+    {
+        return waitCount;
+    }
+
+    /**
+     * @return The number of borrowers which gave up waiting for a connection.
+     */
+    public synchronized long getTimeoutCount()
+    {
+        return timeoutCount;
+    }
+
+    /**
+     * @return The number of idle connections which failed the NOOP check.
+     */
+    public synchronized long getValidationFailedCount()
+    {
+        return validationFailedCount;
+    }
+
+    private static boolean isUsable(final FtpClient client)
+    {
+        try
+        {
+            return client.isConnected();
+        }
+        catch (final FileSystemException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks a connection with a NOOP command.
+     */
+    private static boolean validate(final FtpClient client)
+    {
+        try
+        {
+            return client.sendNoOp();
+        }
+        catch (final IOException e)
+        {
+            return false;
+        }
+    }
+
+    private void close(final List<FtpClient> clients)
+    {
+        for (final FtpClient client : clients)
+        {
+            fileSystem.closeConnection(client);
+        }
+    }
+
+    /**
+     * Closes the connections which exceeded the idle timeout and schedules the next reap.
+     */
+    private void closeExpired()
+    {
+        final List<FtpClient> expired = new ArrayList<FtpClient>();
+        synchronized (this)
+        {
+            final long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            // the oldest connections are at the end
+            while (idle.size() > minIdle && idle.getLast().releaseTime - idleSince <= 0)
+            {
+                expired.add(idle.removeLast().client);
+                destroyedCount++;
+            }
+            if (idle.size() > minIdle)
+            {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(idle.getLast().releaseTime - idleSince);
+                scheduleReap(Math.max(1, remaining));
+            }
+        }
+        close(expired);
+    }
+
+    /**
+     * Schedules a reap of the idle connections, guarded by this.
+     *
+     * @return false if the reaper is shut down, true otherwise.
+     */
+    private boolean scheduleReap(final long delay)
+    {
+        if (reaper != null && reaper.isShutdown())
+        {
+            return false;
+        }
+        if (reap != null || reaper == null || idle.size() <= minIdle)
+        {
+            return true;
+        }
+        try
+        {
+            reap = reaper.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (FtpClientPool.this)
+                    {
+                        reap = null;
+                    }
+                    closeExpired();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (final RejectedExecutionException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * An open connection which is not in use.
+     */
+    private static final class IdleClient
+    {
+        private final FtpClient client;
+        private final long releaseTime;
+
+        IdleClient(final FtpClient client, final long releaseTime)
+        {
+            this.client = client;
+            this.releaseTime = releaseTime;
+        }
+    }
+}
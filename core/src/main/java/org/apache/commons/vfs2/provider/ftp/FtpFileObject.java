@@ -29,14 +29,17 @@ import java.util.TreeMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileNotFolderException;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
+import org.apache.commons.vfs2.provider.SegmentedUpload;
 import org.apache.commons.vfs2.provider.UriParser;
 import org.apache.commons.vfs2.util.FileObjectUtils;
 import org.apache.commons.vfs2.util.Messages;
@@ -634,6 +637,50 @@ public class FtpFileObject extends AbstractFileObject<FtpFileSystem>
         return new FtpRandomAccessContent(this, mode);
     }
 
+    /**
+     * Uploads a large file in segments, if more than one upload thread is configured,
+     * the source supports random access reads and the server resumes uploads at an offset.
+     */
+    @Override
+    protected boolean doCopyContentFrom(final FileObject srcFile) throws Exception
+    {
+        final FtpFileSystemConfigBuilder builder = FtpFileSystemConfigBuilder.getInstance();
+        final FileSystemOptions opts = getAbstractFileSystem().getFileSystemOptions();
+        final int threads = builder.getUploadThreads(opts);
+        final long segmentSize = builder.getUploadSegmentSize(opts);
+        if (threads <= 1
+            || !srcFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)
+            || srcFile.getContent().getSize() <= segmentSize)
+        {
+            return false;
+        }
+        final SegmentedUpload upload = doCreateSegmentedUpload(srcFile, threads, segmentSize);
+        if (upload == null)
+        {
+            return false;
+        }
+        upload.upload();
+        return true;
+    }
+
+    /**
+     * Creates an upload in segments, null if the server does not announce that it
+     * resumes uploads at an offset. No more segments are stored at the same time than
+     * the file system opens connections.
+     */
+    @Override
+    protected SegmentedUpload doCreateSegmentedUpload(final FileObject srcFile, final int threads,
+                                                      final long segmentSize) throws FileSystemException
+    {
+        final FtpFileSystem fileSystem = getAbstractFileSystem();
+        if (!fileSystem.isRestartSupported())
+        {
+            return null;
+        }
+        return new FtpSegmentedUpload(srcFile, this, fileSystem, relPath,
+            Math.min(threads, fileSystem.getClientPool().getMaxTotal()), segmentSize);
+    }
+
     /**
      * Creates an output stream to write the file content to.
      */
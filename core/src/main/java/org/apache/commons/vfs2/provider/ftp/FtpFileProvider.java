@@ -19,6 +19,9 @@ package org.apache.commons.vfs2.provider.ftp;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
@@ -64,6 +67,9 @@ public class FtpFileProvider
         Capability.RANDOM_ACCESS_READ,
     }));
 
+    /** Closes the idle connections of the file systems of this provider, created on demand, guarded by this. */
+    private ScheduledThreadPoolExecutor reaper;
+
     /**
      * Constructs a new provider.
      */
@@ -96,6 +102,47 @@ public class FtpFileProvider
         return new FtpFileSystem(rootName, ftpClient, fileSystemOptions);
     }
 
+    /**
+     * Hands the connection reaper to a new file system before it is initialised.
+     */
+    @Override
+    protected void addFileSystem(final Comparable<?> key, final FileSystem fs) throws FileSystemException
+    {
+        if (fs instanceof FtpFileSystem)
+        {
+            ((FtpFileSystem) fs).setReaper(getReaper());
+        }
+        super.addFileSystem(key, fs);
+    }
+
+    /**
+     * Closes the file systems of this provider and stops their connection reaper.
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+
+        final ScheduledThreadPoolExecutor pendingReaper;
+        synchronized (this)
+        {
+            pendingReaper = reaper;
+            reaper = null;
+        }
+        if (pendingReaper != null)
+        {
+            pendingReaper.shutdownNow();
+            try
+            {
+                pendingReaper.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     @Override
     public FileSystemConfigBuilder getConfigBuilder()
     {
@@ -107,4 +154,22 @@ public class FtpFileProvider
     {
         return capabilities;
     }
+
+    private synchronized ScheduledThreadPoolExecutor getReaper()
+    {
+        if (reaper == null)
+        {
+            reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "FTP client reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return reaper;
+    }
 }
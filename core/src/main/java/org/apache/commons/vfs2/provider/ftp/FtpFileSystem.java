@@ -18,7 +18,7 @@ package org.apache.commons.vfs2.provider.ftp;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,8 +43,11 @@ public class FtpFileSystem extends AbstractFileSystem
 //    private final String username;
 //    private final String password;
 
-    // An idle client
-    private final AtomicReference<FtpClient> idleClient = new AtomicReference<FtpClient>();
+    /** The connections to the server. */
+    private final FtpClientPool clientPool;
+
+    /** true if the server resumes uploads at an offset, null until the server has been asked. */
+    private volatile Boolean restartSupported;
 
     /**
      * @param rootName The root of the file system.
@@ -59,18 +62,42 @@ public class FtpFileSystem extends AbstractFileSystem
         // hostname = rootName.getHostName();
         // port = rootName.getPort();
 
-        idleClient.set(ftpClient);
+        final FtpFileSystemConfigBuilder builder = FtpFileSystemConfigBuilder.getInstance();
+        clientPool = new FtpClientPool(this,
+            builder.getClientPoolMaxTotal(fileSystemOptions),
+            builder.getClientPoolMinIdle(fileSystemOptions),
+            builder.getClientPoolMaxWait(fileSystemOptions),
+            builder.getClientIdleTimeout(fileSystemOptions),
+            builder.getClientPoolTestOnBorrow(fileSystemOptions));
+        if (ftpClient != null)
+        {
+            clientPool.add(ftpClient);
+        }
     }
 
     @Override
     protected void doCloseCommunicationLink()
     {
-        final FtpClient idle = idleClient.getAndSet(null);
-        // Clean up the connection
-        if (idle != null)
-        {
-            closeConnection(idle);
-        }
+        clientPool.closeIdle();
+    }
+
+    /**
+     * Returns the pool of the connections, which reports how the connections are used.
+     *
+     * @return The client pool.
+     * @since 2.1
+     */
+    public FtpClientPool getClientPool()
+    {
+        return clientPool;
+    }
+
+    /**
+     * Sets the executor which closes idle connections, owned by the provider which shuts it down.
+     */
+    void setReaper(final ScheduledThreadPoolExecutor reaper)
+    {
+        clientPool.setReaper(reaper);
     }
 
     /**
@@ -86,7 +113,7 @@ public class FtpFileSystem extends AbstractFileSystem
      * Cleans up the connection to the server.
      * @param client The FtpClient.
      */
-    private void closeConnection(final FtpClient client)
+    void closeConnection(final FtpClient client)
     {
         try
         {
@@ -104,20 +131,13 @@ public class FtpFileSystem extends AbstractFileSystem
     }
 
     /**
-     * Creates an FTP client to use.
+     * Returns an FTP client to use, borrowed from the client pool.
      * @return An FTPCleint.
      * @throws FileSystemException if an error occurs.
      */
     public FtpClient getClient() throws FileSystemException
     {
-        FtpClient client = idleClient.getAndSet(null);
-
-        if (client == null || !client.isConnected())
-        {
-            client = createWrapper();
-        }
-
-        return client;
+        return clientPool.borrow();
     }
 
     /**
@@ -134,12 +154,37 @@ public class FtpFileSystem extends AbstractFileSystem
      */
     public void putClient(final FtpClient client)
     {
-        // Save client for reuse if none is idle.
-        if (!idleClient.compareAndSet(null, client))
+        clientPool.release(client);
+    }
+
+    /**
+     * Determines if the server stores a file from a restart offset on, which it announces
+     * with the REST STREAM feature. The answer is asked once per file system.
+     *
+     * @return true if uploads can start at an offset.
+     * @throws FileSystemException if the server cannot be asked.
+     */
+    boolean isRestartSupported() throws FileSystemException
+    {
+        Boolean supported = restartSupported;
+        if (supported == null)
         {
-            // An idle client is already present so close the connection.
-            closeConnection(client);
+            final FtpClient client = getClient();
+            try
+            {
+                supported = Boolean.valueOf(client.hasFeature("REST", "STREAM"));
+            }
+            catch (final IOException e)
+            {
+                throw new FileSystemException(e);
+            }
+            finally
+            {
+                putClient(client);
+            }
+            restartSupported = supported;
         }
+        return supported.booleanValue();
     }
 
 
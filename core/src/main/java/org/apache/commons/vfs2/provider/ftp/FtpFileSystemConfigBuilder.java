@@ -30,6 +30,18 @@ public class FtpFileSystemConfigBuilder extends FileSystemConfigBuilder
 
     private static final FtpFileSystemConfigBuilder BUILDER = new FtpFileSystemConfigBuilder();
 
+    private static final long DEFAULT_CLIENT_IDLE_TIMEOUT = 60000;
+    private static final int DEFAULT_CLIENT_POOL_MAX_TOTAL = Integer.MAX_VALUE;
+    private static final long DEFAULT_CLIENT_POOL_MAX_WAIT = 30000;
+    private static final int DEFAULT_CLIENT_POOL_MIN_IDLE = 1;
+    private static final long DEFAULT_UPLOAD_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_THREADS = 1;
+
+    private static final String CLIENT_IDLE_TIMEOUT = _PREFIX + ".CLIENT_IDLE_TIMEOUT";
+    private static final String CLIENT_POOL_MAX_TOTAL = _PREFIX + ".CLIENT_POOL_MAX_TOTAL";
+    private static final String CLIENT_POOL_MAX_WAIT = _PREFIX + ".CLIENT_POOL_MAX_WAIT";
+    private static final String CLIENT_POOL_MIN_IDLE = _PREFIX + ".CLIENT_POOL_MIN_IDLE";
+    private static final String CLIENT_POOL_TEST_ON_BORROW = _PREFIX + ".CLIENT_POOL_TEST_ON_BORROW";
     private static final String CONNECT_TIMEOUT = _PREFIX + ".CONNECT_TIMEOUT";
     private static final String DATA_TIMEOUT = _PREFIX + ".DATA_TIMEOUT";
     private static final String DEFAULT_DATE_FORMAT = _PREFIX + ".DEFAULT_DATE_FORMAT";
@@ -43,6 +55,8 @@ public class FtpFileSystemConfigBuilder extends FileSystemConfigBuilder
     private static final String SERVER_TIME_ZONE_ID = _PREFIX + ".SERVER_TIME_ZONE_ID";
     private static final String SHORT_MONTH_NAMES = _PREFIX + ".SHORT_MONTH_NAMES";
     private static final String SO_TIMEOUT = _PREFIX + ".SO_TIMEOUT";
+    private static final String UPLOAD_SEGMENT_SIZE = _PREFIX + ".UPLOAD_SEGMENT_SIZE";
+    private static final String UPLOAD_THREADS = _PREFIX + ".UPLOAD_THREADS";
     private static final String USER_DIR_IS_ROOT = _PREFIX + ".USER_DIR_IS_ROOT";
 
     /**
@@ -71,6 +85,71 @@ public class FtpFileSystemConfigBuilder extends FileSystemConfigBuilder
         return FtpFileSystem.class;
     }
 
+    /**
+     * Defaults to 60 seconds.
+     *
+     * @param opts The FileSystemOptions.
+     * @return The time in milliseconds after which an unused connection is closed.
+     * @see #setClientIdleTimeout
+     * @since 2.1
+     */
+    public long getClientIdleTimeout(final FileSystemOptions opts)
+    {
+        return getLong(opts, CLIENT_IDLE_TIMEOUT, DEFAULT_CLIENT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Defaults to no limit.
+     *
+     * @param opts The FileSystemOptions.
+     * @return The maximum number of connections a file system opens at the same time.
+     * @see #setClientPoolMaxTotal
+     * @since 2.1
+     */
+    public int getClientPoolMaxTotal(final FileSystemOptions opts)
+    {
+        return getInteger(opts, CLIENT_POOL_MAX_TOTAL, DEFAULT_CLIENT_POOL_MAX_TOTAL);
+    }
+
+    /**
+     * Defaults to 30 seconds.
+     *
+     * @param opts The FileSystemOptions.
+     * @return The time in milliseconds to wait for a free connection, negative to wait forever.
+     * @see #setClientPoolMaxWait
+     * @since 2.1
+     */
+    public long getClientPoolMaxWait(final FileSystemOptions opts)
+    {
+        return getLong(opts, CLIENT_POOL_MAX_WAIT, DEFAULT_CLIENT_POOL_MAX_WAIT);
+    }
+
+    /**
+     * Defaults to 1.
+     *
+     * @param opts The FileSystemOptions.
+     * @return The number of idle connections which are kept open after the idle timeout.
+     * @see #setClientPoolMinIdle
+     * @since 2.1
+     */
+    public int getClientPoolMinIdle(final FileSystemOptions opts)
+    {
+        return getInteger(opts, CLIENT_POOL_MIN_IDLE, DEFAULT_CLIENT_POOL_MIN_IDLE);
+    }
+
+    /**
+     * Defaults to true.
+     *
+     * @param opts The FileSystemOptions.
+     * @return true if an idle connection is checked with a NOOP command before it is used.
+     * @see #setClientPoolTestOnBorrow
+     * @since 2.1
+     */
+    public boolean getClientPoolTestOnBorrow(final FileSystemOptions opts)
+    {
+        return getBoolean(opts, CLIENT_POOL_TEST_ON_BORROW, true);
+    }
+
     /**
      * Gets the timeout in milliseconds to use for the socket connection.
      *
@@ -208,6 +287,32 @@ public class FtpFileSystemConfigBuilder extends FileSystemConfigBuilder
         return getInteger(opts, SO_TIMEOUT);
     }
 
+    /**
+     * Defaults to 8 MB.
+     *
+     * @param opts The FileSystemOptions.
+     * @return The size in bytes of the segments of a segmented upload.
+     * @see #setUploadSegmentSize
+     * @since 2.1
+     */
+    public long getUploadSegmentSize(final FileSystemOptions opts)
+    {
+        return getLong(opts, UPLOAD_SEGMENT_SIZE, DEFAULT_UPLOAD_SEGMENT_SIZE);
+    }
+
+    /**
+     * Defaults to 1, which uploads over a single stream.
+     *
+     * @param opts The FileSystemOptions.
+     * @return The number of segments of a file which are uploaded at the same time.
+     * @see #setUploadThreads
+     * @since 2.1
+     */
+    public int getUploadThreads(final FileSystemOptions opts)
+    {
+        return getInteger(opts, UPLOAD_THREADS, DEFAULT_UPLOAD_THREADS);
+    }
+
     /**
      * Returns {@link Boolean#TRUE} if VFS should treat the user directory as the root directory. Defaults to
      * <code>Boolean.TRUE</code> if the method {@link #setUserDirIsRoot(FileSystemOptions, boolean)} has not been
@@ -223,6 +328,77 @@ public class FtpFileSystemConfigBuilder extends FileSystemConfigBuilder
         return getBoolean(opts, USER_DIR_IS_ROOT, Boolean.TRUE);
     }
 
+    /**
+     * Sets the time after which an unused connection to the server is closed.
+     *
+     * @param opts The FileSystemOptions.
+     * @param timeout The idle timeout in milliseconds.
+     * @since 2.1
+     */
+    public void setClientIdleTimeout(final FileSystemOptions opts, final long timeout)
+    {
+        setParam(opts, CLIENT_IDLE_TIMEOUT, Long.valueOf(timeout));
+    }
+
+    /**
+     * Sets the maximum number of connections a file system opens to the server at the same time.
+     * <p>
+     * Every open stream holds a connection, so this is the number of files which can be
+     * transferred in parallel. Further operations wait for a connection to become free.
+     * Many servers limit the number of logins per user. By default the number of
+     * connections is not limited, like it was before connections were pooled.
+     * </p>
+     *
+     * @param opts The FileSystemOptions.
+     * @param maxTotal The maximum number of open connections, at least 1.
+     * @since 2.1
+     */
+    public void setClientPoolMaxTotal(final FileSystemOptions opts, final int maxTotal)
+    {
+        setParam(opts, CLIENT_POOL_MAX_TOTAL, Integer.valueOf(maxTotal));
+    }
+
+    /**
+     * Sets the time to wait for a free connection when all connections are in use.
+     *
+     * @param opts The FileSystemOptions.
+     * @param maxWait The time in milliseconds, negative to wait forever.
+     * @since 2.1
+     */
+    public void setClientPoolMaxWait(final FileSystemOptions opts, final long maxWait)
+    {
+        setParam(opts, CLIENT_POOL_MAX_WAIT, Long.valueOf(maxWait));
+    }
+
+    /**
+     * Sets the number of idle connections which are kept open after the idle timeout.
+     *
+     * @param opts The FileSystemOptions.
+     * @param minIdle The number of connections.
+     * @since 2.1
+     */
+    public void setClientPoolMinIdle(final FileSystemOptions opts, final int minIdle)
+    {
+        setParam(opts, CLIENT_POOL_MIN_IDLE, Integer.valueOf(minIdle));
+    }
+
+    /**
+     * Sets whether an idle connection is checked with a NOOP command before it is used.
+     * <p>
+     * The check costs a round trip per operation. It finds connections the server
+     * has closed in the meantime, which are replaced by new ones. Without the check
+     * such a connection is only reopened once a command on it fails.
+     * </p>
+     *
+     * @param opts The FileSystemOptions.
+     * @param testOnBorrow true to check idle connections.
+     * @since 2.1
+     */
+    public void setClientPoolTestOnBorrow(final FileSystemOptions opts, final boolean testOnBorrow)
+    {
+        setParam(opts, CLIENT_POOL_TEST_ON_BORROW, testOnBorrow ? Boolean.TRUE : Boolean.FALSE);
+    }
+
     /**
      * Sets the timeout for the initial control connection.
      * <p>
@@ -384,6 +560,43 @@ public class FtpFileSystemConfigBuilder extends FileSystemConfigBuilder
         setParam(opts, SO_TIMEOUT, soTimeout);
     }
 
+    /**
+     * Sets the size of the segments of a segmented upload.
+     * <p>
+     * Files which are larger than a segment are uploaded in segments when
+     * more than one upload thread is configured.
+     * </p>
+     *
+     * @param opts The FileSystemOptions.
+     * @param segmentSize The size of a segment in bytes.
+     * @since 2.1
+     */
+    public void setUploadSegmentSize(final FileSystemOptions opts, final long segmentSize)
+    {
+        setParam(opts, UPLOAD_SEGMENT_SIZE, Long.valueOf(segmentSize));
+    }
+
+    /**
+     * Sets the number of segments of a file which are uploaded at the same time.
+     * <p>
+     * When a file of a file system which supports random access reads is copied to
+     * this file system by {@link org.apache.commons.vfs2.FileObject#copyFrom}, a file
+     * larger than the segment size is cut into segments. Each segment is stored on a
+     * connection of its own with REST and STOR. Many servers truncate the file at the
+     * restart offset, so a segment only starts once the segment before it has written
+     * to the file. A failed segment fails the upload, it is not retried. The size of
+     * the remote file is checked at the end.
+     * </p>
+     *
+     * @param opts The FileSystemOptions.
+     * @param threads The number of concurrent segments, 1 uploads over a single stream.
+     * @since 2.1
+     */
+    public void setUploadThreads(final FileSystemOptions opts, final int threads)
+    {
+        setParam(opts, UPLOAD_THREADS, Integer.valueOf(threads));
+    }
+
     /**
      * use user directory as root (do not change to fs root).
      *
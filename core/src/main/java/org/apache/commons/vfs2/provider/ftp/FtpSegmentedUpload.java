@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.SegmentedUpload;
+
+/**
+ * Uploads a file to an FTP server in segments which are stored at the same time.
+ * <p>
+ * The upload is only created for servers which announce the REST STREAM feature.
+ * The remote file is truncated first. Each segment is then stored on a client of
+ * its own with a restart offset. Many servers truncate the file at the restart
+ * offset when the transfer starts, which would cut off the segments after it. A
+ * segment therefore only starts once the remote file is longer than the offset of
+ * the segment before it: that segment has then started and written, and the
+ * segments before it end below its offset. A waiting segment borrows a client for
+ * each check of the size only, and its own client once it starts. A failed segment
+ * fails the upload, as storing it again would truncate the segments after it.
+ */
+final class FtpSegmentedUpload extends SegmentedUpload
+{
+    /** The time between two checks of the size of the remote file, in milliseconds. */
+    private static final long POLL_INTERVAL = 20;
+
+    private final FtpFileSystem fileSystem;
+    private final String path;
+
+    /**
+     * Creates the upload.
+     *
+     * @param srcFile The file to read, which supports random access reads.
+     * @param destFile The remote file.
+     * @param fileSystem The file system whose clients are used.
+     * @param path The path of the remote file relative to the working directory of the clients.
+     * @param threads The number of segments which are stored at the same time.
+     * @param segmentSize The size of a segment.
+     */
+    FtpSegmentedUpload(final FileObject srcFile, final FileObject destFile, final FtpFileSystem fileSystem,
+                       final String path, final int threads, final long segmentSize)
+    {
+        super(srcFile, destFile, threads, segmentSize);
+        this.fileSystem = fileSystem;
+        this.path = path;
+    }
+
+    /**
+     * Truncates the remote file.
+     */
+    @Override
+    protected void prepare() throws IOException
+    {
+        final FtpClient client = fileSystem.getClient();
+        try
+        {
+            store(client, 0).close();
+            finish(client);
+        }
+        finally
+        {
+            fileSystem.putClient(client);
+        }
+    }
+
+    @Override
+    protected void uploadSegment(final int index, final long start, final long end) throws IOException
+    {
+        if (index > 0)
+        {
+            awaitSize(start - getSegmentSize());
+        }
+        final FtpClient client = fileSystem.getClient();
+        try
+        {
+            final OutputStream out = store(client, start);
+            try
+            {
+                copySegment(start, end, out);
+            }
+            catch (final IOException e)
+            {
+                // the transfer cannot be completed, drop the connection
+                try
+                {
+                    out.close();
+                }
+                catch (final IOException ignored)
+                {
+                    // the original failure is reported
+                }
+                client.abort();
+                throw e;
+            }
+            out.close();
+            finish(client);
+        }
+        finally
+        {
+            fileSystem.putClient(client);
+        }
+    }
+
+    @Override
+    protected long getUploadedSize() throws IOException
+    {
+        return getRemoteSize();
+    }
+
+    /**
+     * Waits until the remote file is longer than the offset of the segment before.
+     */
+    private void awaitSize(final long previousStart) throws IOException
+    {
+        while (getRemoteSize() <= previousStart)
+        {
+            if (isStopped())
+            {
+                throw new InterruptedIOException("The upload stopped.");
+            }
+            try
+            {
+                Thread.sleep(POLL_INTERVAL);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while uploading.");
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the remote file, -1 if it is not listed, on a client borrowed for the check.
+     */
+    private long getRemoteSize() throws IOException
+    {
+        final FtpClient client = fileSystem.getClient();
+        try
+        {
+            final FTPFile[] files = client.listFiles(path);
+            if (files == null || files.length == 0 || files[0] == null)
+            {
+                return -1;
+            }
+            return files[0].getSize();
+        }
+        finally
+        {
+            fileSystem.putClient(client);
+        }
+    }
+
+    private OutputStream store(final FtpClient client, final long offset) throws IOException
+    {
+        final OutputStream out = client.storeFileStream(path, offset);
+        if (out == null)
+        {
+            throw new FileSystemException("vfs.provider.ftp/output-error.debug", getDestFile().getName(),
+                client.getReplyString());
+        }
+        return out;
+    }
+
+    private void finish(final FtpClient client) throws IOException
+    {
+        if (!client.completePendingCommand())
+        {
+            throw new FileSystemException("vfs.provider.ftp/finish-put.error", getDestFile().getName());
+        }
+    }
+}
@@ -25,6 +25,10 @@ import org.apache.commons.vfs2.provider.ftp.FtpFileSystem;
 
 /**
  * A FTPS file system.
+ * <p>
+ * The connections are pooled like those of an FTP file system, the pool is
+ * configured with the client pool settings {@link FtpsFileSystemConfigBuilder}
+ * inherits from the FTP config builder.
  * 
  * @since 2.1
  */
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.gzip;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.apache.commons.vfs2.provider.compressed.CheckpointIndex;
+
+/**
+ * A checkpoint index of a gzip file.
+ * <p>
+ * Checkpoints are placed at deflate block boundaries, one at the start of
+ * each gzip member and further ones every given number of uncompressed bytes.
+ * Each checkpoint keeps the last 32 KB of uncompressed data before it, which
+ * the following blocks may refer to, in compressed form. Reading resumes at a
+ * checkpoint by realigning the compressed bits to bytes and presetting the
+ * window as dictionary of a raw {@link Inflater}.
+ *
+ * @since 2.1
+ */
+public class GzipCheckpointIndex extends CheckpointIndex
+{
+    /** Identifies a gzip index. */
+    private static final int TYPE = 0x677a;
+
+    private final long[] memberEnds;
+    private final byte[][] windows;
+    private final long dataEnd;
+
+    GzipCheckpointIndex(final long compressedLength, final long uncompressedLength,
+                        final long[] uncompressedOffsets, final long[] bitOffsets,
+                        final long[] memberEnds, final byte[][] windows, final long dataEnd)
+    {
+        super(compressedLength, uncompressedLength, uncompressedOffsets, bitOffsets);
+        this.memberEnds = memberEnds;
+        this.windows = windows;
+        this.dataEnd = dataEnd;
+    }
+
+    private GzipCheckpointIndex(final DataInputStream in) throws IOException
+    {
+        super(in);
+        if (in.readInt() != TYPE)
+        {
+            throw new IOException("Not a gzip checkpoint index.");
+        }
+        dataEnd = in.readLong();
+        final int count = getCheckpointCount();
+        memberEnds = new long[count];
+        windows = new byte[count][];
+        for (int i = 0; i < count; i++)
+        {
+            memberEnds[i] = in.readLong();
+            windows[i] = new byte[in.readInt()];
+            in.readFully(windows[i]);
+        }
+    }
+
+    /**
+     * Builds the index of a gzip file. This decompresses the whole file once.
+     *
+     * @param file The gzip file.
+     * @param interval The minimum number of uncompressed bytes between two checkpoints.
+     * @return The index.
+     * @throws IOException if the file cannot be read or is not a gzip file.
+     */
+    public static GzipCheckpointIndex build(final File file, final long interval) throws IOException
+    {
+        return new GzipScanner(file, interval).scan();
+    }
+
+    /**
+     * Reads an index written by {@link #write(java.io.OutputStream)}.
+     *
+     * @param in The stream to read from.
+     * @return The index.
+     * @throws IOException if the index cannot be read.
+     */
+    public static GzipCheckpointIndex read(final InputStream in) throws IOException
+    {
+        return new GzipCheckpointIndex(new DataInputStream(in));
+    }
+
+    @Override
+    protected void writeCheckpoints(final DataOutputStream out) throws IOException
+    {
+        out.writeInt(TYPE);
+        out.writeLong(dataEnd);
+        for (int i = 0; i < memberEnds.length; i++)
+        {
+            out.writeLong(memberEnds[i]);
+            out.writeInt(windows[i].length);
+            out.write(windows[i]);
+        }
+    }
+
+    @Override
+    protected InputStream openCheckpoint(final File file, final int checkpoint) throws IOException
+    {
+        final Inflater inflater = new Inflater(true);
+        final InputStream member;
+        try
+        {
+            final byte[] window = inflateWindow(checkpoint);
+            if (window.length > 0)
+            {
+                inflater.setDictionary(window);
+            }
+            member = new InflaterInputStream(openBits(file, getBitOffset(checkpoint), false), inflater)
+            {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException
+                {
+                    if (!closed)
+                    {
+                        closed = true;
+                        inflater.end();
+                        super.close();
+                    }
+                }
+            };
+        }
+        catch (final IOException e)
+        {
+            inflater.end();
+            throw e;
+        }
+
+        final long next = memberEnds[checkpoint];
+        if (next >= dataEnd)
+        {
+            return member;
+        }
+        return new MemberInputStream(member, file, next);
+    }
+
+    private byte[] inflateWindow(final int checkpoint) throws IOException
+    {
+        final byte[] compressed = windows[checkpoint];
+        if (compressed.length == 0)
+        {
+            return compressed;
+        }
+        final Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressed);
+            final byte[] buffer = new byte[32768];
+            int length = 0;
+            while (!inflater.finished() && length < buffer.length)
+            {
+                final int n = inflater.inflate(buffer, length, buffer.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new ZipException("Invalid window in checkpoint index.");
+                }
+                length += n;
+            }
+            if (length == buffer.length)
+            {
+                return buffer;
+            }
+            final byte[] window = new byte[length];
+            System.arraycopy(buffer, 0, window, 0, length);
+            return window;
+        }
+        catch (final DataFormatException e)
+        {
+            throw new ZipException("Invalid window in checkpoint index.");
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Continues with the following gzip members once the member a checkpoint lies in is finished.
+     */
+    private static final class MemberInputStream extends InputStream
+    {
+        private InputStream current;
+        private final File file;
+        private final long next;
+        private boolean switched;
+
+        MemberInputStream(final InputStream first, final File file, final long next)
+        {
+            this.current = first;
+            this.file = file;
+            this.next = next;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            final int n = current.read(b, off, len);
+            if (n >= 0 || switched)
+            {
+                return n;
+            }
+
+            current.close();
+            switched = true;
+            final FileInputStream in = new FileInputStream(file);
+            try
+            {
+                in.getChannel().position(next);
+                current = new GZIPInputStream(in);
+            }
+            catch (final IOException e)
+            {
+                in.close();
+                throw e;
+            }
+            return current.read(b, off, len);
+        }
+
+        @Override
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = current.skip(n);
+            if (skipped > 0 || switched)
+            {
+                return skipped;
+            }
+            // the current member may be finished
+            return read() < 0 ? 0 : 1;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            current.close();
+        }
+    }
+}
@@ -16,14 +16,20 @@
  */
 package org.apache.commons.vfs2.provider.gzip;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.compressed.CompressedFileFileObject;
+import org.apache.commons.vfs2.provider.local.LocalFileSystem;
+import org.apache.commons.vfs2.util.ReadAheadInputStream;
 
 /**
  * the gzip file.
@@ -38,14 +44,45 @@ public class GzipFileObject extends CompressedFileFileObject<GzipFileSystem>
     @Override
     protected InputStream doGetInputStream() throws Exception
     {
+        final FileSystemOptions opts = getFileSystem().getFileSystemOptions();
+        final GzipFileSystemConfigBuilder builder = GzipFileSystemConfigBuilder.getInstance();
+        final int threads = builder.getThreads(opts);
+        if (threads > 1 && getContainer().getFileSystem() instanceof LocalFileSystem)
+        {
+            final File file = getContainer().getFileSystem().replicateFile(getContainer(), Selectors.SELECT_SELF);
+            return new ParallelGzipInputStream(file, threads, builder.getBlockSize(opts));
+        }
+
         final InputStream is = getContainer().getContent().getInputStream();
+        if (threads > 1)
+        {
+            // inflate on a background thread ahead of the reader
+            return new ReadAheadInputStream(new GZIPInputStream(is), builder.getBlockSize(opts), 4, "gzip inflater");
+        }
         return new GZIPInputStream(is);
     }
 
     @Override
     protected OutputStream doGetOutputStream(final boolean bAppend) throws Exception
     {
+        final FileSystemOptions opts = getFileSystem().getFileSystemOptions();
+        final GzipFileSystemConfigBuilder builder = GzipFileSystemConfigBuilder.getInstance();
+        final int threads = builder.getThreads(opts);
+        final int level = builder.getCompressionLevel(opts);
         final OutputStream os = getContainer().getContent().getOutputStream(false);
-        return new GZIPOutputStream(os);
+        if (threads > 1)
+        {
+            return new ParallelGzipOutputStream(os, threads, builder.getBlockSize(opts), level);
+        }
+        if (level == Deflater.DEFAULT_COMPRESSION)
+        {
+            return new GZIPOutputStream(os);
+        }
+        return new GZIPOutputStream(os)
+        {
+            {
+                def.setLevel(level);
+            }
+        };
     }
 }
@@ -24,6 +24,7 @@ import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemConfigBuilder;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.compressed.CompressedFileFileProvider;
@@ -60,6 +61,17 @@ public class GzipFileProvider extends CompressedFileFileProvider
         return new GzipFileSystem(name, file, fileSystemOptions);
     }
 
+    /**
+     * Returns the configuration builder of the gzip file systems.
+     * @return The {@link GzipFileSystemConfigBuilder}.
+     * @since 2.1
+     */
+    @Override
+    public FileSystemConfigBuilder getConfigBuilder()
+    {
+        return GzipFileSystemConfigBuilder.getInstance();
+    }
+
     @Override
     public Collection<Capability> getCapabilities()
     {
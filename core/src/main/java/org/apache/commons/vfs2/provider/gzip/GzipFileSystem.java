@@ -16,6 +16,9 @@
  */
 package org.apache.commons.vfs2.provider.gzip;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 
 import org.apache.commons.vfs2.Capability;
@@ -24,6 +27,7 @@ import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.provider.AbstractFileName;
+import org.apache.commons.vfs2.provider.compressed.CheckpointIndex;
 import org.apache.commons.vfs2.provider.compressed.CompressedFileFileSystem;
 
 /**
@@ -46,5 +50,27 @@ public class GzipFileSystem extends CompressedFileFileSystem
     protected void addCapabilities(final Collection<Capability> caps)
     {
         caps.addAll(GzipFileProvider.capabilities);
+        if (getCheckpointInterval() > 0)
+        {
+            caps.add(Capability.RANDOM_ACCESS_READ);
+        }
+    }
+
+    /**
+     * Builds the checkpoint index of the gzip file.
+     */
+    @Override
+    protected CheckpointIndex createCheckpointIndex(final File file, final long interval) throws IOException
+    {
+        return GzipCheckpointIndex.build(file, interval);
+    }
+
+    /**
+     * Reads a checkpoint index of a gzip file.
+     */
+    @Override
+    protected CheckpointIndex readCheckpointIndex(final InputStream in) throws IOException
+    {
+        return GzipCheckpointIndex.read(in);
     }
 }
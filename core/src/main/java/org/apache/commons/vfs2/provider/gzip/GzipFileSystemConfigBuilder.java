@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.gzip;
+
+import java.util.zip.Deflater;
+
+import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemConfigBuilder;
+import org.apache.commons.vfs2.FileSystemOptions;
+
+/**
+ * Config Builder for the gzip filesystem.
+ *
+ * @since 2.1
+ */
+public final class GzipFileSystemConfigBuilder extends FileSystemConfigBuilder
+{
+    /** threads key. */
+    private static final String THREADS_KEY = "threads";
+
+    /** block size key. */
+    private static final String BLOCK_SIZE_KEY = "blocksize";
+
+    /** compression level key. */
+    private static final String COMPRESSION_LEVEL_KEY = "compressionlevel";
+
+    /** The default size of a block in bytes. */
+    private static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    /** config builder SINGLETON. */
+    private static final GzipFileSystemConfigBuilder SINGLETON = new GzipFileSystemConfigBuilder();
+
+    /**
+     * Constructor
+     */
+    private GzipFileSystemConfigBuilder()
+    {
+        super("gzip.");
+    }
+
+    /**
+     * Gets the singleton builder.
+     *
+     * @return the singleton builder.
+     */
+    public static GzipFileSystemConfigBuilder getInstance()
+    {
+        return SINGLETON;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<? extends FileSystem> getConfigClass()
+    {
+        return GzipFileSystem.class;
+    }
+
+    /**
+     * Defaults to 1.
+     *
+     * @param opts The FileSystem options.
+     * @return The number of threads a gzip file is compressed or decompressed with.
+     * @see #setThreads(FileSystemOptions, int)
+     */
+    public int getThreads(final FileSystemOptions opts)
+    {
+        return getInteger(opts, THREADS_KEY, 1);
+    }
+
+    /**
+     * Sets the number of threads a gzip file is compressed or decompressed with.
+     * <p>
+     * With more than one thread, content is written as independently compressed
+     * blocks which are deflated in parallel and concatenated into a single gzip
+     * member. Content is read on a background thread, and the members of a local
+     * multi-member file are inflated in parallel. The default of 1 reads and writes
+     * on the calling thread.
+     *
+     * @param opts The FileSystem options.
+     * @param threads The number of threads.
+     */
+    public void setThreads(final FileSystemOptions opts, final int threads)
+    {
+        setParam(opts, THREADS_KEY, Integer.valueOf(threads));
+    }
+
+    /**
+     * Defaults to 128 KB.
+     *
+     * @param opts The FileSystem options.
+     * @return The number of uncompressed bytes in a block.
+     * @see #setBlockSize(FileSystemOptions, int)
+     */
+    public int getBlockSize(final FileSystemOptions opts)
+    {
+        return getInteger(opts, BLOCK_SIZE_KEY, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Sets the number of uncompressed bytes in a block which is compressed or handed to the reader at once.
+     *
+     * @param opts The FileSystem options.
+     * @param blockSize The block size in bytes, at least 32 KB for parallel compression.
+     */
+    public void setBlockSize(final FileSystemOptions opts, final int blockSize)
+    {
+        setParam(opts, BLOCK_SIZE_KEY, Integer.valueOf(blockSize));
+    }
+
+    /**
+     * Defaults to {@link Deflater#DEFAULT_COMPRESSION}.
+     *
+     * @param opts The FileSystem options.
+     * @return The compression level.
+     * @see #setCompressionLevel(FileSystemOptions, int)
+     */
+    public int getCompressionLevel(final FileSystemOptions opts)
+    {
+        return getInteger(opts, COMPRESSION_LEVEL_KEY, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Sets the level content is compressed with.
+     *
+     * @param opts The FileSystem options.
+     * @param level The compression level from 0 to 9.
+     */
+    public void setCompressionLevel(final FileSystemOptions opts, final int level)
+    {
+        setParam(opts, COMPRESSION_LEVEL_KEY, Integer.valueOf(level));
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.gzip;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes a gzip file once to find the deflate block boundaries which are
+ * suitable as checkpoints, together with the window of uncompressed data the
+ * following blocks may refer to.
+ * <p>
+ * {@link java.util.zip.Inflater} neither reports block boundaries nor resumes
+ * at arbitrary bit offsets, so the scan uses a decoder of its own. It only
+ * keeps the last 32 KB of the uncompressed data.
+ */
+final class GzipScanner
+{
+    private static final int WINDOW_SIZE = 32768;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private static final int MAX_BITS = 15;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final int[] LENGTH_BASE =
+    {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private static final int[] LENGTH_EXTRA =
+    {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private static final int[] DIST_BASE =
+    {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+    };
+    private static final int[] DIST_EXTRA =
+    {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+    private static final int[] CODE_LENGTH_ORDER =
+    {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static
+    {
+        final byte[] lengths = new byte[288];
+        for (int i = 0; i < lengths.length; i++)
+        {
+            lengths[i] = (byte) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+        }
+        final byte[] distances = new byte[30];
+        Arrays.fill(distances, (byte) 5);
+        try
+        {
+            FIXED_LITERALS = new Huffman();
+            FIXED_LITERALS.build(lengths, 0, lengths.length);
+            FIXED_DISTANCES = new Huffman();
+            FIXED_DISTANCES.build(distances, 0, distances.length);
+        }
+        catch (final ZipException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final File file;
+    private final long interval;
+    private final InputStream in;
+
+    private long bitBuffer;
+    private int bitCount;
+    private long bytesRead;
+    private final long fileLength;
+
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long memberOut;
+    private long out;
+
+    private final Huffman codeLengthCode = new Huffman();
+    private final Huffman literals = new Huffman();
+    private final Huffman distances = new Huffman();
+
+    private final List<long[]> checkpoints = new ArrayList<long[]>();
+    private final List<byte[]> windows = new ArrayList<byte[]>();
+
+    /**
+     * Creates a scanner.
+     *
+     * @param file The gzip file.
+     * @param interval The minimum number of uncompressed bytes between two checkpoints.
+     * @throws IOException if the file cannot be opened.
+     */
+    GzipScanner(final File file, final long interval) throws IOException
+    {
+        this.file = file;
+        this.interval = Math.max(1, interval);
+        this.fileLength = file.length();
+        this.in = new BufferedInputStream(new FileInputStream(file), 65536);
+    }
+
+    /**
+     * Decodes the whole file and builds the index.
+     *
+     * @return The index.
+     * @throws IOException if the file cannot be read or is not a valid gzip file.
+     */
+    GzipCheckpointIndex scan() throws IOException
+    {
+        try
+        {
+            long dataEnd = 0;
+            final List<Long> memberEnds = new ArrayList<Long>();
+            do
+            {
+                readHeader();
+                memberOut = 0;
+                // the first block of a member is always a checkpoint
+                long lastCheckpoint = out - interval;
+                boolean last;
+                do
+                {
+                    if (out - lastCheckpoint >= interval)
+                    {
+                        addCheckpoint();
+                        lastCheckpoint = out;
+                    }
+                    last = bits(1) == 1;
+                    final int type = bits(2);
+                    switch (type)
+                    {
+                        case 0:
+                            stored();
+                            break;
+                        case 1:
+                            compressed(FIXED_LITERALS, FIXED_DISTANCES);
+                            break;
+                        case 2:
+                            dynamic();
+                            break;
+                        default:
+                            throw new ZipException("Invalid deflate block type in " + file);
+                    }
+                }
+                while (!last);
+
+                // skip the padding and the CRC and size of the member
+                bitCount -= bitCount & 7;
+                bits(16);
+                bits(16);
+                bits(16);
+                bits(16);
+                dataEnd = position() >>> 3;
+                while (memberEnds.size() < checkpoints.size())
+                {
+                    memberEnds.add(Long.valueOf(dataEnd));
+                }
+            }
+            while (hasNextMember());
+
+            final int count = checkpoints.size();
+            final long[] uncompressedOffsets = new long[count];
+            final long[] bitOffsets = new long[count];
+            final long[] ends = new long[count];
+            for (int i = 0; i < count; i++)
+            {
+                uncompressedOffsets[i] = checkpoints.get(i)[0];
+                bitOffsets[i] = checkpoints.get(i)[1];
+                ends[i] = memberEnds.get(i).longValue();
+            }
+            return new GzipCheckpointIndex(fileLength, out, uncompressedOffsets, bitOffsets, ends,
+                windows.toArray(new byte[count][]), dataEnd);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Determines if another gzip member follows, trailing garbage is ignored like gzip does.
+     */
+    private boolean hasNextMember() throws IOException
+    {
+        final long pos = position() >>> 3;
+        if (fileLength - pos < 18)
+        {
+            return false;
+        }
+        in.mark(2);
+        final boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        return gzip;
+    }
+
+    private void readHeader() throws IOException
+    {
+        if (bits(8) != 0x1f || bits(8) != 0x8b)
+        {
+            throw new ZipException("Not in GZIP format: " + file);
+        }
+        if (bits(8) != 8)
+        {
+            throw new ZipException("Unsupported compression method in " + file);
+        }
+        final int flags = bits(8);
+        // modification time, extra flags and operating system
+        bits(16);
+        bits(16);
+        bits(16);
+        if ((flags & FEXTRA) != 0)
+        {
+            int length = bits(16);
+            while (length-- > 0)
+            {
+                bits(8);
+            }
+        }
+        if ((flags & FNAME) != 0)
+        {
+            while (bits(8) != 0)
+            {
+                // skip the name
+            }
+        }
+        if ((flags & FCOMMENT) != 0)
+        {
+            while (bits(8) != 0)
+            {
+                // skip the comment
+            }
+        }
+        if ((flags & FHCRC) != 0)
+        {
+            bits(16);
+        }
+    }
+
+    /**
+     * Records a checkpoint at the current block boundary.
+     */
+    private void addCheckpoint()
+    {
+        checkpoints.add(new long[] {out, position()});
+
+        final int length = (int) Math.min(WINDOW_SIZE, memberOut);
+        final byte[] data = new byte[length];
+        final int start = (int) (memberOut - length) & WINDOW_MASK;
+        final int first = Math.min(length, WINDOW_SIZE - start);
+        System.arraycopy(window, start, data, 0, first);
+        System.arraycopy(window, 0, data, first, length - first);
+        windows.add(deflate(data));
+    }
+
+    private static byte[] deflate(final byte[] data)
+    {
+        if (data.length == 0)
+        {
+            return data;
+        }
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            deflater.setInput(data);
+            deflater.finish();
+            final byte[] buffer = new byte[data.length + 64];
+            int length = 0;
+            while (!deflater.finished())
+            {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            final byte[] result = new byte[length];
+            System.arraycopy(buffer, 0, result, 0, length);
+            return result;
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private void stored() throws IOException
+    {
+        bitCount -= bitCount & 7;
+        final int length = bits(16);
+        if ((bits(16) ^ 0xFFFF) != length)
+        {
+            throw new ZipException("Invalid stored block length in " + file);
+        }
+        for (int i = 0; i < length; i++)
+        {
+            emit((byte) bits(8));
+        }
+    }
+
+    private void dynamic() throws IOException
+    {
+        final int literalCount = bits(5) + 257;
+        final int distanceCount = bits(5) + 1;
+        final int codeLengthCount = bits(4) + 4;
+
+        final byte[] codeLengths = new byte[19];
+        for (int i = 0; i < codeLengthCount; i++)
+        {
+            codeLengths[CODE_LENGTH_ORDER[i]] = (byte) bits(3);
+        }
+        codeLengthCode.build(codeLengths, 0, codeLengths.length);
+
+        final byte[] lengths = new byte[literalCount + distanceCount];
+        int i = 0;
+        while (i < lengths.length)
+        {
+            final int symbol = codeLengthCode.decode(this);
+            if (symbol < 16)
+            {
+                lengths[i++] = (byte) symbol;
+                continue;
+            }
+            final byte value;
+            final int repeat;
+            if (symbol == 16)
+            {
+                if (i == 0)
+                {
+                    throw new ZipException("Invalid repeated code length in " + file);
+                }
+                value = lengths[i - 1];
+                repeat = 3 + bits(2);
+            }
+            else
+            {
+                value = 0;
+                repeat = symbol == 17 ? 3 + bits(3) : 11 + bits(7);
+            }
+            if (i + repeat > lengths.length)
+            {
+                throw new ZipException("Too many code lengths in " + file);
+            }
+            for (int j = 0; j < repeat; j++)
+            {
+                lengths[i++] = value;
+            }
+        }
+        if (lengths[256] == 0)
+        {
+            throw new ZipException("Missing end of block code in " + file);
+        }
+
+        literals.build(lengths, 0, literalCount);
+        distances.build(lengths, literalCount, distanceCount);
+        compressed(literals, distances);
+    }
+
+    private void compressed(final Huffman literalCode, final Huffman distanceCode) throws IOException
+    {
+        while (true)
+        {
+            final int symbol = literalCode.decode(this);
+            if (symbol < 256)
+            {
+                emit((byte) symbol);
+            }
+            else if (symbol == 256)
+            {
+                return;
+            }
+            else
+            {
+                final int lengthCode = symbol - 257;
+                if (lengthCode >= LENGTH_BASE.length)
+                {
+                    throw new ZipException("Invalid length code in " + file);
+                }
+                final int length = LENGTH_BASE[lengthCode] + bits(LENGTH_EXTRA[lengthCode]);
+                final int distanceSymbol = distanceCode.decode(this);
+                if (distanceSymbol >= DIST_BASE.length)
+                {
+                    throw new ZipException("Invalid distance code in " + file);
+                }
+                final int distance = DIST_BASE[distanceSymbol] + bits(DIST_EXTRA[distanceSymbol]);
+                if (distance > memberOut)
+                {
+                    throw new ZipException("Invalid distance in " + file);
+                }
+                for (int i = 0; i < length; i++)
+                {
+                    emit(window[(int) (memberOut - distance) & WINDOW_MASK]);
+                }
+            }
+        }
+    }
+
+    private void emit(final byte b)
+    {
+        window[(int) memberOut & WINDOW_MASK] = b;
+        memberOut++;
+        out++;
+    }
+
+    /**
+     * @return The number of bits consumed.
+     */
+    private long position()
+    {
+        return bytesRead * 8 - bitCount;
+    }
+
+    /**
+     * Makes sure the bit buffer holds at least the given number of bits, padding with zeros at the end of the file.
+     */
+    private void need(final int count) throws IOException
+    {
+        while (bitCount < count)
+        {
+            int b = in.read();
+            if (b < 0)
+            {
+                if (bytesRead >= fileLength + 4)
+                {
+                    throw new EOFException("Unexpected end of " + file);
+                }
+                b = 0;
+            }
+            bitBuffer |= (long) b << bitCount;
+            bitCount += 8;
+            bytesRead++;
+        }
+    }
+
+    private void consume(final int count) throws IOException
+    {
+        bitBuffer >>>= count;
+        bitCount -= count;
+        if (position() > fileLength * 8)
+        {
+            throw new EOFException("Unexpected end of " + file);
+        }
+    }
+
+    private int bits(final int count) throws IOException
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        need(count);
+        final int value = (int) (bitBuffer & ((1L << count) - 1));
+        consume(count);
+        return value;
+    }
+
+    /**
+     * A canonical Huffman code, decoded by a single table lookup of the next 15 bits.
+     */
+    private static final class Huffman
+    {
+        /** The symbol shifted left by 4 bits or'ed with the code length, 0 for invalid codes. */
+        private final int[] table = new int[1 << MAX_BITS];
+
+        /**
+         * Replaces the code by the code with the given code lengths.
+         */
+        void build(final byte[] lengths, final int offset, final int count) throws ZipException
+        {
+            Arrays.fill(table, 0);
+            final int[] lengthCounts = new int[MAX_BITS + 1];
+            for (int i = 0; i < count; i++)
+            {
+                lengthCounts[lengths[offset + i]]++;
+            }
+            lengthCounts[0] = 0;
+            final int[] nextCode = new int[MAX_BITS + 1];
+            int code = 0;
+            for (int bits = 1; bits <= MAX_BITS; bits++)
+            {
+                code = (code + lengthCounts[bits - 1]) << 1;
+                nextCode[bits] = code;
+            }
+            for (int symbol = 0; symbol < count; symbol++)
+            {
+                final int length = lengths[offset + symbol];
+                if (length == 0)
+                {
+                    continue;
+                }
+                final int symbolCode = nextCode[length]++;
+                if (symbolCode >= 1 << length)
+                {
+                    throw new ZipException("Invalid Huffman code lengths.");
+                }
+                final int reversed = Integer.reverse(symbolCode) >>> (32 - length);
+                for (int i = reversed; i < table.length; i += 1 << length)
+                {
+                    table[i] = symbol << 4 | length;
+                }
+            }
+        }
+
+        int decode(final GzipScanner scanner) throws IOException
+        {
+            scanner.need(MAX_BITS);
+            final int entry = table[(int) scanner.bitBuffer & ((1 << MAX_BITS) - 1)];
+            if (entry == 0)
+            {
+                throw new ZipException("Invalid Huffman code in " + scanner.file);
+            }
+            scanner.consume(entry & 15);
+            return entry >>> 4;
+        }
+    }
+}
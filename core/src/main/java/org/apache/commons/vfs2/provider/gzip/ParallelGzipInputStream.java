@@ -0,0 +1,740 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.gzip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.apache.commons.vfs2.util.ReadAheadInputStream;
+
+/**
+ * Reads a local gzip file whose members are inflated in parallel.
+ * <p>
+ * The first member is inflated at once on a single background thread ahead of
+ * the reader, so a file with a single member is read like any gzip stream. Only
+ * if another member follows it, as in a file written by concatenating gzip files
+ * or by block compressing tools, are the members after it decompressed
+ * speculatively: the pool searches the file ahead of the reader for the gzip
+ * magic, and every occurrence is taken as the possible start of a member and
+ * inflated on the pool. As the start of the next member is only known once the
+ * member before it has been inflated, the results for false starts found within
+ * compressed data are discarded. The CRC and size of each member are checked on
+ * the thread which inflated it.
+ * <p>
+ * Members are inflated into memory, up to {@link #MAX_MEMBER_SIZE} bytes each.
+ * The rest of a larger member is inflated on a single background thread once the
+ * reader gets to it.
+ *
+ * @since 2.1
+ */
+public class ParallelGzipInputStream extends InputStream
+{
+    /** The largest part of a member which is inflated speculatively. */
+    public static final int MAX_MEMBER_SIZE = 4 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int RESERVED = 0xE0;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private final int blockSize;
+    private final int window;
+    private final ExecutorService executor;
+
+    /** The members being inflated by their possible start offset. */
+    private final TreeMap<Long, Future<Member>> pending = new TreeMap<Long, Future<Member>>();
+
+    /** Discarded members which were already being inflated, closed once they are done. */
+    private final List<Future<Member>> discarded = new ArrayList<Future<Member>>();
+
+    /** The offset of the next member to read, only known once the current member has been inflated. */
+    private long offset;
+
+    /** True once a second member has been found, the members are inflated in parallel from then on. */
+    private boolean parallel;
+
+    /** The search for member starts on the pool, null if none is running. */
+    private Future<long[]> scan;
+
+    /** The offset the search for member starts continues at. */
+    private long scanPos;
+
+    private Member current;
+    private int pos;
+
+    /** The rest of the current member inflated ahead of the reader, null if the member is held in memory. */
+    private InputStream stream;
+    private MemberInflater streamed;
+
+    private volatile boolean closed;
+
+    /**
+     * Opens a gzip file and starts to inflate it.
+     *
+     * @param file The gzip file.
+     * @param threads The number of threads to inflate members with.
+     * @param blockSize The size of the blocks a large member is inflated ahead in.
+     * @throws IOException if the file cannot be opened or is not in gzip format.
+     */
+    public ParallelGzipInputStream(final File file, final int threads, final int blockSize) throws IOException
+    {
+        this.raf = new RandomAccessFile(file, "r");
+        try
+        {
+            this.channel = raf.getChannel();
+            this.length = channel.size();
+            this.blockSize = blockSize;
+            this.window = Math.max(1, threads) * 2;
+            if (!isMemberAt(0))
+            {
+                throw new ZipException("Not in GZIP format");
+            }
+            startStream(new MemberInflater(0));
+        }
+        catch (final IOException e)
+        {
+            raf.close();
+            throw e;
+        }
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                final Thread thread = new Thread(r, "gzip inflater");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed.");
+        }
+        if (len == 0)
+        {
+            return 0;
+        }
+        while (true)
+        {
+            if (current != null && pos < current.length)
+            {
+                final int n = Math.min(len, current.length - pos);
+                System.arraycopy(current.data, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+            if (current != null && current.rest != null)
+            {
+                // the member is larger than the part inflated in memory
+                startStream(current.rest);
+                current = null;
+            }
+            if (stream != null)
+            {
+                final int n = stream.read(b, off, len);
+                if (n != -1)
+                {
+                    return n;
+                }
+                endStream();
+                if (!parallel)
+                {
+                    // the members are inflated in parallel only if there is a second one
+                    if (!isMemberAt(offset))
+                    {
+                        return -1;
+                    }
+                    parallel = true;
+                    scanPos = offset + 1;
+                }
+            }
+            if (!nextMember())
+            {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        discardPending(Long.MAX_VALUE);
+        if (scan != null)
+        {
+            scan.cancel(false);
+        }
+        executor.shutdown();
+        try
+        {
+            // the inflaters notice the close after their current read
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        closeDiscarded();
+        try
+        {
+            if (stream != null)
+            {
+                stream.close();
+            }
+            if (current != null && current.rest != null)
+            {
+                current.rest.close();
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Inflates the rest of a member on a background thread ahead of the reader.
+     */
+    private void startStream(final MemberInflater inflater)
+    {
+        streamed = inflater;
+        stream = new ReadAheadInputStream(inflater, blockSize, 4, "gzip inflater");
+    }
+
+    /**
+     * Closes the stream of a member which has been read to its end.
+     */
+    private void endStream() throws IOException
+    {
+        offset = streamed.getEnd();
+        final InputStream in = stream;
+        stream = null;
+        streamed = null;
+        in.close();
+    }
+
+    /**
+     * Makes the member at the current offset the current member.
+     * @return false at the end of the file.
+     */
+    private boolean nextMember() throws IOException
+    {
+        closeDiscarded();
+        discardPending(offset);
+        Future<Member> future = pending.remove(Long.valueOf(offset));
+        if (future == null)
+        {
+            if (!isMemberAt(offset))
+            {
+                // anything following the last member is ignored like GZIPInputStream does
+                return false;
+            }
+            future = submit(offset);
+        }
+        schedule();
+
+        final Member member;
+        try
+        {
+            member = future.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            discard(future);
+            throw new InterruptedIOException("Interrupted while inflating.");
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+
+        current = member;
+        pos = 0;
+        offset = member.end;
+        return true;
+    }
+
+    /**
+     * Starts to inflate the possible members the search on the pool has found, and
+     * continues the search while fewer members than the window are being inflated.
+     */
+    private void schedule() throws IOException
+    {
+        if (scan != null && scan.isDone())
+        {
+            final long[] starts;
+            try
+            {
+                starts = scan.get();
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating.");
+            }
+            catch (final ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            scan = null;
+            for (final long start : starts)
+            {
+                if (start > offset && pending.size() < window && !pending.containsKey(Long.valueOf(start)))
+                {
+                    pending.put(Long.valueOf(start), submit(start));
+                }
+            }
+        }
+
+        final int count = window - pending.size();
+        if (scan == null && count > 0 && scanPos < length)
+        {
+            final long from = Math.max(scanPos, offset + 1);
+            scan = executor.submit(new Callable<long[]>()
+            {
+                @Override
+                public long[] call() throws IOException
+                {
+                    return findMagic(from, count);
+                }
+            });
+        }
+    }
+
+    private Future<Member> submit(final long start)
+    {
+        return executor.submit(new Callable<Member>()
+        {
+            @Override
+            public Member call() throws IOException
+            {
+                return inflate(start);
+            }
+        });
+    }
+
+    /**
+     * Discards the possible members before an offset.
+     */
+    private void discardPending(final long before)
+    {
+        final Iterator<Map.Entry<Long, Future<Member>>> iterator = pending.headMap(Long.valueOf(before)).entrySet()
+            .iterator();
+        while (iterator.hasNext())
+        {
+            discard(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    private void discard(final Future<Member> future)
+    {
+        // interrupting a read would close the shared channel, so running inflaters are left to finish
+        if (!future.cancel(false))
+        {
+            discarded.add(future);
+        }
+    }
+
+    /**
+     * Releases the inflaters of the discarded members which are done.
+     */
+    private void closeDiscarded()
+    {
+        final Iterator<Future<Member>> iterator = discarded.iterator();
+        while (iterator.hasNext())
+        {
+            final Future<Member> future = iterator.next();
+            if (future.isDone())
+            {
+                iterator.remove();
+                try
+                {
+                    final Member member = future.get();
+                    if (member.rest != null)
+                    {
+                        member.rest.close();
+                    }
+                }
+                catch (final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (final ExecutionException e)
+                {
+                    // a false member start
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether the gzip magic followed by the deflate method and valid flags is at an offset.
+     */
+    private boolean isMemberAt(final long position) throws IOException
+    {
+        final byte[] buffer = new byte[4];
+        return readAt(position, buffer, 4) == 4 && isMagic(buffer, 0);
+    }
+
+    private static boolean isMagic(final byte[] b, final int i)
+    {
+        return b[i] == 0x1f && b[i + 1] == (byte) 0x8b && b[i + 2] == 8 && (b[i + 3] & RESERVED) == 0;
+    }
+
+    /**
+     * Finds the next positions of the gzip magic followed by the deflate method and valid flags.
+     * @return The positions, fewer than requested at the end of the file.
+     */
+    private long[] findMagic(final long from, final int count) throws IOException
+    {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final long[] found = new long[count];
+        int n = 0;
+        long bufferStart = 0;
+        int bufferLength = 0;
+        for (long p = from; p + 10 <= length && n < count && !closed; p++)
+        {
+            if (p < bufferStart || p + 4 > bufferStart + bufferLength)
+            {
+                bufferStart = p;
+                bufferLength = readAt(p, buffer, buffer.length);
+            }
+            if (isMagic(buffer, (int) (p - bufferStart)))
+            {
+                found[n++] = p;
+            }
+        }
+        final long[] starts = new long[n];
+        System.arraycopy(found, 0, starts, 0, n);
+        return starts;
+    }
+
+    /**
+     * Inflates the member starting at a position, up to {@link #MAX_MEMBER_SIZE} bytes of it.
+     *
+     * @return The member, with the inflater of its rest if it is larger.
+     * @throws IOException if there is no valid member at the position.
+     */
+    private Member inflate(final long start) throws IOException
+    {
+        final MemberInflater inflater = new MemberInflater(start);
+        try
+        {
+            byte[] data = new byte[BUFFER_SIZE];
+            int size = 0;
+            while (true)
+            {
+                if (size == data.length)
+                {
+                    if (size == MAX_MEMBER_SIZE)
+                    {
+                        // the rest is inflated when the reader gets to it
+                        return new Member(data, size, -1, inflater);
+                    }
+                    final byte[] grown = new byte[Math.min(MAX_MEMBER_SIZE, size * 2)];
+                    System.arraycopy(data, 0, grown, 0, size);
+                    data = grown;
+                }
+                final int n = inflater.read(data, size, data.length - size);
+                if (n == -1)
+                {
+                    inflater.close();
+                    return new Member(data, size, inflater.getEnd(), null);
+                }
+                size += n;
+            }
+        }
+        catch (final IOException e)
+        {
+            inflater.close();
+            throw e;
+        }
+        catch (final RuntimeException e)
+        {
+            inflater.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Parses the header of a member.
+     * @return The position of the deflate data.
+     */
+    private long skipHeader(final long start, final byte[] buffer) throws IOException
+    {
+        if (readAt(start, buffer, 10) != 10)
+        {
+            throw new ZipException("Truncated gzip header at " + start);
+        }
+        final int flags = buffer[3] & 0xFF;
+        long position = start + 10;
+        if ((flags & FEXTRA) != 0)
+        {
+            if (readAt(position, buffer, 2) != 2)
+            {
+                throw new ZipException("Truncated gzip header at " + start);
+            }
+            position += 2 + ((buffer[0] & 0xFF) | (buffer[1] & 0xFF) << 8);
+        }
+        if ((flags & FNAME) != 0)
+        {
+            position = skipString(start, position, buffer);
+        }
+        if ((flags & FCOMMENT) != 0)
+        {
+            position = skipString(start, position, buffer);
+        }
+        if ((flags & FHCRC) != 0)
+        {
+            position += 2;
+        }
+        return position;
+    }
+
+    private long skipString(final long start, final long from, final byte[] buffer) throws IOException
+    {
+        long position = from;
+        while (true)
+        {
+            final int n = readAt(position, buffer, buffer.length);
+            if (n <= 0)
+            {
+                throw new ZipException("Truncated gzip header at " + start);
+            }
+            for (int i = 0; i < n; i++)
+            {
+                if (buffer[i] == 0)
+                {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Reads from the file at a position, the channel is shared by all threads.
+     * @return The number of bytes read, less than requested only at the end of the file.
+     */
+    private int readAt(final long position, final byte[] buffer, final int len) throws IOException
+    {
+        final ByteBuffer target = ByteBuffer.wrap(buffer, 0, len);
+        long p = position;
+        while (target.hasRemaining())
+        {
+            final int n = channel.read(target, p);
+            if (n < 0)
+            {
+                break;
+            }
+            p += n;
+        }
+        return target.position();
+    }
+
+    private static int getInt(final byte[] b, final int off)
+    {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * The inflated content of a member.
+     */
+    private static final class Member
+    {
+        private final byte[] data;
+        private final int length;
+
+        /** The offset after the member, -1 until the rest has been inflated. */
+        private final long end;
+
+        /** The inflater of the rest of the member, null if it has been inflated completely. */
+        private final MemberInflater rest;
+
+        Member(final byte[] data, final int length, final long end, final MemberInflater rest)
+        {
+            this.data = data;
+            this.length = length;
+            this.end = end;
+            this.rest = rest;
+        }
+    }
+
+    /**
+     * Inflates a single member and checks its CRC and size at its end.
+     */
+    private final class MemberInflater extends InputStream
+    {
+        private final long start;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private long position;
+        private long size;
+        private volatile long end = -1;
+
+        MemberInflater(final long start) throws IOException
+        {
+            this.start = start;
+            try
+            {
+                this.position = skipHeader(start, buffer);
+            }
+            catch (final IOException e)
+            {
+                inflater.end();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the offset after the member.
+         * @return The offset, -1 until the member has been inflated to its end.
+         */
+        long getEnd()
+        {
+            return end;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (end != -1)
+            {
+                return -1;
+            }
+            try
+            {
+                while (true)
+                {
+                    if (closed)
+                    {
+                        throw new InterruptedIOException("Stream closed.");
+                    }
+                    if (inflater.needsInput())
+                    {
+                        final int n = readAt(position, buffer, buffer.length);
+                        if (n <= 0)
+                        {
+                            throw new ZipException("Unexpected end of gzip member at " + start);
+                        }
+                        position += n;
+                        inflater.setInput(buffer, 0, n);
+                    }
+                    final int n = inflater.inflate(b, off, len);
+                    if (n > 0)
+                    {
+                        crc.update(b, off, n);
+                        size += n;
+                        return n;
+                    }
+                    if (inflater.finished())
+                    {
+                        checkTrailer();
+                        return -1;
+                    }
+                    if (inflater.needsDictionary())
+                    {
+                        throw new ZipException("Invalid gzip member at " + start);
+                    }
+                }
+            }
+            catch (final DataFormatException e)
+            {
+                throw new ZipException("Invalid gzip member at " + start + ": " + e.getMessage());
+            }
+        }
+
+        private void checkTrailer() throws IOException
+        {
+            final long trailer = position - inflater.getRemaining();
+            final byte[] check = new byte[8];
+            if (readAt(trailer, check, 8) != 8 || getInt(check, 0) != (int) crc.getValue()
+                || getInt(check, 4) != (int) size)
+            {
+                throw new ZipException("Corrupt gzip member at " + start);
+            }
+            end = trailer + 8;
+        }
+
+        @Override
+        public void close()
+        {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.gzip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a gzip stream whose content is deflated in parallel.
+ * <p>
+ * The content is cut into blocks which are deflated on a pool of threads. Each
+ * block is primed with the last 32 KB of the block before it and ends on a byte
+ * boundary with a sync flush, so the compressed blocks simply concatenate into
+ * the deflate stream of a single gzip member which any gzip reader accepts. The
+ * CRC of the content is computed on the writing thread. At most two blocks per
+ * thread are in flight at any time.
+ * <p>
+ * The sync flush needs Java 7. On older runtimes the blocks are deflated one after
+ * the other on the writing thread instead.
+ *
+ * @since 2.1
+ */
+public class ParallelGzipOutputStream extends OutputStream
+{
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    /** Deflater.deflate(byte[], int, int, int) and Deflater.SYNC_FLUSH, null before Java 7. */
+    private static final Method DEFLATE;
+    private static final Object SYNC_FLUSH;
+
+    static
+    {
+        Method deflate = null;
+        Object syncFlush = null;
+        try
+        {
+            deflate = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+            syncFlush = Deflater.class.getField("SYNC_FLUSH").get(null);
+        }
+        catch (final Exception e)
+        {
+            // blocks cannot be flushed on their own, they are deflated sequentially
+            deflate = null;
+        }
+        DEFLATE = deflate;
+        SYNC_FLUSH = syncFlush;
+    }
+
+    private final OutputStream out;
+    /** The pool the blocks are deflated on, null if they are deflated sequentially. */
+    private final ExecutorService executor;
+
+    /** The deflater of the whole content, null if the blocks are deflated in parallel. */
+    private final Deflater sequentialDeflater;
+    private final int blockSize;
+    private final int level;
+    private final int maxPending;
+
+    /** The compressed blocks in stream order. */
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    private final CRC32 crc = new CRC32();
+    private long size;
+
+    private byte[] block;
+    private int count;
+    private byte[] dictionary;
+    private boolean closed;
+
+    /**
+     * Creates the stream and writes the gzip header.
+     *
+     * @param out The stream to write the compressed content to.
+     * @param threads The number of threads to deflate with.
+     * @param blockSize The number of uncompressed bytes in a block, at least 32 KB are used.
+     * @param level The compression level.
+     * @throws IOException if the header cannot be written.
+     */
+    public ParallelGzipOutputStream(final OutputStream out, final int threads, final int blockSize, final int level)
+        throws IOException
+    {
+        this.out = out;
+        this.blockSize = Math.max(DICTIONARY_SIZE, blockSize);
+        this.level = level;
+        this.maxPending = Math.max(1, threads) * 2;
+        this.block = new byte[this.blockSize];
+        if (DEFLATE == null)
+        {
+            this.executor = null;
+            this.sequentialDeflater = new Deflater(level, true);
+        }
+        else
+        {
+            this.sequentialDeflater = null;
+            this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "gzip deflater");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(final int b) throws IOException
+    {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException
+    {
+        ensureOpen();
+        int pos = off;
+        final int end = off + len;
+        while (pos < end)
+        {
+            final int n = Math.min(end - pos, blockSize - count);
+            System.arraycopy(b, pos, block, count, n);
+            count += n;
+            pos += n;
+            if (count == blockSize)
+            {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses the content written so far and writes it to the underlying stream.
+     * Flushing often cuts the content into small blocks and lowers the compression ratio.
+     *
+     * @throws IOException if the content cannot be written.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        ensureOpen();
+        if (count > 0)
+        {
+            submitBlock(false);
+        }
+        while (!pending.isEmpty())
+        {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the last block, writes the gzip trailer and closes the underlying stream.
+     *
+     * @throws IOException if the content cannot be written.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        try
+        {
+            submitBlock(true);
+            while (!pending.isEmpty())
+            {
+                writeNext();
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) size);
+            out.flush();
+        }
+        finally
+        {
+            closed = true;
+            if (executor != null)
+            {
+                executor.shutdownNow();
+            }
+            else
+            {
+                sequentialDeflater.end();
+            }
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed.");
+        }
+    }
+
+    /**
+     * Hands the current block to the pool and writes finished blocks while too many are in flight.
+     */
+    private void submitBlock(final boolean last) throws IOException
+    {
+        final byte[] data = block;
+        final int length = count;
+        final byte[] previous = dictionary;
+        crc.update(data, 0, length);
+        size += length;
+
+        if (executor == null)
+        {
+            deflateSequentially(length, last);
+            return;
+        }
+
+        if (length >= DICTIONARY_SIZE)
+        {
+            dictionary = new byte[DICTIONARY_SIZE];
+            System.arraycopy(data, length - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+        }
+        else if (length > 0)
+        {
+            // a flushed short block, keep the end of the dictionary before it
+            final int keep = previous == null ? 0 : Math.min(previous.length, DICTIONARY_SIZE - length);
+            dictionary = new byte[keep + length];
+            if (keep > 0)
+            {
+                System.arraycopy(previous, previous.length - keep, dictionary, 0, keep);
+            }
+            System.arraycopy(data, 0, dictionary, keep, length);
+        }
+
+        pending.add(executor.submit(new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call() throws Exception
+            {
+                return deflate(data, length, previous, last);
+            }
+        }));
+        block = new byte[blockSize];
+        count = 0;
+
+        while (pending.size() > maxPending)
+        {
+            writeNext();
+        }
+    }
+
+    /**
+     * Deflates the current block on the writing thread and writes what the deflater has produced.
+     */
+    private void deflateSequentially(final int length, final boolean last) throws IOException
+    {
+        sequentialDeflater.setInput(block, 0, length);
+        if (last)
+        {
+            sequentialDeflater.finish();
+        }
+        final byte[] buffer = new byte[64 * 1024];
+        while (last ? !sequentialDeflater.finished() : !sequentialDeflater.needsInput())
+        {
+            final int n = sequentialDeflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        count = 0;
+    }
+
+    private byte[] deflate(final byte[] data, final int length, final byte[] previous, final boolean last)
+        throws IllegalAccessException, InvocationTargetException
+    {
+        final Deflater deflater = new Deflater(level, true);
+        try
+        {
+            if (previous != null)
+            {
+                deflater.setDictionary(previous);
+            }
+            deflater.setInput(data, 0, length);
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            final byte[] buffer = new byte[64 * 1024];
+            if (last)
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+            else
+            {
+                int n;
+                do
+                {
+                    n = ((Integer) DEFLATE.invoke(deflater, buffer, 0, buffer.length, SYNC_FLUSH)).intValue();
+                    compressed.write(buffer, 0, n);
+                }
+                while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Waits for the oldest block in flight and writes it.
+     */
+    private void writeNext() throws IOException
+    {
+        final Future<byte[]> next = pending.removeFirst();
+        try
+        {
+            out.write(next.get());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing.");
+        }
+        catch (final ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeInt(final int value) throws IOException
+    {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >>> 24) & 0xFF);
+    }
+}
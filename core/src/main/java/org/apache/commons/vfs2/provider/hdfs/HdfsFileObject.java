@@ -28,6 +28,7 @@ import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
+import org.apache.commons.vfs2.provider.BlockCachingRandomAccessContent;
 import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -160,7 +161,7 @@ public class HdfsFileObject extends AbstractFileObject<HdfsFileSystem>
         {
             throw new UnsupportedOperationException();
         }
-        return new HdfsRandomAccessContent(this.path, this.hdfs);
+        return BlockCachingRandomAccessContent.decorate(this, new HdfsRandomAccessContent(this.path, this.hdfs), mode);
     }
 
     /**
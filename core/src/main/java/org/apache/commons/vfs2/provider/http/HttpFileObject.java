@@ -36,6 +36,7 @@ import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
+import org.apache.commons.vfs2.provider.BlockCachingRandomAccessContent;
 import org.apache.commons.vfs2.provider.URLFileName;
 import org.apache.commons.vfs2.util.MonitorInputStream;
 import org.apache.commons.vfs2.util.RandomAccessMode;
@@ -160,7 +161,9 @@ public class HttpFileObject<FS extends HttpFileSystem> extends AbstractFileObjec
     @Override
     protected RandomAccessContent doGetRandomAccessContent(final RandomAccessMode mode) throws Exception
     {
-        return new HttpRandomAccessContent(this, mode);
+        final Header etag = getHeadMethod().getResponseHeader("etag");
+        return BlockCachingRandomAccessContent.decorate(this, new HttpRandomAccessContent(this, mode), mode,
+            etag != null ? etag.getValue() : null);
     }
 
     /**
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ram;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+/**
+ * Stores the content of a RAM file in a single byte array, which limits it to 2 GB.
+ * <p>
+ * The array grows geometrically and the logical size is tracked separately from its
+ * capacity, so writing a file in small chunks takes amortized linear time.
+ * <p>
+ * A grown array is published before the size, so readers which read the size
+ * first never see an array which is too short.
+ */
+class ArrayRamFileStorage extends RamFileStorage
+{
+    private static final byte[] EMPTY = new byte[0];
+
+    /** Some VMs reserve header words in an array, stay below their limit when growing. */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * serialVersionUID format is YYYYMMDD for the date of the last binary change.
+     */
+    private static final long serialVersionUID = 20261019L;
+
+    /**
+     * Bytes, only the first {@link #size} are content. Not serialized as a whole, see
+     * {@link #writeObject(ObjectOutputStream)}.
+     */
+    private transient volatile byte[] content = EMPTY;
+
+    private volatile int size;
+
+    /** Set while the array is shared with the storage this one is a snapshot of. */
+    private transient boolean shared;
+
+    @Override
+    long size()
+    {
+        return size;
+    }
+
+    @Override
+    void resize(final long newSize)
+    {
+        if (newSize > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(String.format("newSize(%d) > Integer.MAX_VALUE(%d)", newSize,
+                    Integer.MAX_VALUE));
+        }
+        final int resize = (int) newSize;
+        if (resize > content.length)
+        {
+            int capacity = content.length < MAX_CAPACITY / 2 ? content.length * 2 : MAX_CAPACITY;
+            if (capacity < resize)
+            {
+                capacity = resize;
+            }
+            content = Arrays.copyOf(content, capacity);
+            shared = false;
+        }
+        else if (resize < size)
+        {
+            if (shared)
+            {
+                content = Arrays.copyOf(content, content.length);
+                shared = false;
+            }
+            // bytes behind the new end must read as zeros if the content grows again
+            Arrays.fill(content, resize, size, (byte) 0);
+        }
+        size = resize;
+    }
+
+    @Override
+    int read(final long pos)
+    {
+        if (pos >= size)
+        {
+            return -1;
+        }
+        final byte[] bytes = content;
+        return bytes[(int) pos] & 0xFF;
+    }
+
+    @Override
+    int read(final long pos, final byte[] b, final int off, final int len)
+    {
+        final int currentSize = size;
+        if (pos >= currentSize)
+        {
+            return -1;
+        }
+        final byte[] bytes = content;
+        final int count = (int) Math.min(len, currentSize - pos);
+        System.arraycopy(bytes, (int) pos, b, off, count);
+        return count;
+    }
+
+    @Override
+    void write(final long pos, final byte[] b, final int off, final int len)
+    {
+        if (shared)
+        {
+            content = Arrays.copyOf(content, content.length);
+            shared = false;
+        }
+        System.arraycopy(b, off, content, (int) pos, len);
+    }
+
+    @Override
+    RamFileStorage newEmpty()
+    {
+        return new ArrayRamFileStorage();
+    }
+
+    @Override
+    RamFileStorage snapshot()
+    {
+        final ArrayRamFileStorage snapshot = new ArrayRamFileStorage();
+        snapshot.content = content;
+        snapshot.size = size;
+        snapshot.shared = true;
+        return snapshot;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        out.write(content, 0, size);
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        content = new byte[size];
+        in.readFully(content);
+    }
+}
@@ -17,9 +17,10 @@
 package org.apache.commons.vfs2.provider.ram;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileSystemException;
@@ -27,35 +28,46 @@ import org.apache.commons.vfs2.FileType;
 
 /**
  * RAM File Object Data.
+ * <p>
+ * The fields are volatile and the children are kept in a concurrent set ordered
+ * by name, so the data can be read and listed without locking.
  */
 class RamFileData implements Serializable
 {
-    static final byte[] EMPTY = new byte[0];
-
     /**
      * serialVersionUID format is YYYYMMDD for the date of the last binary change.
      */
-    private static final long serialVersionUID = 20101208L;
+    private static final long serialVersionUID = 20261019L;
 
     /**
      * File Name.
      */
-    private FileName name;
+    private volatile FileName name;
 
     /**
      * File Type.
      */
-    private FileType type;
+    private volatile FileType type;
 
     /**
-     * Bytes.
+     * Content.
      */
-    private byte[] content;
+    private volatile RamFileStorage content;
 
     /**
      * Last modified time
      */
-    private long lastModified;
+    private volatile long lastModified;
+
+    /**
+     * Last time the content was opened, used to find cold files.
+     */
+    private transient volatile long lastAccessed;
+
+    /**
+     * The generation of the file system which may modify this data, see {@link RamFileSystem#fork()}.
+     */
+    private transient volatile Object owner;
 
     /**
      * Children
@@ -65,12 +77,15 @@ class RamFileData implements Serializable
     /**
      * Constructor.
      * @param name The file name.
+     * @param content The storage for the content, its kind is kept when the data is cleared.
      */
-    public RamFileData(final FileName name)
+    public RamFileData(final FileName name, final RamFileStorage content)
     {
         super();
-        this.children = Collections.synchronizedCollection(new ArrayList<RamFileData>());
+        this.children = new ConcurrentSkipListSet<RamFileData>(new BaseNameComparator());
+        this.content = content;
         this.clear();
+        this.updateLastAccessed();
         if (name == null)
         {
             throw new IllegalArgumentException("name can not be null");
@@ -79,17 +94,60 @@ class RamFileData implements Serializable
     }
 
     /**
-     * @return Returns the buffer.
+     * Creates a copy which shares the content of this data until it is written.
+     *
+     * @param newOwner The owner of the copy.
+     * @return The copy.
+     */
+    RamFileData copy(final Object newOwner)
+    {
+        return new RamFileData(this, newOwner);
+    }
+
+    /**
+     * @return Returns the owner.
+     */
+    Object getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * @param owner The owner to set.
+     */
+    void setOwner(final Object owner)
+    {
+        this.owner = owner;
+    }
+
+    /**
+     * Copy constructor, the copy may be cleared data.
+     */
+    private RamFileData(final RamFileData source, final Object owner)
+    {
+        super();
+        this.children = new ConcurrentSkipListSet<RamFileData>(new BaseNameComparator());
+        this.children.addAll(source.children);
+        this.content = source.content.snapshot();
+        this.name = source.name;
+        this.type = source.type;
+        this.lastModified = source.lastModified;
+        this.lastAccessed = source.lastAccessed;
+        this.owner = owner;
+    }
+
+    /**
+     * @return Returns the content.
      */
-    byte[] getContent()
+    RamFileStorage getContent()
     {
         return content;
     }
 
     /**
-     * @param content The buffer.
+     * @param content The content.
      */
-    void setContent(final byte[] content)
+    void setContent(final RamFileStorage content)
     {
         updateLastModified();
         this.content = content;
@@ -133,7 +191,7 @@ class RamFileData implements Serializable
      */
     void clear()
     {
-        this.content = EMPTY;
+        this.content = content.newEmpty();
         updateLastModified();
         this.type = FileType.IMAGINARY;
         this.children.clear();
@@ -145,6 +203,22 @@ class RamFileData implements Serializable
         this.lastModified = System.currentTimeMillis();
     }
 
+    /**
+     * @return Returns the last time the content was opened, as {@link System#nanoTime()}.
+     */
+    long getLastAccessed()
+    {
+        return lastAccessed;
+    }
+
+    /**
+     * Marks the content as used now.
+     */
+    void updateLastAccessed()
+    {
+        this.lastAccessed = System.nanoTime();
+    }
+
     /**
      * @return Returns the name.
      */
@@ -183,12 +257,10 @@ class RamFileData implements Serializable
             throw new FileSystemException("No child can be null");
         }
 
-        if (this.children.contains(data))
+        if (!this.children.add(data))
         {
             throw new FileSystemException("Child already exists. " + data);
         }
-
-        this.children.add(data);
         updateLastModified();
     }
 
@@ -205,16 +277,15 @@ class RamFileData implements Serializable
             throw new FileSystemException(
                     "A child can only be removed from a folder");
         }
-        if (!this.children.contains(data))
+        if (!this.children.remove(data))
         {
             throw new FileSystemException("Child not found. " + data);
         }
-        this.children.remove(data);
         updateLastModified();
     }
 
     /**
-     * @return Returns the children.
+     * @return Returns a read-only view of the children, iterating it never fails on concurrent changes.
      */
     Collection<RamFileData> getChildren()
     {
@@ -222,7 +293,7 @@ class RamFileData implements Serializable
         {
             throw new IllegalStateException("Data is clear");
         }
-        return children;
+        return Collections.unmodifiableCollection(children);
     }
 
     /*
@@ -262,32 +333,38 @@ class RamFileData implements Serializable
     }
 
     /**
-     * @return Returns the size of the buffer
+     * @return Returns the size of the content
      */
-    int size()
+    long size()
     {
-        return content.length;
+        return content.size();
     }
 
     /**
-     * Resize the buffer
+     * Resize the content
      *
-     * @param newSize The new buffer size.
+     * @param newSize The new content size.
      */
     void resize(final long newSize)
     {
-        // A future implementation may allow longs/multiple buffer/and so on
-        if (newSize > Integer.MAX_VALUE)
-        {
-            throw new IllegalArgumentException(String.format("newSize(%d) > Integer.MAX_VALUE(%d)", newSize,
-                    Integer.MAX_VALUE));
-        }
-        final int resize = (int) newSize;
-        final int size = this.size();
-        final byte[] newBuf = new byte[resize];
-        System.arraycopy(this.content, 0, newBuf, 0, Math.min(resize, size));
-        this.content = newBuf;
+        content.resize(newSize);
         updateLastModified();
     }
 
+    /**
+     * Orders the children of a folder by name, two children with the same name are the same file.
+     */
+    private static final class BaseNameComparator implements Comparator<RamFileData>, Serializable
+    {
+        /**
+         * serialVersionUID format is YYYYMMDD for the date of the last binary change.
+         */
+        private static final long serialVersionUID = 20261019L;
+
+        @Override
+        public int compare(final RamFileData o1, final RamFileData o2)
+        {
+            return o1.getName().getBaseName().compareTo(o2.getName().getBaseName());
+        }
+    }
 }
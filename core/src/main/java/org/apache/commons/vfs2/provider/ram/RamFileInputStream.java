@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ram;
+
+import java.io.InputStream;
+
+/**
+ * InputStream from a RAM file, reading the storage in place.
+ */
+class RamFileInputStream extends InputStream
+{
+    private final RamFileStorage content;
+
+    private long pos;
+
+    private long mark;
+
+    /**
+     * @param content The storage to read.
+     */
+    RamFileInputStream(final RamFileStorage content)
+    {
+        this.content = content;
+    }
+
+    @Override
+    public int read()
+    {
+        final int b = content.read(pos);
+        if (b != -1)
+        {
+            pos++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        final int n = content.read(pos, b, off, len);
+        if (n > 0)
+        {
+            pos += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n)
+    {
+        final long skipped = Math.max(0, Math.min(n, content.size() - pos));
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, content.size() - pos));
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readlimit)
+    {
+        mark = pos;
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        pos = mark;
+    }
+}
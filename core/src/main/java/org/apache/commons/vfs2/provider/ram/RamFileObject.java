@@ -16,14 +16,12 @@
  */
 package org.apache.commons.vfs2.provider.ram;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
-import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.provider.AbstractFileName;
@@ -40,7 +38,7 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
     /**
      * RAM File Object Data.
      */
-    private RamFileData data;
+    private volatile RamFileData data;
 
     /**
      * @param name
@@ -106,7 +104,8 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
             throw new FileSystemException("vfs.provider/read-not-file.error", getName());
         }
 
-        return new ByteArrayInputStream(this.data.getContent());
+        this.data.updateLastAccessed();
+        return new RamFileInputStream(this.data.getContent());
     }
 
     /*
@@ -119,7 +118,7 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
     {
         if (!bAppend)
         {
-            this.data.setContent(RamFileData.EMPTY);
+            getAbstractFileSystem().truncate(this);
         }
         return new RamFileOutputStream(this);
     }
@@ -160,7 +159,7 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
     @Override
     protected boolean doSetLastModifiedTime(final long modtime) throws Exception
     {
-        data.setLastModified(modtime);
+        getAbstractFileSystem().setLastModified(this, modtime);
         return true;
     }
 
@@ -197,6 +196,7 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
     @Override
     protected RandomAccessContent doGetRandomAccessContent(final RandomAccessMode mode) throws Exception
     {
+        this.data.updateLastAccessed();
         return new RamFileRandomAccessContent(this, mode);
     }
 
@@ -236,7 +236,10 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
     @Override
     protected void injectType(final FileType fileType)
     {
-        this.data.setType(fileType);
+        if (this.data.getType() != fileType)
+        {
+            getAbstractFileSystem().setType(this, fileType);
+        }
         super.injectType(fileType);
     }
 
@@ -255,7 +258,7 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
     /**
      * @return Returns the size of the {@link RamFileData}.
      */
-    int size()
+    long size()
     {
         return data == null ? 0 : data.size();
     }
@@ -265,19 +268,23 @@ public class RamFileObject extends AbstractFileObject<RamFileSystem>
      * @throws IOException
      *             if the new size exceeds the limit
      */
-    synchronized void resize(final long newSize) throws IOException
+    void resize(final long newSize) throws IOException
     {
-        final RamFileSystem afs = getAbstractFileSystem();
-        final FileSystemOptions afsOptions = afs.getFileSystemOptions();
-        if (afsOptions != null)
-        {
-            final long maxSize = RamFileSystemConfigBuilder.getInstance().getLongMaxSize(afsOptions);
-            if (afs.size() + newSize - this.size() > maxSize)
-            {
-                throw new IOException("FileSystem capacity (" + maxSize + ") exceeded.");
-            }
-        }
-        this.data.resize(newSize);
+        getAbstractFileSystem().resize(this, newSize);
+    }
+
+    /**
+     * Writes to the content, extending it if necessary.
+     *
+     * @param pos The position to write to or -1 to append.
+     * @param b The buffer.
+     * @param off The offset in the buffer.
+     * @param len The number of bytes to write.
+     * @throws IOException if the new size exceeds the limit
+     */
+    void write(final long pos, final byte[] b, final int off, final int len) throws IOException
+    {
+        getAbstractFileSystem().write(this, pos, b, off, len);
     }
 
 }
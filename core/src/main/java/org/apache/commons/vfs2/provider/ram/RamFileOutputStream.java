@@ -59,20 +59,16 @@ public class RamFileOutputStream extends OutputStream
     @Override
     public void write(final byte[] b, final int off, final int len) throws IOException
     {
-        final RamFileData data = this.file.getData();
-        final int size = data.size();
-        final int newSize = size + len;
         // Store the Exception in order to notify the client again on close()
         try
         {
-            this.file.resize(newSize);
+            this.file.write(-1, b, off, len);
         }
         catch (final IOException e)
         {
             this.exception = e;
             throw e;
         }
-        System.arraycopy(b, off, data.getContent(), size, len);
     }
 
     /*
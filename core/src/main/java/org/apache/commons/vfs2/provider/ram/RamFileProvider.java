@@ -22,6 +22,7 @@ import java.util.Collections;
 
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystem;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
@@ -76,6 +77,32 @@ public class RamFileProvider extends AbstractOriginatingFileProvider implements
         return new RamFileSystem(name, fileSystemOptions);
     }
 
+    /**
+     * Creates a copy-on-write snapshot of the RAM file system of a file in constant time.
+     * <p>
+     * The fork shares all files with its source until either of them changes a
+     * file, so it is a cheap way to instantiate a template tree. Files of the fork
+     * are resolved relative to the returned root since the fork has the same root
+     * name and options as its source. Close it with
+     * {@link org.apache.commons.vfs2.FileSystemManager#closeFileSystem(FileSystem)} when done.
+     *
+     * @param file A file of the RAM file system to fork.
+     * @return The root of the fork.
+     * @throws FileSystemException if the file is not a RAM file.
+     * @since 2.1
+     */
+    public FileObject fork(final FileObject file) throws FileSystemException
+    {
+        final FileSystem fs = file.getFileSystem();
+        if (!(fs instanceof RamFileSystem))
+        {
+            throw new FileSystemException("Not a RAM file: " + file);
+        }
+        final RamFileSystem fork = ((RamFileSystem) fs).fork();
+        addComponent(fork);
+        return fork.getRoot();
+    }
+
     /*
      * (non-Javadoc)
      *
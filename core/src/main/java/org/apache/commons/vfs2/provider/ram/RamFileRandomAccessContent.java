@@ -34,12 +34,7 @@ public class RamFileRandomAccessContent implements RandomAccessContent
     /**
      * File Pointer
      */
-    protected int filePointer = 0;
-
-    /**
-     * Buffer
-     */
-    private byte[] buf;
+    protected long filePointer = 0;
 
     /**
      * buffer
@@ -80,7 +75,6 @@ public class RamFileRandomAccessContent implements RandomAccessContent
     public RamFileRandomAccessContent(final RamFileObject file, final RandomAccessMode mode)
     {
         super();
-        this.buf = file.getData().getContent();
         this.file = file;
         this.mode = mode;
 
@@ -120,12 +114,10 @@ public class RamFileRandomAccessContent implements RandomAccessContent
             @Override
             public int read(final byte[] b, final int off, final int len) throws IOException
             {
-                int retLen = -1;
-                final int left = getLeftBytes();
-                if (left > 0)
+                final int retLen = content().read(filePointer, b, off, len);
+                if (retLen > 0)
                 {
-                    retLen = Math.min(len, left);
-                    RamFileRandomAccessContent.this.readFully(b, off, retLen);
+                    filePointer += retLen;
                 }
                 return retLen;
             }
@@ -133,7 +125,7 @@ public class RamFileRandomAccessContent implements RandomAccessContent
             @Override
             public int available() throws IOException
             {
-                return getLeftBytes();
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(0, getLeftBytes()));
             }
         };
     }
@@ -161,7 +153,7 @@ public class RamFileRandomAccessContent implements RandomAccessContent
         {
             throw new IOException("Attempt to position before the start of the file");
         }
-        this.filePointer = (int) pos;
+        this.filePointer = pos;
     }
 
     /*
@@ -172,7 +164,7 @@ public class RamFileRandomAccessContent implements RandomAccessContent
     @Override
     public long length() throws IOException
     {
-        return buf.length;
+        return content().size();
     }
 
     /*
@@ -252,14 +244,13 @@ public class RamFileRandomAccessContent implements RandomAccessContent
     @Override
     public int readUnsignedByte() throws IOException
     {
-        if (filePointer < buf.length)
-        {
-            return buf[filePointer++] & 0xFF;
-        }
-        else
+        final int b = content().read(filePointer);
+        if (b == -1)
         {
             throw new EOFException();
         }
+        filePointer++;
+        return b;
     }
 
     /*
@@ -325,7 +316,7 @@ public class RamFileRandomAccessContent implements RandomAccessContent
 
         final long newPos = filePointer + n;
 
-        if (newPos > buf.length)
+        if (newPos > length())
         {
             throw new IndexOutOfBoundsException("Tyring to skip too much bytes");
         }
@@ -366,14 +357,26 @@ public class RamFileRandomAccessContent implements RandomAccessContent
                     + this.getLeftBytes() + ") ");
         }
 
-        System.arraycopy(buf, filePointer, b, off, len);
+        if (len > 0)
+        {
+            content().read(filePointer, b, off, len);
+        }
 
         filePointer += len;
     }
 
-    private int getLeftBytes()
+    private long getLeftBytes()
     {
-        return buf.length - filePointer;
+        return content().size() - filePointer;
+    }
+
+    /**
+     * The storage is looked up for each access because writing through an
+     * output stream replaces it.
+     */
+    private RamFileStorage content()
+    {
+        return this.file.getData().getContent();
     }
 
     /*
@@ -395,13 +398,7 @@ public class RamFileRandomAccessContent implements RandomAccessContent
     @Override
     public void write(final byte[] b, final int off, final int len) throws IOException
     {
-        if (this.getLeftBytes() < len)
-        {
-            final int newSize = this.buf.length + len - this.getLeftBytes();
-            this.file.resize(newSize);
-            this.buf = this.file.getData().getContent();
-        }
-        System.arraycopy(b, off, this.buf, filePointer, len);
+        this.file.write(filePointer, b, off, len);
         this.filePointer += len;
     }
 
@@ -653,6 +650,5 @@ public class RamFileRandomAccessContent implements RandomAccessContent
     public void setLength(final long newLength) throws IOException
     {
         this.file.resize(newLength);
-        this.buf = this.file.getData().getContent();
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ram;
+
+import java.io.Serializable;
+
+/**
+ * Storage of the content of a RAM file.
+ * <p>
+ * The size of the storage is changed with {@link #resize(long)} before writing,
+ * writes never extend the content by themselves.
+ */
+abstract class RamFileStorage implements Serializable
+{
+    /**
+     * serialVersionUID format is YYYYMMDD for the date of the last binary change.
+     */
+    private static final long serialVersionUID = 20261019L;
+
+    /**
+     * @return The size of the content in bytes.
+     */
+    abstract long size();
+
+    /**
+     * Truncates or extends the content. Extended content reads as zeros.
+     *
+     * @param newSize The new size in bytes.
+     */
+    abstract void resize(long newSize);
+
+    /**
+     * Reads a single byte.
+     *
+     * @param pos The position to read from.
+     * @return The byte as an unsigned value or -1 if the position is at or beyond the end.
+     */
+    abstract int read(long pos);
+
+    /**
+     * Reads bytes into a buffer.
+     *
+     * @param pos The position to read from.
+     * @param b The buffer.
+     * @param off The offset in the buffer.
+     * @param len The maximum number of bytes to read.
+     * @return The number of bytes read or -1 if the position is at or beyond the end.
+     */
+    abstract int read(long pos, byte[] b, int off, int len);
+
+    /**
+     * Writes bytes within the current size of the content.
+     *
+     * @param pos The position to write to.
+     * @param b The buffer.
+     * @param off The offset in the buffer.
+     * @param len The number of bytes to write.
+     */
+    abstract void write(long pos, byte[] b, int off, int len);
+
+    /**
+     * @return An empty storage of the same kind.
+     */
+    abstract RamFileStorage newEmpty();
+
+    /**
+     * Creates a storage with the same content which shares the buffers of this
+     * storage and copies them before it writes to them. This storage must not be
+     * written any more.
+     *
+     * @return A copy-on-write copy of this storage.
+     */
+    abstract RamFileStorage snapshot();
+}
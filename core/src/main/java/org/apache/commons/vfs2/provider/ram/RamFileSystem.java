@@ -16,17 +16,26 @@
  */
 package org.apache.commons.vfs2.provider.ram;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
@@ -39,20 +48,65 @@ import org.apache.commons.vfs2.provider.AbstractFileSystem;
 
 /**
  * A RAM File System.
+ * <p>
+ * The file data is kept in a concurrent map, so resolving, reading and listing
+ * files never blocks. The bytes used by all files are tracked in a counter
+ * which enforces the {@link RamFileSystemConfigBuilder#setMaxSize(FileSystemOptions, long) maximum size}
+ * without locking the file system. Above the
+ * {@link RamFileSystemConfigBuilder#setSoftMaxSize(FileSystemOptions, long) soft maximum size}
+ * the least recently used files are deleted, which turns the file system into a
+ * bounded cache.
+ * <p>
+ * A file system can be {@link #fork() forked} in constant time. The data of both
+ * file systems is then frozen into a shared layer and each of them copies a
+ * file into its own map before it changes it, while the content of a copied file
+ * shares the buffers of the original until they are written.
  */
 public class RamFileSystem extends AbstractFileSystem implements Serializable
 {
-    private static final int BUFFER_SIZE = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of frozen layers above which a fork merges them, so lookups stay cheap.
+     */
+    private static final int MAX_LAYERS = 8;
 
     /**
      * serialVersionUID format is YYYYMMDD for the date of the last binary change.
      */
-    private static final long serialVersionUID = 20101208L;
+    private static final long serialVersionUID = 20261019L;
+
+    /**
+     * Cache of RAM File Data changed since the last fork. Deleted files are kept as cleared data while
+     * a frozen layer may still contain them.
+     */
+    private volatile ConcurrentMap<FileName, RamFileData> cache;
+
+    /**
+     * The frozen file data shared with forks, or null.
+     */
+    private volatile Layer frozen;
+
+    /**
+     * Identifies the data this file system may change, the data of other generations is frozen.
+     * A deserialized file system starts a new generation which owns the data of its cache.
+     */
+    private transient volatile Object generation = new Object();
 
     /**
-     * Cache of RAM File Data
+     * Changes hold the read lock, a fork holds the write lock while it freezes the data.
      */
-    private final Map<FileName, RamFileData> cache;
+    private final ReadWriteLock forkLock = new ReentrantReadWriteLock();
+
+    /**
+     * The bytes used by the content of all files.
+     */
+    private final AtomicLong usedSize = new AtomicLong();
+
+    /**
+     * Set while cold files are evicted, so only one thread evicts at a time.
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
 
     /**
      * @param rootName The root file name.
@@ -61,14 +115,39 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
     protected RamFileSystem(final FileName rootName, final FileSystemOptions fileSystemOptions)
     {
         super(rootName, null, fileSystemOptions);
-        this.cache = Collections.synchronizedMap(new HashMap<FileName, RamFileData>());
+        this.cache = new ConcurrentHashMap<FileName, RamFileData>();
         // create root
-        final RamFileData rootData = new RamFileData(rootName);
+        final RamFileData rootData = new RamFileData(rootName, createStorage());
         rootData.setType(FileType.FOLDER);
         rootData.setLastModified(System.currentTimeMillis());
+        rootData.setOwner(generation);
         this.cache.put(rootName, rootData);
     }
 
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        generation = new Object();
+        for (final RamFileData data : cache.values())
+        {
+            data.setOwner(generation);
+        }
+    }
+
+    /**
+     * Creates a fork sharing the frozen data of a file system.
+     *
+     * @param source The file system to fork.
+     * @param frozen The frozen data of the source.
+     */
+    private RamFileSystem(final RamFileSystem source, final Layer frozen)
+    {
+        super(source.getRootName(), null, source.getFileSystemOptions());
+        this.cache = new ConcurrentHashMap<FileName, RamFileData>();
+        this.frozen = frozen;
+        this.usedSize.set(source.usedSize.get());
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -91,35 +170,109 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
         caps.addAll(RamFileProvider.capabilities);
     }
 
+    /**
+     * Creates a copy-on-write snapshot of this file system in constant time.
+     * <p>
+     * The fork starts with the files of this file system and changes of either
+     * file system are not visible to the other one. The fork is not registered
+     * with a provider, see {@link RamFileProvider#fork(FileObject)}.
+     *
+     * @return The fork.
+     */
+    public RamFileSystem fork()
+    {
+        final Lock lock = forkLock.writeLock();
+        lock.lock();
+        try
+        {
+            // nothing changed since the last fork, the frozen layer can be shared as it is
+            if (frozen == null || !cache.isEmpty())
+            {
+                Layer layer = new Layer(cache, frozen);
+                if (layer.depth > MAX_LAYERS)
+                {
+                    layer = layer.merge();
+                }
+                frozen = layer;
+                cache = new ConcurrentHashMap<FileName, RamFileData>();
+            }
+            // the data of the old generation is frozen now
+            generation = new Object();
+            return new RamFileSystem(this, frozen);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks up the data of a file.
+     *
+     * @param name The name of the file.
+     * @return The data or null if the file does not exist.
+     */
+    private RamFileData lookup(final FileName name)
+    {
+        // read the map before the layer, a fork publishes them in the opposite order
+        RamFileData data = cache.get(name);
+        for (Layer layer = frozen; data == null && layer != null; layer = layer.parent)
+        {
+            data = layer.files.get(name);
+        }
+        return data == null || data.getName() == null ? null : data;
+    }
+
+    /**
+     * Returns the data of a file which this file system may change, copying
+     * frozen data first. The caller must hold the read lock of the fork lock.
+     *
+     * @param file The file.
+     * @return The data of the file.
+     */
+    private RamFileData own(final RamFileObject file)
+    {
+        final RamFileData data = file.getData();
+        if (data.getOwner() == generation)
+        {
+            return data;
+        }
+        RamFileData copy = data.copy(generation);
+        if (data.getName() != null && lookup(data.getName()) == data)
+        {
+            final RamFileData existing = cache.putIfAbsent(data.getName(), copy);
+            if (existing != null && existing.getName() != null)
+            {
+                // another file object copied it first
+                copy = existing;
+            }
+        }
+        file.setData(copy);
+        return copy;
+    }
+
     /**
      * @param name The name of the file.
      * @return children The names of the children.
      */
     String[] listChildren(final FileName name)
     {
-        final RamFileData data = this.cache.get(name);
+        final RamFileData data = lookup(name);
         if (data == null || !data.getType().hasChildren())
         {
             return null;
         }
-        final Collection<RamFileData> children = data.getChildren();
-        String[] names;
-
-        synchronized (children)
+        final List<String> names = new ArrayList<String>();
+        for (final RamFileData childData : data.getChildren())
         {
-            names = new String[children.size()];
-
-            int pos = 0;
-            final Iterator<RamFileData> iter = children.iterator();
-            while (iter.hasNext())
+            final FileName childName = childData.getName();
+            // the child may be deleted concurrently
+            if (childName != null)
             {
-                final RamFileData childData = iter.next();
-                names[pos] = childData.getName().getBaseName();
-                pos++;
+                names.add(childName.getBaseName());
             }
         }
-
-        return names;
+        return names.toArray(new String[names.size()]);
     }
 
     /**
@@ -136,15 +289,36 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
             throw new FileSystemException("unable to delete root");
         }
 
-        // Remove reference from cache
-        this.cache.remove(file.getName());
-        // Notify the parent
-        final RamFileObject parent = (RamFileObject) this.resolveFile(file
-                .getParent().getName());
-        parent.getData().removeChild(file.getData());
-        parent.close();
-        // Close the file
-        file.getData().clear();
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
+        {
+            final RamFileData data = own(file);
+            // Remove reference from cache, a frozen layer may still know the file
+            if (frozen == null)
+            {
+                this.cache.remove(file.getName());
+            }
+            else
+            {
+                this.cache.put(file.getName(), data);
+            }
+            // Notify the parent
+            final RamFileObject parent = (RamFileObject) this.resolveFile(file
+                    .getParent().getName());
+            own(parent).removeChild(data);
+            parent.close();
+            // Close the file
+            synchronized (data)
+            {
+                usedSize.addAndGet(-data.size());
+                data.clear();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
         file.close();
     }
 
@@ -164,22 +338,240 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
                     "The data has no name. " + file));
         }
 
-        // Add to the parent
-        if (file.getName().getDepth() > 0)
+        final RamFileData data;
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
         {
-            final RamFileData parentData = this.cache.get(file.getParent().getName());
-            // Only if not already added
-            if (!parentData.hasChildren(file.getData()))
+            data = own(file);
+            // Add to the parent
+            if (file.getName().getDepth() > 0)
             {
-                final RamFileObject parent = (RamFileObject) file.getParent();
-                parent.getData().addChild(file.getData());
-                parent.close();
+                final RamFileData parentData = lookup(file.getParent().getName());
+                // Only if not already added
+                if (!parentData.hasChildren(data))
+                {
+                    final RamFileObject parent = (RamFileObject) file.getParent();
+                    own(parent).addChild(data);
+                    parent.close();
+                }
             }
+            // Store in cache
+            cache.put(file.getName(), data);
+            data.updateLastModified();
+            data.updateLastAccessed();
+        }
+        finally
+        {
+            lock.unlock();
         }
-        // Store in cache
-        cache.put(file.getName(), file.getData());
-        file.getData().updateLastModified();
         file.close();
+
+        evictColdFiles(data);
+    }
+
+    /**
+     * Resizes the content of a file, the new size must fit into the maximum size of the file system.
+     *
+     * @param file The file.
+     * @param newSize The new size of the content.
+     * @throws IOException if the new size exceeds the maximum size of the file system.
+     */
+    void resize(final RamFileObject file, final long newSize) throws IOException
+    {
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
+        {
+            resize(own(file), newSize);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void resize(final RamFileData data, final long newSize) throws IOException
+    {
+        synchronized (data)
+        {
+            final long delta = newSize - data.size();
+            if (delta > 0)
+            {
+                final long maxSize = RamFileSystemConfigBuilder.getInstance().getLongMaxSize(getFileSystemOptions());
+                long used;
+                do
+                {
+                    used = usedSize.get();
+                    if (used + delta > maxSize)
+                    {
+                        throw new IOException("FileSystem capacity (" + maxSize + ") exceeded.");
+                    }
+                }
+                while (!usedSize.compareAndSet(used, used + delta));
+            }
+            else
+            {
+                usedSize.addAndGet(delta);
+            }
+            data.resize(newSize);
+        }
+    }
+
+    /**
+     * Writes to the content of a file, extending it if necessary.
+     *
+     * @param file The file.
+     * @param pos The position to write to or -1 to append.
+     * @param b The buffer.
+     * @param off The offset in the buffer.
+     * @param len The number of bytes to write.
+     * @throws IOException if the content would exceed the maximum size of the file system.
+     */
+    void write(final RamFileObject file, final long pos, final byte[] b, final int off, final int len)
+            throws IOException
+    {
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
+        {
+            final RamFileData data = own(file);
+            synchronized (data)
+            {
+                final long start = pos < 0 ? data.size() : pos;
+                if (start + len > data.size())
+                {
+                    resize(data, start + len);
+                }
+                data.getContent().write(start, b, off, len);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the content of a file with empty content.
+     *
+     * @param file The file.
+     */
+    void truncate(final RamFileObject file)
+    {
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
+        {
+            truncate(own(file));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void truncate(final RamFileData data)
+    {
+        synchronized (data)
+        {
+            usedSize.addAndGet(-data.size());
+            data.setContent(data.getContent().newEmpty());
+        }
+    }
+
+    /**
+     * Sets the type of a file.
+     *
+     * @param file The file.
+     * @param type The new type.
+     */
+    void setType(final RamFileObject file, final FileType type)
+    {
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
+        {
+            own(file).setType(type);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the last modification time of a file.
+     *
+     * @param file The file.
+     * @param lastModified The new modification time.
+     */
+    void setLastModified(final RamFileObject file, final long lastModified)
+    {
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
+        {
+            own(file).setLastModified(lastModified);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files which are not in use until the file
+     * system fits into its soft maximum size again.
+     *
+     * @param keep The data of a file which is not deleted.
+     */
+    private void evictColdFiles(final RamFileData keep)
+    {
+        final long softMaxSize = RamFileSystemConfigBuilder.getInstance().getSoftMaxSize(getFileSystemOptions());
+        if (usedSize.get() <= softMaxSize || !evicting.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            // the access times change concurrently, sort on a snapshot of them
+            final List<ColdFile> files = new ArrayList<ColdFile>();
+            for (final RamFileData data : visibleFiles())
+            {
+                if (data != keep && data.getType() == FileType.FILE)
+                {
+                    files.add(new ColdFile(data));
+                }
+            }
+            Collections.sort(files);
+
+            for (int i = 0; i < files.size() && usedSize.get() > softMaxSize; i++)
+            {
+                final FileName name = files.get(i).data.getName();
+                if (name == null)
+                {
+                    // deleted in the meantime
+                    continue;
+                }
+                try
+                {
+                    final FileObject file = resolveFile(name);
+                    if (!file.isContentOpen())
+                    {
+                        file.delete();
+                    }
+                }
+                catch (final FileSystemException e)
+                {
+                    // opened or deleted concurrently, try the next one
+                }
+            }
+        }
+        finally
+        {
+            evicting.set(false);
+        }
     }
 
     /**
@@ -190,16 +582,31 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
     void rename(final RamFileObject from, final RamFileObject to)
             throws FileSystemException
     {
-        if (!this.cache.containsKey(from.getName()))
+        if (lookup(from.getName()) == null)
         {
             throw new FileSystemException("File does not exist: "
                     + from.getName());
         }
-        // Copy data
-
-        to.getData().setContent(from.getData().getContent());
-        to.getData().setLastModified(from.getData().getLastModified());
-        to.getData().setType(from.getData().getType());
+        final Lock lock = forkLock.readLock();
+        lock.lock();
+        try
+        {
+            // Move data, the content stays accounted for once
+            final RamFileData fromData = own(from);
+            final RamFileData toData = own(to);
+            truncate(toData);
+            synchronized (fromData)
+            {
+                toData.setContent(fromData.getContent());
+                fromData.setContent(fromData.getContent().newEmpty());
+            }
+            toData.setLastModified(fromData.getLastModified());
+            toData.setType(fromData.getType());
+        }
+        finally
+        {
+            lock.unlock();
+        }
 
         this.save(to);
         this.delete(from);
@@ -211,14 +618,33 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
         {
             throw new IllegalArgumentException("Null argument");
         }
-        RamFileData data = this.cache.get(fo.getName());
+        RamFileData data = lookup(fo.getName());
         if (data == null)
         {
-            data = new RamFileData(fo.getName());
+            data = new RamFileData(fo.getName(), createStorage());
+            data.setOwner(generation);
         }
         fo.setData(data);
     }
 
+    /**
+     * Creates the storage for the content of a new file, as configured by the
+     * {@link RamFileSystemConfigBuilder}.
+     *
+     * @return An empty storage.
+     */
+    private RamFileStorage createStorage()
+    {
+        final RamFileSystemConfigBuilder builder = RamFileSystemConfigBuilder.getInstance();
+        final FileSystemOptions opts = getFileSystemOptions();
+        final int segmentSize = builder.getSegmentSize(opts);
+        if (segmentSize > 0)
+        {
+            return new SegmentedRamFileStorage(segmentSize, builder.isDirectBuffers(opts));
+        }
+        return new ArrayRamFileStorage();
+    }
+
     /**
      * Import a Tree.
      *
@@ -262,14 +688,13 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
                 final InputStream is = fo.getContent().getInputStream();
                 try
                 {
-                    final OutputStream os = new BufferedOutputStream(memFo
-                            .getOutputStream(), BUFFER_SIZE);
-                    int i;
-                    while ((i = is.read()) != -1)
+                    final OutputStream os = memFo.getOutputStream();
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = is.read(buffer)) != -1)
                     {
-                        os.write(i);
+                        os.write(buffer, 0, n);
                     }
-                    os.flush();
                     os.close();
                 }
                 finally
@@ -298,21 +723,39 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
     }
 
     /**
-     * @return Returns the size of the FileSystem
+     * @return The data of all existing files.
      */
-    long size()
+    private Collection<RamFileData> visibleFiles()
     {
-        long size = 0;
-        synchronized (cache)
+        final Map<FileName, RamFileData> files = new HashMap<FileName, RamFileData>();
+        final List<Map<FileName, RamFileData>> maps = new ArrayList<Map<FileName, RamFileData>>();
+        maps.add(cache);
+        for (Layer layer = frozen; layer != null; layer = layer.parent)
+        {
+            maps.add(layer.files);
+        }
+        // newer data hides older data
+        for (int i = maps.size() - 1; i >= 0; i--)
+        {
+            files.putAll(maps.get(i));
+        }
+        final List<RamFileData> visible = new ArrayList<RamFileData>(files.size());
+        for (final RamFileData data : files.values())
         {
-            final Iterator<RamFileData> iter = cache.values().iterator();
-            while (iter.hasNext())
+            if (data.getName() != null)
             {
-                final RamFileData data = iter.next();
-                size += data.size();
+                visible.add(data);
             }
         }
-        return size;
+        return visible;
+    }
+
+    /**
+     * @return Returns the size of the FileSystem
+     */
+    long size()
+    {
+        return usedSize.get();
     }
 
     /**
@@ -322,6 +765,80 @@ public class RamFileSystem extends AbstractFileSystem implements Serializable
     public void close()
     {
         this.cache.clear();
+        this.frozen = null;
+        this.usedSize.set(0);
         super.close();
     }
+
+    /**
+     * The data of a file with the time it was last accessed when eviction started.
+     */
+    private static final class ColdFile implements Comparable<ColdFile>
+    {
+        private final RamFileData data;
+        private final long lastAccessed;
+
+        ColdFile(final RamFileData data)
+        {
+            this.data = data;
+            this.lastAccessed = data.getLastAccessed();
+        }
+
+        @Override
+        public int compareTo(final ColdFile other)
+        {
+            // nanoTime values must be compared by their difference
+            final long diff = lastAccessed - other.lastAccessed;
+            return diff < 0 ? -1 : diff == 0 ? 0 : 1;
+        }
+    }
+
+    /**
+     * File data frozen by a fork, shared by all file systems forked from it.
+     */
+    private static final class Layer implements Serializable
+    {
+        /**
+         * serialVersionUID format is YYYYMMDD for the date of the last binary change.
+         */
+        private static final long serialVersionUID = 20261019L;
+
+        private final Map<FileName, RamFileData> files;
+        private final Layer parent;
+        private final int depth;
+
+        Layer(final Map<FileName, RamFileData> files, final Layer parent)
+        {
+            this.files = files;
+            this.parent = parent;
+            this.depth = parent == null ? 1 : parent.depth + 1;
+        }
+
+        /**
+         * @return A single layer with the data of this layer and all its parents.
+         */
+        Layer merge()
+        {
+            final List<Layer> layers = new ArrayList<Layer>();
+            for (Layer layer = this; layer != null; layer = layer.parent)
+            {
+                layers.add(layer);
+            }
+            final Map<FileName, RamFileData> merged = new HashMap<FileName, RamFileData>();
+            for (int i = layers.size() - 1; i >= 0; i--)
+            {
+                merged.putAll(layers.get(i).files);
+            }
+            // without parents deleted files need no marker
+            final Iterator<RamFileData> iterator = merged.values().iterator();
+            while (iterator.hasNext())
+            {
+                if (iterator.next().getName() == null)
+                {
+                    iterator.remove();
+                }
+            }
+            return new Layer(merged, null);
+        }
+    }
 }
@@ -29,6 +29,15 @@ public final class RamFileSystemConfigBuilder extends FileSystemConfigBuilder
     /** max size key. */
     private static final String MAX_SIZE_KEY = "maxsize";
 
+    /** soft max size key. */
+    private static final String SOFT_MAX_SIZE_KEY = "softmaxsize";
+
+    /** segment size key. */
+    private static final String SEGMENT_SIZE_KEY = "segmentsize";
+
+    /** direct buffers key. */
+    private static final String DIRECT_BUFFERS_KEY = "directbuffers";
+
     /** config builder SINGLETON. */
     private static final RamFileSystemConfigBuilder SINGLETON = new RamFileSystemConfigBuilder();
 
@@ -108,4 +117,89 @@ public final class RamFileSystemConfigBuilder extends FileSystemConfigBuilder
         setParam(opts, MAX_SIZE_KEY, Long.valueOf(sizeInBytes));
     }
 
+    /**
+     * Defaults to {@link Long#MAX_VALUE}, which never evicts files.
+     *
+     * @param opts The FileSystem options.
+     * @return The size above which cold files are evicted.
+     * @see #setSoftMaxSize(FileSystemOptions, long)
+     * @since 2.1
+     */
+    public long getSoftMaxSize(final FileSystemOptions opts)
+    {
+        return getLong(opts, SOFT_MAX_SIZE_KEY, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sets the soft maximum size of the file system.
+     * <p>
+     * Whenever a file is saved and the content of all files exceeds this size,
+     * the least recently read or written files which are not open are deleted
+     * until the file system fits again. Unlike the
+     * {@link #setMaxSize(FileSystemOptions, long) maximum size} this never fails a write.
+     *
+     * @param opts The FileSystem options.
+     * @param sizeInBytes The size above which cold files are evicted.
+     * @since 2.1
+     */
+    public void setSoftMaxSize(final FileSystemOptions opts, final long sizeInBytes)
+    {
+        setParam(opts, SOFT_MAX_SIZE_KEY, Long.valueOf(sizeInBytes));
+    }
+
+    /**
+     * Defaults to 0, which stores the content of each file in a single array.
+     *
+     * @param opts The FileSystem options.
+     * @return The size of a content segment in bytes.
+     * @see #setSegmentSize(FileSystemOptions, int)
+     * @since 2.1
+     */
+    public int getSegmentSize(final FileSystemOptions opts)
+    {
+        return getInteger(opts, SEGMENT_SIZE_KEY, 0);
+    }
+
+    /**
+     * Sets the size of the segments file content is stored in.
+     * <p>
+     * With a positive segment size the content of a file is kept in a list of
+     * fixed-size segments instead of a single array. Files can then grow beyond
+     * 2 GB and growing a file never copies its existing content.
+     *
+     * @param opts The FileSystem options.
+     * @param segmentSize The segment size in bytes, 0 to use a single array.
+     * @since 2.1
+     */
+    public void setSegmentSize(final FileSystemOptions opts, final int segmentSize)
+    {
+        setParam(opts, SEGMENT_SIZE_KEY, Integer.valueOf(segmentSize));
+    }
+
+    /**
+     * Defaults to false.
+     *
+     * @param opts The FileSystem options.
+     * @return true if segments are allocated as direct buffers.
+     * @see #setDirectBuffers(FileSystemOptions, boolean)
+     * @since 2.1
+     */
+    public boolean isDirectBuffers(final FileSystemOptions opts)
+    {
+        return getBoolean(opts, DIRECT_BUFFERS_KEY, false);
+    }
+
+    /**
+     * Sets whether content segments are allocated as direct buffers outside of the heap.
+     * Only used with a positive {@link #setSegmentSize(FileSystemOptions, int) segment size}.
+     *
+     * @param opts The FileSystem options.
+     * @param directBuffers true to allocate direct buffers.
+     * @since 2.1
+     */
+    public void setDirectBuffers(final FileSystemOptions opts, final boolean directBuffers)
+    {
+        setParam(opts, DIRECT_BUFFERS_KEY, directBuffers);
+    }
+
 }
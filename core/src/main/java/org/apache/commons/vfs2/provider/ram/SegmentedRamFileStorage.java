@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ram;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores the content of a RAM file in fixed-size segments.
+ * <p>
+ * Growing the content only allocates the new segments, existing bytes are never
+ * copied, and the content is not limited to 2 GB. Segments can be direct buffers
+ * so large file systems live outside of the garbage collected heap.
+ * <p>
+ * The segment table is replaced rather than modified and published before the
+ * size, so readers which read the size first never see a missing segment.
+ */
+class SegmentedRamFileStorage extends RamFileStorage
+{
+    /**
+     * serialVersionUID format is YYYYMMDD for the date of the last binary change.
+     */
+    private static final long serialVersionUID = 20261019L;
+
+    private final int segmentSize;
+
+    private final boolean direct;
+
+    /**
+     * Segments, the last one may be partially used. Buffers are not serializable, see
+     * {@link #writeObject(ObjectOutputStream)}.
+     */
+    private transient volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+    private volatile long size;
+
+    /**
+     * Flags the segments which are shared with the storage this one is a snapshot of, guarded by the writer.
+     */
+    private transient boolean[] shared = new boolean[0];
+
+    /**
+     * @param segmentSize The size of a segment in bytes.
+     * @param direct true to allocate direct buffers.
+     */
+    SegmentedRamFileStorage(final int segmentSize, final boolean direct)
+    {
+        if (segmentSize < 1)
+        {
+            throw new IllegalArgumentException("segmentSize must be positive");
+        }
+        this.segmentSize = segmentSize;
+        this.direct = direct;
+    }
+
+    @Override
+    long size()
+    {
+        return size;
+    }
+
+    @Override
+    void resize(final long newSize)
+    {
+        final long segmentCount = (newSize + segmentSize - 1) / segmentSize;
+        if (segmentCount > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(String.format("newSize(%d) needs more than %d segments", newSize,
+                    Integer.MAX_VALUE));
+        }
+
+        final ByteBuffer[] current = segments;
+        if (newSize < size)
+        {
+            final ByteBuffer[] shrunk = Arrays.copyOf(current, (int) segmentCount);
+            shared = Arrays.copyOf(shared, shrunk.length);
+            // bytes behind the new end must read as zeros if the content grows again
+            final int used = (int) (newSize - (segmentCount - 1) * segmentSize);
+            if (segmentCount > 0 && used < segmentSize)
+            {
+                final ByteBuffer tail = writableSegment(shrunk, shrunk.length - 1).duplicate();
+                tail.position(used);
+                tail.put(new byte[segmentSize - used]);
+            }
+            size = newSize;
+            segments = shrunk;
+        }
+        else
+        {
+            if (current.length < segmentCount)
+            {
+                final ByteBuffer[] grown = Arrays.copyOf(current, (int) segmentCount);
+                for (int i = current.length; i < grown.length; i++)
+                {
+                    grown[i] = allocate();
+                }
+                shared = Arrays.copyOf(shared, grown.length);
+                segments = grown;
+            }
+            size = newSize;
+        }
+    }
+
+    @Override
+    int read(final long pos)
+    {
+        if (pos >= size)
+        {
+            return -1;
+        }
+        final ByteBuffer[] current = segments;
+        return current[(int) (pos / segmentSize)].get((int) (pos % segmentSize)) & 0xFF;
+    }
+
+    @Override
+    int read(final long pos, final byte[] b, final int off, final int len)
+    {
+        final long currentSize = size;
+        if (pos >= currentSize)
+        {
+            return -1;
+        }
+        final ByteBuffer[] current = segments;
+        final int count = (int) Math.min(len, currentSize - pos);
+        int done = 0;
+        while (done < count)
+        {
+            final long p = pos + done;
+            final int offset = (int) (p % segmentSize);
+            final int n = Math.min(count - done, segmentSize - offset);
+            final ByteBuffer segment = current[(int) (p / segmentSize)].duplicate();
+            segment.position(offset);
+            segment.get(b, off + done, n);
+            done += n;
+        }
+        return count;
+    }
+
+    @Override
+    void write(final long pos, final byte[] b, final int off, final int len)
+    {
+        final ByteBuffer[] current = segments;
+        int done = 0;
+        while (done < len)
+        {
+            final long p = pos + done;
+            final int offset = (int) (p % segmentSize);
+            final int n = Math.min(len - done, segmentSize - offset);
+            final ByteBuffer segment = writableSegment(current, (int) (p / segmentSize)).duplicate();
+            segment.position(offset);
+            segment.put(b, off + done, n);
+            done += n;
+        }
+    }
+
+    @Override
+    RamFileStorage newEmpty()
+    {
+        return new SegmentedRamFileStorage(segmentSize, direct);
+    }
+
+    @Override
+    RamFileStorage snapshot()
+    {
+        final SegmentedRamFileStorage snapshot = new SegmentedRamFileStorage(segmentSize, direct);
+        final ByteBuffer[] current = segments;
+        snapshot.shared = new boolean[current.length];
+        Arrays.fill(snapshot.shared, true);
+        snapshot.segments = current.clone();
+        snapshot.size = size;
+        return snapshot;
+    }
+
+    /**
+     * Returns a segment which may be written, copying it first if it is shared.
+     * The table is modified in place, a concurrent reader sees either copy with the same content.
+     */
+    private ByteBuffer writableSegment(final ByteBuffer[] table, final int index)
+    {
+        if (shared[index])
+        {
+            final ByteBuffer copy = allocate();
+            final ByteBuffer source = table[index].duplicate();
+            source.clear();
+            copy.put(source);
+            table[index] = copy;
+            shared[index] = false;
+        }
+        return table[index];
+    }
+
+    private ByteBuffer allocate()
+    {
+        return direct ? ByteBuffer.allocateDirect(segmentSize) : ByteBuffer.allocate(segmentSize);
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        final byte[] buffer = new byte[segmentSize];
+        for (long pos = 0; pos < size; pos += segmentSize)
+        {
+            final int n = read(pos, buffer, 0, segmentSize);
+            out.write(buffer, 0, n);
+        }
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        final long length = size;
+        segments = new ByteBuffer[0];
+        shared = new boolean[0];
+        size = 0;
+        resize(length);
+        final byte[] buffer = new byte[segmentSize];
+        for (long pos = 0; pos < length; pos += segmentSize)
+        {
+            final int n = (int) Math.min(segmentSize, length - pos);
+            in.readFully(buffer, 0, n);
+            write(pos, buffer, 0, n);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.vfs2.FileSystemException;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Fetches the attributes of many files with few round trips.
+ * <p>
+ * The files are grouped by their folder. A folder which holds at least
+ * {@link #MIN_LISTED_FILES} of the files is listed once, its listing carries the
+ * attributes of all of them. Symbolic links and the files of the other folders
+ * are stat'ed one by one. The listings and stats are sent at the same time, each
+ * on a channel of the pool.
+ */
+final class SftpBatchStat
+{
+    /** The number of files of a folder from which on the folder is listed instead of stat'ing the files. */
+    static final int MIN_LISTED_FILES = 4;
+
+    private final SftpFileSystem fileSystem;
+    private final int threads;
+
+    /**
+     * Creates the batch.
+     *
+     * @param fileSystem The file system whose channels are used.
+     * @param threads The number of requests which are sent at the same time.
+     */
+    SftpBatchStat(final SftpFileSystem fileSystem, final int threads)
+    {
+        this.fileSystem = fileSystem;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Fetches the attributes of the files.
+     *
+     * @param files The files.
+     * @return The attributes of the files in the same order, null for files which do not exist.
+     * @throws IOException if the attributes cannot be fetched.
+     */
+    SftpATTRS[] stat(final SftpFileObject[] files) throws IOException
+    {
+        final SftpATTRS[] result = new SftpATTRS[files.length];
+        final Map<String, List<Integer>> folders = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < files.length; i++)
+        {
+            final String folder = getFolder(files[i].getRelPath());
+            List<Integer> indexes = folders.get(folder);
+            if (indexes == null)
+            {
+                indexes = new ArrayList<Integer>();
+                folders.put(folder, indexes);
+            }
+            indexes.add(Integer.valueOf(i));
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Map.Entry<String, List<Integer>> entry : folders.entrySet())
+        {
+            final String folder = entry.getKey();
+            final List<Integer> indexes = entry.getValue();
+            if (folder != null && indexes.size() >= MIN_LISTED_FILES)
+            {
+                tasks.add(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        list(folder, indexes, files, result);
+                        return null;
+                    }
+                });
+            }
+            else
+            {
+                for (final Integer index : indexes)
+                {
+                    final int i = index.intValue();
+                    tasks.add(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call() throws IOException
+                        {
+                            result[i] = stat(files[i].getRelPath());
+                            return null;
+                        }
+                    });
+                }
+            }
+        }
+        run(tasks);
+        return result;
+    }
+
+    /**
+     * Lists a folder and takes the attributes of the files from the listing.
+     */
+    private void list(final String folder, final List<Integer> indexes, final SftpFileObject[] files,
+                      final SftpATTRS[] result) throws IOException
+    {
+        final Vector<?> entries;
+        final ChannelSftp channel = fileSystem.getChannel();
+        try
+        {
+            entries = channel.ls(folder);
+        }
+        catch (final SftpException e)
+        {
+            // not a readable folder, each file is stat'ed instead
+            for (final Integer index : indexes)
+            {
+                result[index.intValue()] = stat(files[index.intValue()].getRelPath());
+            }
+            return;
+        }
+        finally
+        {
+            fileSystem.putChannel(channel);
+        }
+
+        final Map<String, SftpATTRS> listed = new HashMap<String, SftpATTRS>();
+        for (final Object entry : entries)
+        {
+            final LsEntry lsEntry = (LsEntry) entry;
+            listed.put(lsEntry.getFilename(), lsEntry.getAttrs());
+        }
+        for (final Integer index : indexes)
+        {
+            final String path = files[index.intValue()].getRelPath();
+            final SftpATTRS attrs = listed.get(path.substring(path.lastIndexOf('/') + 1));
+            // the listing describes a link itself, stat describes its target
+            result[index.intValue()] = attrs != null && attrs.isLink() ? stat(path) : attrs;
+        }
+    }
+
+    /**
+     * Stats a file.
+     * @return The attributes, null if the file does not exist.
+     */
+    private SftpATTRS stat(final String path) throws IOException
+    {
+        final ChannelSftp channel = fileSystem.getChannel();
+        try
+        {
+            return channel.stat(path);
+        }
+        catch (final SftpException e)
+        {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
+            {
+                return null;
+            }
+            throw new FileSystemException(e);
+        }
+        finally
+        {
+            fileSystem.putChannel(channel);
+        }
+    }
+
+    private void run(final List<Callable<Void>> tasks) throws IOException
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())),
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "SFTP batch stat");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            final List<Future<Void>> pending = new ArrayList<Future<Void>>();
+            for (final Callable<Void> task : tasks)
+            {
+                pending.add(executor.submit(task));
+            }
+            for (final Future<Void> request : pending)
+            {
+                request.get();
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching attributes.");
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the folder of a path relative to the working directory, null for the working directory itself.
+     */
+    private static String getFolder(final String path)
+    {
+        if (path == null || path.length() == 0 || ".".equals(path))
+        {
+            return null;
+        }
+        final int slash = path.lastIndexOf('/');
+        if (slash < 0)
+        {
+            return ".";
+        }
+        return slash == 0 ? "/" : path.substring(0, slash);
+    }
+}
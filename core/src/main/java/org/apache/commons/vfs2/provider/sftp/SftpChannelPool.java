@@ -0,0 +1,398 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileSystemException;
+
+import com.jcraft.jsch.ChannelSftp;
+
+/**
+ * A bounded pool of the SFTP channels of a file system.
+ * <p>
+ * Opening a channel costs a round trip to the server plus the initialization
+ * of the SFTP subsystem, so released channels stay open for reuse. At most
+ * {@code maxTotal} channels are open at the same time, further borrowers wait
+ * for a channel to be released up to {@code maxWait}. Channels which have not
+ * been used for the idle timeout are closed by the reaper of the provider,
+ * except for {@code minIdle} of them, and all idle channels are closed with
+ * the file system.
+ * Disconnected channels are dropped rather than handed out again.
+ *
+ * @since 2.1
+ */
+public class SftpChannelPool
+{
+    private final SftpFileSystem fileSystem;
+    private final ScheduledThreadPoolExecutor reaper;
+    private final int maxTotal;
+    private final int minIdle;
+    private final long maxWait;
+    private final long idleTimeout;
+
+    /** The idle channels, most recently used first, guarded by this. */
+    private final LinkedList<IdleChannel> idle = new LinkedList<IdleChannel>();
+
+    /** The number of borrowed channels, guarded by this. */
+    private int active;
+
+    /** The number of channels being opened, guarded by this. */
+    private int opening;
+
+    /** The scheduled reap, null if none is scheduled, guarded by this. */
+    private ScheduledFuture<?> reap;
+
+    private long createdCount;
+    private long destroyedCount;
+    private long borrowedCount;
+    private long waitCount;
+    private long timeoutCount;
+
+    /**
+     * Creates the pool.
+     *
+     * @param fileSystem The file system which opens the channels.
+     * @param reaper Closes the idle channels, null to close them only with {@link #closeIdle()}.
+     * @param maxTotal The maximum number of open channels.
+     * @param minIdle The number of idle channels which are kept open after the idle timeout.
+     * @param maxWait The time in milliseconds to wait for a channel, a negative value waits forever.
+     * @param idleTimeout The time in milliseconds after which an idle channel is closed.
+     */
+    SftpChannelPool(final SftpFileSystem fileSystem, final ScheduledThreadPoolExecutor reaper, final int maxTotal,
+                    final int minIdle, final long maxWait, final long idleTimeout)
+    {
+        this.fileSystem = fileSystem;
+        this.reaper = reaper;
+        this.maxTotal = Math.max(1, maxTotal);
+        this.minIdle = Math.max(0, minIdle);
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Borrows a channel, opening a new one if none is idle and the limit is not reached.
+     *
+     * @return The channel, to be handed back with {@link #release(ChannelSftp)}.
+     * @throws IOException if the channel cannot be opened, no channel became free in time
+     * or the thread is interrupted while waiting.
+     */
+    ChannelSftp borrow() throws IOException
+    {
+        final List<ChannelSftp> stale = new ArrayList<ChannelSftp>();
+        try
+        {
+            synchronized (this)
+            {
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+                boolean waited = false;
+                while (true)
+                {
+                    while (!idle.isEmpty())
+                    {
+                        final ChannelSftp channel = idle.removeFirst().channel;
+                        if (isUsable(channel))
+                        {
+                            active++;
+                            borrowedCount++;
+                            return channel;
+                        }
+                        destroyedCount++;
+                        stale.add(channel);
+                    }
+                    if (active + opening < maxTotal)
+                    {
+                        opening++;
+                        break;
+                    }
+                    if (!waited)
+                    {
+                        waitCount++;
+                        waited = true;
+                    }
+                    await(deadline);
+                }
+            }
+        }
+        finally
+        {
+            disconnect(stale);
+        }
+
+        final ChannelSftp channel;
+        try
+        {
+            channel = fileSystem.createChannel();
+        }
+        catch (final IOException e)
+        {
+            synchronized (this)
+            {
+                opening--;
+                notify();
+            }
+            throw e;
+        }
+        catch (final RuntimeException e)
+        {
+            synchronized (this)
+            {
+                opening--;
+                notify();
+            }
+            throw e;
+        }
+        synchronized (this)
+        {
+            opening--;
+            active++;
+            createdCount++;
+            borrowedCount++;
+        }
+        return channel;
+    }
+
+    /**
+     * Waits for a channel to be released, guarded by this.
+     */
+    private void await(final long deadline) throws IOException
+    {
+        try
+        {
+            if (maxWait < 0)
+            {
+                wait();
+                return;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                timeoutCount++;
+                throw new FileSystemException("vfs.provider.sftp/channel-pool-exhausted.error",
+                    fileSystem.getRootName(), Integer.valueOf(maxTotal));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an SFTP channel.");
+        }
+    }
+
+    /**
+     * Hands a channel back to the pool, a disconnected channel is dropped.
+     *
+     * @param channel The channel.
+     */
+    void release(final ChannelSftp channel)
+    {
+        synchronized (this)
+        {
+            active--;
+            notify();
+            if (isUsable(channel))
+            {
+                idle.addFirst(new IdleChannel(channel, System.nanoTime()));
+                scheduleReap(idleTimeout);
+                return;
+            }
+            destroyedCount++;
+        }
+        channel.disconnect();
+    }
+
+    /**
+     * Closes all idle channels and cancels the scheduled reap. Channels in use are closed once they are released
+     * to a closed session.
+     */
+    void closeIdle()
+    {
+        final List<ChannelSftp> closed = new ArrayList<ChannelSftp>();
+        synchronized (this)
+        {
+            if (reap != null)
+            {
+                // drop the task, it keeps the file system reachable
+                reap.cancel(false);
+                reap = null;
+                reaper.purge();
+            }
+            while (!idle.isEmpty())
+            {
+                closed.add(idle.removeFirst().channel);
+                destroyedCount++;
+            }
+        }
+        disconnect(closed);
+    }
+
+    /**
+     * @return The number of borrowed channels.
+     */
+    public synchronized int getActiveCount()
+    {
+        return active;
+    }
+
+    /**
+     * @return The number of open channels which are not in use.
+     */
+    public synchronized int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    /**
+     * @return The maximum number of open channels.
+     */
+    public int getMaxTotal()
+    {
+        return maxTotal;
+    }
+
+    /**
+     * @return The number of channels opened so far.
+     */
+    public synchronized long getCreatedCount()
+    {
+        return createdCount;
+    }
+
+    /**
+     * @return The number of channels closed so far.
+     */
+    public synchronized long getDestroyedCount()
+    {
+        return destroyedCount;
+    }
+
+    /**
+     * @return The number of times a channel has been borrowed.
+     */
+    public synchronized long getBorrowedCount()
+    {
+        return borrowedCount;
+    }
+
+    /**
+     * @return The number of borrowers which had to wait for a channel.
+     */
+    public synchronized long getWaitCount()
+    {
+        return waitCount;
+    }
+
+    /**
+     * @return The number of borrowers which gave up waiting for a channel.
+     */
+    public synchronized long getTimeoutCount()
+    {
+        return timeoutCount;
+    }
+
+    private static boolean isUsable(final ChannelSftp channel)
+    {
+        return channel.isConnected() && !channel.isClosed();
+    }
+
+    private static void disconnect(final List<ChannelSftp> channels)
+    {
+        for (final ChannelSftp channel : channels)
+        {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * Closes the channels which exceeded the idle timeout and schedules the next reap.
+     */
+    private void closeExpired()
+    {
+        final List<ChannelSftp> expired = new ArrayList<ChannelSftp>();
+        synchronized (this)
+        {
+            final long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            // the oldest channels are at the end
+            while (idle.size() > minIdle && idle.getLast().releaseTime - idleSince <= 0)
+            {
+                expired.add(idle.removeLast().channel);
+                destroyedCount++;
+            }
+            if (idle.size() > minIdle)
+            {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(idle.getLast().releaseTime - idleSince);
+                scheduleReap(Math.max(1, remaining));
+            }
+        }
+        disconnect(expired);
+    }
+
+    /**
+     * Schedules a reap of the idle channels, guarded by this. Once the reaper is shut down the idle channels stay
+     * open until {@link #closeIdle()}.
+     */
+    private void scheduleReap(final long delay)
+    {
+        if (reap != null || reaper == null || idle.size() <= minIdle)
+        {
+            return;
+        }
+        try
+        {
+            reap = reaper.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (SftpChannelPool.this)
+                    {
+                        reap = null;
+                    }
+                    closeExpired();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (final RejectedExecutionException e)
+        {
+            // the provider is closed
+        }
+    }
+
+    /**
+     * An open channel which is not in use.
+     */
+    private static final class IdleChannel
+    {
+        private final ChannelSftp channel;
+        private final long releaseTime;
+
+        IdleChannel(final ChannelSftp channel, final long releaseTime)
+        {
+            this.channel = channel;
+            this.releaseTime = releaseTime;
+        }
+    }
+}
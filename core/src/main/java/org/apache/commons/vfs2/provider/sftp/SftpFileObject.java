@@ -23,15 +23,19 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Vector;
 
+import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileNotFoundException;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
 import org.apache.commons.vfs2.NameScope;
 import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.VFS;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
+import org.apache.commons.vfs2.provider.BlockCachingRandomAccessContent;
+import org.apache.commons.vfs2.provider.SegmentedUpload;
 import org.apache.commons.vfs2.provider.UriParser;
 import org.apache.commons.vfs2.util.FileObjectUtils;
 import org.apache.commons.vfs2.util.MonitorInputStream;
@@ -53,7 +57,14 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
 {
     private static final long MOD_TIME_FACTOR = 1000L;
 
-    private SftpATTRS attrs;
+    private volatile SftpATTRS attrs;
+
+    /** Whether the attributes have been fetched, they are null if the file does not exist. */
+    private volatile boolean attrsFetched;
+
+    /** The time the attributes have been fetched at, in milliseconds. */
+    private volatile long attrsTime;
+
     private final String relPath;
 
     private boolean inRefresh;
@@ -70,15 +81,34 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
     @Override
     protected void doDetach() throws Exception
     {
-        attrs = null;
+        discardStaleStat();
     }
 
     /**
+     * Refreshes this file, reusing its attributes if they have not expired.
+     *
      * @throws FileSystemException if error occurs.
+     * @see SftpFileSystemConfigBuilder#setAttributeCacheTimeout
      * @since 2.0
      */
     @Override
     public void refresh() throws FileSystemException
+    {
+        refresh(false, null);
+    }
+
+    /**
+     * Refreshes this file with attributes which have just been fetched.
+     *
+     * @param newAttrs The attributes, null if the file does not exist.
+     * @throws FileSystemException if error occurs.
+     */
+    void refresh(final SftpATTRS newAttrs) throws FileSystemException
+    {
+        refresh(true, newAttrs);
+    }
+
+    private void refresh(final boolean fetched, final SftpATTRS newAttrs) throws FileSystemException
     {
         if (!inRefresh)
         {
@@ -88,7 +118,14 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
                 super.refresh();
                 try
                 {
-                    attrs = null;
+                    if (fetched)
+                    {
+                        setStat(newAttrs);
+                    }
+                    else
+                    {
+                        discardStaleStat();
+                    }
                     getType();
                 }
                 catch (final IOException e)
@@ -103,6 +140,27 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
         }
     }
 
+    /**
+     * Fetches the attributes of this file before the file system is locked to
+     * determine the type, so a slow server only delays the callers of this file.
+     */
+    @Override
+    public FileType getType() throws FileSystemException
+    {
+        if (!attrsFetched)
+        {
+            try
+            {
+                statSelf();
+            }
+            catch (final IOException e)
+            {
+                throw new FileSystemException("vfs.provider/get-type.error", e, getName());
+            }
+        }
+        return super.getType();
+    }
+
     /**
      * Determines the type of this file, returns null if the file does not
      * exist.
@@ -110,22 +168,24 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
     @Override
     protected FileType doGetType() throws Exception
     {
-        if (attrs == null)
+        if (!attrsFetched)
         {
             statSelf();
         }
 
-        if (attrs == null)
+        // the attributes may be fetched again by another thread
+        final SftpATTRS stat = attrs;
+        if (stat == null)
         {
             return FileType.IMAGINARY;
         }
 
-        if ((attrs.getFlags() & SftpATTRS.SSH_FILEXFER_ATTR_PERMISSIONS) == 0)
+        if ((stat.getFlags() & SftpATTRS.SSH_FILEXFER_ATTR_PERMISSIONS) == 0)
         {
             throw new FileSystemException(
                     "vfs.provider.sftp/unknown-permissions.error");
         }
-        if (attrs.isDir())
+        if (stat.isDir())
         {
             return FileType.FOLDER;
         }
@@ -145,7 +205,8 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
     }
 
     /**
-     * Fetches file attributes from server.
+     * Fetches file attributes from server.  Only needs a channel of the pool, the
+     * file system is not locked.
      *
      * @throws IOException
      */
@@ -163,14 +224,16 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
                 // maybe the channel has some problems, so recreate the channel and retry
                 if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE)
                 {
+                    // the disconnected channel is dropped by the pool
                     channel.disconnect();
+                    getAbstractFileSystem().putChannel(channel);
                     channel = getAbstractFileSystem().getChannel();
                     setStat(channel.stat(relPath));
                 }
                 else
                 {
                     // Really does not exist
-                    attrs = null;
+                    setStat(null);
                 }
             }
             catch (final SftpException innerEx)
@@ -183,7 +246,7 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
                 // it does not. Need to look into why.
 
                 // Does not exist
-                attrs = null;
+                setStat(null);
             }
         }
         finally
@@ -198,6 +261,47 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
     private void setStat(final SftpATTRS attrs)
     {
         this.attrs = attrs;
+        attrsTime = System.currentTimeMillis();
+        attrsFetched = true;
+    }
+
+    /**
+     * Determines if the attributes have been fetched within the configured cache timeout.
+     */
+    private boolean isStatFresh()
+    {
+        if (!attrsFetched)
+        {
+            return false;
+        }
+        final long timeout = SftpFileSystemConfigBuilder.getInstance().getAttributeCacheTimeout(
+            getAbstractFileSystem().getFileSystemOptions());
+        return timeout > 0 && System.currentTimeMillis() - attrsTime < timeout;
+    }
+
+    /**
+     * Forgets the attributes unless they are fresh, so they are fetched when needed.
+     */
+    private void discardStaleStat()
+    {
+        if (!isStatFresh())
+        {
+            discardStat();
+        }
+    }
+
+    private void discardStat()
+    {
+        attrs = null;
+        attrsFetched = false;
+    }
+
+    /**
+     * Returns the path of this file relative to the working directory of the channels.
+     */
+    String getRelPath()
+    {
+        return relPath;
     }
 
     /**
@@ -220,13 +324,14 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
     @Override
     protected long doGetLastModifiedTime() throws Exception
     {
-        if (attrs == null
-                || (attrs.getFlags() & SftpATTRS.SSH_FILEXFER_ATTR_ACMODTIME) == 0)
+        final SftpATTRS stat = attrs;
+        if (stat == null
+                || (stat.getFlags() & SftpATTRS.SSH_FILEXFER_ATTR_ACMODTIME) == 0)
         {
             throw new FileSystemException(
                     "vfs.provider.sftp/unknown-modtime.error");
         }
-        return attrs.getMTime() * MOD_TIME_FACTOR;
+        return stat.getMTime() * MOD_TIME_FACTOR;
     }
 
     /**
@@ -312,7 +417,10 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
      */
     protected PosixPermissions getPermissions(final boolean checkIds) throws Exception
     {
-        statSelf();
+        if (!isStatFresh())
+        {
+            statSelf();
+        }
         boolean isInGroup = false;
         if (checkIds)
         {
@@ -530,20 +638,21 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
     @Override
     protected long doGetContentSize() throws Exception
     {
-        if (attrs == null
-                || (attrs.getFlags() & SftpATTRS.SSH_FILEXFER_ATTR_SIZE) == 0)
+        final SftpATTRS stat = attrs;
+        if (stat == null
+                || (stat.getFlags() & SftpATTRS.SSH_FILEXFER_ATTR_SIZE) == 0)
         {
             throw new FileSystemException(
                     "vfs.provider.sftp/unknown-size.error");
         }
-        return attrs.getSize();
+        return stat.getSize();
     }
 
     @Override
     protected RandomAccessContent doGetRandomAccessContent(
             final RandomAccessMode mode) throws Exception
     {
-        return new SftpRandomAccessContent(this, mode);
+        return BlockCachingRandomAccessContent.decorate(this, new SftpRandomAccessContent(this, mode), mode);
     }
 
     /**
@@ -573,57 +682,116 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
     @Override
     protected InputStream doGetInputStream() throws Exception
     {
-        // VFS-113: avoid npe
-        synchronized (getAbstractFileSystem())
+        // VFS-113: the channel comes from the pool, so the file system needs no lock and
+        // a slow server only delays this stream
+        // VFS-210: sftp allows to gather an input stream even from a directory and will
+        // fail on first read. So we need to check the type anyway, before a channel is held
+        if (!getType().hasContent())
         {
-            final ChannelSftp channel = getAbstractFileSystem().getChannel();
-            try
-            {
-                // return channel.get(getName().getPath());
-                // hmmm - using the in memory method is soooo much faster ...
+            throw new FileSystemException("vfs.provider/read-not-file.error", getName());
+        }
 
-                // TODO - Don't read the entire file into memory. Use the
-                // stream-based methods on ChannelSftp once they work properly
+        final ChannelSftp channel = getAbstractFileSystem().getChannel();
+        try
+        {
+            // return channel.get(getName().getPath());
+            // hmmm - using the in memory method is soooo much faster ...
 
-                /*
-                final ByteArrayOutputStream outstr = new ByteArrayOutputStream();
-                channel.get(relPath, outstr);
-                outstr.close();
-                return new ByteArrayInputStream(outstr.toByteArray());
-                */
+            // TODO - Don't read the entire file into memory. Use the
+            // stream-based methods on ChannelSftp once they work properly
 
-                InputStream is;
-                try
-                {
-                    // VFS-210: sftp allows to gather an input stream even from a directory and will
-                    // fail on first read. So we need to check the type anyway
-                    if (!getType().hasContent())
-                    {
-                        throw new FileSystemException("vfs.provider/read-not-file.error", getName());
-                    }
+            /*
+            final ByteArrayOutputStream outstr = new ByteArrayOutputStream();
+            channel.get(relPath, outstr);
+            outstr.close();
+            return new ByteArrayInputStream(outstr.toByteArray());
+            */
 
-                    is = channel.get(relPath);
-                }
-                catch (final SftpException e)
+            InputStream is;
+            try
+            {
+                is = channel.get(relPath);
+            }
+            catch (final SftpException e)
+            {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
                 {
-                    if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
-                    {
-                        throw new FileNotFoundException(getName());
-                    }
-
-                    throw new FileSystemException(e);
+                    throw new FileNotFoundException(getName());
                 }
 
-                return new SftpInputStream(channel, is);
-
-            }
-            finally
-            {
-//              getAbstractFileSystem().putChannel(channel);
+                throw new FileSystemException(e);
             }
+
+            return new SftpInputStream(channel, is);
+
+        }
+        catch (final Exception e)
+        {
+            // the stream hands the channel back when it is closed
+            getAbstractFileSystem().putChannel(channel);
+            throw e;
         }
     }
 
+    /**
+     * Downloads a large file in segments, if more than one download thread is configured
+     * and the destination supports random access writes.
+     */
+    @Override
+    protected boolean doCopyContentTo(final FileObject destFile) throws Exception
+    {
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        final FileSystemOptions opts = getAbstractFileSystem().getFileSystemOptions();
+        final int threads = builder.getDownloadThreads(opts);
+        final long segmentSize = builder.getDownloadSegmentSize(opts);
+        if (threads <= 1
+            || !destFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)
+            || !destFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ))
+        {
+            return false;
+        }
+        final long size = getContent().getSize();
+        if (size <= segmentSize)
+        {
+            return false;
+        }
+        new SftpSegmentedDownload(getAbstractFileSystem(), relPath, size, threads, segmentSize,
+            builder.getSegmentRetries(opts)).copyTo(destFile);
+        return true;
+    }
+
+    /**
+     * Uploads a large file in segments, if more than one upload thread is configured
+     * and the source supports random access reads.
+     */
+    @Override
+    protected boolean doCopyContentFrom(final FileObject srcFile) throws Exception
+    {
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        final FileSystemOptions opts = getAbstractFileSystem().getFileSystemOptions();
+        final int threads = builder.getUploadThreads(opts);
+        final long segmentSize = builder.getUploadSegmentSize(opts);
+        if (threads <= 1
+            || !srcFile.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)
+            || srcFile.getContent().getSize() <= segmentSize)
+        {
+            return false;
+        }
+        doCreateSegmentedUpload(srcFile, threads, segmentSize).upload();
+        return true;
+    }
+
+    @Override
+    protected SegmentedUpload doCreateSegmentedUpload(final FileObject srcFile, final int threads,
+                                                      final long segmentSize)
+    {
+        final FileSystemOptions opts = getAbstractFileSystem().getFileSystemOptions();
+        // the attributes of the old content must not be reused once the upload is done
+        discardStat();
+        return new SftpSegmentedUpload(srcFile, this, getAbstractFileSystem(), relPath, threads, segmentSize,
+            SftpFileSystemConfigBuilder.getInstance().getSegmentRetries(opts));
+    }
+
     /**
      * Creates an output stream to write the file content to.
      */
@@ -638,7 +806,15 @@ public class SftpFileObject extends AbstractFileObject<SftpFileSystem>
         */
 
         final ChannelSftp channel = getAbstractFileSystem().getChannel();
-        return new SftpOutputStream(channel, channel.put(relPath));
+        try
+        {
+            return new SftpOutputStream(channel, channel.put(relPath));
+        }
+        catch (final Exception e)
+        {
+            getAbstractFileSystem().putChannel(channel);
+            throw e;
+        }
     }
 
     /**
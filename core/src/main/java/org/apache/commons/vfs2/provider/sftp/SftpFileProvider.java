@@ -19,6 +19,9 @@ package org.apache.commons.vfs2.provider.sftp;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
@@ -29,9 +32,6 @@ import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.UserAuthenticationData;
 import org.apache.commons.vfs2.provider.AbstractOriginatingFileProvider;
 import org.apache.commons.vfs2.provider.GenericFileName;
-import org.apache.commons.vfs2.util.UserAuthenticatorUtils;
-
-import com.jcraft.jsch.Session;
 
 /**
  * A provider for accessing files over SFTP.
@@ -67,6 +67,9 @@ public class SftpFileProvider extends AbstractOriginatingFileProvider
 
     // private JSch jSch = new JSch();
 
+    /** Closes the idle channels of the file systems of this provider, created on demand, guarded by this. */
+    private ScheduledThreadPoolExecutor reaper;
+
     /**
      * Constructs a new provider.
      */
@@ -88,33 +91,19 @@ public class SftpFileProvider extends AbstractOriginatingFileProvider
         // Create the file system
         final GenericFileName rootName = (GenericFileName) name;
 
-        Session session;
-        UserAuthenticationData authData = null;
+        // reuses the sessions of another file system of the same user and options
+        final SftpSessionGroup sessions = SftpSessionGroup.acquire(rootName, fileSystemOptions);
         try
         {
-            authData = UserAuthenticatorUtils.authenticate(fileSystemOptions, AUTHENTICATOR_TYPES);
-
-            session = SftpClientFactory.createConnection(
-                rootName.getHostName(),
-                rootName.getPort(),
-                UserAuthenticatorUtils.getData(authData, UserAuthenticationData.USERNAME,
-                    UserAuthenticatorUtils.toChar(rootName.getUserName())),
-                UserAuthenticatorUtils.getData(authData, UserAuthenticationData.PASSWORD,
-                    UserAuthenticatorUtils.toChar(rootName.getPassword())),
-                fileSystemOptions);
-        }
-        catch (final Exception e)
-        {
-            throw new FileSystemException("vfs.provider.sftp/connect.error",
-                name,
-                e);
+            sessions.getSession();
         }
-        finally
+        catch (final FileSystemException e)
         {
-            UserAuthenticatorUtils.cleanup(authData);
+            sessions.release();
+            throw e;
         }
 
-        return new SftpFileSystem(rootName, session, fileSystemOptions);
+        return new SftpFileSystem(rootName, sessions, fileSystemOptions, getReaper());
     }
 
 
@@ -139,6 +128,34 @@ public class SftpFileProvider extends AbstractOriginatingFileProvider
     {
     }
 
+    /**
+     * Closes the file systems of this provider and stops their channel reaper.
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+
+        final ScheduledThreadPoolExecutor pendingReaper;
+        synchronized (this)
+        {
+            pendingReaper = reaper;
+            reaper = null;
+        }
+        if (pendingReaper != null)
+        {
+            pendingReaper.shutdownNow();
+            try
+            {
+                pendingReaper.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     @Override
     public FileSystemConfigBuilder getConfigBuilder()
     {
@@ -150,4 +167,22 @@ public class SftpFileProvider extends AbstractOriginatingFileProvider
     {
         return capabilities;
     }
+
+    private synchronized ScheduledThreadPoolExecutor getReaper()
+    {
+        if (reaper == null)
+        {
+            reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "SFTP channel reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return reaper;
+    }
 }
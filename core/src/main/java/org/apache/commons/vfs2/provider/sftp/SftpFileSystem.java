@@ -19,21 +19,22 @@ package org.apache.commons.vfs2.provider.sftp;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Collection;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
-import org.apache.commons.vfs2.UserAuthenticationData;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
 import org.apache.commons.vfs2.provider.GenericFileName;
-import org.apache.commons.vfs2.util.UserAuthenticatorUtils;
+import org.apache.commons.vfs2.util.FileObjectUtils;
 
 import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpATTRS;
 import com.jcraft.jsch.SftpException;
 
 /**
@@ -48,11 +49,12 @@ public class SftpFileSystem
 
     private static final long LAST_MOD_TIME_ACCURACY = 1000L;
 
-    private Session session;
+    /** The sessions to the server, null while the communication link is closed. */
+    private SftpSessionGroup sessions;
 
     // private final JSch jSch;
 
-    private ChannelSftp idleChannel;
+    private final SftpChannelPool channelPool;
 
     /**
      * Cache for the user ID (-1 when not set)
@@ -67,63 +69,92 @@ public class SftpFileSystem
     protected SftpFileSystem(final GenericFileName rootName,
                              final Session session,
                              final FileSystemOptions fileSystemOptions)
+    {
+        this(rootName, SftpSessionGroup.acquire(rootName, fileSystemOptions, session), fileSystemOptions, null);
+    }
+
+    /**
+     * Creates the file system.
+     *
+     * @param rootName The root name of the file system.
+     * @param sessions The sessions to the server.
+     * @param fileSystemOptions The file system options.
+     * @param reaper Closes idle channels, owned by the provider, null to close them only with the file system.
+     */
+    SftpFileSystem(final GenericFileName rootName,
+                   final SftpSessionGroup sessions,
+                   final FileSystemOptions fileSystemOptions,
+                   final ScheduledThreadPoolExecutor reaper)
     {
         super(rootName, null, fileSystemOptions);
-        this.session = session;
+        this.sessions = sessions;
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        this.channelPool = new SftpChannelPool(this, reaper,
+            builder.getChannelPoolMaxTotal(fileSystemOptions),
+            builder.getChannelPoolMinIdle(fileSystemOptions),
+            builder.getChannelPoolMaxWait(fileSystemOptions),
+            builder.getChannelIdleTimeout(fileSystemOptions));
     }
 
     @Override
     protected void doCloseCommunicationLink()
     {
-        if (idleChannel != null)
-        {
-            idleChannel.disconnect();
-            idleChannel = null;
-        }
+        channelPool.closeIdle();
 
-        if (session != null)
+        if (sessions != null)
         {
-            session.disconnect();
-            session = null;
+            sessions.release();
+            sessions = null;
         }
     }
 
     /**
-     * Returns an SFTP channel to the server.
+     * Returns an SFTP channel to the server, borrowed from the channel pool.
      *
      * @throws FileSystemException if a session cannot be created.
      * @throws IOException if an I/O error is detected.
      */
     protected ChannelSftp getChannel() throws IOException
     {
-        ensureSession();
+        return channelPool.borrow();
+    }
+
+    /**
+     * Returns the pool of the SFTP channels, which reports how the channels are used.
+     *
+     * @return The channel pool.
+     * @since 2.1
+     */
+    public SftpChannelPool getChannelPool()
+    {
+        return channelPool;
+    }
+
+    /**
+     * Opens a new SFTP channel for the channel pool.
+     *
+     * @throws FileSystemException if a session cannot be created.
+     * @throws IOException if an I/O error is detected.
+     */
+    ChannelSftp createChannel() throws IOException
+    {
+        ChannelSftp channel = null;
         try
         {
-            // Use the pooled channel, or create a new one
-            final ChannelSftp channel;
-            if (idleChannel != null)
-            {
-                channel = idleChannel;
-                idleChannel = null;
-            }
-            else
+            channel = getSessions().openChannel();
+            final Boolean userDirIsRoot =
+                SftpFileSystemConfigBuilder.getInstance().getUserDirIsRoot(getFileSystemOptions());
+            final String workingDirectory = getRootName().getPath();
+            if (workingDirectory != null && (userDirIsRoot == null || !userDirIsRoot.booleanValue()))
             {
-                channel = (ChannelSftp) session.openChannel("sftp");
-                channel.connect();
-                final Boolean userDirIsRoot =
-                    SftpFileSystemConfigBuilder.getInstance().getUserDirIsRoot(getFileSystemOptions());
-                final String workingDirectory = getRootName().getPath();
-                if (workingDirectory != null && (userDirIsRoot == null || !userDirIsRoot.booleanValue()))
+                try
                 {
-                    try
-                    {
-                        channel.cd(workingDirectory);
-                    }
-                    catch (final SftpException e)
-                    {
-                        throw new FileSystemException("vfs.provider.sftp/change-work-directory.error",
-                            workingDirectory, e);
-                    }
+                    channel.cd(workingDirectory);
+                }
+                catch (final SftpException e)
+                {
+                    throw new FileSystemException("vfs.provider.sftp/change-work-directory.error",
+                        workingDirectory, e);
                 }
             }
 
@@ -137,72 +168,102 @@ public class SftpFileSystem
                     throw new FileSystemException("vfs.provider.sftp/filename-encoding.error", fileNameEncoding);
                 }
             }
-			return channel;
+            final ChannelSftp result = channel;
+            channel = null;
+            return result;
         }
         catch (final JSchException e)
         {
             throw new FileSystemException("vfs.provider.sftp/connect.error", getRootName(), e);
         }
+        finally
+        {
+            if (channel != null)
+            {
+                channel.disconnect();
+            }
+        }
     }
 
     /**
-     * Ensures that the session link is established.
-     *
-     * @throws FileSystemException if a session cannot be created.
+     * Returns the sessions to the server, acquiring them again after the communication link has been closed.
      */
-    private void ensureSession() throws FileSystemException
+    private synchronized SftpSessionGroup getSessions()
     {
-        if (this.session == null || !this.session.isConnected())
+        if (sessions == null)
         {
-            doCloseCommunicationLink();
-
-            // channel closed. e.g. by freeUnusedResources, but now we need it again
-            Session session;
-            UserAuthenticationData authData = null;
-            try
-            {
-                final GenericFileName rootName = (GenericFileName) getRootName();
-
-                authData = UserAuthenticatorUtils.authenticate(getFileSystemOptions(),
-                        SftpFileProvider.AUTHENTICATOR_TYPES);
-
-                session = SftpClientFactory.createConnection(
-                        rootName.getHostName(),
-                        rootName.getPort(),
-                        UserAuthenticatorUtils.getData(authData, UserAuthenticationData.USERNAME,
-                                UserAuthenticatorUtils.toChar(rootName.getUserName())),
-                        UserAuthenticatorUtils.getData(authData, UserAuthenticationData.PASSWORD,
-                                UserAuthenticatorUtils.toChar(rootName.getPassword())),
-                        getFileSystemOptions());
-            }
-            catch (final Exception e)
-            {
-                throw new FileSystemException("vfs.provider.sftp/connect.error", getRootName(), e);
-            }
-            finally
-            {
-                UserAuthenticatorUtils.cleanup(authData);
-            }
-            this.session = session;
+            sessions = SftpSessionGroup.acquire((GenericFileName) getRootName(), getFileSystemOptions());
         }
+        return sessions;
     }
 
     /**
-     * Returns a channel to the pool.
+     * Returns the number of SSH sessions this file system currently shares.
+     *
+     * @return The number of connected sessions, 0 while the communication link is closed.
+     * @since 2.1
+     */
+    public synchronized int getSessionCount()
+    {
+        return sessions != null ? sessions.getSessionCount() : 0;
+    }
+
+    /**
+     * Returns a channel to the pool, a disconnected channel is dropped.
      */
     protected void putChannel(final ChannelSftp channel)
     {
-        if (idleChannel == null)
+        channelPool.release(channel);
+    }
+
+    /**
+     * Fetches the attributes of several files at once and refreshes the files with them.
+     * <p>
+     * The files of a folder which holds several of them are taken from a single
+     * listing of the folder, the other files are stat'ed. The requests are sent at
+     * the same time on up to {@link SftpFileSystemConfigBuilder#getChannelPoolMaxTotal}
+     * channels. This is much faster than refreshing many files one by one, which
+     * waits for a round trip per file.
+     *
+     * @param files The files of this file system to refresh.
+     * @throws FileSystemException if the attributes cannot be fetched.
+     * @throws IllegalArgumentException if a file does not belong to this file system.
+     * @since 2.1
+     */
+    public void refreshAll(final FileObject[] files) throws FileSystemException
+    {
+        final SftpFileObject[] sftpFiles = new SftpFileObject[files.length];
+        for (int i = 0; i < files.length; i++)
         {
-            // put back the channel only if it is still connected
-            if (channel.isConnected() && !channel.isClosed())
+            final FileObject file = FileObjectUtils.getAbstractFileObject(files[i]);
+            if (!(file instanceof SftpFileObject) || file.getFileSystem() != this)
             {
-                idleChannel = channel;
+                throw new IllegalArgumentException("Not a file of " + getRootName() + ": " + files[i]);
             }
+            sftpFiles[i] = (SftpFileObject) file;
+        }
+        if (sftpFiles.length == 0)
+        {
+            return;
+        }
+
+        final SftpATTRS[] attrs;
+        try
+        {
+            attrs = new SftpBatchStat(this, SftpFileSystemConfigBuilder.getInstance().getChannelPoolMaxTotal(
+                getFileSystemOptions())).stat(sftpFiles);
+        }
+        catch (final FileSystemException e)
+        {
+            throw e;
+        }
+        catch (final IOException e)
+        {
+            throw new FileSystemException("vfs.provider.sftp/batch-stat.error", getRootName(), e);
         }
-        else
+        for (int i = 0; i < sftpFiles.length; i++)
         {
-            channel.disconnect();
+            sftpFiles[i].refresh(attrs[i]);
         }
     }
 
@@ -306,8 +367,7 @@ public class SftpFileSystem
      */
     private int executeCommand(final String command, final StringBuilder output) throws JSchException, IOException
     {
-        ensureSession();
-        final ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        final ChannelExec channel = (ChannelExec) getSessions().getSession().openChannel("exec");
 
         channel.setCommand(command);
         channel.setInputStream(null);
@@ -93,7 +93,26 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
 
     private static final SftpFileSystemConfigBuilder BUILDER = new SftpFileSystemConfigBuilder();
 
+    private static final long DEFAULT_ATTRIBUTE_CACHE_TIMEOUT = 0;
+    private static final long DEFAULT_CHANNEL_IDLE_TIMEOUT = 60000;
+    private static final int DEFAULT_CHANNEL_POOL_MAX_TOTAL = 16;
+    private static final long DEFAULT_CHANNEL_POOL_MAX_WAIT = 30000;
+    private static final int DEFAULT_CHANNEL_POOL_MIN_IDLE = 1;
+    private static final long DEFAULT_DOWNLOAD_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_DOWNLOAD_THREADS = 1;
+    private static final int DEFAULT_SEGMENT_RETRIES = 3;
+    private static final int DEFAULT_SESSION_COUNT = 1;
+    private static final long DEFAULT_UPLOAD_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_THREADS = 1;
+
+    private static final String ATTRIBUTE_CACHE_TIMEOUT = _PREFIX + ".ATTRIBUTE_CACHE_TIMEOUT";
+    private static final String CHANNEL_IDLE_TIMEOUT = _PREFIX + ".CHANNEL_IDLE_TIMEOUT";
+    private static final String CHANNEL_POOL_MAX_TOTAL = _PREFIX + ".CHANNEL_POOL_MAX_TOTAL";
+    private static final String CHANNEL_POOL_MAX_WAIT = _PREFIX + ".CHANNEL_POOL_MAX_WAIT";
+    private static final String CHANNEL_POOL_MIN_IDLE = _PREFIX + ".CHANNEL_POOL_MIN_IDLE";
     private static final String COMPRESSION = _PREFIX + "COMPRESSION";
+    private static final String DOWNLOAD_SEGMENT_SIZE = _PREFIX + ".DOWNLOAD_SEGMENT_SIZE";
+    private static final String DOWNLOAD_THREADS = _PREFIX + ".DOWNLOAD_THREADS";
     private static final String HOST_KEY_CHECK_ASK = "ask";
     private static final String HOST_KEY_CHECK_NO = "no";
     private static final String HOST_KEY_CHECK_YES = "yes";
@@ -132,8 +151,12 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
     private static final String PROXY_PASSWORD = _PREFIX + ".PROXY_PASSWORD";
     private static final String PROXY_COMMAND = _PREFIX + ".PROXY_COMMAND";
 
+    private static final String SEGMENT_RETRIES = _PREFIX + ".SEGMENT_RETRIES";
+    private static final String SESSION_COUNT = _PREFIX + ".SESSION_COUNT";
     private static final String STRICT_HOST_KEY_CHECKING = _PREFIX + ".STRICT_HOST_KEY_CHECKING";
     private static final String TIMEOUT = _PREFIX + ".TIMEOUT";
+    private static final String UPLOAD_SEGMENT_SIZE = _PREFIX + ".UPLOAD_SEGMENT_SIZE";
+    private static final String UPLOAD_THREADS = _PREFIX + ".UPLOAD_THREADS";
     private static final String USER_DIR_IS_ROOT = _PREFIX + ".USER_DIR_IS_ROOT";
     private static final String ENCODING = _PREFIX + ".ENCODING";
     
@@ -152,6 +175,76 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
         super("sftp.");
     }
 
+    /**
+     * Defaults to 0, which fetches the attributes of a file again whenever it is refreshed.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The time in milliseconds for which the attributes of a file are reused.
+     * @see #setAttributeCacheTimeout
+     * @since 2.1
+     */
+    public long getAttributeCacheTimeout(final FileSystemOptions opts)
+    {
+        return this.getLong(opts, ATTRIBUTE_CACHE_TIMEOUT, DEFAULT_ATTRIBUTE_CACHE_TIMEOUT);
+    }
+
+    /**
+     * Defaults to 60 seconds.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The time in milliseconds after which an unused channel is closed.
+     * @see #setChannelIdleTimeout
+     * @since 2.1
+     */
+    public long getChannelIdleTimeout(final FileSystemOptions opts)
+    {
+        return this.getLong(opts, CHANNEL_IDLE_TIMEOUT, DEFAULT_CHANNEL_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Defaults to 16.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The maximum number of SFTP channels a file system opens at the same time.
+     * @see #setChannelPoolMaxTotal
+     * @since 2.1
+     */
+    public int getChannelPoolMaxTotal(final FileSystemOptions opts)
+    {
+        return this.getInteger(opts, CHANNEL_POOL_MAX_TOTAL, DEFAULT_CHANNEL_POOL_MAX_TOTAL);
+    }
+
+    /**
+     * Defaults to 30 seconds.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The time in milliseconds to wait for a free channel, negative to wait forever.
+     * @see #setChannelPoolMaxWait
+     * @since 2.1
+     */
+    public long getChannelPoolMaxWait(final FileSystemOptions opts)
+    {
+        return this.getLong(opts, CHANNEL_POOL_MAX_WAIT, DEFAULT_CHANNEL_POOL_MAX_WAIT);
+    }
+
+    /**
+     * Defaults to 1.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The number of idle channels which are kept open after the idle timeout.
+     * @see #setChannelPoolMinIdle
+     * @since 2.1
+     */
+    public int getChannelPoolMinIdle(final FileSystemOptions opts)
+    {
+        return this.getInteger(opts, CHANNEL_POOL_MIN_IDLE, DEFAULT_CHANNEL_POOL_MIN_IDLE);
+    }
+
     /**
      * @param opts
      *            The FileSystem options.
@@ -163,6 +256,34 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
         return this.getString(opts, COMPRESSION);
     }
 
+    /**
+     * Defaults to 8 MB.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The size in bytes of the segments of a segmented download.
+     * @see #setDownloadSegmentSize
+     * @since 2.1
+     */
+    public long getDownloadSegmentSize(final FileSystemOptions opts)
+    {
+        return this.getLong(opts, DOWNLOAD_SEGMENT_SIZE, DEFAULT_DOWNLOAD_SEGMENT_SIZE);
+    }
+
+    /**
+     * Defaults to 1, which downloads over a single stream.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The number of segments of a file which are downloaded at the same time.
+     * @see #setDownloadThreads
+     * @since 2.1
+     */
+    public int getDownloadThreads(final FileSystemOptions opts)
+    {
+        return this.getInteger(opts, DOWNLOAD_THREADS, DEFAULT_DOWNLOAD_THREADS);
+    }
+
     @Override
     protected Class<? extends FileSystem> getConfigClass()
     {
@@ -361,6 +482,32 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
         return this.getString(opts, PROXY_USER);
     }
 
+    /**
+     * Defaults to 3.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The number of times a failed segment is transferred again.
+     * @see #setSegmentRetries
+     * @since 2.1
+     */
+    public int getSegmentRetries(final FileSystemOptions opts)
+    {
+        return this.getInteger(opts, SEGMENT_RETRIES, DEFAULT_SEGMENT_RETRIES);
+    }
+
+    /**
+     * @param opts
+     *            The FileSystem options.
+     * @return The maximum number of SSH sessions to the server, defaults to 1.
+     * @see #setSessionCount(FileSystemOptions, int)
+     * @since 2.1
+     */
+    public int getSessionCount(final FileSystemOptions opts)
+    {
+        return this.getInteger(opts, SESSION_COUNT, DEFAULT_SESSION_COUNT);
+    }
+
     /**
      * @param opts
      *            The FileSystem options.
@@ -383,6 +530,34 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
         return this.getInteger(opts, TIMEOUT);
     }
 
+    /**
+     * Defaults to 8 MB.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The size in bytes of the segments of a segmented upload.
+     * @see #setUploadSegmentSize
+     * @since 2.1
+     */
+    public long getUploadSegmentSize(final FileSystemOptions opts)
+    {
+        return this.getLong(opts, UPLOAD_SEGMENT_SIZE, DEFAULT_UPLOAD_SEGMENT_SIZE);
+    }
+
+    /**
+     * Defaults to 1, which uploads over a single stream.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @return The number of segments of a file which are uploaded at the same time.
+     * @see #setUploadThreads
+     * @since 2.1
+     */
+    public int getUploadThreads(final FileSystemOptions opts)
+    {
+        return this.getInteger(opts, UPLOAD_THREADS, DEFAULT_UPLOAD_THREADS);
+    }
+
     /**
      * Returns {@link Boolean#TRUE} if VFS should treat the user directory as the root directory. Defaults to
      * <code>Boolean.TRUE</code> if the method {@link #setUserDirIsRoot(FileSystemOptions, boolean)} has not been
@@ -409,6 +584,87 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
         return (UserInfo) this.getParam(opts, UserInfo.class.getName());
     }
 
+    /**
+     * Sets the time for which the attributes of a file are reused.
+     * <p>
+     * The attributes of a file are fetched by a stat request, or come with the listing
+     * of its folder. While they are younger than this time, refreshing the file and
+     * checking its permissions reuse them instead of sending another stat request.
+     * Writing to the file through VFS always fetches them again, changes made by other
+     * clients show once the attributes expire.
+     * </p>
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param timeout
+     *            The time in milliseconds, 0 fetches the attributes on every refresh.
+     * @since 2.1
+     */
+    public void setAttributeCacheTimeout(final FileSystemOptions opts, final long timeout)
+    {
+        this.setParam(opts, ATTRIBUTE_CACHE_TIMEOUT, Long.valueOf(timeout));
+    }
+
+    /**
+     * Sets the time after which an unused SFTP channel is closed.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param timeout
+     *            The idle timeout in milliseconds.
+     * @since 2.1
+     */
+    public void setChannelIdleTimeout(final FileSystemOptions opts, final long timeout)
+    {
+        this.setParam(opts, CHANNEL_IDLE_TIMEOUT, Long.valueOf(timeout));
+    }
+
+    /**
+     * Sets the maximum number of SFTP channels a file system opens at the same time.
+     * <p>
+     * Every open stream holds a channel, so this is the number of files which can be
+     * transferred in parallel. Further operations wait for a channel to become free.
+     * </p>
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param maxTotal
+     *            The maximum number of open channels, at least 1.
+     * @since 2.1
+     */
+    public void setChannelPoolMaxTotal(final FileSystemOptions opts, final int maxTotal)
+    {
+        this.setParam(opts, CHANNEL_POOL_MAX_TOTAL, Integer.valueOf(maxTotal));
+    }
+
+    /**
+     * Sets the time to wait for a free SFTP channel when all channels are in use.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param maxWait
+     *            The time in milliseconds, negative to wait forever.
+     * @since 2.1
+     */
+    public void setChannelPoolMaxWait(final FileSystemOptions opts, final long maxWait)
+    {
+        this.setParam(opts, CHANNEL_POOL_MAX_WAIT, Long.valueOf(maxWait));
+    }
+
+    /**
+     * Sets the number of idle SFTP channels which are kept open after the idle timeout.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param minIdle
+     *            The number of channels.
+     * @since 2.1
+     */
+    public void setChannelPoolMinIdle(final FileSystemOptions opts, final int minIdle)
+    {
+        this.setParam(opts, CHANNEL_POOL_MIN_IDLE, Integer.valueOf(minIdle));
+    }
+
     /**
      * Configures the compression to use.
      * <p>
@@ -430,6 +686,46 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
         this.setParam(opts, COMPRESSION, compression);
     }
 
+    /**
+     * Sets the size of the segments of a segmented download.
+     * <p>
+     * Files which are larger than a segment are downloaded in segments when
+     * more than one download thread is configured.
+     * </p>
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param segmentSize
+     *            The size of a segment in bytes.
+     * @since 2.1
+     */
+    public void setDownloadSegmentSize(final FileSystemOptions opts, final long segmentSize)
+    {
+        this.setParam(opts, DOWNLOAD_SEGMENT_SIZE, Long.valueOf(segmentSize));
+    }
+
+    /**
+     * Sets the number of segments of a file which are downloaded at the same time.
+     * <p>
+     * A single stream over a link with a high latency is limited by the round trips
+     * of the SFTP requests. When a file is copied to a file system which supports
+     * random access writes, for example by {@link org.apache.commons.vfs2.FileObject#copyFrom}
+     * or when it is replicated to a local file, a file larger than the segment size is
+     * cut into segments. The segments are read on channels of their own and written to
+     * their offsets in the destination. Each thread uses a channel of the pool.
+     * </p>
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param threads
+     *            The number of concurrent segments, 1 downloads over a single stream.
+     * @since 2.1
+     */
+    public void setDownloadThreads(final FileSystemOptions opts, final int threads)
+    {
+        this.setParam(opts, DOWNLOAD_THREADS, Integer.valueOf(threads));
+    }
+
     /**
      * Sets the file name encoding.
      * 
@@ -648,6 +944,43 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
         this.setParam(opts, PROXY_USER, proxyUser);
     }
 
+    /**
+     * Sets the number of times a failed segment of a segmented transfer is transferred
+     * again on a new channel, a download from where it broke off and an upload from
+     * the start of the segment.
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param retries
+     *            The number of retries.
+     * @since 2.1
+     */
+    public void setSegmentRetries(final FileSystemOptions opts, final int retries)
+    {
+        this.setParam(opts, SEGMENT_RETRIES, Integer.valueOf(retries));
+    }
+
+    /**
+     * Sets the maximum number of SSH sessions to the server.
+     * <p>
+     * All channels of a session share its TCP connection, whose flow control window
+     * and cipher limit the throughput on links with a high latency. With more than
+     * one session the channels are opened on the session with the fewest channels,
+     * a further session is only connected when all sessions have channels open.
+     * The sessions are shared by the file systems of the same user, server and options.
+     * </p>
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param sessionCount
+     *            The number of sessions.
+     * @since 2.1
+     */
+    public void setSessionCount(final FileSystemOptions opts, final int sessionCount)
+    {
+        this.setParam(opts, SESSION_COUNT, Integer.valueOf(sessionCount));
+    }
+
     /**
      * Configures the host key checking to use.
      * <p>
@@ -691,6 +1024,46 @@ public final class SftpFileSystemConfigBuilder extends FileSystemConfigBuilder
     }
     
     
+    /**
+     * Sets the size of the segments of a segmented upload.
+     * <p>
+     * Files which are larger than a segment are uploaded in segments when
+     * more than one upload thread is configured.
+     * </p>
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param segmentSize
+     *            The size of a segment in bytes.
+     * @since 2.1
+     */
+    public void setUploadSegmentSize(final FileSystemOptions opts, final long segmentSize)
+    {
+        this.setParam(opts, UPLOAD_SEGMENT_SIZE, Long.valueOf(segmentSize));
+    }
+
+    /**
+     * Sets the number of segments of a file which are uploaded at the same time.
+     * <p>
+     * When a file of a file system which supports random access reads is copied to
+     * this file system by {@link org.apache.commons.vfs2.FileObject#copyFrom}, a file
+     * larger than the segment size is cut into segments. Each segment is written on a
+     * channel of the pool to its offset in the remote file, and the size of the remote
+     * file is checked at the end. {@link org.apache.commons.vfs2.provider.SegmentedUpload}
+     * uploads in segments with explicit settings.
+     * </p>
+     *
+     * @param opts
+     *            The FileSystem options.
+     * @param threads
+     *            The number of concurrent segments, 1 uploads over a single stream.
+     * @since 2.1
+     */
+    public void setUploadThreads(final FileSystemOptions opts, final int threads)
+    {
+        this.setParam(opts, UPLOAD_THREADS, Integer.valueOf(threads));
+    }
+
     /**
      * Sets the whether to use the user directory as root (do not change to file system root).
      *
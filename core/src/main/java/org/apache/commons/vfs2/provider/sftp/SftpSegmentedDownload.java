@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Downloads a file in segments which are read at the same time.
+ * <p>
+ * The file is cut into segments of a fixed size. Each segment is read on a
+ * channel of its own, starting at the offset of the segment, and written to the
+ * same offset of the destination, which therefore needs random access writes.
+ * A segment which fails is read again from where it broke off on a new channel,
+ * up to the given number of retries. The destination is only complete if the
+ * download succeeds.
+ */
+final class SftpSegmentedDownload
+{
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final SftpFileSystem fileSystem;
+    private final String path;
+    private final long size;
+    private final int threads;
+    private final long segmentSize;
+    private final int retries;
+
+    /** Set when a segment failed or the download ended, running segments stop then. */
+    private volatile boolean failed;
+
+    /**
+     * Creates the download.
+     *
+     * @param fileSystem The file system whose channels are used.
+     * @param path The path of the file relative to the working directory of the channels.
+     * @param size The size of the file.
+     * @param threads The number of segments which are read at the same time.
+     * @param segmentSize The size of a segment.
+     * @param retries The number of times a failed segment is read again.
+     */
+    SftpSegmentedDownload(final SftpFileSystem fileSystem, final String path, final long size, final int threads,
+                          final long segmentSize, final int retries)
+    {
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.size = size;
+        this.threads = threads;
+        this.segmentSize = Math.max(1, segmentSize);
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Downloads the file to another file.
+     *
+     * @param destFile The file to write, which supports random access writes.
+     * @throws IOException if a segment cannot be downloaded or written.
+     */
+    void copyTo(final FileObject destFile) throws IOException
+    {
+        destFile.createFile();
+        final RandomAccessContent content = destFile.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+        final long segments = (size + segmentSize - 1) / segmentSize;
+        final ExecutorService executor = Executors.newFixedThreadPool((int) Math.min(threads, segments),
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "SFTP segment download");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            content.setLength(size);
+            final List<Future<Void>> pending = new ArrayList<Future<Void>>();
+            for (long offset = 0; offset < size; offset += segmentSize)
+            {
+                final long start = offset;
+                final long end = Math.min(size, offset + segmentSize);
+                pending.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        download(start, end, content);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> segment : pending)
+            {
+                get(segment);
+            }
+        }
+        finally
+        {
+            failed = true;
+            executor.shutdownNow();
+            awaitTermination(executor);
+            content.close();
+        }
+        destFile.refresh();
+    }
+
+    /**
+     * Reads a segment, retrying on a new channel from where it broke off.
+     */
+    private void download(final long start, final long end, final RandomAccessContent content) throws IOException
+    {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long position = start;
+        int attempt = 0;
+        while (position < end)
+        {
+            final ChannelSftp channel = fileSystem.getChannel();
+            try
+            {
+                final InputStream in = channel.get(path, null, position);
+                try
+                {
+                    while (position < end)
+                    {
+                        if (failed)
+                        {
+                            throw new InterruptedIOException("Another segment failed.");
+                        }
+                        final int n = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                        if (n < 0)
+                        {
+                            throw new FileSystemException("vfs.provider.sftp/truncated-download.error", path,
+                                Long.valueOf(position), Long.valueOf(size));
+                        }
+                        synchronized (content)
+                        {
+                            content.seek(position);
+                            content.write(buffer, 0, n);
+                        }
+                        position += n;
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (final SftpException e)
+            {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE || e.id == ChannelSftp.SSH_FX_PERMISSION_DENIED
+                    || ++attempt > retries)
+                {
+                    throw new FileSystemException(e);
+                }
+                // the channel may be broken, the pool drops it when it is disconnected
+                channel.disconnect();
+            }
+            catch (final FileSystemException e)
+            {
+                throw e;
+            }
+            catch (final InterruptedIOException e)
+            {
+                throw e;
+            }
+            catch (final IOException e)
+            {
+                if (failed || ++attempt > retries)
+                {
+                    throw e;
+                }
+                channel.disconnect();
+            }
+            finally
+            {
+                fileSystem.putChannel(channel);
+            }
+        }
+    }
+
+    /**
+     * Waits for a segment, stopping the download when it failed.
+     */
+    private void get(final Future<Void> segment) throws IOException
+    {
+        try
+        {
+            segment.get();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading.");
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Waits for the running segments to stop, they must not write to the closed destination.
+     */
+    private static void awaitTermination(final ExecutorService executor)
+    {
+        try
+        {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+            {
+                // segments stop after their current read
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
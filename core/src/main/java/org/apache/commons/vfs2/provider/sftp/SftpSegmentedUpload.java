@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.SegmentedUpload;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Uploads a file to an SFTP server in segments which are written at the same time.
+ * <p>
+ * The remote file is truncated and its last byte is written first, so it has its
+ * final size before the segments start. Each segment then opens the file on a
+ * channel of its own and writes to its offset. The resume mode of JSch adds the
+ * size of the remote file to the given offset and writes at the resulting position
+ * without truncating, so a segment passes its offset less the size of the file.
+ * A segment which fails is written again from its start on a new channel, up to
+ * the given number of retries.
+ */
+final class SftpSegmentedUpload extends SegmentedUpload
+{
+    private final SftpFileSystem fileSystem;
+    private final String path;
+    private final int retries;
+
+    /**
+     * Creates the upload.
+     *
+     * @param srcFile The file to read, which supports random access reads.
+     * @param destFile The remote file.
+     * @param fileSystem The file system whose channels are used.
+     * @param path The path of the remote file relative to the working directory of the channels.
+     * @param threads The number of segments which are written at the same time.
+     * @param segmentSize The size of a segment.
+     * @param retries The number of times a failed segment is written again.
+     */
+    SftpSegmentedUpload(final FileObject srcFile, final FileObject destFile, final SftpFileSystem fileSystem,
+                        final String path, final int threads, final long segmentSize, final int retries)
+    {
+        super(srcFile, destFile, threads, segmentSize);
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Truncates the remote file and writes its last byte.
+     */
+    @Override
+    protected void prepare() throws IOException
+    {
+        final ChannelSftp channel = fileSystem.getChannel();
+        try
+        {
+            final OutputStream out = channel.put(path, null, ChannelSftp.OVERWRITE, getSize() - 1);
+            try
+            {
+                out.write(0);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (final SftpException e)
+        {
+            throw new FileSystemException(e);
+        }
+        finally
+        {
+            fileSystem.putChannel(channel);
+        }
+    }
+
+    /**
+     * Writes a segment, retrying on a new channel from its start.
+     */
+    @Override
+    protected void uploadSegment(final int index, final long start, final long end) throws IOException
+    {
+        int attempt = 0;
+        while (true)
+        {
+            final ChannelSftp channel = fileSystem.getChannel();
+            try
+            {
+                final OutputStream out = channel.put(path, null, ChannelSftp.RESUME, start - getSize());
+                try
+                {
+                    copySegment(start, end, out);
+                }
+                finally
+                {
+                    out.close();
+                }
+                return;
+            }
+            catch (final SftpException e)
+            {
+                if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE || e.id == ChannelSftp.SSH_FX_PERMISSION_DENIED
+                    || ++attempt > retries)
+                {
+                    throw new FileSystemException(e);
+                }
+                // the channel may be broken, the pool drops it when it is disconnected
+                channel.disconnect();
+            }
+            catch (final InterruptedIOException e)
+            {
+                throw e;
+            }
+            catch (final IOException e)
+            {
+                if (isStopped() || ++attempt > retries)
+                {
+                    throw e;
+                }
+                channel.disconnect();
+            }
+            finally
+            {
+                fileSystem.putChannel(channel);
+            }
+        }
+    }
+
+    @Override
+    protected long getUploadedSize() throws IOException
+    {
+        final ChannelSftp channel = fileSystem.getChannel();
+        try
+        {
+            return channel.stat(path).getSize();
+        }
+        catch (final SftpException e)
+        {
+            throw new FileSystemException(e);
+        }
+        finally
+        {
+            fileSystem.putChannel(channel);
+        }
+    }
+}
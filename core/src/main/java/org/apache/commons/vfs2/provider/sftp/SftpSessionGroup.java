@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.UserAuthenticationData;
+import org.apache.commons.vfs2.provider.GenericFileName;
+import org.apache.commons.vfs2.util.UserAuthenticatorUtils;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * The SSH sessions to a server.
+ * <p>
+ * A group is shared by all file systems which connect to the same server as
+ * the same user with the same options, and is closed when the last of them
+ * closes its communication link. Up to the configured session count of
+ * sessions are connected. A channel is opened on the session with the fewest
+ * open channels, a further session is only connected when every session has
+ * channels open. A session is connected without holding the lock of the
+ * group, so the connected sessions stay usable meanwhile. If the server
+ * refuses a further session, the connected sessions are used from then on.
+ */
+final class SftpSessionGroup
+{
+    /** The groups in use by key, guarded by itself. */
+    private static final Map<Key, SftpSessionGroup> GROUPS = new TreeMap<Key, SftpSessionGroup>();
+
+    private final Key key;
+    private final GenericFileName rootName;
+    private final FileSystemOptions fileSystemOptions;
+
+    /** The connected sessions, guarded by this. */
+    private final List<Member> members = new ArrayList<Member>();
+
+    /** The number of sessions which may be connected, guarded by this. */
+    private int sessionLimit;
+
+    /** The number of sessions being connected, guarded by this. */
+    private int connecting;
+
+    /** The number of file systems using the group, guarded by GROUPS. */
+    private int references;
+
+    /** true once the last file system released the group, guarded by this. */
+    private boolean closed;
+
+    private SftpSessionGroup(final Key key, final GenericFileName rootName, final FileSystemOptions fileSystemOptions)
+    {
+        this.key = key;
+        this.rootName = rootName;
+        this.fileSystemOptions = fileSystemOptions;
+        this.sessionLimit = Math.max(1, SftpFileSystemConfigBuilder.getInstance().getSessionCount(fileSystemOptions));
+    }
+
+    /**
+     * Returns the group of a server, user and options, which has to be released when no longer used.
+     *
+     * @param rootName The root name of the file system.
+     * @param fileSystemOptions The options of the file system.
+     * @return The group.
+     */
+    static SftpSessionGroup acquire(final GenericFileName rootName, final FileSystemOptions fileSystemOptions)
+    {
+        final Key key = new Key(rootName, fileSystemOptions);
+        synchronized (GROUPS)
+        {
+            SftpSessionGroup group = GROUPS.get(key);
+            if (group == null)
+            {
+                group = new SftpSessionGroup(key, rootName, fileSystemOptions);
+                GROUPS.put(key, group);
+            }
+            group.references++;
+            return group;
+        }
+    }
+
+    /**
+     * Hands a session of a file system over to the group of its server, user and options.
+     * The session is disconnected if the group already has enough sessions.
+     *
+     * @param rootName The root name of the file system.
+     * @param fileSystemOptions The options of the file system.
+     * @param session The connected session.
+     * @return The group, which has to be released when no longer used.
+     */
+    static SftpSessionGroup acquire(final GenericFileName rootName, final FileSystemOptions fileSystemOptions,
+                                    final Session session)
+    {
+        final SftpSessionGroup group = acquire(rootName, fileSystemOptions);
+        if (!group.adopt(session))
+        {
+            session.disconnect();
+        }
+        return group;
+    }
+
+    /**
+     * Releases the group, the sessions are disconnected when it is no longer used.
+     */
+    void release()
+    {
+        synchronized (GROUPS)
+        {
+            if (--references > 0)
+            {
+                return;
+            }
+            GROUPS.remove(key);
+        }
+        final List<Member> disconnected;
+        synchronized (this)
+        {
+            closed = true;
+            disconnected = new ArrayList<Member>(members);
+            members.clear();
+            notifyAll();
+        }
+        for (final Member member : disconnected)
+        {
+            member.session.disconnect();
+        }
+    }
+
+    /**
+     * Returns the session with the fewest open channels, connecting the first session if necessary.
+     *
+     * @return The session.
+     * @throws FileSystemException if the session cannot be connected.
+     */
+    Session getSession() throws FileSystemException
+    {
+        return select(false).session;
+    }
+
+    /**
+     * Opens an SFTP channel on the session with the fewest open channels.
+     *
+     * @return The connected channel.
+     * @throws FileSystemException if a session cannot be connected.
+     * @throws JSchException if the channel cannot be opened.
+     */
+    ChannelSftp openChannel() throws FileSystemException, JSchException
+    {
+        final Member member = select(true);
+        ChannelSftp channel = null;
+        try
+        {
+            channel = (ChannelSftp) member.session.openChannel("sftp");
+            channel.connect();
+            synchronized (this)
+            {
+                member.channels.add(channel);
+            }
+            final ChannelSftp result = channel;
+            channel = null;
+            return result;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                member.opening--;
+            }
+            if (channel != null)
+            {
+                channel.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return The number of connected sessions.
+     */
+    synchronized int getSessionCount()
+    {
+        int count = 0;
+        for (final Member member : members)
+        {
+            if (member.session.isConnected())
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private synchronized boolean adopt(final Session session)
+    {
+        if (closed || members.size() >= sessionLimit)
+        {
+            return false;
+        }
+        members.add(new Member(session));
+        return true;
+    }
+
+    /**
+     * Picks the least loaded session, connecting a further one while all are in use.
+     *
+     * @param openChannel true to count a channel being opened on the session.
+     */
+    private Member select(final boolean openChannel) throws FileSystemException
+    {
+        synchronized (this)
+        {
+            while (true)
+            {
+                if (closed)
+                {
+                    throw new FileSystemException("vfs.provider.sftp/connect.error", rootName);
+                }
+                final Member best = pickLeastLoaded();
+                if (best != null && (best.getLoad() == 0 || members.size() + connecting >= sessionLimit))
+                {
+                    if (openChannel)
+                    {
+                        best.opening++;
+                    }
+                    return best;
+                }
+                if (members.size() + connecting < sessionLimit)
+                {
+                    // reserve the slot of the new session
+                    connecting++;
+                    break;
+                }
+                // wait for the sessions being connected by other threads
+                awaitSession();
+            }
+        }
+
+        final Session session;
+        try
+        {
+            session = connect();
+        }
+        catch (final FileSystemException e)
+        {
+            synchronized (this)
+            {
+                connecting--;
+                notifyAll();
+                if (members.isEmpty())
+                {
+                    throw e;
+                }
+                // the server limits the sessions per user, stick to the connected ones
+                sessionLimit = members.size() + connecting;
+            }
+            return select(openChannel);
+        }
+
+        synchronized (this)
+        {
+            connecting--;
+            notifyAll();
+            if (!closed)
+            {
+                final Member member = new Member(session);
+                if (openChannel)
+                {
+                    member.opening++;
+                }
+                members.add(member);
+                return member;
+            }
+        }
+        // the group has been released meanwhile
+        session.disconnect();
+        throw new FileSystemException("vfs.provider.sftp/connect.error", rootName);
+    }
+
+    /**
+     * Returns the session with the fewest open channels, forgetting the disconnected sessions, guarded by this.
+     *
+     * @return The session, null if no session is connected.
+     */
+    private Member pickLeastLoaded()
+    {
+        Member best = null;
+        final Iterator<Member> iterator = members.iterator();
+        while (iterator.hasNext())
+        {
+            final Member member = iterator.next();
+            if (!member.session.isConnected())
+            {
+                iterator.remove();
+                continue;
+            }
+            if (best == null || member.getLoad() < best.getLoad())
+            {
+                best = member;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Waits for a session being connected by another thread, guarded by this.
+     */
+    private void awaitSession() throws FileSystemException
+    {
+        try
+        {
+            wait();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new FileSystemException(new InterruptedIOException("Interrupted while waiting for an SSH session."));
+        }
+    }
+
+    private Session connect() throws FileSystemException
+    {
+        UserAuthenticationData authData = null;
+        try
+        {
+            authData = UserAuthenticatorUtils.authenticate(fileSystemOptions, SftpFileProvider.AUTHENTICATOR_TYPES);
+
+            return SftpClientFactory.createConnection(
+                rootName.getHostName(),
+                rootName.getPort(),
+                UserAuthenticatorUtils.getData(authData, UserAuthenticationData.USERNAME,
+                    UserAuthenticatorUtils.toChar(rootName.getUserName())),
+                UserAuthenticatorUtils.getData(authData, UserAuthenticationData.PASSWORD,
+                    UserAuthenticatorUtils.toChar(rootName.getPassword())),
+                fileSystemOptions);
+        }
+        catch (final Exception e)
+        {
+            throw new FileSystemException("vfs.provider.sftp/connect.error", rootName, e);
+        }
+        finally
+        {
+            UserAuthenticatorUtils.cleanup(authData);
+        }
+    }
+
+    /**
+     * A connected session and the channels opened on it.
+     */
+    private static final class Member
+    {
+        private final Session session;
+
+        /** The channels opened on the session, guarded by the group. */
+        private final List<ChannelSftp> channels = new ArrayList<ChannelSftp>();
+
+        /** The number of channels being opened, guarded by the group. */
+        private int opening;
+
+        Member(final Session session)
+        {
+            this.session = session;
+        }
+
+        /**
+         * Returns the number of open channels, forgetting the disconnected ones, guarded by the group.
+         */
+        int getLoad()
+        {
+            final Iterator<ChannelSftp> iterator = channels.iterator();
+            while (iterator.hasNext())
+            {
+                if (!iterator.next().isConnected())
+                {
+                    iterator.remove();
+                }
+            }
+            return channels.size() + opening;
+        }
+    }
+
+    /**
+     * Identifies the sessions of a server, user and options.
+     */
+    private static final class Key implements Comparable<Key>
+    {
+        private static final FileSystemOptions EMPTY_OPTIONS = new FileSystemOptions();
+
+        private final String hostName;
+        private final int port;
+        private final String userName;
+        private final String password;
+        private final FileSystemOptions fileSystemOptions;
+
+        Key(final GenericFileName rootName, final FileSystemOptions fileSystemOptions)
+        {
+            this.hostName = rootName.getHostName();
+            this.port = rootName.getPort();
+            this.userName = rootName.getUserName();
+            this.password = rootName.getPassword();
+            this.fileSystemOptions = fileSystemOptions != null ? fileSystemOptions : EMPTY_OPTIONS;
+        }
+
+        @Override
+        public int compareTo(final Key o)
+        {
+            int ret = compare(hostName, o.hostName);
+            if (ret == 0)
+            {
+                ret = port < o.port ? -1 : port == o.port ? 0 : 1;
+            }
+            if (ret == 0)
+            {
+                ret = compare(userName, o.userName);
+            }
+            if (ret == 0)
+            {
+                ret = compare(password, o.password);
+            }
+            if (ret != 0)
+            {
+                return ret;
+            }
+            return fileSystemOptions.compareTo(o.fileSystemOptions);
+        }
+
+        private static int compare(final String s1, final String s2)
+        {
+            if (s1 == null)
+            {
+                return s2 == null ? 0 : -1;
+            }
+            return s2 == null ? 1 : s1.compareTo(s2);
+        }
+    }
+}
@@ -17,14 +17,17 @@
 package org.apache.commons.vfs2.provider.tar;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashSet;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileObject;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 
 /**
  * A file in a Tar file system.
@@ -80,7 +83,7 @@ public class TarFileObject extends AbstractFileObject<TarFileSystem>
     }
 
     /**
-     * Determines if this file can be written to.
+     * Determines if this file can be written to, which is only the case in a new archive.
      *
      * @return {@code true} if this file is writeable, {@code false} if not.
      * @throws FileSystemException if an error occurs.
@@ -88,7 +91,7 @@ public class TarFileObject extends AbstractFileObject<TarFileSystem>
     @Override
     public boolean isWriteable() throws FileSystemException
     {
-        return false;
+        return getAbstractFileSystem().isWriting();
     }
 
     /**
@@ -119,6 +122,17 @@ public class TarFileObject extends AbstractFileObject<TarFileSystem>
             throw new RuntimeException(e);
         }
 
+        if (getAbstractFileSystem().isWriting())
+        {
+            try
+            {
+                return getAbstractFileSystem().listWrittenChildren(getName());
+            }
+            catch (final FileSystemException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
         return children.toArray(new String[children.size()]);
     }
 
@@ -170,4 +184,36 @@ public class TarFileObject extends AbstractFileObject<TarFileSystem>
 
         return getAbstractFileSystem().getInputStream(entry);
     }
+
+    /**
+     * Creates access to the content in random order, if the offset of the entry in the archive is known.
+     */
+    @Override
+    protected RandomAccessContent doGetRandomAccessContent(final RandomAccessMode mode) throws Exception
+    {
+        if (!getType().hasContent())
+        {
+            throw new FileSystemException("vfs.provider/read-not-file.error", getName());
+        }
+
+        return getAbstractFileSystem().getRandomAccessContent(entry);
+    }
+
+    /**
+     * Creates this folder in a new archive.
+     */
+    @Override
+    protected void doCreateFolder() throws Exception
+    {
+        getAbstractFileSystem().createFolder(this);
+    }
+
+    /**
+     * Creates an output stream to write the content of this file to a new archive.
+     */
+    @Override
+    protected OutputStream doGetOutputStream(final boolean bAppend) throws Exception
+    {
+        return getAbstractFileSystem().getOutputStream(this);
+    }
 }
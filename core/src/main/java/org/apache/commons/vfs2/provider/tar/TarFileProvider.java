@@ -33,7 +33,8 @@ import org.apache.commons.vfs2.provider.FileProvider;
 import org.apache.commons.vfs2.provider.LayeredFileName;
 
 /**
- * A file system provider for Tar files.  Provides read-only file systems.
+ * A file system provider for Tar files.  Provides read-only file systems of existing archives
+ * and file systems which write new archives.
  */
 public class TarFileProvider extends AbstractLayeredFileProvider implements FileProvider
 {
@@ -16,32 +16,69 @@
  */
 package org.apache.commons.vfs2.provider.tar;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.VfsLog;
+import org.apache.commons.vfs2.cache.ArchiveIndexCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
 import org.apache.commons.vfs2.provider.UriParser;
+import org.apache.commons.vfs2.provider.bzip2.Bzip2CheckpointIndex;
 import org.apache.commons.vfs2.provider.bzip2.Bzip2FileObject;
+import org.apache.commons.vfs2.provider.bzip2.Bzip2FileSystemConfigBuilder;
+import org.apache.commons.vfs2.provider.bzip2.ParallelBzip2InputStream;
+import org.apache.commons.vfs2.provider.compressed.CheckpointIndex;
+import org.apache.commons.vfs2.provider.compressed.CheckpointRandomAccessContent;
+import org.apache.commons.vfs2.provider.gzip.GzipCheckpointIndex;
+import org.apache.commons.vfs2.provider.xz.XzFileObject;
+import org.apache.commons.vfs2.util.Messages;
 
 /**
- * A read-only file system for Tar files.
+ * A file system for Tar files.
+ * <p>
+ * The data offsets of the entries of an uncompressed archive are recorded while
+ * the index is built, so entries are read by seeking to their data and can be
+ * read concurrently. Entries of compressed archives are found by reading the
+ * archive from the start, unless a
+ * {@link DefaultFileSystemConfigBuilder#setCheckpointInterval checkpoint interval}
+ * is configured. Then the compressed archive is indexed first and entries are
+ * decompressed from the closest checkpoint on.
+ * <p>
+ * The entries, their data offsets and the checkpoint index are kept in the
+ * {@link org.apache.commons.vfs2.cache.ArchiveIndexCache} if one is configured.
+ * <p>
+ * A file system on an archive which does not exist yet creates the archive.
+ * Its files and folders are written to the output stream of the archive in the
+ * order they are created, one file at a time, and the archive is completed when
+ * the file system is closed. The entries of such an archive cannot be read back.
  */
 public class TarFileSystem extends AbstractFileSystem
 {
@@ -52,6 +89,21 @@ public class TarFileSystem extends AbstractFileSystem
     private final File file;
     private TarArchiveInputStream tarFile;
 
+    /**
+     * The data offsets of the entries by entry name, null if the archive is compressed.
+     */
+    private Map<String, Long> dataOffsets;
+
+    /**
+     * The checkpoint index of a compressed archive, null if the archive is not compressed or not indexed.
+     */
+    private CheckpointIndex checkpointIndex;
+
+    /**
+     * Writes a new archive, null if the archive exists.
+     */
+    private TarFileWriter writer;
+
     protected TarFileSystem(final AbstractFileName rootName,
                             final FileObject parentLayer,
                             final FileSystemOptions fileSystemOptions)
@@ -59,6 +111,13 @@ public class TarFileSystem extends AbstractFileSystem
     {
         super(rootName, parentLayer, fileSystemOptions);
 
+        if (!parentLayer.exists())
+        {
+            // a new archive, written from init on
+            file = null;
+            return;
+        }
+
         // Make a local copy of the file
         file = parentLayer.getFileSystem().replicateFile(parentLayer, Selectors.SELECT_SELF);
 
@@ -76,14 +135,31 @@ public class TarFileSystem extends AbstractFileSystem
     @Override
     public void init() throws FileSystemException
     {
+        if (file == null)
+        {
+            writer = new TarFileWriter(getParentLayer(), getRootName().getScheme(), getContext());
+            super.init();
+            return;
+        }
         super.init();
 
         // Build the index
         try
         {
+            final ArchiveIndexCache cache = DefaultFileSystemConfigBuilder.getInstance()
+                .getArchiveIndexCache(getFileSystemOptions());
+            List<TarArchiveEntry> entries = cache != null ? readIndex(cache) : null;
+            if (entries == null)
+            {
+                entries = listEntries();
+                if (cache != null && file.exists())
+                {
+                    writeIndex(cache, entries);
+                }
+            }
+
             final List<TarFileObject> strongRef = new ArrayList<TarFileObject>(DEFAULT_INDEX_SIZE);
-            TarArchiveEntry entry;
-            while ((entry = getTarFile().getNextTarEntry()) != null)
+            for (final TarArchiveEntry entry : entries)
             {
                 final AbstractFileName name = (AbstractFileName) getFileSystemManager().resolveName(getRootName(),
                     UriParser.encode(entry.getName()));
@@ -134,8 +210,180 @@ public class TarFileSystem extends AbstractFileSystem
         }
     }
 
+    /**
+     * Reads the entries of the archive, recording their data offsets if the entries can be read by offset.
+     */
+    private List<TarArchiveEntry> listEntries() throws IOException
+    {
+        final List<TarArchiveEntry> entries = new ArrayList<TarArchiveEntry>(DEFAULT_INDEX_SIZE);
+        final TarArchiveInputStream tarFile;
+        final CountingInputStream counter;
+        if (!isIndexed())
+        {
+            tarFile = getTarFile();
+            counter = null;
+        }
+        else
+        {
+            if (isCompressed())
+            {
+                checkpointIndex = createCheckpointIndex(getCheckpointInterval());
+                // the tar stream expects full records from each read, inflaters return less
+                counter = new CountingInputStream(
+                    new BufferedInputStream(checkpointIndex.getInputStream(file, 0)));
+            }
+            else
+            {
+                counter = new CountingInputStream(new FileInputStream(file));
+            }
+            tarFile = new TarArchiveInputStream(counter);
+            this.tarFile = tarFile;
+            dataOffsets = new HashMap<String, Long>();
+        }
+        TarArchiveEntry entry;
+        while (tarFile != null && (entry = tarFile.getNextTarEntry()) != null)
+        {
+            if (counter != null)
+            {
+                // the stream is positioned at the data of the entry
+                dataOffsets.put(entry.getName(), Long.valueOf(counter.getCount()));
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the entries, their data offsets and the checkpoint index from the cache.
+     * @return The entries or null if the cache holds no index of the current version of the archive.
+     */
+    private List<TarArchiveEntry> readIndex(final ArchiveIndexCache cache) throws FileSystemException
+    {
+        final DataInputStream in = cache.get(getParentLayer(), getRootName().getScheme());
+        if (in == null)
+        {
+            return null;
+        }
+        try
+        {
+            if (in.readLong() != getIndexedInterval() || in.readBoolean() != isIndexed())
+            {
+                return null;
+            }
+            final int count = in.readInt();
+            final List<TarArchiveEntry> entries = new ArrayList<TarArchiveEntry>(count);
+            final Map<String, Long> offsets = isIndexed() ? new HashMap<String, Long>() : null;
+            for (int i = 0; i < count; i++)
+            {
+                final TarArchiveEntry entry = new TarArchiveEntry(in.readUTF(), in.readByte(), true);
+                entry.setMode(in.readInt());
+                entry.setSize(in.readLong());
+                entry.setModTime(in.readLong());
+                entry.setLinkName(in.readUTF());
+                if (offsets != null)
+                {
+                    offsets.put(entry.getName(), Long.valueOf(in.readLong()));
+                }
+                entries.add(entry);
+            }
+            if (isIndexed() && isCompressed())
+            {
+                checkpointIndex = readCheckpointIndex(in);
+            }
+            dataOffsets = offsets;
+            return entries;
+        }
+        catch (final IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch (final IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Stores the entries, their data offsets and the checkpoint index in the cache.
+     */
+    private void writeIndex(final ArchiveIndexCache cache, final List<TarArchiveEntry> entries)
+        throws FileSystemException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        try
+        {
+            out.writeLong(getIndexedInterval());
+            out.writeBoolean(isIndexed());
+            out.writeInt(entries.size());
+            for (final TarArchiveEntry entry : entries)
+            {
+                out.writeUTF(entry.getName());
+                out.writeByte(getLinkFlag(entry));
+                out.writeInt(entry.getMode());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getModTime().getTime());
+                out.writeUTF(entry.getLinkName());
+                if (isIndexed())
+                {
+                    out.writeLong(dataOffsets.get(entry.getName()).longValue());
+                }
+            }
+            if (checkpointIndex != null)
+            {
+                checkpointIndex.write(out);
+            }
+            out.flush();
+        }
+        catch (final IOException e)
+        {
+            // names too long to be written
+            VfsLog.warn(getLogger(), LOG, Messages.getString("vfs.cache/write-archive-index.warn",
+                getParentLayer().getName()), e);
+            return;
+        }
+        cache.put(getParentLayer(), getRootName().getScheme(), buffer.toByteArray());
+    }
+
+    /**
+     * Returns the type flag to recreate an entry with, only the types the file objects tell apart are kept.
+     */
+    private static byte getLinkFlag(final TarArchiveEntry entry)
+    {
+        if (entry.isDirectory())
+        {
+            return TarConstants.LF_DIR;
+        }
+        if (entry.isSymbolicLink())
+        {
+            return TarConstants.LF_SYMLINK;
+        }
+        if (entry.isLink())
+        {
+            return TarConstants.LF_LINK;
+        }
+        return TarConstants.LF_NORMAL;
+    }
+
     public InputStream getInputStream(final TarArchiveEntry entry) throws FileSystemException
     {
+        if (writer != null)
+        {
+            throw new FileSystemException("vfs.provider.tar/read-new-tar-file.error", getParentLayer());
+        }
+        final Long offset = dataOffsets != null ? dataOffsets.get(entry.getName()) : null;
+        if (offset != null)
+        {
+            return openEntry(offset.longValue(), entry.getSize());
+        }
+
         resetTarFile();
         try
         {
@@ -150,12 +398,125 @@ public class TarFileSystem extends AbstractFileSystem
         }
     }
 
+    /**
+     * Opens random access to the content of an entry.
+     *
+     * @param entry The entry.
+     * @return The random access content.
+     * @throws FileSystemException if the offset of the entry is not known.
+     * @since 2.1
+     */
+    public RandomAccessContent getRandomAccessContent(final TarArchiveEntry entry) throws FileSystemException
+    {
+        final Long offset = dataOffsets != null ? dataOffsets.get(entry.getName()) : null;
+        if (offset == null)
+        {
+            throw new FileSystemException("vfs.provider/random-access-read-not-supported.error");
+        }
+        return new CheckpointRandomAccessContent(checkpointIndex, file, offset.longValue(), entry.getSize());
+    }
+
+    /**
+     * Builds the checkpoint index of the compressed archive.
+     */
+    private CheckpointIndex createCheckpointIndex(final long interval) throws IOException
+    {
+        if ("tgz".equalsIgnoreCase(getRootName().getScheme()))
+        {
+            return GzipCheckpointIndex.build(file, interval);
+        }
+        return Bzip2CheckpointIndex.build(file);
+    }
+
+    /**
+     * Reads a checkpoint index written by {@link CheckpointIndex#write}.
+     */
+    private CheckpointIndex readCheckpointIndex(final InputStream in) throws IOException
+    {
+        if ("tgz".equalsIgnoreCase(getRootName().getScheme()))
+        {
+            return GzipCheckpointIndex.read(in);
+        }
+        return Bzip2CheckpointIndex.read(in);
+    }
+
+    /**
+     * Determines if entries are read by their data offset rather than by reading the archive from the start.
+     */
+    private boolean isIndexed()
+    {
+        return file.exists() && (!isCompressed() || getCheckpointInterval() > 0);
+    }
+
+    /**
+     * Returns the checkpoint interval the archive is indexed with, 0 if it is not compressed.
+     */
+    private long getIndexedInterval()
+    {
+        return isCompressed() ? Math.max(0, getCheckpointInterval()) : 0;
+    }
+
+    private long getCheckpointInterval()
+    {
+        if (isXz())
+        {
+            return 0;
+        }
+        return DefaultFileSystemConfigBuilder.getInstance().getCheckpointInterval(getFileSystemOptions());
+    }
+
+    /**
+     * Opens a stream of its own on the data of an entry.
+     */
+    private InputStream openEntry(final long offset, final long size) throws FileSystemException
+    {
+        try
+        {
+            if (checkpointIndex != null)
+            {
+                return new EntryInputStream(checkpointIndex.getInputStream(file, offset), size);
+            }
+            final FileInputStream in = new FileInputStream(file);
+            try
+            {
+                in.getChannel().position(offset);
+            }
+            catch (final IOException e)
+            {
+                in.close();
+                throw e;
+            }
+            return new EntryInputStream(in, size);
+        }
+        catch (final IOException ioe)
+        {
+            throw new FileSystemException("vfs.provider.tar/open-tar-file.error", file, ioe);
+        }
+    }
+
+    /**
+     * Determines if the archive has to be decompressed while it is read.
+     */
+    private boolean isCompressed()
+    {
+        final String scheme = getRootName().getScheme();
+        return "tgz".equalsIgnoreCase(scheme) || "tbz2".equalsIgnoreCase(scheme) || isXz();
+    }
+
+    /**
+     * Determines if the archive is xz compressed, xz archives have no checkpoint index.
+     */
+    private boolean isXz()
+    {
+        return "txz".equalsIgnoreCase(getRootName().getScheme());
+    }
+
     protected void resetTarFile() throws FileSystemException
     {
         // Reading specific entries requires skipping through the tar file from the beginning
         // Not especially elegant, but we don't have the ability to seek to specific positions
         // with an input stream.
-        if (this.file.exists())
+        if (this.file != null && this.file.exists())
         {
             recreateTarFile();
         }
@@ -181,7 +542,7 @@ public class TarFileSystem extends AbstractFileSystem
 
     protected TarArchiveInputStream getTarFile() throws FileSystemException
     {
-        if (tarFile == null && this.file.exists())
+        if (tarFile == null && this.file != null && this.file.exists())
         {
             recreateTarFile();
         }
@@ -205,9 +566,19 @@ public class TarFileSystem extends AbstractFileSystem
             }
             else if ("tbz2".equalsIgnoreCase(getRootName().getScheme()))
             {
+                final int threads = Bzip2FileSystemConfigBuilder.getInstance().getThreads(getFileSystemOptions());
+                if (threads > 1)
+                {
+                    return new TarArchiveInputStream(new ParallelBzip2InputStream(file, threads));
+                }
                 return new TarArchiveInputStream(Bzip2FileObject.wrapInputStream(file.getAbsolutePath(),
                     new FileInputStream(file)));
             }
+            else if (isXz())
+            {
+                return new TarArchiveInputStream(XzFileObject.wrapInputStream(file.getAbsolutePath(),
+                    new FileInputStream(file)));
+            }
             return new TarArchiveInputStream(new FileInputStream(file));
         }
         catch (final IOException ioe)
@@ -242,6 +613,37 @@ public class TarFileSystem extends AbstractFileSystem
     protected void addCapabilities(final Collection<Capability> caps)
     {
         caps.addAll(TarFileProvider.capabilities);
+        if (writer != null)
+        {
+            caps.add(Capability.CREATE);
+            caps.add(Capability.WRITE_CONTENT);
+        }
+        else if (!isCompressed() || getCheckpointInterval() > 0)
+        {
+            caps.add(Capability.RANDOM_ACCESS_READ);
+        }
+    }
+
+    /**
+     * Completes a new archive and closes the file system.
+     */
+    @Override
+    public void close()
+    {
+        if (writer != null)
+        {
+            try
+            {
+                writer.finish();
+            }
+            catch (final FileSystemException e)
+            {
+                VfsLog.warn(getLogger(), LOG, Messages.getString("vfs.provider.tar/close-tar-file.error",
+                    getRootName()), e);
+            }
+        }
+        super.close();
+        releaseReplica(file);
     }
 
     /**
@@ -250,10 +652,182 @@ public class TarFileSystem extends AbstractFileSystem
     @Override
     protected FileObject createFile(final AbstractFileName name) throws FileSystemException
     {
+        if (writer != null)
+        {
+            final TarArchiveEntry entry = writer.getEntry(name.getPathDecoded());
+            if (entry != null || name.getDepth() == 0 && writer.isStarted())
+            {
+                return createTarFileObject(name, entry);
+            }
+        }
         // This is only called for files which do not exist in the Tar file
         return new TarFileObject(name, null, this, false);
     }
 
+    /**
+     * Determines if the file system writes a new archive.
+     */
+    boolean isWriting()
+    {
+        return writer != null;
+    }
+
+    /**
+     * Lists the children written to a folder of a new archive.
+     *
+     * @param name The name of the folder.
+     * @return The encoded base names of the children, or null if the folder has not been written.
+     * @throws FileSystemException if the name cannot be decoded.
+     */
+    String[] listWrittenChildren(final FileName name) throws FileSystemException
+    {
+        return UriParser.encode(getWriter().listChildren(name.getPathDecoded()));
+    }
+
+    /**
+     * Writes the entry of a folder of a new archive.
+     *
+     * @param folder The folder.
+     * @throws FileSystemException if the archive exists or the entry cannot be written.
+     */
+    void createFolder(final TarFileObject folder) throws FileSystemException
+    {
+        getWriter().putFolder(folder);
+    }
+
+    /**
+     * Starts the entry of a file of a new archive.
+     *
+     * @param file The file.
+     * @return The stream to write the content to, the entry is written when it is closed.
+     * @throws FileSystemException if the archive exists or the entry cannot be started.
+     */
+    OutputStream getOutputStream(final TarFileObject file) throws FileSystemException
+    {
+        return getWriter().putFile(file);
+    }
+
+    private TarFileWriter getWriter() throws FileSystemException
+    {
+        if (writer == null)
+        {
+            throw new FileSystemException("vfs.provider/write-read-only.error", getParentLayer());
+        }
+        return writer;
+    }
+
+    /**
+     * Counts the bytes read from and skipped in a stream.
+     */
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+
+        CountingInputStream(final InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int b = super.read();
+            if (b != -1)
+            {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            final int n = super.read(b, off, len);
+            if (n > 0)
+            {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount()
+        {
+            return count;
+        }
+    }
+
+    /**
+     * Reads the data of a single entry.
+     */
+    private static final class EntryInputStream extends FilterInputStream
+    {
+        private long remaining;
+
+        EntryInputStream(final InputStream in, final long size)
+        {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (remaining <= 0)
+            {
+                return -1;
+            }
+            final int b = super.read();
+            if (b != -1)
+            {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (remaining <= 0)
+            {
+                return len == 0 ? 0 : -1;
+            }
+            final int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0)
+            {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException
+        {
+            final long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+
     /**
      * will be called after all file-objects closed their streams.
     protected void notifyAllStreamsClosed()
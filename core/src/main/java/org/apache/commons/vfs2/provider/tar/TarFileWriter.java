@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.tar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.VfsComponentContext;
+import org.apache.commons.vfs2.provider.xz.XzFileObject;
+
+/**
+ * Writes a new tar file in a single pass.
+ * <p>
+ * The entries are written to the output stream of the archive, one entry at a
+ * time, in the order they are created. The header of an entry holds the size of
+ * its content, so the content of a file is held back until its stream is
+ * closed. Small files are kept in memory, larger ones in a temporary file. The
+ * end of archive records are written when the writer is finished. The written
+ * entries are remembered, so the new archive can be listed while it is written.
+ */
+final class TarFileWriter
+{
+    private static final String ROOT = "/";
+
+    /** The size of the content kept in memory before it is moved to a temporary file. */
+    private static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileObject archive;
+    private final String scheme;
+    private final VfsComponentContext context;
+
+    /** The written entries by absolute path. */
+    private final Map<String, TarArchiveEntry> entries = new HashMap<String, TarArchiveEntry>();
+
+    /** The base names of the written children by folder path. */
+    private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+
+    private TarArchiveOutputStream out;
+
+    /** The path of the entry which is being written, null if there is none. */
+    private String current;
+
+    private boolean finished;
+
+    /**
+     * Creates the writer.
+     *
+     * @param archive The archive to write.
+     * @param scheme The scheme of the file system, tgz, tbz2 and txz archives are compressed.
+     * @param context The context whose temporary file store large entries are held back in.
+     */
+    TarFileWriter(final FileObject archive, final String scheme, final VfsComponentContext context)
+    {
+        this.archive = archive;
+        this.scheme = scheme;
+        this.context = context;
+    }
+
+    /**
+     * Determines if the archive has been created.
+     */
+    synchronized boolean isStarted()
+    {
+        return out != null || finished;
+    }
+
+    /**
+     * Returns a written entry.
+     *
+     * @param path The absolute path of the entry.
+     * @return The entry or null if no entry of the path has been written.
+     */
+    synchronized TarArchiveEntry getEntry(final String path)
+    {
+        return entries.get(path);
+    }
+
+    /**
+     * Lists the children written to a folder.
+     *
+     * @param path The absolute path of the folder.
+     * @return The base names of the children, null if the folder has not been written.
+     */
+    synchronized String[] listChildren(final String path)
+    {
+        final Set<String> names = children.get(path);
+        return names == null ? null : names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Writes a folder entry, the root folder only creates the archive.
+     *
+     * @param file The folder.
+     * @throws FileSystemException if the entry cannot be written.
+     */
+    synchronized void putFolder(final TarFileObject file) throws FileSystemException
+    {
+        final String path = file.getName().getPathDecoded();
+        if (ROOT.equals(path))
+        {
+            start();
+            if (!children.containsKey(ROOT))
+            {
+                children.put(ROOT, new LinkedHashSet<String>());
+            }
+            file.setTarEntry(null);
+            return;
+        }
+        checkWritable(path);
+        final TarArchiveEntry entry = new TarArchiveEntry(path.substring(1) + "/");
+        entry.setModTime(new Date());
+        try
+        {
+            out.putArchiveEntry(entry);
+            out.closeArchiveEntry();
+        }
+        catch (final IOException e)
+        {
+            throw new FileSystemException("vfs.provider.tar/write-tar-file.error", archive, e);
+        }
+        add(path, entry);
+        children.put(path, new LinkedHashSet<String>());
+        file.setTarEntry(entry);
+    }
+
+    /**
+     * Starts a file entry.
+     *
+     * @param file The file.
+     * @return The stream to write the content of the entry to, the entry is written when it is closed.
+     * @throws FileSystemException if the entry cannot be started.
+     */
+    synchronized OutputStream putFile(final TarFileObject file) throws FileSystemException
+    {
+        final String path = file.getName().getPathDecoded();
+        checkWritable(path);
+        current = path;
+        return new EntryOutputStream(file, path);
+    }
+
+    /**
+     * Writes the end of the archive and closes it.
+     *
+     * @throws FileSystemException if the archive cannot be written.
+     */
+    synchronized void finish() throws FileSystemException
+    {
+        if (out == null)
+        {
+            return;
+        }
+        try
+        {
+            out.close();
+        }
+        catch (final IOException e)
+        {
+            throw new FileSystemException("vfs.provider.tar/write-tar-file.error", archive, e);
+        }
+        finally
+        {
+            out = null;
+            current = null;
+            finished = true;
+        }
+    }
+
+    /**
+     * Opens the output stream of the archive.
+     */
+    private void start() throws FileSystemException
+    {
+        if (finished)
+        {
+            throw new FileSystemException("vfs.provider.tar/write-tar-file.error", archive);
+        }
+        if (out != null)
+        {
+            return;
+        }
+        final OutputStream os = archive.getContent().getOutputStream();
+        try
+        {
+            if ("tgz".equalsIgnoreCase(scheme))
+            {
+                out = new TarArchiveOutputStream(new GZIPOutputStream(os, BUFFER_SIZE));
+            }
+            else if ("tbz2".equalsIgnoreCase(scheme))
+            {
+                out = new TarArchiveOutputStream(new BZip2CompressorOutputStream(os));
+            }
+            else if ("txz".equalsIgnoreCase(scheme))
+            {
+                out = new TarArchiveOutputStream(XzFileObject.wrapOutputStream(os));
+            }
+            else
+            {
+                out = new TarArchiveOutputStream(os);
+            }
+        }
+        catch (final IOException e)
+        {
+            try
+            {
+                os.close();
+            }
+            catch (final IOException ignored)
+            {
+                // the original failure is reported
+            }
+            throw new FileSystemException("vfs.provider.tar/write-tar-file.error", archive, e);
+        }
+        out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    }
+
+    private void checkWritable(final String path) throws FileSystemException
+    {
+        start();
+        if (current != null)
+        {
+            throw new FileSystemException("vfs.provider.tar/entry-open.error", path, current);
+        }
+        if (entries.containsKey(path))
+        {
+            throw new FileSystemException("vfs.provider.tar/entry-exists.error", path);
+        }
+    }
+
+    private void add(final String path, final TarArchiveEntry entry)
+    {
+        entries.put(path, entry);
+        final int slash = path.lastIndexOf('/');
+        final String parent = slash == 0 ? ROOT : path.substring(0, slash);
+        Set<String> names = children.get(parent);
+        if (names == null)
+        {
+            names = new LinkedHashSet<String>();
+            children.put(parent, names);
+        }
+        names.add(path.substring(slash + 1));
+    }
+
+    /**
+     * Writes an entry with the content held back by a stream.
+     */
+    private synchronized void writeEntry(final TarFileObject file, final String path, final byte[] content,
+                                         final int length, final File overflow) throws IOException
+    {
+        if (out == null)
+        {
+            throw new IOException("The archive has already been finished.");
+        }
+        current = null;
+        final TarArchiveEntry entry = new TarArchiveEntry(path.substring(1));
+        entry.setModTime(new Date());
+        entry.setSize(overflow != null ? overflow.length() : length);
+        out.putArchiveEntry(entry);
+        if (overflow != null)
+        {
+            final InputStream in = new FileInputStream(overflow);
+            try
+            {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) >= 0)
+                {
+                    out.write(buffer, 0, n);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        else
+        {
+            out.write(content, 0, length);
+        }
+        out.closeArchiveEntry();
+        add(path, entry);
+        file.setTarEntry(entry);
+    }
+
+    /**
+     * Holds back the content of an entry and writes the entry when closed.
+     */
+    private final class EntryOutputStream extends OutputStream
+    {
+        private final TarFileObject file;
+        private final String path;
+        private final ExposedByteArrayOutputStream memory = new ExposedByteArrayOutputStream();
+        private File overflow;
+        private OutputStream overflowOut;
+        private boolean closed;
+
+        EntryOutputStream(final TarFileObject file, final String path)
+        {
+            this.file = file;
+            this.path = path;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (closed)
+            {
+                throw new IOException("Stream closed.");
+            }
+            if (overflowOut == null && memory.size() + len > MEMORY_THRESHOLD)
+            {
+                overflow = context.getTemporaryFileStore().allocateFile("tar_entry_" + file.getName().getBaseName());
+                overflow.getParentFile().mkdirs();
+                overflowOut = new FileOutputStream(overflow);
+                memory.writeTo(overflowOut);
+                memory.reset();
+            }
+            if (overflowOut != null)
+            {
+                overflowOut.write(b, off, len);
+            }
+            else
+            {
+                memory.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            try
+            {
+                if (overflowOut != null)
+                {
+                    overflowOut.close();
+                }
+                writeEntry(file, path, memory.getBuffer(), memory.size(), overflow);
+            }
+            finally
+            {
+                if (overflow != null)
+                {
+                    overflow.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives access to the buffer without copying it.
+     */
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream
+    {
+        byte[] getBuffer()
+        {
+            return buf;
+        }
+    }
+}
@@ -22,7 +22,8 @@ import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.provider.CompositeFileProvider;
 
 /**
- * A file system provider for Tar files.  Provides read-only file systems.
+ * A file system provider for Tar files.  Provides read-only file systems of existing archives
+ * and file systems which write new archives.
  */
 public class TgzFileProvider extends CompositeFileProvider
 {
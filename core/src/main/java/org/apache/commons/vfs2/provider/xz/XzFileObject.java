@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.xz;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.provider.AbstractFileName;
+import org.apache.commons.vfs2.provider.compressed.CompressedFileFileObject;
+
+/**
+ * the xz file.
+ *
+ * @since 2.1
+ */
+public class XzFileObject extends CompressedFileFileObject<XzFileSystem>
+{
+    protected XzFileObject(final AbstractFileName name, final FileObject container, final XzFileSystem fs)
+    {
+        super(name, container, fs);
+    }
+
+    @Override
+    protected InputStream doGetInputStream() throws Exception
+    {
+        final InputStream is = getContainer().getContent().getInputStream();
+        return wrapInputStream(getName().getURI(), is);
+    }
+
+    /**
+     * Decompresses an xz stream, concatenated streams are read one after the other.
+     */
+    public static InputStream wrapInputStream(final String name, final InputStream is) throws IOException
+    {
+        return new XZCompressorInputStream(is, true);
+    }
+
+    /**
+     * Compresses an xz stream with the default preset.
+     */
+    public static OutputStream wrapOutputStream(final OutputStream os) throws IOException
+    {
+        return new XZCompressorOutputStream(os);
+    }
+
+    @Override
+    protected OutputStream doGetOutputStream(final boolean bAppend) throws Exception
+    {
+        final OutputStream os = getContainer().getContent().getOutputStream(false);
+        return wrapOutputStream(os);
+    }
+}
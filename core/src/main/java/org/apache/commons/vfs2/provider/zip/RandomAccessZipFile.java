@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.zip;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Reads a zip file through the {@link RandomAccessContent} of a file, so only
+ * the central directory and the entries which are read are transferred.
+ * <p>
+ * The central directory is read once into primitive arrays. The content is
+ * opened on demand and can be released with {@link #close()} at any time, it is
+ * reopened by the next read. Reads of concurrent entry streams are serialized on
+ * this instance.
+ *
+ * @since 2.1
+ */
+class RandomAccessZipFile
+{
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int FLAG_ENCRYPTED = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileObject file;
+
+    private final String[] names;
+    private final long[] headerOffsets;
+    private final long[] compressedSizes;
+    private final long[] sizes;
+    private final int[] crcs;
+    private final int[] dosTimes;
+    private final short[] methods;
+    private final short[] flags;
+
+    /** The content, opened on demand, guarded by this. */
+    private RandomAccessContent content;
+
+    /**
+     * Opens a zip file and reads its central directory.
+     *
+     * @param file The zip file, its file system must support random access reads.
+     * @throws IOException if the file cannot be read or is not a zip file.
+     */
+    RandomAccessZipFile(final FileObject file) throws IOException
+    {
+        this.file = file;
+
+        final long length = content().length();
+        final byte[] tail = new byte[(int) Math.min(length, END_SIZE + MAX_COMMENT)];
+        readFully(length - tail.length, tail, 0, tail.length);
+        int end = tail.length - END_SIZE;
+        while (end >= 0 && getInt(tail, end) != END_SIG)
+        {
+            end--;
+        }
+        if (end < 0)
+        {
+            throw new ZipException("End of central directory not found in " + file);
+        }
+
+        long count = getShort(tail, end + 10);
+        long directorySize = getInt(tail, end + 12) & ZIP64_MAGIC;
+        long directoryOffset = getInt(tail, end + 16) & ZIP64_MAGIC;
+
+        final long endPos = length - tail.length + end;
+        if (endPos >= ZIP64_LOCATOR_SIZE)
+        {
+            final byte[] locator = new byte[ZIP64_LOCATOR_SIZE];
+            readFully(endPos - ZIP64_LOCATOR_SIZE, locator, 0, locator.length);
+            if (getInt(locator, 0) == ZIP64_LOCATOR_SIG)
+            {
+                final byte[] zip64End = new byte[ZIP64_END_SIZE];
+                readFully(getLong(locator, 8), zip64End, 0, zip64End.length);
+                if (getInt(zip64End, 0) != ZIP64_END_SIG)
+                {
+                    throw new ZipException("Invalid zip64 end of central directory in " + file);
+                }
+                count = getLong(zip64End, 32);
+                directorySize = getLong(zip64End, 40);
+                directoryOffset = getLong(zip64End, 48);
+            }
+        }
+        if (directorySize > Integer.MAX_VALUE || count > Integer.MAX_VALUE)
+        {
+            throw new ZipException("Central directory too large in " + file);
+        }
+
+        final int entries = (int) count;
+        names = new String[entries];
+        headerOffsets = new long[entries];
+        compressedSizes = new long[entries];
+        sizes = new long[entries];
+        crcs = new int[entries];
+        dosTimes = new int[entries];
+        methods = new short[entries];
+        flags = new short[entries];
+
+        final byte[] directory = new byte[(int) directorySize];
+        readFully(directoryOffset, directory, 0, directory.length);
+        int pos = 0;
+        for (int i = 0; i < entries; i++)
+        {
+            if (pos + CENTRAL_HEADER_SIZE > directory.length || getInt(directory, pos) != CENTRAL_HEADER_SIG)
+            {
+                throw new ZipException("Invalid central directory header in " + file);
+            }
+            flags[i] = (short) getShort(directory, pos + 8);
+            methods[i] = (short) getShort(directory, pos + 10);
+            dosTimes[i] = getInt(directory, pos + 12);
+            crcs[i] = getInt(directory, pos + 16);
+            compressedSizes[i] = getInt(directory, pos + 20) & ZIP64_MAGIC;
+            sizes[i] = getInt(directory, pos + 24) & ZIP64_MAGIC;
+            final int nameLength = getShort(directory, pos + 28);
+            final int extraLength = getShort(directory, pos + 30);
+            final int commentLength = getShort(directory, pos + 32);
+            headerOffsets[i] = getInt(directory, pos + 42) & ZIP64_MAGIC;
+            names[i] = new String(directory, pos + CENTRAL_HEADER_SIZE, nameLength, UTF8);
+            readZip64Extra(i, directory, pos + CENTRAL_HEADER_SIZE + nameLength, extraLength);
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Opens a zip file whose central directory has been read before.
+     *
+     * @param file The zip file, its file system must support random access reads.
+     * @param in The central directory as written by {@link #write(DataOutputStream)}.
+     * @throws IOException if the central directory cannot be read.
+     */
+    RandomAccessZipFile(final FileObject file, final DataInputStream in) throws IOException
+    {
+        this.file = file;
+
+        final int entries = in.readInt();
+        if (entries < 0)
+        {
+            throw new ZipException("Invalid entry count " + entries);
+        }
+        names = new String[entries];
+        headerOffsets = new long[entries];
+        compressedSizes = new long[entries];
+        sizes = new long[entries];
+        crcs = new int[entries];
+        dosTimes = new int[entries];
+        methods = new short[entries];
+        flags = new short[entries];
+        for (int i = 0; i < entries; i++)
+        {
+            names[i] = in.readUTF();
+            headerOffsets[i] = in.readLong();
+            compressedSizes[i] = in.readLong();
+            sizes[i] = in.readLong();
+            crcs[i] = in.readInt();
+            dosTimes[i] = in.readInt();
+            methods[i] = in.readShort();
+            flags[i] = in.readShort();
+        }
+    }
+
+    /**
+     * Writes the central directory.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if the central directory cannot be written.
+     */
+    void write(final DataOutputStream out) throws IOException
+    {
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++)
+        {
+            out.writeUTF(names[i]);
+            out.writeLong(headerOffsets[i]);
+            out.writeLong(compressedSizes[i]);
+            out.writeLong(sizes[i]);
+            out.writeInt(crcs[i]);
+            out.writeInt(dosTimes[i]);
+            out.writeShort(methods[i]);
+            out.writeShort(flags[i]);
+        }
+    }
+
+    /**
+     * Replaces the sizes and offset of an entry which do not fit into 32 bits by their zip64 values.
+     */
+    private void readZip64Extra(final int i, final byte[] directory, final int start, final int length)
+    {
+        int pos = start;
+        while (pos + 4 <= start + length)
+        {
+            final int id = getShort(directory, pos);
+            final int size = getShort(directory, pos + 2);
+            if (id == ZIP64_EXTRA)
+            {
+                int field = pos + 4;
+                if (sizes[i] == ZIP64_MAGIC)
+                {
+                    sizes[i] = getLong(directory, field);
+                    field += 8;
+                }
+                if (compressedSizes[i] == ZIP64_MAGIC)
+                {
+                    compressedSizes[i] = getLong(directory, field);
+                    field += 8;
+                }
+                if (headerOffsets[i] == ZIP64_MAGIC)
+                {
+                    headerOffsets[i] = getLong(directory, field);
+                }
+                return;
+            }
+            pos += 4 + size;
+        }
+    }
+
+    /**
+     * @return The names of all entries in archive order.
+     */
+    List<String> getNames()
+    {
+        final List<String> list = new ArrayList<String>(names.length);
+        Collections.addAll(list, names);
+        return list;
+    }
+
+    /**
+     * Creates the entry with the given number.
+     *
+     * @param entry The number of the entry in archive order.
+     * @return A new entry.
+     */
+    ZipEntry getEntry(final int entry)
+    {
+        final ZipEntry zipEntry = new ZipEntry(names[entry]);
+        zipEntry.setMethod(methods[entry]);
+        zipEntry.setSize(sizes[entry]);
+        zipEntry.setCompressedSize(compressedSizes[entry]);
+        zipEntry.setCrc(crcs[entry] & ZIP64_MAGIC);
+        zipEntry.setTime(dosToJavaTime(dosTimes[entry]));
+        return zipEntry;
+    }
+
+    /**
+     * Opens the content of an entry.
+     *
+     * @param entry The number of the entry in archive order.
+     * @return The uncompressed content.
+     * @throws IOException if the entry cannot be read.
+     */
+    InputStream getInputStream(final int entry) throws IOException
+    {
+        if ((flags[entry] & FLAG_ENCRYPTED) != 0)
+        {
+            throw new ZipException("Encrypted entries are not supported: " + names[entry]);
+        }
+
+        final byte[] header = new byte[LOCAL_HEADER_SIZE];
+        readFully(headerOffsets[entry], header, 0, header.length);
+        if (getInt(header, 0) != LOCAL_HEADER_SIG)
+        {
+            throw new ZipException("Invalid local header of " + names[entry]);
+        }
+        final long start = headerOffsets[entry] + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28);
+
+        switch (methods[entry])
+        {
+            case ZipEntry.STORED:
+                return new EntryInputStream(start, sizes[entry], false);
+            case ZipEntry.DEFLATED:
+                final Inflater inflater = new Inflater(true);
+                return new InflaterInputStream(new EntryInputStream(start, compressedSizes[entry], true), inflater)
+                {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException
+                    {
+                        if (!closed)
+                        {
+                            closed = true;
+                            inflater.end();
+                            super.close();
+                        }
+                    }
+                };
+            default:
+                throw new ZipException("Unsupported compression method " + methods[entry] + " of " + names[entry]);
+        }
+    }
+
+    /**
+     * Closes the content, it is reopened when it is needed again.
+     *
+     * @throws IOException if the content cannot be closed.
+     */
+    synchronized void close() throws IOException
+    {
+        if (content != null)
+        {
+            final RandomAccessContent current = content;
+            content = null;
+            current.close();
+        }
+    }
+
+    private synchronized RandomAccessContent content() throws IOException
+    {
+        if (content == null)
+        {
+            content = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+        }
+        return content;
+    }
+
+    /**
+     * Reads from the content at the given position.
+     */
+    private synchronized void readFully(final long pos, final byte[] b, final int off, final int len)
+        throws IOException
+    {
+        final RandomAccessContent current = content();
+        // avoid needless seeks, some implementations reopen their connection on each seek
+        if (current.getFilePointer() != pos)
+        {
+            current.seek(pos);
+        }
+        current.readFully(b, off, len);
+    }
+
+    private static int getShort(final byte[] b, final int pos)
+    {
+        return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(final byte[] b, final int pos)
+    {
+        return getShort(b, pos) | getShort(b, pos + 2) << 16;
+    }
+
+    private static long getLong(final byte[] b, final int pos)
+    {
+        return (getInt(b, pos) & ZIP64_MAGIC) | (long) getInt(b, pos + 4) << 32;
+    }
+
+    private static long dosToJavaTime(final int dosTime)
+    {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((dosTime >> 25) & 0x7f) + 1980, ((dosTime >> 21) & 0x0f) - 1, (dosTime >> 16) & 0x1f,
+            (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Reads a range of the content.
+     */
+    private final class EntryInputStream extends InputStream
+    {
+        private long pos;
+        private final long end;
+        private final boolean padded;
+        private boolean dummyByteSent;
+
+        EntryInputStream(final long start, final long length, final boolean padded)
+        {
+            this.pos = start;
+            this.end = start + length;
+            this.padded = padded;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (pos >= end)
+            {
+                // the inflater in nowrap mode may need one byte beyond the deflated data
+                if (padded && !dummyByteSent)
+                {
+                    dummyByteSent = true;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            final int n = (int) Math.min(len, end - pos);
+            readFully(pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+    }
+}
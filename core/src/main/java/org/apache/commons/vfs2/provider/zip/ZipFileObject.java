@@ -17,7 +17,11 @@
 package org.apache.commons.vfs2.provider.zip;
 
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 
 import org.apache.commons.vfs2.FileName;
@@ -87,7 +91,7 @@ public class ZipFileObject extends AbstractFileObject<ZipFileSystem>
     }
 
     /**
-     * Determines if this file can be written to.
+     * Determines if this file can be written to, which is only the case in a new archive.
      *
      * @return {@code true} if this file is writeable, {@code false} if not.
      * @throws FileSystemException if an error occurs.
@@ -95,7 +99,7 @@ public class ZipFileObject extends AbstractFileObject<ZipFileSystem>
     @Override
     public boolean isWriteable() throws FileSystemException
     {
-        return false;
+        return getAbstractFileSystem().isWriting();
     }
 
     /**
@@ -126,7 +130,27 @@ public class ZipFileObject extends AbstractFileObject<ZipFileSystem>
             throw new RuntimeException(e);
         }
 
-        return children.toArray(new String[children.size()]);
+        final String[] indexed;
+        try
+        {
+            indexed = getAbstractFileSystem().listChildren(getName());
+        }
+        catch (final FileSystemException e)
+        {
+            throw new RuntimeException(e);
+        }
+        if (children.isEmpty())
+        {
+            return indexed != null ? indexed : new String[0];
+        }
+
+        // children attached by subclasses
+        final Set<String> all = new LinkedHashSet<String>(children);
+        if (indexed != null)
+        {
+            all.addAll(Arrays.asList(indexed));
+        }
+        return all.toArray(new String[all.size()]);
     }
 
     /**
@@ -165,6 +189,24 @@ public class ZipFileObject extends AbstractFileObject<ZipFileSystem>
             throw new FileSystemException("vfs.provider/read-not-file.error", getName());
         }
 
-        return getAbstractFileSystem().getZipFile().getInputStream(entry);
+        return getAbstractFileSystem().getInputStream(entry);
+    }
+
+    /**
+     * Creates this folder in a new archive.
+     */
+    @Override
+    protected void doCreateFolder() throws Exception
+    {
+        getAbstractFileSystem().createFolder(this);
+    }
+
+    /**
+     * Creates an output stream to write the content of this file to a new archive.
+     */
+    @Override
+    protected OutputStream doGetOutputStream(final boolean bAppend) throws Exception
+    {
+        return getAbstractFileSystem().getOutputStream(this);
     }
 }
@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.zip;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * A pool of {@link ZipFile} handles of one local archive.
+ * <p>
+ * A {@link ZipFile} serializes the reads of all its entry streams, so every
+ * entry stream borrows a handle of its own for its lifetime and many threads
+ * can inflate entries in parallel. A new handle is opened whenever all handles
+ * are held by open streams, so any number of entry streams can be open at the
+ * same time. Up to the maximum number of idle handles, released handles stay open
+ * and are closed once they have not been used for the idle timeout by the reaper
+ * of the provider of the file system, or when the file system closes. Further
+ * released handles are closed at once.
+ *
+ * @since 2.1
+ */
+class ZipFilePool
+{
+    private static final Log LOG = LogFactory.getLog(ZipFilePool.class);
+
+    private final ZipFileSystem fileSystem;
+    private final File file;
+    private final int maxIdle;
+    private final long idleTimeout;
+
+    /** The idle handles, most recently used first, guarded by this. */
+    private final LinkedList<IdleHandle> idle = new LinkedList<IdleHandle>();
+
+    /** The number of open handles, guarded by this. */
+    private int open;
+
+    /** The scheduled reap, null if none is scheduled, guarded by this. */
+    private ScheduledFuture<?> reap;
+
+    /**
+     * Creates the pool.
+     *
+     * @param fileSystem The file system which opens the handles.
+     * @param file The local archive.
+     * @param maxIdle The maximum number of idle handles which are kept open.
+     * @param idleTimeout The time in milliseconds after which an idle handle is closed.
+     */
+    ZipFilePool(final ZipFileSystem fileSystem, final File file, final int maxIdle, final long idleTimeout)
+    {
+        this.fileSystem = fileSystem;
+        this.file = file;
+        this.maxIdle = Math.max(1, maxIdle);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Borrows a handle, opening a new one if none is idle.
+     *
+     * @return The handle, to be handed back with {@link #release(ZipFile)}.
+     * @throws IOException if the archive cannot be opened.
+     */
+    ZipFile acquire() throws IOException
+    {
+        synchronized (this)
+        {
+            if (!idle.isEmpty())
+            {
+                return idle.removeFirst().zipFile;
+            }
+            open++;
+        }
+
+        try
+        {
+            return fileSystem.createZipFile(file);
+        }
+        catch (final FileSystemException e)
+        {
+            synchronized (this)
+            {
+                open--;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a handle back to the pool, or closes it if enough handles are idle.
+     *
+     * @param zipFile The handle.
+     */
+    void release(final ZipFile zipFile)
+    {
+        final boolean pooled;
+        synchronized (this)
+        {
+            pooled = idle.size() < maxIdle;
+            if (pooled)
+            {
+                idle.addFirst(new IdleHandle(zipFile, System.nanoTime()));
+                if (scheduleReap(idleTimeout))
+                {
+                    return;
+                }
+            }
+            else
+            {
+                open--;
+            }
+        }
+        if (pooled)
+        {
+            // the provider is closed
+            closeIdle(true);
+        }
+        else
+        {
+            closeHandle(zipFile);
+        }
+    }
+
+    /**
+     * Opens the content of an entry on a handle which is released when the stream is closed.
+     *
+     * @param entry The entry.
+     * @return The uncompressed content.
+     * @throws IOException if the entry cannot be read.
+     */
+    InputStream getInputStream(final ZipEntry entry) throws IOException
+    {
+        final ZipFile zipFile = acquire();
+        final InputStream in;
+        try
+        {
+            in = zipFile.getInputStream(entry);
+        }
+        catch (final IOException e)
+        {
+            release(zipFile);
+            throw e;
+        }
+        catch (final RuntimeException e)
+        {
+            release(zipFile);
+            throw e;
+        }
+        if (in == null)
+        {
+            release(zipFile);
+            return null;
+        }
+
+        return new FilterInputStream(in)
+        {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    release(zipFile);
+                }
+            }
+        };
+    }
+
+    /**
+     * Closes all idle handles and cancels the scheduled reap. Handles in use are closed after their idle timeout
+     * once they are released.
+     */
+    void closeIdle()
+    {
+        closeIdle(true);
+    }
+
+    /**
+     * @return The number of open handles.
+     */
+    synchronized int getOpenCount()
+    {
+        return open;
+    }
+
+    /**
+     * Closes the handles which exceeded the idle timeout, or all idle handles, and schedules the next reap.
+     */
+    private void closeIdle(final boolean all)
+    {
+        final List<ZipFile> expired = new ArrayList<ZipFile>();
+        synchronized (this)
+        {
+            if (all && reap != null)
+            {
+                // drop the task, it keeps the file system reachable
+                reap.cancel(false);
+                reap = null;
+                fileSystem.getReaper().purge();
+            }
+            final long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            // the oldest handles are at the end
+            while (!idle.isEmpty() && (all || idle.getLast().releaseTime - idleSince <= 0))
+            {
+                expired.add(idle.removeLast().zipFile);
+                open--;
+            }
+            if (!idle.isEmpty())
+            {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(idle.getLast().releaseTime - idleSince);
+                scheduleReap(Math.max(1, remaining));
+            }
+        }
+
+        for (final ZipFile zipFile : expired)
+        {
+            closeHandle(zipFile);
+        }
+    }
+
+    private void closeHandle(final ZipFile zipFile)
+    {
+        try
+        {
+            zipFile.close();
+        }
+        catch (final IOException e)
+        {
+            LOG.warn("Could not close Zip file \"" + file + "\".", e);
+        }
+    }
+
+    /**
+     * Schedules a reap of the idle handles, guarded by this.
+     *
+     * @return false if the reaper is shut down, true otherwise.
+     */
+    private boolean scheduleReap(final long delay)
+    {
+        final ScheduledThreadPoolExecutor reaper = fileSystem.getReaper();
+        if (reap != null || reaper == null)
+        {
+            return true;
+        }
+        try
+        {
+            reap = reaper.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (ZipFilePool.this)
+                    {
+                        reap = null;
+                    }
+                    closeIdle(false);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (final RejectedExecutionException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * An open handle which is not in use.
+     */
+    private static final class IdleHandle
+    {
+        private final ZipFile zipFile;
+        private final long releaseTime;
+
+        IdleHandle(final ZipFile zipFile, final long releaseTime)
+        {
+            this.zipFile = zipFile;
+            this.releaseTime = releaseTime;
+        }
+    }
+}
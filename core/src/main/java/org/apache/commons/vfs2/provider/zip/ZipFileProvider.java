@@ -19,11 +19,15 @@ package org.apache.commons.vfs2.provider.zip;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.vfs2.Capability;
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemConfigBuilder;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.FileType;
@@ -31,9 +35,11 @@ import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractLayeredFileProvider;
 import org.apache.commons.vfs2.provider.FileProvider;
 import org.apache.commons.vfs2.provider.LayeredFileName;
+import org.apache.commons.vfs2.provider.local.LocalFileSystem;
 
 /**
- * A file system provider for Zip files.  Provides read-only file systems.
+ * A file system provider for Zip files.  Provides read-only file systems of existing archives
+ * and file systems which write new archives.
  */
 public class ZipFileProvider extends AbstractLayeredFileProvider implements FileProvider
 {
@@ -50,11 +56,55 @@ public class ZipFileProvider extends AbstractLayeredFileProvider implements File
             Capability.VIRTUAL
         }));
 
+    /** Closes the idle handles of the file systems of this provider, created on demand, guarded by this. */
+    private ScheduledThreadPoolExecutor reaper;
+
     public ZipFileProvider()
     {
         super();
     }
 
+    /**
+     * Closes the file systems of this provider and stops their handle reaper.
+     */
+    @Override
+    public void close()
+    {
+        super.close();
+
+        final ScheduledThreadPoolExecutor pendingReaper;
+        synchronized (this)
+        {
+            pendingReaper = reaper;
+            reaper = null;
+        }
+        if (pendingReaper != null)
+        {
+            pendingReaper.shutdownNow();
+            try
+            {
+                pendingReaper.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Hands the handle reaper to a new file system before it is initialised.
+     */
+    @Override
+    protected void addFileSystem(final Comparable<?> key, final FileSystem fs) throws FileSystemException
+    {
+        if (fs instanceof ZipFileSystem)
+        {
+            ((ZipFileSystem) fs).setReaper(getReaper());
+        }
+        super.addFileSystem(key, fs);
+    }
+
     /**
      * Creates a layered file system.  This method is called if the file system
      * is not cached.
@@ -71,7 +121,33 @@ public class ZipFileProvider extends AbstractLayeredFileProvider implements File
     {
         final AbstractFileName rootName =
             new LayeredFileName(scheme, file.getName(), FileName.ROOT_PATH, FileType.FOLDER);
-        return new ZipFileSystem(rootName, file, fileSystemOptions);
+        return new ZipFileSystem(rootName, file, fileSystemOptions, canReadInPlace(file));
+    }
+
+    /**
+     * Determines if an archive can be read through random access instead of a local copy.
+     * Local files are opened directly anyway.
+     *
+     * @param file The archive.
+     * @return true if the archive is a file on a remote file system which supports random access reads.
+     * @throws FileSystemException if the type of the file cannot be determined.
+     */
+    private boolean canReadInPlace(final FileObject file) throws FileSystemException
+    {
+        final FileSystem fs = file.getFileSystem();
+        return !(fs instanceof LocalFileSystem) && fs.hasCapability(Capability.RANDOM_ACCESS_READ)
+            && file.getType() == FileType.FILE;
+    }
+
+    /**
+     * Returns the configuration builder of the zip file systems.
+     * @return The {@link ZipFileSystemConfigBuilder}.
+     * @since 2.1
+     */
+    @Override
+    public FileSystemConfigBuilder getConfigBuilder()
+    {
+        return ZipFileSystemConfigBuilder.getInstance();
     }
 
     @Override
@@ -79,4 +155,22 @@ public class ZipFileProvider extends AbstractLayeredFileProvider implements File
     {
         return capabilities;
     }
+
+    private synchronized ScheduledThreadPoolExecutor getReaper()
+    {
+        if (reaper == null)
+        {
+            reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "Zip handle reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return reaper;
+    }
 }
@@ -16,14 +16,18 @@
  */
 package org.apache.commons.vfs2.provider.zip;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -36,12 +40,32 @@ import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.Selectors;
 import org.apache.commons.vfs2.VfsLog;
+import org.apache.commons.vfs2.cache.ArchiveIndexCache;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
 import org.apache.commons.vfs2.provider.AbstractFileName;
 import org.apache.commons.vfs2.provider.AbstractFileSystem;
 import org.apache.commons.vfs2.provider.UriParser;
+import org.apache.commons.vfs2.util.Messages;
 
 /**
- * A read-only file system for Zip/Jar files.
+ * A file system for Zip/Jar files.
+ * <p>
+ * The archive is either opened as a local {@link ZipFile}, replicating it first
+ * if its file system is not local, or read in place through random access to
+ * its content, which only transfers the central directory and the entries read.
+ * <p>
+ * Entries of a local archive are read through a pool of handles, so several
+ * entries can be inflated in parallel, see {@link ZipFileSystemConfigBuilder}.
+ * <p>
+ * The index of the entries is kept in the
+ * {@link org.apache.commons.vfs2.cache.ArchiveIndexCache} if one is configured,
+ * so the archive is not listed again when the same version is opened next time.
+ * <p>
+ * A file system on an archive which does not exist yet creates the archive.
+ * Its files and folders are written straight to the output stream of the
+ * archive in the order they are created, one file at a time, and the archive
+ * is completed when the file system is closed. The entries of such an archive
+ * cannot be read back.
  */
 public class ZipFileSystem extends AbstractFileSystem
 {
@@ -51,17 +75,78 @@ public class ZipFileSystem extends AbstractFileSystem
     private ZipFile zipFile;
 
     /**
-     * Cache doesn't need to be synchronized since it is read-only.
+     * The handles entries of a local archive are read with, null if the archive is read in place.
      */
-    private final Map<FileName, FileObject> cache = new HashMap<FileName, FileObject>();
+    private ZipFilePool pool;
+
+    /**
+     * Closes the idle handles of the pool, owned by the provider, null if idle handles are only closed with the
+     * file system.
+     */
+    private volatile ScheduledThreadPoolExecutor reaper;
+
+    /**
+     * Reads the archive in place, null if the archive is opened as a local file.
+     */
+    private RandomAccessZipFile archive;
+
+    /**
+     * The index of the entries, null if the file does not exist.
+     */
+    private ZipIndex index;
+
+    /**
+     * The names of the entries in archive order.
+     */
+    private String[] entryNames;
+
+    /**
+     * Writes a new archive, null if the archive exists.
+     */
+    private ZipFileWriter writer;
 
   public ZipFileSystem(final AbstractFileName rootName,
                          final FileObject parentLayer,
                          final FileSystemOptions fileSystemOptions)
         throws FileSystemException
+    {
+        this(rootName, parentLayer, fileSystemOptions, false);
+    }
+
+    /**
+     * Creates the file system.
+     *
+     * @param rootName The root name of the file system.
+     * @param parentLayer The archive.
+     * @param fileSystemOptions The FileSystem options.
+     * @param readInPlace true to read the archive through random access to its
+     * content instead of a local copy, its file system must support
+     * {@link Capability#RANDOM_ACCESS_READ}.
+     * @throws FileSystemException if the archive cannot be replicated.
+     * @since 2.1
+     */
+    public ZipFileSystem(final AbstractFileName rootName,
+                         final FileObject parentLayer,
+                         final FileSystemOptions fileSystemOptions,
+                         final boolean readInPlace)
+        throws FileSystemException
     {
         super(rootName, parentLayer, fileSystemOptions);
 
+        if (readInPlace)
+        {
+            file = null;
+            return;
+        }
+
+        if (!parentLayer.exists())
+        {
+            // a new archive
+            file = null;
+            writer = new ZipFileWriter(parentLayer);
+            return;
+        }
+
         // Make a local copy of the file
         file = parentLayer.getFileSystem().replicateFile(parentLayer, Selectors.SELECT_SELF);
 
@@ -74,58 +159,53 @@ public class ZipFileSystem extends AbstractFileSystem
         }
 
         // zipFile = createZipFile(this.file);
+        final ZipFileSystemConfigBuilder builder = ZipFileSystemConfigBuilder.getInstance();
+        pool = new ZipFilePool(this, file, builder.getMaxIdleHandles(fileSystemOptions),
+            builder.getHandleIdleTimeout(fileSystemOptions));
     }
 
     @Override
     public void init() throws FileSystemException
     {
         super.init();
+        if (writer != null)
+        {
+            return;
+        }
 
         try
         {
-            // Build the index
-            final List<ZipFileObject> strongRef = new ArrayList<ZipFileObject>(getZipFile().size());
-            final Enumeration<? extends ZipEntry> entries = getZipFile().entries();
-            while (entries.hasMoreElements())
+            // Build the index, file objects are created when they are resolved
+            final ArchiveIndexCache cache = DefaultFileSystemConfigBuilder.getInstance()
+                .getArchiveIndexCache(getFileSystemOptions());
+            if (cache != null && readIndex(cache))
             {
-                final ZipEntry entry = entries.nextElement();
-                final AbstractFileName name = (AbstractFileName) getFileSystemManager().resolveName(getRootName(),
-                    UriParser.encode(entry.getName()));
-
-                // Create the file
-                ZipFileObject fileObj;
-                if (entry.isDirectory() && getFileFromCache(name) != null)
+                return;
+            }
+            if (file == null)
+            {
+                archive = openArchive();
+                index = ZipIndex.build(archive.getNames());
+            }
+            else
+            {
+                final ZipFile zip = getZipFile();
+                if (zip == null)
                 {
-                    fileObj = (ZipFileObject) getFileFromCache(name);
-                    fileObj.setZipEntry(entry);
-                    continue;
+                    return;
                 }
-
-                fileObj = createZipFileObject(name, entry);
-                putFileToCache(fileObj);
-                strongRef.add(fileObj);
-                fileObj.holdObject(strongRef);
-
-                // Make sure all ancestors exist
-                // TODO - create these on demand
-                ZipFileObject parent;
-                for (AbstractFileName parentName = (AbstractFileName) name.getParent();
-                     parentName != null;
-                     fileObj = parent, parentName = (AbstractFileName) parentName.getParent())
+                final List<String> names = new ArrayList<String>(zip.size());
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements())
                 {
-                    // Locate the parent
-                    parent = (ZipFileObject) getFileFromCache(parentName);
-                    if (parent == null)
-                    {
-                        parent = createZipFileObject(parentName, null);
-                        putFileToCache(parent);
-                        strongRef.add(parent);
-                        parent.holdObject(strongRef);
-                    }
-
-                    // Attach child to parent
-                    parent.attachChild(fileObj.getName());
+                    names.add(entries.nextElement().getName());
                 }
+                entryNames = names.toArray(new String[names.size()]);
+                index = ZipIndex.build(names);
+            }
+            if (cache != null)
+            {
+                writeIndex(cache);
             }
         }
         finally
@@ -134,9 +214,116 @@ public class ZipFileSystem extends AbstractFileSystem
         }
     }
 
+    /**
+     * Reads the index from the cache.
+     * @return false if the cache holds no index of the current version of the archive.
+     */
+    private boolean readIndex(final ArchiveIndexCache cache) throws FileSystemException
+    {
+        final DataInputStream in = cache.get(getParentLayer(), getIndexType());
+        if (in == null)
+        {
+            return false;
+        }
+        try
+        {
+            if (file == null)
+            {
+                archive = new RandomAccessZipFile(getParentLayer(), in);
+            }
+            else
+            {
+                entryNames = new String[in.readInt()];
+                for (int i = 0; i < entryNames.length; i++)
+                {
+                    entryNames[i] = in.readUTF();
+                }
+            }
+            index = ZipIndex.read(in);
+            return true;
+        }
+        catch (final IOException e)
+        {
+            archive = null;
+            entryNames = null;
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch (final IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Stores the index in the cache.
+     */
+    private void writeIndex(final ArchiveIndexCache cache) throws FileSystemException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(buffer);
+        try
+        {
+            if (archive != null)
+            {
+                archive.write(out);
+            }
+            else
+            {
+                out.writeInt(entryNames.length);
+                for (final String name : entryNames)
+                {
+                    out.writeUTF(name);
+                }
+            }
+            index.write(out);
+            out.flush();
+        }
+        catch (final IOException e)
+        {
+            // names too long to be written
+            VfsLog.warn(getLogger(), LOG, Messages.getString("vfs.cache/write-archive-index.warn",
+                getParentLayer().getName()), e);
+            return;
+        }
+        cache.put(getParentLayer(), getIndexType(), buffer.toByteArray());
+    }
+
+    /**
+     * An archive read in place keeps its whole central directory in the cache, a local archive only the names.
+     */
+    private String getIndexType()
+    {
+        return file == null ? "zip-directory" : "zip";
+    }
+
+    private RandomAccessZipFile openArchive() throws FileSystemException
+    {
+        try
+        {
+            return new RandomAccessZipFile(getParentLayer());
+        }
+        catch (final IOException ioe)
+        {
+            throw new FileSystemException("vfs.provider.zip/open-zip-file.error", getParentLayer(), ioe);
+        }
+    }
+
+    /**
+     * Returns the local zip file.
+     *
+     * @return The zip file, or null if the archive is read in place or does not exist.
+     * @throws FileSystemException if the zip file cannot be opened.
+     */
     protected ZipFile getZipFile() throws FileSystemException
     {
-        if (zipFile == null && this.file.exists())
+        if (zipFile == null && this.file != null && this.file.exists())
         {
             final ZipFile zipFile = createZipFile(this.file);
 
@@ -175,6 +362,14 @@ public class ZipFileSystem extends AbstractFileSystem
                 zipFile.close();
                 zipFile = null;
             }
+            if (archive != null)
+            {
+                archive.close();
+            }
+            if (pool != null)
+            {
+                pool.closeIdle();
+            }
         }
         catch (final IOException e)
         {
@@ -183,6 +378,28 @@ public class ZipFileSystem extends AbstractFileSystem
         }
     }
 
+    /**
+     * Completes a new archive and closes the file system.
+     */
+    @Override
+    public void close()
+    {
+        if (writer != null)
+        {
+            try
+            {
+                writer.finish();
+            }
+            catch (final FileSystemException e)
+            {
+                VfsLog.warn(getLogger(), LOG, Messages.getString("vfs.provider.zip/close-zip-file.error",
+                    getRootName()), e);
+            }
+        }
+        super.close();
+        releaseReplica(file);
+    }
+
     /**
      * Returns the capabilities of this file system.
      */
@@ -190,43 +407,148 @@ public class ZipFileSystem extends AbstractFileSystem
     protected void addCapabilities(final Collection<Capability> caps)
     {
         caps.addAll(ZipFileProvider.capabilities);
+        if (writer != null)
+        {
+            caps.add(Capability.CREATE);
+            caps.add(Capability.WRITE_CONTENT);
+        }
     }
 
     /**
-     * Creates a file object.
+     * Creates a file object, looking up its entry in the index.
      */
     @Override
     protected FileObject createFile(final AbstractFileName name) throws FileSystemException
     {
-        // This is only called for files which do not exist in the Zip file
-        return new ZipFileObject(name, null, this, false);
+        if (writer != null)
+        {
+            final ZipEntry entry = writer.getEntry(name.getPathDecoded());
+            if (entry != null || name.getDepth() == 0 && writer.isStarted())
+            {
+                return createZipFileObject(name, entry);
+            }
+            return new ZipFileObject(name, null, this, false);
+        }
+        final int pos = find(name);
+        if (pos < 0)
+        {
+            return new ZipFileObject(name, null, this, false);
+        }
+        final int entry = index.getEntry(pos);
+        if (entry == ZipIndex.NO_ENTRY)
+        {
+            return createZipFileObject(name, null);
+        }
+        if (archive != null)
+        {
+            return createZipFileObject(name, archive.getEntry(entry));
+        }
+        // looked up on the handle of the file system, the pooled handles are for the entry streams
+        return createZipFileObject(name, getZipFile().getEntry(entryNames[entry]));
+    }
+
+    /**
+     * Opens the content of an entry. The stream holds a handle of the archive
+     * of its own until it is closed.
+     *
+     * @param entry The entry.
+     * @return The uncompressed content.
+     * @throws IOException if the entry cannot be read.
+     */
+    InputStream getInputStream(final ZipEntry entry) throws IOException
+    {
+        if (writer != null)
+        {
+            throw new FileSystemException("vfs.provider.zip/read-new-zip-file.error", getParentLayer());
+        }
+        if (archive == null)
+        {
+            return pool.getInputStream(entry);
+        }
+        final int pos = index.find(ZipIndex.normalize(entry.getName()));
+        return archive.getInputStream(index.getEntry(pos));
     }
 
     /**
-     * Adds a file object to the cache.
+     * Lists the children of a folder from the index.
+     *
+     * @param name The name of the folder.
+     * @return The encoded base names of the children, or null if the archive does not contain the folder.
+     * @throws FileSystemException if the name cannot be decoded.
      */
-    @Override
-    protected void putFileToCache(final FileObject file)
+    String[] listChildren(final FileName name) throws FileSystemException
     {
-        cache.put(file.getName(), file);
+        if (writer != null)
+        {
+            return UriParser.encode(writer.listChildren(name.getPathDecoded()));
+        }
+        final int pos = find(name);
+        return pos < 0 ? null : UriParser.encode(index.listChildren(pos));
     }
 
     /**
-     * Returns a cached file.
+     * Sets the executor which closes idle handles, owned by the provider which shuts it down.
      */
-    @Override
-    protected FileObject getFileFromCache(final FileName name)
+    void setReaper(final ScheduledThreadPoolExecutor reaper)
     {
-        return cache.get(name);
+        this.reaper = reaper;
     }
 
     /**
-     * remove a cached file.
+     * @return The executor which closes idle handles, null if there is none.
      */
-    @Override
-    protected void removeFileFromCache(final FileName name)
+    ScheduledThreadPoolExecutor getReaper()
+    {
+        return reaper;
+    }
+
+    /**
+     * Determines if the file system writes a new archive.
+     */
+    boolean isWriting()
+    {
+        return writer != null;
+    }
+
+    /**
+     * Writes the entry of a folder of a new archive.
+     *
+     * @param folder The folder.
+     * @throws FileSystemException if the archive exists or the entry cannot be written.
+     */
+    void createFolder(final ZipFileObject folder) throws FileSystemException
+    {
+        getWriter().putFolder(folder);
+    }
+
+    /**
+     * Starts the entry of a file of a new archive.
+     *
+     * @param file The file.
+     * @return The stream to write the content to, the entry is complete when it is closed.
+     * @throws FileSystemException if the archive exists or the entry cannot be started.
+     */
+    OutputStream getOutputStream(final ZipFileObject file) throws FileSystemException
     {
-        cache.remove(name);
+        return getWriter().putFile(file);
+    }
+
+    private ZipFileWriter getWriter() throws FileSystemException
+    {
+        if (writer == null)
+        {
+            throw new FileSystemException("vfs.provider/write-read-only.error", getParentLayer());
+        }
+        return writer;
+    }
+
+    private int find(final FileName name) throws FileSystemException
+    {
+        if (index == null)
+        {
+            return -1;
+        }
+        return index.find(ZipIndex.normalize(name.getPathDecoded()));
     }
 
     /**
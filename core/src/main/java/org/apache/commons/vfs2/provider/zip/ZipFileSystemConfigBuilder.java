@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.zip;
+
+import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemConfigBuilder;
+import org.apache.commons.vfs2.FileSystemOptions;
+
+/**
+ * Config Builder for the Zip and Jar filesystems.
+ *
+ * @since 2.1
+ */
+public final class ZipFileSystemConfigBuilder extends FileSystemConfigBuilder
+{
+    /** max idle handles key. */
+    private static final String MAX_IDLE_HANDLES_KEY = "maxidlehandles";
+
+    /** handle idle timeout key. */
+    private static final String HANDLE_IDLE_TIMEOUT_KEY = "handleidletimeout";
+
+    /** The default number of idle handles. */
+    private static final int DEFAULT_MAX_IDLE_HANDLES = 4;
+
+    /** The default idle timeout of a handle in milliseconds. */
+    private static final long DEFAULT_HANDLE_IDLE_TIMEOUT = 60000;
+
+    /** config builder SINGLETON. */
+    private static final ZipFileSystemConfigBuilder SINGLETON = new ZipFileSystemConfigBuilder();
+
+    /**
+     * Constructor
+     */
+    private ZipFileSystemConfigBuilder()
+    {
+        super("zip.");
+    }
+
+    /**
+     * Gets the singleton builder.
+     *
+     * @return the singleton builder.
+     */
+    public static ZipFileSystemConfigBuilder getInstance()
+    {
+        return SINGLETON;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<? extends FileSystem> getConfigClass()
+    {
+        return ZipFileSystem.class;
+    }
+
+    /**
+     * Defaults to 4.
+     *
+     * @param opts The FileSystem options.
+     * @return The maximum number of unused handles of an archive which are kept open.
+     * @see #setMaxIdleHandles(FileSystemOptions, int)
+     */
+    public int getMaxIdleHandles(final FileSystemOptions opts)
+    {
+        return getInteger(opts, MAX_IDLE_HANDLES_KEY, DEFAULT_MAX_IDLE_HANDLES);
+    }
+
+    /**
+     * Sets the maximum number of unused handles of a local archive which are kept open for reuse.
+     * <p>
+     * Each open entry stream holds a handle of its own, and a new handle is opened
+     * whenever all handles are in use. Released handles beyond this number are closed.
+     *
+     * @param opts The FileSystem options.
+     * @param maxIdleHandles The maximum number of idle handles, at least 1.
+     */
+    public void setMaxIdleHandles(final FileSystemOptions opts, final int maxIdleHandles)
+    {
+        setParam(opts, MAX_IDLE_HANDLES_KEY, Integer.valueOf(maxIdleHandles));
+    }
+
+    /**
+     * Defaults to 60 seconds.
+     *
+     * @param opts The FileSystem options.
+     * @return The time in milliseconds after which an unused handle is closed.
+     * @see #setHandleIdleTimeout(FileSystemOptions, long)
+     */
+    public long getHandleIdleTimeout(final FileSystemOptions opts)
+    {
+        return getLong(opts, HANDLE_IDLE_TIMEOUT_KEY, DEFAULT_HANDLE_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Sets the time after which an unused archive handle is closed.
+     *
+     * @param opts The FileSystem options.
+     * @param timeout The idle timeout in milliseconds.
+     */
+    public void setHandleIdleTimeout(final FileSystemOptions opts, final long timeout)
+    {
+        setParam(opts, HANDLE_IDLE_TIMEOUT_KEY, Long.valueOf(timeout));
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Writes a new zip file in a single pass.
+ * <p>
+ * The entries are written straight to the output stream of the archive, one
+ * entry at a time, in the order they are created. The central directory is
+ * written when the writer is finished. The written entries are remembered, so
+ * the new archive can be listed while it is written.
+ */
+final class ZipFileWriter
+{
+    private static final String ROOT = "/";
+
+    private final FileObject archive;
+
+    /** The written entries by absolute path. */
+    private final Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+
+    /** The base names of the written children by folder path. */
+    private final Map<String, Set<String>> children = new HashMap<String, Set<String>>();
+
+    private ZipOutputStream out;
+
+    /** The path of the entry which is being written, null if there is none. */
+    private String current;
+
+    private boolean finished;
+
+    ZipFileWriter(final FileObject archive)
+    {
+        this.archive = archive;
+    }
+
+    /**
+     * Determines if the archive has been created.
+     */
+    synchronized boolean isStarted()
+    {
+        return out != null || finished;
+    }
+
+    /**
+     * Returns a written entry.
+     *
+     * @param path The absolute path of the entry.
+     * @return The entry or null if no entry of the path has been written.
+     */
+    synchronized ZipEntry getEntry(final String path)
+    {
+        return entries.get(path);
+    }
+
+    /**
+     * Lists the children written to a folder.
+     *
+     * @param path The absolute path of the folder.
+     * @return The base names of the children, null if the folder has not been written.
+     */
+    synchronized String[] listChildren(final String path)
+    {
+        final Set<String> names = children.get(path);
+        return names == null ? null : names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Writes a folder entry, the root folder only creates the archive.
+     *
+     * @param file The folder.
+     * @throws FileSystemException if the entry cannot be written.
+     */
+    synchronized void putFolder(final ZipFileObject file) throws FileSystemException
+    {
+        final String path = file.getName().getPathDecoded();
+        if (ROOT.equals(path))
+        {
+            start();
+            if (!children.containsKey(ROOT))
+            {
+                children.put(ROOT, new LinkedHashSet<String>());
+            }
+            file.setZipEntry(null);
+            return;
+        }
+        checkWritable(path);
+        final ZipEntry entry = new ZipEntry(path.substring(1) + "/");
+        entry.setTime(System.currentTimeMillis());
+        try
+        {
+            out.putNextEntry(entry);
+            out.closeEntry();
+        }
+        catch (final IOException e)
+        {
+            throw new FileSystemException("vfs.provider.zip/write-zip-file.error", archive, e);
+        }
+        add(path, entry);
+        children.put(path, new LinkedHashSet<String>());
+        file.setZipEntry(entry);
+    }
+
+    /**
+     * Starts a file entry.
+     *
+     * @param file The file.
+     * @return The stream to write the content of the entry to, the entry is complete when it is closed.
+     * @throws FileSystemException if the entry cannot be started.
+     */
+    synchronized OutputStream putFile(final ZipFileObject file) throws FileSystemException
+    {
+        final String path = file.getName().getPathDecoded();
+        checkWritable(path);
+        final ZipEntry entry = new ZipEntry(path.substring(1));
+        entry.setTime(System.currentTimeMillis());
+        try
+        {
+            out.putNextEntry(entry);
+        }
+        catch (final IOException e)
+        {
+            throw new FileSystemException("vfs.provider.zip/write-zip-file.error", archive, e);
+        }
+        current = path;
+        return new EntryOutputStream(file, entry);
+    }
+
+    /**
+     * Writes the central directory and closes the archive.
+     *
+     * @throws FileSystemException if the archive cannot be written.
+     */
+    synchronized void finish() throws FileSystemException
+    {
+        if (out == null)
+        {
+            return;
+        }
+        try
+        {
+            out.close();
+        }
+        catch (final IOException e)
+        {
+            throw new FileSystemException("vfs.provider.zip/write-zip-file.error", archive, e);
+        }
+        finally
+        {
+            out = null;
+            current = null;
+            finished = true;
+        }
+    }
+
+    /**
+     * Opens the output stream of the archive.
+     */
+    private void start() throws FileSystemException
+    {
+        if (finished)
+        {
+            throw new FileSystemException("vfs.provider.zip/write-zip-file.error", archive);
+        }
+        if (out == null)
+        {
+            out = new ZipOutputStream(archive.getContent().getOutputStream());
+        }
+    }
+
+    private void checkWritable(final String path) throws FileSystemException
+    {
+        start();
+        if (current != null)
+        {
+            throw new FileSystemException("vfs.provider.zip/entry-open.error", path, current);
+        }
+        if (entries.containsKey(path))
+        {
+            throw new FileSystemException("vfs.provider.zip/entry-exists.error", path);
+        }
+    }
+
+    private void add(final String path, final ZipEntry entry)
+    {
+        entries.put(path, entry);
+        final int slash = path.lastIndexOf('/');
+        final String parent = slash == 0 ? ROOT : path.substring(0, slash);
+        Set<String> names = children.get(parent);
+        if (names == null)
+        {
+            names = new LinkedHashSet<String>();
+            children.put(parent, names);
+        }
+        names.add(path.substring(slash + 1));
+    }
+
+    /**
+     * Writes the content of an entry and completes the entry when closed.
+     */
+    private final class EntryOutputStream extends OutputStream
+    {
+        private final ZipFileObject file;
+        private final ZipEntry entry;
+        private boolean closed;
+
+        EntryOutputStream(final ZipFileObject file, final ZipEntry entry)
+        {
+            this.file = file;
+            this.entry = entry;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            ensureOpen();
+            out.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            ensureOpen();
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            synchronized (ZipFileWriter.this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                if (out == null)
+                {
+                    throw new IOException("The archive has already been finished.");
+                }
+                out.closeEntry();
+                current = null;
+                add(file.getName().getPathDecoded(), entry);
+                file.setZipEntry(entry);
+            }
+        }
+
+        private void ensureOpen() throws IOException
+        {
+            if (closed || out == null)
+            {
+                throw new IOException("Stream closed.");
+            }
+        }
+    }
+}
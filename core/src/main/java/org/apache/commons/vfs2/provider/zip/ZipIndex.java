@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.zip;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.provider.UriParser;
+
+/**
+ * A compact, immutable index of the entries of an archive.
+ * <p>
+ * The normalized paths of all entries and of the folders they imply are kept in
+ * a sorted array. Each path maps to the number of its entry in the archive, or
+ * -1 for an implied folder, and the children of each folder are kept as ranges
+ * of one shared array. Files are looked up by binary search, so no file object
+ * is needed until a file is resolved.
+ *
+ * @since 2.1
+ */
+final class ZipIndex
+{
+    /** Marks an implied folder which has no entry of its own. */
+    static final int NO_ENTRY = -1;
+
+    private static final String ROOT = "/";
+
+    /** The normalized paths, sorted. */
+    private final String[] paths;
+
+    /** The entry number of each path. */
+    private final int[] entries;
+
+    /** The children of path i are childIndexes[childStart[i]] to childIndexes[childStart[i + 1] - 1]. */
+    private final int[] childStart;
+
+    private final int[] childIndexes;
+
+    private ZipIndex(final String[] paths, final int[] entries, final int[] childStart, final int[] childIndexes)
+    {
+        this.paths = paths;
+        this.entries = entries;
+        this.childStart = childStart;
+        this.childIndexes = childIndexes;
+    }
+
+    /**
+     * Builds the index of an archive.
+     *
+     * @param entryNames The names of the entries, in archive order.
+     * @return The index.
+     * @throws FileSystemException if an entry name is not a valid path.
+     */
+    static ZipIndex build(final List<String> entryNames) throws FileSystemException
+    {
+        // the first entry wins if a path occurs more than once
+        final Map<String, Integer> entryOfPath = new HashMap<String, Integer>(entryNames.size() * 2);
+        entryOfPath.put(ROOT, Integer.valueOf(NO_ENTRY));
+        for (int i = 0; i < entryNames.size(); i++)
+        {
+            String path = normalize(entryNames.get(i));
+            final Integer entry = entryOfPath.get(path);
+            if (entry == null || entry.intValue() == NO_ENTRY && !ROOT.equals(path))
+            {
+                entryOfPath.put(path, Integer.valueOf(i));
+            }
+
+            // make sure all ancestors exist
+            for (path = parentOf(path); path != null && !entryOfPath.containsKey(path); path = parentOf(path))
+            {
+                entryOfPath.put(path, Integer.valueOf(NO_ENTRY));
+            }
+        }
+
+        final String[] paths = entryOfPath.keySet().toArray(new String[entryOfPath.size()]);
+        Arrays.sort(paths);
+        final int[] entries = new int[paths.length];
+        final int[] parents = new int[paths.length];
+        final int[] childStart = new int[paths.length + 1];
+        for (int i = 0; i < paths.length; i++)
+        {
+            entries[i] = entryOfPath.get(paths[i]).intValue();
+            final String parent = parentOf(paths[i]);
+            parents[i] = parent == null ? -1 : Arrays.binarySearch(paths, parent);
+            if (parents[i] >= 0)
+            {
+                childStart[parents[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < paths.length; i++)
+        {
+            childStart[i + 1] += childStart[i];
+        }
+
+        // group the children of each folder, keeping them in path order
+        final int[] next = childStart.clone();
+        final int[] childIndexes = new int[paths.length - 1];
+        for (int i = 0; i < paths.length; i++)
+        {
+            if (parents[i] >= 0)
+            {
+                childIndexes[next[parents[i]]++] = i;
+            }
+        }
+        return new ZipIndex(paths, entries, childStart, childIndexes);
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutputStream)}.
+     *
+     * @param in The stream to read from.
+     * @return The index.
+     * @throws IOException if the index cannot be read.
+     */
+    static ZipIndex read(final DataInputStream in) throws IOException
+    {
+        final int size = in.readInt();
+        if (size < 1)
+        {
+            throw new IOException("Invalid index size " + size);
+        }
+        final String[] paths = new String[size];
+        final int[] entries = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            paths[i] = in.readUTF();
+            entries[i] = in.readInt();
+        }
+        final int[] childStart = new int[size + 1];
+        for (int i = 0; i < childStart.length; i++)
+        {
+            childStart[i] = in.readInt();
+        }
+        final int[] childIndexes = new int[size - 1];
+        for (int i = 0; i < childIndexes.length; i++)
+        {
+            childIndexes[i] = in.readInt();
+        }
+        return new ZipIndex(paths, entries, childStart, childIndexes);
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if the index cannot be written.
+     */
+    void write(final DataOutputStream out) throws IOException
+    {
+        out.writeInt(paths.length);
+        for (int i = 0; i < paths.length; i++)
+        {
+            out.writeUTF(paths[i]);
+            out.writeInt(entries[i]);
+        }
+        for (final int start : childStart)
+        {
+            out.writeInt(start);
+        }
+        for (final int child : childIndexes)
+        {
+            out.writeInt(child);
+        }
+    }
+
+    /**
+     * Normalizes an entry name or a file path to the form used in the index.
+     *
+     * @param name The name.
+     * @return The absolute path without trailing separator.
+     * @throws FileSystemException if the name is not a valid path.
+     */
+    static String normalize(final String name) throws FileSystemException
+    {
+        final StringBuilder buffer = new StringBuilder(name.length() + 1);
+        buffer.append('/').append(name);
+        UriParser.fixSeparators(buffer);
+        UriParser.normalisePath(buffer);
+        final int length = buffer.length();
+        if (length > 1 && buffer.charAt(length - 1) == '/')
+        {
+            buffer.setLength(length - 1);
+        }
+        return buffer.toString();
+    }
+
+    private static String parentOf(final String path)
+    {
+        if (ROOT.equals(path))
+        {
+            return null;
+        }
+        final int slash = path.lastIndexOf('/');
+        return slash == 0 ? ROOT : path.substring(0, slash);
+    }
+
+    /**
+     * Locates a path.
+     *
+     * @param path The normalized path.
+     * @return The position of the path in the index, or -1 if the archive does not contain it.
+     */
+    int find(final String path)
+    {
+        final int pos = Arrays.binarySearch(paths, path);
+        return pos < 0 ? -1 : pos;
+    }
+
+    /**
+     * @param pos The position of a path in the index.
+     * @return The number of its entry in the archive, or {@link #NO_ENTRY} for an implied folder.
+     */
+    int getEntry(final int pos)
+    {
+        return entries[pos];
+    }
+
+    /**
+     * @param pos The position of a path in the index.
+     * @return true if the path has children.
+     */
+    boolean hasChildren(final int pos)
+    {
+        return childStart[pos + 1] > childStart[pos];
+    }
+
+    /**
+     * @param pos The position of a folder in the index.
+     * @return The base names of its children.
+     */
+    String[] listChildren(final int pos)
+    {
+        final List<String> names = new ArrayList<String>(childStart[pos + 1] - childStart[pos]);
+        for (int i = childStart[pos]; i < childStart[pos + 1]; i++)
+        {
+            final String path = paths[childIndexes[i]];
+            names.add(path.substring(path.lastIndexOf('/') + 1));
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * @return The number of paths in the index, including implied folders.
+     */
+    int size()
+    {
+        return paths.length;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An InputStream that reads the underlying stream ahead of the consumer on a
+ * background thread.
+ * <p>
+ * At most {@code blockCount} blocks of {@code blockSize} bytes are queued at any
+ * time, so the memory held by the stream is bounded by roughly
+ * {@code (blockCount + 2) * blockSize} bytes. The underlying stream is only ever
+ * read by the background thread. It is closed when this stream is closed, once
+ * the background thread has stopped reading it.
+ *
+ * @since 2.1
+ */
+public class ReadAheadInputStream extends InputStream
+{
+    /** Marks the end of the underlying stream in the queue. */
+    private static final Block EOF = new Block(new byte[0], 0, null);
+
+    private final InputStream in;
+    private final int blockSize;
+    private final BlockingQueue<Block> queue;
+    private final Thread reader;
+
+    private Block current;
+    private int pos;
+
+    /** The failure of the background thread, thrown again by every later read. */
+    private IOException error;
+    private volatile boolean closed;
+
+    /**
+     * Creates the stream and starts reading ahead.
+     *
+     * @param in The stream to read from.
+     * @param blockSize The size of a single block in bytes.
+     * @param blockCount The maximum number of blocks to keep in flight.
+     * @param name The name of the background thread.
+     */
+    public ReadAheadInputStream(final InputStream in, final int blockSize, final int blockCount, final String name)
+    {
+        if (blockSize < 1 || blockCount < 1)
+        {
+            throw new IllegalArgumentException("blockSize and blockCount must be positive");
+        }
+        this.in = in;
+        this.blockSize = blockSize;
+        this.queue = new ArrayBlockingQueue<Block>(blockCount);
+        this.reader = new Thread(new Reader(), name);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final Block block = nextBlock();
+        if (block == null)
+        {
+            return -1;
+        }
+        return block.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException
+    {
+        if (length == 0)
+        {
+            return 0;
+        }
+        final Block block = nextBlock();
+        if (block == null)
+        {
+            return -1;
+        }
+        final int count = Math.min(length, block.length - pos);
+        System.arraycopy(block.data, pos, buffer, offset, count);
+        pos += count;
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes which can be read without waiting for the background thread.
+     * @return The number of bytes that are available.
+     * @throws IOException if the stream is closed.
+     */
+    @Override
+    public int available() throws IOException
+    {
+        ensureOpen();
+        int available = current != null ? current.length - pos : 0;
+        for (final Block block : queue)
+        {
+            available += block.length;
+        }
+        return available;
+    }
+
+    /**
+     * Stops the background thread, releases the queued blocks and closes the underlying stream.
+     * <p>
+     * An interrupt does not end a blocking read of a socket, so this waits for the
+     * background thread to return from its current read before the underlying stream
+     * is closed and its connection possibly handed to someone else.
+     *
+     * @throws IOException if the underlying stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        reader.interrupt();
+        queue.clear();
+        current = null;
+        boolean interrupted = false;
+        while (reader.isAlive())
+        {
+            try
+            {
+                reader.join();
+            }
+            catch (final InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    }
+
+    /**
+     * Returns the block to read from, waiting for the background thread if necessary.
+     * @return The current block or {@code null} at end of stream.
+     */
+    private Block nextBlock() throws IOException
+    {
+        ensureOpen();
+        if (error != null)
+        {
+            throw error;
+        }
+        if (current == EOF)
+        {
+            return null;
+        }
+        if (current != null && pos < current.length)
+        {
+            return current;
+        }
+
+        final Block block;
+        try
+        {
+            block = queue.take();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for read-ahead data.");
+        }
+
+        if (block.error != null)
+        {
+            error = block.error;
+            throw error;
+        }
+        current = block;
+        pos = 0;
+        return block == EOF ? null : block;
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed.");
+        }
+    }
+
+    /**
+     * A chunk of data handed from the background thread to the consumer.
+     */
+    private static final class Block
+    {
+        private final byte[] data;
+        private final int length;
+        private final IOException error;
+
+        Block(final byte[] data, final int length, final IOException error)
+        {
+            this.data = data;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Fills blocks from the underlying stream until end of stream, error or close.
+     */
+    private final class Reader implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            Block last = EOF;
+            try
+            {
+                int n = 0;
+                while (n != -1 && !closed)
+                {
+                    final byte[] data = new byte[blockSize];
+                    int length = 0;
+                    while (length < blockSize && (n = in.read(data, length, blockSize - length)) != -1)
+                    {
+                        length += n;
+                    }
+                    if (length > 0)
+                    {
+                        queue.put(new Block(data, length, null));
+                    }
+                }
+            }
+            catch (final InterruptedException e)
+            {
+                // closed by the consumer
+                return;
+            }
+            catch (final IOException e)
+            {
+                last = new Block(null, 0, e);
+            }
+            catch (final RuntimeException e)
+            {
+                last = new Block(null, 0, new IOException(e));
+            }
+
+            if (!closed)
+            {
+                try
+                {
+                    queue.put(last);
+                }
+                catch (final InterruptedException e)
+                {
+                    // closed by the consumer
+                }
+            }
+        }
+    }
+}
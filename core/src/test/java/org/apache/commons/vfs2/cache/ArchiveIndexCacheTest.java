@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.commons.vfs2.provider.tar.TarFileProvider;
+import org.apache.commons.vfs2.provider.zip.ZipFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ArchiveIndexCache} with the zip and tar providers.
+ */
+public class ArchiveIndexCacheTest
+{
+    private static final File BASE_DIR = new File("target/test-classes/test-data/archive-index");
+
+    private DefaultFileSystemManager manager;
+
+    private ArchiveIndexCache cache;
+
+    private FileSystemOptions opts;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        FileUtils.deleteDirectory(BASE_DIR);
+        BASE_DIR.mkdirs();
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("ram", new RamFileProvider());
+        manager.addProvider("zip", new ZipFileProvider());
+        manager.addProvider("tar", new TarFileProvider());
+        manager.addProvider("tgz", new TarFileProvider());
+        manager.init();
+
+        cache = new ArchiveIndexCache(new File(BASE_DIR, "index"));
+        opts = new FileSystemOptions();
+        DefaultFileSystemConfigBuilder.getInstance().setArchiveIndexCache(opts, cache);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(BASE_DIR);
+    }
+
+    private static void writeZip(final OutputStream target, final int count) throws Exception
+    {
+        final ZipOutputStream out = new ZipOutputStream(target);
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                out.putNextEntry(new ZipEntry("dir" + i % 3 + "/file" + i + ".txt"));
+                out.write(("content " + i).getBytes("US-ASCII"));
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static void writeTar(final OutputStream target, final int count) throws Exception
+    {
+        final TarArchiveOutputStream out = new TarArchiveOutputStream(target);
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                final byte[] content = ("content " + i).getBytes("US-ASCII");
+                final TarArchiveEntry entry = new TarArchiveEntry("dir" + i % 3 + "/file" + i + ".txt");
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Opens an archive, checks its entries and closes its file system again.
+     */
+    private void assertArchive(final String uri, final int count) throws Exception
+    {
+        final FileObject root = manager.resolveFile(uri, opts);
+        assertEquals(3, root.getChildren().length);
+        int files = 0;
+        for (final FileObject dir : root.getChildren())
+        {
+            files += dir.getChildren().length;
+        }
+        assertEquals(count, files);
+        final InputStream in = root.resolveFile("dir1/file4.txt").getContent().getInputStream();
+        try
+        {
+            assertEquals("content 4", new String(IOUtils.toByteArray(in), "US-ASCII"));
+        }
+        finally
+        {
+            in.close();
+        }
+        manager.closeFileSystem(root.getFileSystem());
+    }
+
+    @Test
+    public void testZipIndexIsReused() throws Exception
+    {
+        final File file = new File(BASE_DIR, "test.zip");
+        writeZip(new FileOutputStream(file), 10);
+        final String uri = "zip:" + file.toURI() + "!/";
+
+        assertArchive(uri, 10);
+        assertEquals(0, cache.getHitCount());
+        assertArchive(uri, 10);
+        assertEquals(1, cache.getHitCount());
+
+        // a modified archive is listed again
+        writeZip(new FileOutputStream(file), 20);
+        file.setLastModified(file.lastModified() + 2000);
+        assertArchive(uri, 20);
+        assertEquals(1, cache.getHitCount());
+        assertArchive(uri, 20);
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testZipDirectoryIsReused() throws Exception
+    {
+        final FileObject zip = manager.resolveFile("ram:///test.zip", opts);
+        writeZip(zip.getContent().getOutputStream(), 10);
+        final String uri = "zip:ram:///test.zip!/";
+
+        assertArchive(uri, 10);
+        assertArchive(uri, 10);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testTarIndexIsReused() throws Exception
+    {
+        final File file = new File(BASE_DIR, "test.tar");
+        writeTar(new FileOutputStream(file), 10);
+        final String uri = "tar:" + file.toURI() + "!/";
+
+        assertArchive(uri, 10);
+        assertArchive(uri, 10);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testCompressedTarIndexIsReused() throws Exception
+    {
+        final File file = new File(BASE_DIR, "test.tgz");
+        writeTar(new GZIPOutputStream(new FileOutputStream(file)), 10);
+        final String uri = "tgz:" + file.toURI() + "!/";
+
+        // without checkpoints the entries are cached
+        assertArchive(uri, 10);
+        assertArchive(uri, 10);
+        assertEquals(1, cache.getHitCount());
+
+        // the stored index has no checkpoints, so the archive is indexed again and the checkpoints are stored
+        DefaultFileSystemConfigBuilder.getInstance().setCheckpointInterval(opts, 1024);
+        assertArchive(uri, 10);
+        final File index = cache.getDirectory().listFiles()[0];
+        final long length = index.length();
+        assertArchive(uri, 10);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(length, index.length());
+    }
+
+    @Test
+    public void testCorruptIndexIsReplaced() throws Exception
+    {
+        final File file = new File(BASE_DIR, "test.zip");
+        writeZip(new FileOutputStream(file), 10);
+        final String uri = "zip:" + file.toURI() + "!/";
+        assertArchive(uri, 10);
+
+        final File[] indexes = cache.getDirectory().listFiles();
+        assertEquals(1, indexes.length);
+        final byte[] index = FileUtils.readFileToByteArray(indexes[0]);
+        final byte[] truncated = new byte[index.length / 2];
+        System.arraycopy(index, 0, truncated, 0, truncated.length);
+        FileUtils.writeByteArrayToFile(indexes[0], truncated);
+
+        // the header is intact, the truncated index is rejected when it is read and then replaced
+        assertArchive(uri, 10);
+        assertEquals(index.length, indexes[0].length());
+        assertArchive(uri, 10);
+        assertEquals(2, cache.getHitCount());
+    }
+}
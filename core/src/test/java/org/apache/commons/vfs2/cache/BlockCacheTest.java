@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.BlockCachingRandomAccessContent;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.junit.Test;
+
+/**
+ * Tests {@link BlockCache} and {@link BlockCachingRandomAccessContent}.
+ */
+public class BlockCacheTest
+{
+    @Test
+    public void testLruEviction()
+    {
+        final BlockCache cache = new BlockCache(20, 10, false);
+        final byte[] block = new byte[10];
+        cache.put("a", "0", 0, block, 10);
+        cache.put("a", "0", 1, block, 10);
+        // touch block 0 so block 1 is the eldest
+        assertEquals(10, cache.get("a", "0", 0, block));
+        cache.put("a", "0", 2, block, 10);
+
+        assertEquals(20, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(-1, cache.get("a", "0", 1, block));
+        assertEquals(10, cache.get("a", "0", 0, block));
+        assertEquals(10, cache.get("a", "0", 2, block));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testVersionIsPartOfKey()
+    {
+        final BlockCache cache = new BlockCache(100, 10, true);
+        final byte[] block = new byte[] { 1, 2, 3 };
+        cache.put("a", "1", 0, block, 3);
+        assertEquals(-1, cache.get("a", "2", 0, new byte[10]));
+        final byte[] read = new byte[10];
+        assertEquals(3, cache.get("a", "1", 0, read));
+        assertEquals(2, read[1]);
+    }
+
+    @Test
+    public void testReadThrough() throws Exception
+    {
+        final DefaultFileSystemManager manager = new DefaultFileSystemManager();
+        manager.addProvider("ram", new RamFileProvider());
+        manager.init();
+        try
+        {
+            final byte[] data = new byte[1000];
+            for (int i = 0; i < data.length; i++)
+            {
+                data[i] = (byte) i;
+            }
+            final FileObject file = manager.resolveFile("ram://file");
+            final OutputStream out = file.getContent().getOutputStream();
+            out.write(data);
+            out.close();
+
+            final BlockCache cache = new BlockCache(10000, 64, false);
+            for (int pass = 0; pass < 2; pass++)
+            {
+                final RandomAccessContent content = new BlockCachingRandomAccessContent(
+                    file.getContent().getRandomAccessContent(RandomAccessMode.READ), cache, "ram://file", "1");
+                assertEquals(1000, content.length());
+                content.seek(990);
+                final byte[] tail = new byte[10];
+                content.readFully(tail);
+                assertEquals(1000, content.getFilePointer());
+                content.seek(0);
+                final byte[] all = new byte[1000];
+                content.readFully(all);
+                assertArrayEquals(data, all);
+                content.seek(130);
+                assertEquals(130, content.readUnsignedByte());
+                content.close();
+            }
+            // 16 blocks of 64 bytes make up the file, the second pass only hits the cache
+            assertEquals(16, cache.getMissCount());
+            assertEquals(1000, cache.getSize());
+        }
+        finally
+        {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testSizeIsPartOfVersion() throws Exception
+    {
+        final DefaultFileSystemManager manager = new DefaultFileSystemManager();
+        manager.addProvider("ram", new RamFileProvider());
+        manager.init();
+        try
+        {
+            final BlockCache cache = new BlockCache(10000, 64, false);
+            final FileSystemOptions opts = new FileSystemOptions();
+            DefaultFileSystemConfigBuilder.getInstance().setRandomAccessBlockCache(opts, cache);
+            final FileObject file = manager.resolveFile("ram://file", opts);
+            for (int size = 10; size <= 20; size += 10)
+            {
+                final OutputStream out = file.getContent().getOutputStream();
+                out.write(new byte[size - 1]);
+                out.write(size);
+                out.close();
+                // the same modification time for both contents
+                file.getContent().setLastModifiedTime(1000000);
+
+                final RandomAccessContent content = BlockCachingRandomAccessContent.decorate(file,
+                    file.getContent().getRandomAccessContent(RandomAccessMode.READ), RandomAccessMode.READ);
+                assertTrue(content instanceof BlockCachingRandomAccessContent);
+                content.seek(size - 1);
+                assertEquals(size, content.readUnsignedByte());
+                content.close();
+            }
+            assertEquals(0, cache.getHitCount());
+        }
+        finally
+        {
+            manager.close();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.impl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileReplicator;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.commons.vfs2.provider.tar.TarFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the replica cache of the {@link DefaultFileReplicator}.
+ */
+public class DefaultFileReplicatorTestCase
+{
+    private static final File BASE_DIR = new File("target/test-classes/test-data/replicator");
+
+    private static final File TEMP_DIR = new File(BASE_DIR, "temp");
+
+    private DefaultFileSystemManager manager;
+    private DefaultFileReplicator replicator;
+
+    /** Fails the next allocation of a cached replica. */
+    private final AtomicBoolean failAllocation = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        FileUtils.deleteDirectory(BASE_DIR);
+        BASE_DIR.mkdirs();
+        replicator = new DefaultFileReplicator(TEMP_DIR)
+        {
+            @Override
+            protected File createAndAddFile(final File parent, final String basename) throws FileSystemException
+            {
+                if (basename.contains("_cache_") && failAllocation.getAndSet(false))
+                {
+                    throw new FileSystemException("vfs.impl/replicate-file.error", basename);
+                }
+                return super.createAndAddFile(parent, basename);
+            }
+        };
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("ram", new RamFileProvider());
+        manager.addProvider("tar", new TarFileProvider());
+        manager.setReplicator(replicator);
+        manager.init();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(BASE_DIR);
+    }
+
+    private FileObject createRamFile(final String name, final String content, final long lastModified)
+        throws Exception
+    {
+        final FileObject file = manager.resolveFile("ram:///" + name);
+        final OutputStream out = file.getContent().getOutputStream();
+        try
+        {
+            out.write(content.getBytes("US-ASCII"));
+        }
+        finally
+        {
+            out.close();
+        }
+        file.getContent().setLastModifiedTime(lastModified);
+        return file;
+    }
+
+    private static int countCached()
+    {
+        return count(true);
+    }
+
+    /**
+     * Waits for the released files to be deleted in the background.
+     */
+    private static int awaitCount(final boolean cached, final int expected) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (count(cached) != expected && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        return count(cached);
+    }
+
+    private static int count(final boolean cached)
+    {
+        int count = 0;
+        final String[] names = TEMP_DIR.list();
+        for (final String name : names == null ? new String[0] : names)
+        {
+            if (name.contains("_cache_") == cached)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testCachedReplica() throws Exception
+    {
+        final FileObject src = createRamFile("a.txt", "content a", 100000);
+        final File first = replicator.replicateFile(src, Selectors.SELECT_SELF);
+        final File second = replicator.replicateFile(src, Selectors.SELECT_SELF);
+        assertTrue(!first.equals(second));
+        assertEquals("content a", FileUtils.readFileToString(first, "US-ASCII"));
+        assertEquals("content a", FileUtils.readFileToString(second, "US-ASCII"));
+        assertEquals(1, countCached());
+
+        // a replica of its own for each caller
+        first.delete();
+        assertEquals("content a", FileUtils.readFileToString(second, "US-ASCII"));
+
+        // a changed source is copied again
+        createRamFile("a.txt", "content b", 200000);
+        final File third = replicator.replicateFile(src, Selectors.SELECT_SELF);
+        assertEquals("content b", FileUtils.readFileToString(third, "US-ASCII"));
+        assertEquals("content a", FileUtils.readFileToString(second, "US-ASCII"));
+        assertEquals(1, awaitCount(true, 1));
+    }
+
+    @Test
+    public void testQuota() throws Exception
+    {
+        replicator.setCacheQuota(15);
+        final FileObject a = createRamFile("a.txt", "content a", 100000);
+        final FileObject b = createRamFile("b.txt", "content b", 100000);
+        final File replicaA = replicator.replicateFile(a, Selectors.SELECT_SELF);
+        replicator.replicateFile(b, Selectors.SELECT_SELF);
+        assertEquals(1, awaitCount(true, 1));
+        assertEquals("content a", FileUtils.readFileToString(replicaA, "US-ASCII"));
+
+        replicator.setCacheQuota(0);
+        assertEquals(0, awaitCount(true, 0));
+        assertEquals("content a", FileUtils.readFileToString(
+            replicator.replicateFile(a, Selectors.SELECT_SELF), "US-ASCII"));
+        assertEquals(0, countCached());
+    }
+
+    @Test
+    public void testDefaultQuota()
+    {
+        assertEquals(256 * 1024 * 1024, replicator.getCacheQuota());
+    }
+
+    @Test
+    public void testConcurrentReplicas() throws Exception
+    {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+        {
+            content.append(i);
+        }
+        final FileObject src = createRamFile("large.txt", content.toString(), 100000);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<File>> replicas = new ArrayList<Future<File>>();
+            for (int i = 0; i < 16; i++)
+            {
+                replicas.add(executor.submit(new Callable<File>()
+                {
+                    @Override
+                    public File call() throws Exception
+                    {
+                        return replicator.replicateFile(src, Selectors.SELECT_SELF);
+                    }
+                }));
+            }
+            for (final Future<File> replica : replicas)
+            {
+                assertEquals(content.toString(), FileUtils.readFileToString(replica.get(), "US-ASCII"));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals(1, countCached());
+    }
+
+    @Test
+    public void testLocalSource() throws Exception
+    {
+        final File source = new File(BASE_DIR, "local.bin");
+        final byte[] content = {1, 2, 3, 4};
+        final OutputStream out = new FileOutputStream(source);
+        out.write(content);
+        out.close();
+
+        final File replica = replicator.replicateFile(manager.toFileObject(source), Selectors.SELECT_SELF);
+        assertTrue(!source.equals(replica));
+        assertArrayEquals(content, FileUtils.readFileToByteArray(replica));
+        assertEquals(0, countCached());
+
+        // writing the source in place does not change the replica
+        final OutputStream rewrite = new FileOutputStream(source);
+        try
+        {
+            rewrite.write(new byte[] {5, 6});
+        }
+        finally
+        {
+            rewrite.close();
+        }
+        assertArrayEquals(content, FileUtils.readFileToByteArray(replica));
+
+        replica.delete();
+        assertArrayEquals(new byte[] {5, 6}, FileUtils.readFileToByteArray(source));
+    }
+
+    @Test
+    public void testFailedReplicationIsRetried() throws Exception
+    {
+        final FileObject src = createRamFile("a.txt", "content a", 100000);
+        failAllocation.set(true);
+        try
+        {
+            replicator.replicateFile(src, Selectors.SELECT_SELF);
+            fail();
+        }
+        catch (final FileSystemException e)
+        {
+            // expected
+        }
+
+        assertEquals("content a", FileUtils.readFileToString(
+            replicator.replicateFile(src, Selectors.SELECT_SELF), "US-ASCII"));
+        assertEquals(1, countCached());
+    }
+
+    @Test
+    public void testConcurrentAllocation() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            final List<Future<List<File>>> results = new ArrayList<Future<List<File>>>();
+            for (int i = 0; i < 8; i++)
+            {
+                results.add(executor.submit(new Callable<List<File>>()
+                {
+                    @Override
+                    public List<File> call() throws Exception
+                    {
+                        final List<File> files = new ArrayList<File>();
+                        for (int j = 0; j < 500; j++)
+                        {
+                            files.add(replicator.allocateFile("file"));
+                        }
+                        return files;
+                    }
+                }));
+            }
+            final Set<File> files = new HashSet<File>();
+            for (final Future<List<File>> result : results)
+            {
+                files.addAll(result.get());
+            }
+            assertEquals(4000, files.size());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReleaseOnClose() throws Exception
+    {
+        final FileObject tar = manager.resolveFile("ram:///archive.tar");
+        final TarArchiveOutputStream out = new TarArchiveOutputStream(tar.getContent().getOutputStream());
+        final TarArchiveEntry entry = new TarArchiveEntry("entry.txt");
+        entry.setSize(5);
+        out.putArchiveEntry(entry);
+        out.write("entry".getBytes("US-ASCII"));
+        out.closeArchiveEntry();
+        out.close();
+
+        final FileObject root = manager.resolveFile("tar:ram:///archive.tar!/");
+        assertEquals(1, root.getChildren().length);
+        assertEquals(1, count(false));
+
+        // the replica is deleted in the background once the archive is closed
+        manager.closeFileSystem(root.getFileSystem());
+        assertEquals(0, awaitCount(false, 0));
+        assertEquals(1, countCached());
+    }
+}
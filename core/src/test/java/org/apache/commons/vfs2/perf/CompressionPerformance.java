@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.perf;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.gzip.GzipFileProvider;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.xz.XzFileProvider;
+
+/**
+ * Writes 64 MB of text like content in 8 KB chunks through the xz and the gzip
+ * providers, reads it back and prints the throughput of both and the size of the
+ * compressed files.
+ * <p>
+ * The content is generated while it is written, so the time to write includes
+ * creating it. The files are written to the temporary directory.
+ */
+public class CompressionPerformance
+{
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+    public static void main(final String[] args) throws Exception
+    {
+        final DefaultFileSystemManager manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("gz", new GzipFileProvider());
+        manager.addProvider("xz", new XzFileProvider());
+        manager.init();
+        try
+        {
+            System.err.println("gzip:");
+            testScheme(manager, "gz");
+            System.err.println("xz:");
+            testScheme(manager, "xz");
+        }
+        finally
+        {
+            manager.close();
+        }
+    }
+
+    /**
+     * Fills a chunk with words and some binary noise in between.
+     */
+    private static void fillChunk(final Random random, final byte[] chunk)
+    {
+        final String[] words = {"alpha ", "beta ", "gamma ", "delta\n", "epsilon "};
+        int i = 0;
+        while (i < chunk.length)
+        {
+            if (random.nextInt(10) == 0)
+            {
+                chunk[i++] = (byte) random.nextInt();
+            }
+            else
+            {
+                final String word = words[random.nextInt(words.length)];
+                for (int j = 0; j < word.length() && i < chunk.length; j++)
+                {
+                    chunk[i++] = (byte) word.charAt(j);
+                }
+            }
+        }
+    }
+
+    private static void testScheme(final DefaultFileSystemManager manager, final String scheme) throws Exception
+    {
+        final File file = File.createTempFile("perf", "." + scheme);
+        try
+        {
+            final FileObject data = manager.resolveFile(scheme + ":" + file.toURI() + "!/perf");
+            final Random random = new Random(1);
+            final byte[] chunk = new byte[CHUNK_SIZE];
+
+            long start = System.currentTimeMillis();
+            final OutputStream out = data.getContent().getOutputStream();
+            try
+            {
+                for (long written = 0; written < FILE_SIZE; written += CHUNK_SIZE)
+                {
+                    fillChunk(random, chunk);
+                    out.write(chunk);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            report("write", System.currentTimeMillis() - start);
+            System.err.println("  compressed size: " + file.length() / 1024 + " KB");
+
+            start = System.currentTimeMillis();
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            long read = 0;
+            final InputStream in = data.getContent().getInputStream();
+            try
+            {
+                int n;
+                while ((n = in.read(buffer)) != -1)
+                {
+                    read += n;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            report("read", System.currentTimeMillis() - start);
+            if (read != FILE_SIZE)
+            {
+                System.err.println("  read " + read + " bytes instead of " + FILE_SIZE);
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static void report(final String operation, final long millis)
+    {
+        System.err.println("  time to " + operation + " " + FILE_SIZE / (1024 * 1024) + " MB: " + millis + "ms ("
+                + FILE_SIZE * 1000 / 1024 / Math.max(1, millis) + " KB/s)");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.perf;
+
+import java.io.OutputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileSystemConfigBuilder;
+
+/**
+ * Writes 1 GB in 8 KB chunks to RAM files and prints the time taken for each
+ * 128 MB. The times should stay roughly constant, i.e. writing is linear in the
+ * size of the file.
+ * <p>
+ * Needs a heap of about 3 GB, for example {@code -Xmx3g}.
+ */
+public class RamWritePerformance
+{
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final long FILE_SIZE = 1024L * 1024 * 1024;
+
+    private static final long REPORT_SIZE = 128L * 1024 * 1024;
+
+    public static void main(final String[] args) throws Exception
+    {
+        final DefaultFileSystemManager manager = new DefaultFileSystemManager();
+        manager.addProvider("ram", new RamFileProvider());
+        manager.init();
+        try
+        {
+            System.err.println("single array:");
+            testWrite(manager, new FileSystemOptions());
+
+            final FileSystemOptions segmented = new FileSystemOptions();
+            RamFileSystemConfigBuilder.getInstance().setSegmentSize(segmented, 1024 * 1024);
+            System.err.println("1 MB segments:");
+            testWrite(manager, segmented);
+        }
+        finally
+        {
+            manager.close();
+        }
+    }
+
+    private static void testWrite(final DefaultFileSystemManager manager, final FileSystemOptions opts)
+        throws Exception
+    {
+        final FileObject file = manager.resolveFile("ram:/perf.bin", opts);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        final OutputStream out = file.getContent().getOutputStream();
+        try
+        {
+            long start = System.currentTimeMillis();
+            final long begin = start;
+            for (long written = CHUNK_SIZE; written <= FILE_SIZE; written += CHUNK_SIZE)
+            {
+                out.write(chunk);
+                if (written % REPORT_SIZE == 0)
+                {
+                    final long end = System.currentTimeMillis();
+                    System.err.println("  time to write " + written / (1024 * 1024) + " MB: +"
+                            + (end - start) + "ms");
+                    start = end;
+                }
+            }
+            System.err.println("  total: " + (System.currentTimeMillis() - begin) + "ms");
+        }
+        finally
+        {
+            out.close();
+        }
+        file.delete();
+    }
+}
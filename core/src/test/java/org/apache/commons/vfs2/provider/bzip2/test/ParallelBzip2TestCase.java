@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.bzip2.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.bzip2.Bzip2FileProvider;
+import org.apache.commons.vfs2.provider.bzip2.Bzip2FileSystemConfigBuilder;
+import org.apache.commons.vfs2.provider.bzip2.ParallelBzip2InputStream;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.tar.TarFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests parallel decompression of bzip2 files.
+ */
+public class ParallelBzip2TestCase
+{
+    private static final String BASE_DIR = "target/test-classes/test-data/";
+
+    private File file;
+
+    @Before
+    public void setUp()
+    {
+        new File(BASE_DIR).mkdirs(); // if test is run standalone
+        file = new File(BASE_DIR, "parallel.bz2");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Creates content which compresses like text with some binary noise in between.
+     */
+    private static byte[] createData(final int size, final long seed)
+    {
+        final Random random = new Random(seed);
+        final String[] words = {"alpha ", "beta ", "gamma ", "delta\n", "epsilon "};
+        final byte[] data = new byte[size];
+        int i = 0;
+        while (i < size)
+        {
+            if (random.nextInt(10) == 0)
+            {
+                final int count = Math.min(size - i, random.nextInt(100));
+                for (int j = 0; j < count; j++)
+                {
+                    data[i++] = (byte) random.nextInt();
+                }
+            }
+            else
+            {
+                final String word = words[random.nextInt(words.length)];
+                for (int j = 0; j < word.length() && i < size; j++)
+                {
+                    data[i++] = (byte) word.charAt(j);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Writes the data as a bzip2 stream with 100 KB blocks.
+     */
+    private static void writeBzip2(final OutputStream out, final byte[] data) throws IOException
+    {
+        final OutputStream bzip2 = new BZip2CompressorOutputStream(out, 1);
+        bzip2.write(data);
+        bzip2.close();
+    }
+
+    private byte[] readParallel(final int threads) throws IOException
+    {
+        final InputStream in = new ParallelBzip2InputStream(file, threads);
+        try
+        {
+            return IOUtils.toByteArray(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testParallelRead() throws Exception
+    {
+        final byte[] data = createData(2000000, 1);
+        writeBzip2(new FileOutputStream(file), data);
+        assertArrayEquals(data, readParallel(4));
+    }
+
+    @Test
+    public void testConcatenatedStreams() throws Exception
+    {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (int i = 0; i < 5; i++)
+        {
+            final byte[] data = createData(150000 + i * 1000, i);
+            expected.write(data);
+            writeBzip2(compressed, data);
+        }
+        // an empty stream
+        writeBzip2(compressed, new byte[0]);
+        final OutputStream out = new FileOutputStream(file);
+        out.write(compressed.toByteArray());
+        out.close();
+
+        assertArrayEquals(expected.toByteArray(), readParallel(3));
+    }
+
+    @Test
+    public void testCorruptBlock() throws Exception
+    {
+        writeBzip2(new FileOutputStream(file), createData(500000, 1));
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            // flip a bit in the middle of the file
+            final long offset = raf.length() / 2;
+            raf.seek(offset);
+            final int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x10);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        try
+        {
+            readParallel(2);
+            fail();
+        }
+        catch (final IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFileSystems() throws Exception
+    {
+        final DefaultFileSystemManager manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("bz2", new Bzip2FileProvider());
+        manager.addProvider("tbz2", new TarFileProvider());
+        manager.init();
+        try
+        {
+            final FileSystemOptions opts = new FileSystemOptions();
+            Bzip2FileSystemConfigBuilder.getInstance().setThreads(opts, 4);
+
+            final byte[] content = createData(300000, 2);
+            final TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new BZip2CompressorOutputStream(new FileOutputStream(file), 1));
+            for (int i = 0; i < 5; i++)
+            {
+                final TarArchiveEntry entry = new TarArchiveEntry("file" + i);
+                entry.setSize(content.length);
+                tar.putArchiveEntry(entry);
+                tar.write(content);
+                tar.closeArchiveEntry();
+            }
+            tar.close();
+
+            final FileObject root = manager.resolveFile("tbz2:" + file.toURI() + "!/", opts);
+            assertEquals(5, root.getChildren().length);
+            final InputStream entry = root.resolveFile("file3").getContent().getInputStream();
+            try
+            {
+                assertArrayEquals(content, IOUtils.toByteArray(entry));
+            }
+            finally
+            {
+                entry.close();
+            }
+
+            final InputStream in = manager.resolveFile("bz2:" + file.toURI() + "!/parallel", opts)
+                .getContent().getInputStream();
+            try
+            {
+                assertArrayEquals(IOUtils.toByteArray(new BZip2CompressorInputStream(new FileInputStream(file))),
+                    IOUtils.toByteArray(in));
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        finally
+        {
+            manager.close();
+        }
+    }
+}
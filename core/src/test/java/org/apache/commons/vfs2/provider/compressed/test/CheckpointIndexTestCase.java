@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.compressed.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.impl.DefaultFileSystemConfigBuilder;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.bzip2.Bzip2FileProvider;
+import org.apache.commons.vfs2.provider.compressed.CheckpointIndex;
+import org.apache.commons.vfs2.provider.gzip.GzipCheckpointIndex;
+import org.apache.commons.vfs2.provider.gzip.GzipFileProvider;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.tar.TarFileProvider;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests random access to compressed files through checkpoint indexes.
+ */
+public class CheckpointIndexTestCase
+{
+    private static final String BASE_DIR = "target/test-classes/test-data/";
+
+    private static final int INTERVAL = 64 * 1024;
+
+    private DefaultFileSystemManager manager;
+
+    private FileSystemOptions opts;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("gz", new GzipFileProvider());
+        manager.addProvider("bz2", new Bzip2FileProvider());
+        manager.addProvider("tgz", new TarFileProvider());
+        manager.addProvider("tbz2", new TarFileProvider());
+        manager.init();
+
+        opts = new FileSystemOptions();
+        DefaultFileSystemConfigBuilder.getInstance().setCheckpointInterval(opts, INTERVAL);
+        new File(BASE_DIR).mkdirs(); // if test is run standalone
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        if (file != null)
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Creates content which compresses like text with some binary noise in between.
+     */
+    private static byte[] createData(final int size, final long seed)
+    {
+        final Random random = new Random(seed);
+        final String[] words = {"alpha ", "beta ", "gamma ", "delta\n", "epsilon "};
+        final byte[] data = new byte[size];
+        int i = 0;
+        while (i < size)
+        {
+            if (random.nextInt(10) == 0)
+            {
+                final int count = Math.min(size - i, random.nextInt(100));
+                for (int j = 0; j < count; j++)
+                {
+                    data[i++] = (byte) random.nextInt();
+                }
+            }
+            else
+            {
+                final String word = words[random.nextInt(words.length)];
+                for (int j = 0; j < word.length() && i < size; j++)
+                {
+                    data[i++] = (byte) word.charAt(j);
+                }
+            }
+        }
+        return data;
+    }
+
+    private static byte[] concat(final byte[] first, final byte[] second)
+    {
+        final byte[] all = new byte[first.length + second.length];
+        System.arraycopy(first, 0, all, 0, first.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    /**
+     * Writes the data as two concatenated gzip members.
+     */
+    private File writeGzip(final byte[] first, final byte[] second) throws IOException
+    {
+        file = new File(BASE_DIR, "checkpoint.txt.gz");
+        final OutputStream out = new FileOutputStream(file);
+        try
+        {
+            for (final byte[] data : new byte[][] {first, second})
+            {
+                final GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(data);
+                gzip.finish();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Writes the data as two concatenated bzip2 streams with 100 KB blocks.
+     */
+    private File writeBzip2(final byte[] first, final byte[] second) throws IOException
+    {
+        file = new File(BASE_DIR, "checkpoint.txt.bz2");
+        final OutputStream out = new FileOutputStream(file);
+        try
+        {
+            for (final byte[] data : new byte[][] {first, second})
+            {
+                final OutputStream bzip2 = new BZip2CompressorOutputStream(new FilterOutputStream(out)
+                {
+                    @Override
+                    public void close() throws IOException
+                    {
+                        flush();
+                    }
+                }, 1);
+                bzip2.write(data);
+                bzip2.close();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    private void assertRandomAccess(final FileObject file, final byte[] expected) throws Exception
+    {
+        assertTrue(file.getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ));
+
+        final RandomAccessContent content = file.getContent().getRandomAccessContent(RandomAccessMode.READ);
+        try
+        {
+            assertEquals(expected.length, content.length());
+            assertEquals(expected.length, file.getContent().getSize());
+            final Random random = new Random(0);
+            for (int i = 0; i < 30; i++)
+            {
+                final int pos = random.nextInt(expected.length);
+                final byte[] read = new byte[Math.min(1000, expected.length - pos)];
+                content.seek(pos);
+                content.readFully(read);
+                for (int j = 0; j < read.length; j++)
+                {
+                    assertEquals("Byte at " + (pos + j), expected[pos + j], read[j]);
+                }
+                assertEquals(pos + read.length, content.getFilePointer());
+            }
+            content.seek(expected.length - 1);
+            assertEquals(expected[expected.length - 1] & 0xFF, content.readUnsignedByte());
+        }
+        finally
+        {
+            content.close();
+        }
+    }
+
+    @Test
+    public void testGzipRandomAccess() throws Exception
+    {
+        final byte[] first = createData(1000000, 1);
+        final byte[] second = createData(300000, 2);
+        writeGzip(first, second);
+
+        final FileObject gz = manager.resolveFile("gz:" + file.toURI() + "!/checkpoint.txt", opts);
+        // asking for the size does not index the file
+        assertEquals(-1, gz.getContent().getSize());
+        assertRandomAccess(gz, concat(first, second));
+    }
+
+    @Test
+    public void testBzip2RandomAccess() throws Exception
+    {
+        final byte[] first = createData(700000, 3);
+        final byte[] second = createData(200000, 4);
+        writeBzip2(first, second);
+
+        final FileObject bz2 = manager.resolveFile("bz2:" + file.toURI() + "!/checkpoint.txt", opts);
+        assertEquals(-1, bz2.getContent().getSize());
+        assertRandomAccess(bz2, concat(first, second));
+    }
+
+    @Test
+    public void testWriteAndReadIndex() throws Exception
+    {
+        final byte[] data = createData(500000, 5);
+        writeGzip(data, new byte[0]);
+
+        final GzipCheckpointIndex index = GzipCheckpointIndex.build(file, INTERVAL);
+        assertTrue(index.getCheckpointCount() > 1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.write(out);
+        final CheckpointIndex read = GzipCheckpointIndex.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(index.getCheckpointCount(), read.getCheckpointCount());
+        assertEquals(data.length, read.getUncompressedLength());
+
+        final InputStream in = read.getInputStream(file, 400000);
+        try
+        {
+            final byte[] tail = new byte[data.length - 400000];
+            System.arraycopy(data, 400000, tail, 0, tail.length);
+            assertArrayEquals(tail, IOUtils.toByteArray(in));
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testCompressedTarEntries() throws Exception
+    {
+        final byte[][] contents = new byte[20][];
+        for (final String scheme : new String[] {"tgz", "tbz2"})
+        {
+            file = new File(BASE_DIR, "checkpoint." + scheme);
+            final OutputStream compressed = "tgz".equals(scheme) ? new GZIPOutputStream(new FileOutputStream(file))
+                : new BZip2CompressorOutputStream(new FileOutputStream(file), 1);
+            final TarArchiveOutputStream out = new TarArchiveOutputStream(compressed);
+            try
+            {
+                for (int i = 0; i < contents.length; i++)
+                {
+                    contents[i] = createData(20000 + i * 1000, i);
+                    final TarArchiveEntry entry = new TarArchiveEntry("file" + i + ".txt");
+                    entry.setSize(contents[i].length);
+                    out.putArchiveEntry(entry);
+                    out.write(contents[i]);
+                    out.closeArchiveEntry();
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            final FileObject root = manager.resolveFile(scheme + ":" + file.toURI() + "!/", opts);
+            for (int i = contents.length - 1; i >= 0; i--)
+            {
+                final InputStream in = root.resolveFile("file" + i + ".txt").getContent().getInputStream();
+                try
+                {
+                    assertArrayEquals(contents[i], IOUtils.toByteArray(in));
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            assertRandomAccess(root.resolveFile("file13.txt"), contents[13]);
+            manager.closeFileSystem(root.getFileSystem());
+            file.delete();
+        }
+    }
+}
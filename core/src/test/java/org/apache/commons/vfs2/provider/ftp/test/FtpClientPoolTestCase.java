@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ftp.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.AbstractVfsTestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.ftp.FtpClientPool;
+import org.apache.commons.vfs2.provider.ftp.FtpFileProvider;
+import org.apache.commons.vfs2.provider.ftp.FtpFileSystem;
+import org.apache.commons.vfs2.provider.ftp.FtpFileSystemConfigBuilder;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the connection pool of FTP file systems against the embedded server.
+ */
+public class FtpClientPoolTestCase
+{
+    private static final int COUNT = 40;
+
+    private static final int THREADS = 8;
+
+    private DefaultFileSystemManager manager;
+    private File baseDir;
+
+    @BeforeClass
+    public static void setUpClass() throws FtpException, IOException
+    {
+        FtpProviderTestCase.setUpClass();
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+        FtpProviderTestCase.tearDownClass();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        baseDir = new File(AbstractVfsTestCase.getTestDirectory(), "pool");
+        FileUtils.deleteDirectory(baseDir);
+        baseDir.mkdirs();
+        for (int i = 0; i < COUNT; i++)
+        {
+            FileUtils.writeStringToFile(new File(baseDir, "file" + i + ".txt"), "content " + i, "UTF-8");
+        }
+
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("ftp", new FtpFileProvider());
+        manager.init();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    private FileSystemOptions createOptions(final int maxTotal)
+    {
+        final FileSystemOptions opts = new FileSystemOptions();
+        final FtpFileSystemConfigBuilder builder = FtpFileSystemConfigBuilder.getInstance();
+        builder.setPassiveMode(opts, true);
+        builder.setClientPoolMaxTotal(opts, maxTotal);
+        return opts;
+    }
+
+    private FileObject resolveFolder(final FileSystemOptions opts) throws FileSystemException
+    {
+        return manager.resolveFile(FtpProviderTestCase.getConnectionUri() + "/pool", opts);
+    }
+
+    private static FtpClientPool getPool(final FileObject file)
+    {
+        return ((FtpFileSystem) file.getFileSystem()).getClientPool();
+    }
+
+    private static String read(final FileObject file) throws IOException
+    {
+        final InputStream in = file.getContent().getInputStream();
+        try
+        {
+            return IOUtils.toString(in, "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsReuseConnections() throws Exception
+    {
+        final int maxTotal = 4;
+        final FileObject folder = resolveFolder(createOptions(maxTotal));
+        final int logins = FtpProviderTestCase.getLoginCount();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            final List<Future<String>> reads = new ArrayList<Future<String>>();
+            for (int i = 0; i < COUNT; i++)
+            {
+                final FileObject file = folder.resolveFile("file" + i + ".txt");
+                reads.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        return read(file);
+                    }
+                }));
+            }
+
+            final long begin = System.currentTimeMillis();
+            for (int i = 0; i < COUNT; i++)
+            {
+                assertEquals("content " + i, reads.get(i).get());
+            }
+            final long elapsed = Math.max(1, System.currentTimeMillis() - begin);
+            // a throughput figure for the log, the assertions count connections which do not depend on the machine
+            System.out.println(COUNT * 1000 / elapsed + " reads/s over " + maxTotal + " pooled FTP connections");
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        final FtpClientPool pool = getPool(folder);
+        assertEquals(0, pool.getActiveCount());
+        assertTrue(pool.getCreatedCount() <= maxTotal);
+        assertTrue(FtpProviderTestCase.getLoginCount() - logins <= maxTotal);
+        assertTrue(pool.getBorrowedCount() >= COUNT);
+        assertTrue(pool.getWaitCount() > 0);
+    }
+
+    @Test
+    public void testMaxWait() throws Exception
+    {
+        final FileSystemOptions opts = createOptions(1);
+        FtpFileSystemConfigBuilder.getInstance().setClientPoolMaxWait(opts, 100);
+        final FileObject folder = resolveFolder(opts);
+        final FileObject file0 = folder.resolveFile("file0.txt");
+        final FileObject file1 = folder.resolveFile("file1.txt");
+        file1.getType();
+
+        final InputStream in = file0.getContent().getInputStream();
+        try
+        {
+            read(file1);
+            fail();
+        }
+        catch (final FileSystemException e)
+        {
+            // expected, the only connection is held by the open stream
+        }
+        finally
+        {
+            in.close();
+        }
+        assertEquals(1, getPool(folder).getTimeoutCount());
+        assertEquals("content 1", read(file1));
+    }
+
+    @Test
+    public void testTestOnBorrow() throws Exception
+    {
+        final FileObject checked = resolveFolder(createOptions(2));
+        final int noops = FtpProviderTestCase.getNoopCount();
+        assertEquals("content 0", read(checked.resolveFile("file0.txt")));
+        assertTrue(FtpProviderTestCase.getNoopCount() > noops);
+        assertEquals(0, getPool(checked).getValidationFailedCount());
+
+        final FileSystemOptions opts = createOptions(3);
+        FtpFileSystemConfigBuilder.getInstance().setClientPoolTestOnBorrow(opts, false);
+        final FileObject unchecked = resolveFolder(opts);
+        final int uncheckedNoops = FtpProviderTestCase.getNoopCount();
+        assertEquals("content 1", read(unchecked.resolveFile("file1.txt")));
+        assertEquals(uncheckedNoops, FtpProviderTestCase.getNoopCount());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception
+    {
+        final FileSystemOptions opts = createOptions(4);
+        final FtpFileSystemConfigBuilder builder = FtpFileSystemConfigBuilder.getInstance();
+        builder.setClientIdleTimeout(opts, 100);
+        builder.setClientPoolMinIdle(opts, 1);
+        final FileObject folder = resolveFolder(opts);
+
+        final List<InputStream> streams = new ArrayList<InputStream>();
+        for (int i = 0; i < 3; i++)
+        {
+            final FileObject file = folder.resolveFile("file" + i + ".txt");
+            file.getType();
+            streams.add(file.getContent().getInputStream());
+        }
+        for (final InputStream in : streams)
+        {
+            in.close();
+        }
+        final FtpClientPool pool = getPool(folder);
+        assertTrue(pool.getIdleCount() >= 3);
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdleCount() > 1 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(20);
+        }
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(pool.getCreatedCount() - 1, pool.getDestroyedCount());
+    }
+
+    @Test
+    public void testUnboundedByDefault() throws Exception
+    {
+        final FileSystemOptions opts = new FileSystemOptions();
+        FtpFileSystemConfigBuilder.getInstance().setPassiveMode(opts, true);
+        final FileObject folder = resolveFolder(opts);
+        assertEquals(Integer.MAX_VALUE, getPool(folder).getMaxTotal());
+
+        // streams open in parallel do not wait for each other
+        final List<InputStream> streams = new ArrayList<InputStream>();
+        try
+        {
+            for (int i = 0; i < 6; i++)
+            {
+                streams.add(folder.resolveFile("file" + i + ".txt").getContent().getInputStream());
+            }
+            assertEquals(0, getPool(folder).getWaitCount());
+        }
+        finally
+        {
+            for (final InputStream in : streams)
+            {
+                in.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReaperStopsWithProvider() throws Exception
+    {
+        final FileSystemOptions opts = createOptions(4);
+        final FtpFileSystemConfigBuilder builder = FtpFileSystemConfigBuilder.getInstance();
+        builder.setClientIdleTimeout(opts, 60000);
+        builder.setClientPoolMinIdle(opts, 0);
+        final FileObject folder = resolveFolder(opts);
+        final FtpClientPool pool = getPool(folder);
+        final InputStream in = folder.resolveFile("file0.txt").getContent().getInputStream();
+        assertNotNull(findThread("FTP client reaper"));
+
+        manager.close();
+        assertEquals(0, pool.getIdleCount());
+        final Thread reaper = findThread("FTP client reaper");
+        if (reaper != null)
+        {
+            reaper.join(10000);
+            assertFalse(reaper.isAlive());
+        }
+
+        // a connection released to the closed provider is closed rather than kept idle
+        in.close();
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(pool.getCreatedCount(), pool.getDestroyedCount());
+    }
+
+    private static Thread findThread(final String name)
+    {
+        for (final Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (name.equals(thread.getName()) && thread.isAlive())
+            {
+                return thread;
+            }
+        }
+        return null;
+    }
+}
@@ -18,6 +18,11 @@ package org.apache.commons.vfs2.provider.ftp.test;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Test;
 
@@ -34,7 +39,14 @@ import org.apache.commons.vfs2.test.ProviderTestSuite;
 import org.apache.commons.vfs2.util.FreeSocketPortUtil;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
 import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.Ftplet;
+import org.apache.ftpserver.ftplet.FtpletResult;
 import org.apache.ftpserver.ftplet.UserManager;
 import org.apache.ftpserver.listener.ListenerFactory;
 import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
@@ -55,6 +67,21 @@ public class FtpProviderTestCase extends AbstractProviderTestConfig implements P
 
     private static FtpServer Server;
 
+    /** The threads which were running before the server started. */
+    private static Set<Thread> ThreadsBeforeServer;
+
+    /** The time in milliseconds to wait for the threads of the stopped server to end. */
+    private static final long SERVER_STOP_TIMEOUT = 10000;
+
+    /** The number of logins the embedded server has received. */
+    private static final AtomicInteger LoginCount = new AtomicInteger();
+
+    /** The number of NOOP commands the embedded server has received. */
+    private static final AtomicInteger NoopCount = new AtomicInteger();
+
+    /** true to let the embedded server answer FEAT without any feature. */
+    private static volatile boolean FeaturesHidden;
+
     private static final String TEST_URI = "test.ftp.uri";
 
     private static final String USER_PROPS_RES = "org.apache.ftpserver/users.properties";
@@ -69,6 +96,30 @@ public class FtpProviderTestCase extends AbstractProviderTestConfig implements P
         return SocketPort;
     }
 
+    /**
+     * Returns the number of logins the embedded server has received so far.
+     */
+    static int getLoginCount()
+    {
+        return LoginCount.get();
+    }
+
+    /**
+     * Returns the number of NOOP commands the embedded server has received so far.
+     */
+    static int getNoopCount()
+    {
+        return NoopCount.get();
+    }
+
+    /**
+     * Lets the embedded server answer FEAT without any feature, like servers which do not announce REST STREAM.
+     */
+    static void setFeaturesHidden(final boolean hidden)
+    {
+        FeaturesHidden = hidden;
+    }
+
     private static String getSystemTestUriOverride()
     {
         return System.getProperty(TEST_URI);
@@ -105,6 +156,30 @@ public class FtpProviderTestCase extends AbstractProviderTestConfig implements P
         // The user prop file requires the "homedirectory" to be set
         user.setHomeDirectory(getTestDirectoryString());
         serverFactory.setUserManager(userManager);
+        final Map<String, Ftplet> ftplets = new HashMap<String, Ftplet>();
+        ftplets.put("counter", new DefaultFtplet()
+        {
+            @Override
+            public FtpletResult beforeCommand(final FtpSession session, final FtpRequest request)
+                throws FtpException, IOException
+            {
+                if ("PASS".equals(request.getCommand()))
+                {
+                    LoginCount.incrementAndGet();
+                }
+                else if ("NOOP".equals(request.getCommand()))
+                {
+                    NoopCount.incrementAndGet();
+                }
+                else if ("FEAT".equals(request.getCommand()) && FeaturesHidden)
+                {
+                    session.write(new DefaultFtpReply(FtpReply.REPLY_211_SYSTEM_STATUS_REPLY, "No features"));
+                    return FtpletResult.SKIP;
+                }
+                return super.beforeCommand(session, request);
+            }
+        });
+        serverFactory.setFtplets(ftplets);
         final ListenerFactory factory = new ListenerFactory();
         // set the port of the listener
         factory.setPort(SocketPort);
@@ -113,6 +188,7 @@ public class FtpProviderTestCase extends AbstractProviderTestConfig implements P
         serverFactory.addListener("default", factory.createListener());
 
         // start the server
+        ThreadsBeforeServer = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
         Server = serverFactory.createServer();
         Server.start();
     }
@@ -159,6 +235,31 @@ public class FtpProviderTestCase extends AbstractProviderTestConfig implements P
         {
             Server.stop();
             Server = null;
+            awaitServerThreads();
+        }
+    }
+
+    /**
+     * Waits for the I/O threads of the stopped server, MINA lets them end on their own after the last session closed.
+     */
+    private static void awaitServerThreads()
+    {
+        final long deadline = System.currentTimeMillis() + SERVER_STOP_TIMEOUT;
+        for (final Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (thread.isDaemon() || thread == Thread.currentThread() || ThreadsBeforeServer.contains(thread))
+            {
+                continue;
+            }
+            try
+            {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
     }
 
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ftp.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.AbstractVfsTestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.SegmentedUpload;
+import org.apache.commons.vfs2.provider.ftp.FtpFileProvider;
+import org.apache.commons.vfs2.provider.ftp.FtpFileSystemConfigBuilder;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests segmented uploads to the embedded server, which truncates a file at the restart offset.
+ */
+public class FtpSegmentedUploadTestCase
+{
+    private static final int SEGMENT_SIZE = 256 * 1024;
+
+    /** 13 segments, the last one short. */
+    private static final int SIZE = 12 * SEGMENT_SIZE + 123;
+
+    private static final String NAME = "segmented-upload.bin";
+
+    private static byte[] content;
+
+    private DefaultFileSystemManager manager;
+    private File baseDir;
+    private File remote;
+    private FileObject destFile;
+
+    @BeforeClass
+    public static void setUpClass() throws FtpException, IOException
+    {
+        FtpProviderTestCase.setUpClass();
+        content = new byte[SIZE];
+        new Random(3).nextBytes(content);
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+        FtpProviderTestCase.tearDownClass();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        baseDir = new File(AbstractVfsTestCase.getTestDirectory(), "segmented");
+        FileUtils.deleteDirectory(baseDir);
+        baseDir.mkdirs();
+        remote = new File(baseDir, NAME);
+
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("ftp", new FtpFileProvider());
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("ram", new RamFileProvider());
+        manager.init();
+
+        final FileSystemOptions opts = new FileSystemOptions();
+        final FtpFileSystemConfigBuilder builder = FtpFileSystemConfigBuilder.getInstance();
+        builder.setPassiveMode(opts, true);
+        builder.setUploadThreads(opts, 4);
+        builder.setUploadSegmentSize(opts, SEGMENT_SIZE);
+        destFile = manager.resolveFile(FtpProviderTestCase.getConnectionUri() + "/segmented/" + NAME, opts);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FtpProviderTestCase.setFeaturesHidden(false);
+        manager.close();
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    @Test
+    public void testCopyFromLocalFile() throws Exception
+    {
+        // a longer file is truncated
+        FileUtils.writeByteArrayToFile(remote, new byte[SIZE + SEGMENT_SIZE]);
+        final File file = new File(baseDir, "source.bin");
+        FileUtils.writeByteArrayToFile(file, content);
+        destFile.copyFrom(manager.toFileObject(file), Selectors.SELECT_SELF);
+
+        assertArrayEquals(content, FileUtils.readFileToByteArray(remote));
+        assertEquals(SIZE, destFile.getContent().getSize());
+    }
+
+    @Test
+    public void testCopyFromRam() throws Exception
+    {
+        final FileObject srcFile = manager.resolveFile("ram:///source.bin");
+        final OutputStream out = srcFile.getContent().getOutputStream();
+        out.write(content);
+        out.close();
+
+        assertTrue(SegmentedUpload.copy(srcFile, destFile, 8, 100 * 1024));
+        assertArrayEquals(content, FileUtils.readFileToByteArray(remote));
+    }
+
+    @Test
+    public void testStreamCopyWithoutRestartSupport() throws Exception
+    {
+        FtpProviderTestCase.setFeaturesHidden(true);
+        final FileObject srcFile = manager.resolveFile("ram:///source.bin");
+        final OutputStream out = srcFile.getContent().getOutputStream();
+        out.write(content);
+        out.close();
+
+        // the server is not known to resume uploads, so the content is copied through one stream
+        assertFalse(SegmentedUpload.copy(srcFile, destFile, 8, 100 * 1024));
+        assertArrayEquals(content, FileUtils.readFileToByteArray(remote));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.gzip.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.gzip.GzipFileProvider;
+import org.apache.commons.vfs2.provider.gzip.GzipFileSystemConfigBuilder;
+import org.apache.commons.vfs2.provider.gzip.ParallelGzipInputStream;
+import org.apache.commons.vfs2.provider.gzip.ParallelGzipOutputStream;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests parallel compression and decompression of gzip files.
+ */
+public class ParallelGzipTestCase
+{
+    private static final String BASE_DIR = "target/test-classes/test-data/";
+
+    private File file;
+
+    @Before
+    public void setUp()
+    {
+        new File(BASE_DIR).mkdirs(); // if test is run standalone
+        file = new File(BASE_DIR, "parallel.gz");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * Creates content which compresses like text with some binary noise in between.
+     */
+    private static byte[] createData(final int size, final long seed)
+    {
+        final Random random = new Random(seed);
+        final String[] words = {"alpha ", "beta ", "gamma ", "delta\n", "epsilon "};
+        final byte[] data = new byte[size];
+        int i = 0;
+        while (i < size)
+        {
+            if (random.nextInt(10) == 0)
+            {
+                final int count = Math.min(size - i, random.nextInt(100));
+                for (int j = 0; j < count; j++)
+                {
+                    data[i++] = (byte) random.nextInt();
+                }
+            }
+            else
+            {
+                final String word = words[random.nextInt(words.length)];
+                for (int j = 0; j < word.length() && i < size; j++)
+                {
+                    data[i++] = (byte) word.charAt(j);
+                }
+            }
+        }
+        return data;
+    }
+
+    private static byte[] gzip(final byte[] data, final int level) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(buffer)
+        {
+            {
+                def.setLevel(level);
+            }
+        };
+        out.write(data);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private byte[] readParallel(final int threads) throws IOException
+    {
+        final InputStream in = new ParallelGzipInputStream(file, threads, 16 * 1024);
+        try
+        {
+            return IOUtils.toByteArray(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testParallelWrite() throws Exception
+    {
+        final byte[] data = createData(3000000, 1);
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final OutputStream out = new ParallelGzipOutputStream(buffer, 4, 64 * 1024, Deflater.DEFAULT_COMPRESSION);
+        out.write(data, 0, 1000);
+        // a flush cuts a short block
+        out.flush();
+        out.write(data, 1000, data.length - 1000);
+        out.close();
+
+        assertArrayEquals(data,
+            IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()))));
+    }
+
+    @Test
+    public void testEmptyParallelWrite() throws Exception
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream(buffer, 2, 64 * 1024, Deflater.DEFAULT_COMPRESSION).close();
+        assertArrayEquals(new byte[0],
+            IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()))));
+    }
+
+    @Test
+    public void testParallelReadOfMembers() throws Exception
+    {
+        // stored members contain the gzip magic of the nested members as false member starts
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final OutputStream out = new FileOutputStream(file);
+        for (int i = 0; i < 50; i++)
+        {
+            byte[] member = createData(10000 + i * 500, i);
+            if (i % 5 == 0)
+            {
+                member = gzip(member, 6);
+            }
+            expected.write(member);
+            out.write(gzip(member, i % 5 == 0 ? 0 : 6));
+        }
+        // trailing garbage is ignored
+        out.write(new byte[100]);
+        out.close();
+
+        assertArrayEquals(expected.toByteArray(), readParallel(4));
+    }
+
+    @Test
+    public void testLargeMember() throws Exception
+    {
+        final byte[] small = createData(1000, 1);
+        final byte[] large = createData(ParallelGzipInputStream.MAX_MEMBER_SIZE + 1000, 2);
+        final OutputStream out = new FileOutputStream(file);
+        out.write(gzip(small, 6));
+        out.write(gzip(large, 1));
+        out.write(gzip(small, 6));
+        out.close();
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(small);
+        expected.write(large);
+        expected.write(small);
+        assertArrayEquals(expected.toByteArray(), readParallel(3));
+    }
+
+    @Test
+    public void testSingleMember() throws Exception
+    {
+        final byte[] data = createData(ParallelGzipInputStream.MAX_MEMBER_SIZE * 2, 4);
+        final OutputStream out = new FileOutputStream(file);
+        out.write(gzip(data, 6));
+        out.close();
+
+        assertArrayEquals(data, readParallel(4));
+    }
+
+    @Test
+    public void testCorruptMember() throws Exception
+    {
+        final byte[] member = gzip(createData(10000, 1), 6);
+        // break the CRC of the second member
+        member[member.length - 8] ^= 1;
+        final OutputStream out = new FileOutputStream(file);
+        out.write(gzip(createData(10000, 2), 6));
+        out.write(member);
+        out.close();
+
+        try
+        {
+            readParallel(2);
+            fail();
+        }
+        catch (final IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFileSystem() throws Exception
+    {
+        final DefaultFileSystemManager manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("gz", new GzipFileProvider());
+        manager.init();
+        try
+        {
+            final FileSystemOptions opts = new FileSystemOptions();
+            GzipFileSystemConfigBuilder.getInstance().setThreads(opts, 4);
+            GzipFileSystemConfigBuilder.getInstance().setBlockSize(opts, 32 * 1024);
+            final FileObject gz = manager.resolveFile("gz:" + file.toURI() + "!/parallel", opts);
+
+            final byte[] data = createData(1000000, 3);
+            final OutputStream out = gz.getContent().getOutputStream();
+            out.write(data);
+            out.close();
+
+            final InputStream in = gz.getContent().getInputStream();
+            try
+            {
+                assertArrayEquals(data, IOUtils.toByteArray(in));
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        finally
+        {
+            manager.close();
+        }
+    }
+}
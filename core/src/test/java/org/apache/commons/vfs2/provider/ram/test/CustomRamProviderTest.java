@@ -18,6 +18,7 @@ package org.apache.commons.vfs2.provider.ram.test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -28,14 +29,17 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.vfs2.FileContent;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.RandomAccessContent;
 import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
 import org.apache.commons.vfs2.provider.ram.RamFileProvider;
 import org.apache.commons.vfs2.provider.ram.RamFileSystemConfigBuilder;
+import org.apache.commons.vfs2.util.RandomAccessMode;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -55,6 +59,8 @@ public class CustomRamProviderTest
 
     DefaultFileSystemManager manager;
 
+    RamFileProvider provider;
+
     FileSystemOptions smallSizedFso = new FileSystemOptions();
 
     FileSystemOptions zeroSizedFso = new FileSystemOptions();
@@ -95,7 +101,8 @@ public class CustomRamProviderTest
     public void setUp() throws Exception
     {
         manager = new DefaultFileSystemManager();
-        manager.addProvider("ram", new RamFileProvider());
+        provider = new RamFileProvider();
+        manager.addProvider("ram", provider);
         manager.init();
 
         // File Systems Options
@@ -269,4 +276,152 @@ public class CustomRamProviderTest
         }
 
     }
+
+    @Test
+    public void testSegmentedContentShrinkAndGrow() throws Exception
+    {
+        final FileSystemOptions segmentedFso = new FileSystemOptions();
+        RamFileSystemConfigBuilder.getInstance().setSegmentSize(segmentedFso, 4);
+        final FileObject file = manager.resolveFile("ram:/segmented", segmentedFso);
+        file.createFile();
+
+        final OutputStream os = file.getContent().getOutputStream();
+        os.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+        os.close();
+        assertEquals(10, file.getContent().getSize());
+
+        final RandomAccessContent rac = file.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+        rac.setLength(5);
+        rac.setLength(9);
+        final byte[] content = new byte[9];
+        rac.seek(0);
+        rac.readFully(content);
+        rac.close();
+        assertArrayEquals("Truncated bytes must read as zeros", new byte[] { 1, 2, 3, 4, 5, 0, 0, 0, 0 }, content);
+    }
+
+    @Test
+    public void testSoftMaxSizeEvictsColdFiles() throws Exception
+    {
+        final FileSystemOptions cacheFso = new FileSystemOptions();
+        RamFileSystemConfigBuilder.getInstance().setSoftMaxSize(cacheFso, 10L);
+        final FileObject a = manager.resolveFile("ram:/cache/a", cacheFso);
+        final FileObject b = manager.resolveFile("ram:/cache/b", cacheFso);
+        final FileObject c = manager.resolveFile("ram:/cache/c", cacheFso);
+
+        writeFile(a, 4);
+        writeFile(b, 4);
+        // reading a makes b the coldest file
+        a.getContent().getInputStream().close();
+        writeFile(c, 4);
+
+        assertTrue(a.exists());
+        assertFalse("The coldest file must be evicted", b.exists());
+        assertTrue(c.exists());
+    }
+
+    @Test
+    public void testConcurrentWritesRespectMaxSize() throws Exception
+    {
+        final FileSystemOptions boundedFso = new FileSystemOptions();
+        RamFileSystemConfigBuilder.getInstance().setMaxSize(boundedFso, 1000L);
+        final AtomicInteger failures = new AtomicInteger();
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int thread = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 10; i++)
+                    {
+                        try
+                        {
+                            writeFile(manager.resolveFile("ram:/bounded/" + thread + "-" + i, boundedFso), 50);
+                        }
+                        catch (final IOException e)
+                        {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        long total = 0;
+        for (final FileObject file : manager.resolveFile("ram:/bounded", boundedFso).getChildren())
+        {
+            total += file.getContent().getSize();
+        }
+        assertTrue("The file system must not exceed its maximum size: " + total, total <= 1000);
+        assertTrue(failures.get() >= 60);
+    }
+
+    @Test
+    public void testForkIsCopyOnWrite() throws Exception
+    {
+        final FileSystemOptions templateFso = new FileSystemOptions();
+        RamFileSystemConfigBuilder.getInstance().setSegmentSize(templateFso, 4);
+        final FileObject template = manager.resolveFile("ram:/", templateFso);
+        writeFile(template.resolveFile("dir/a"), 10);
+        writeFile(template.resolveFile("dir/b"), 3);
+
+        final FileObject fork = provider.fork(template);
+        assertEquals(10, fork.resolveFile("dir/a").getContent().getSize());
+
+        // change the fork, the template keeps its files
+        final RandomAccessContent rac = fork.resolveFile("dir/a").getContent()
+            .getRandomAccessContent(RandomAccessMode.READWRITE);
+        rac.seek(5);
+        rac.write(new byte[] { 7, 7 });
+        rac.close();
+        fork.resolveFile("dir/b").delete();
+        writeFile(fork.resolveFile("dir/c"), 1);
+
+        final byte[] content = new byte[10];
+        final InputStream in = template.resolveFile("dir/a").getContent().getInputStream();
+        in.read(content);
+        in.close();
+        assertArrayEquals(new byte[10], content);
+        assertTrue(template.resolveFile("dir/b").exists());
+        assertFalse(template.resolveFile("dir/c").exists());
+        assertEquals(2, template.resolveFile("dir").getChildren().length);
+
+        // change the template, the fork keeps its files
+        writeFile(template.resolveFile("dir/a"), 1);
+        assertEquals(10, fork.resolveFile("dir/a").getContent().getSize());
+        assertEquals(2, fork.resolveFile("dir").getChildren().length);
+        assertFalse(fork.resolveFile("dir/b").exists());
+
+        // a fork of the fork sees the changes of the fork
+        final FileObject fork2 = provider.fork(fork);
+        final byte[] forked = new byte[10];
+        final InputStream in2 = fork2.resolveFile("dir/a").getContent().getInputStream();
+        in2.read(forked);
+        in2.close();
+        assertArrayEquals(new byte[] { 0, 0, 0, 0, 0, 7, 7, 0, 0, 0 }, forked);
+
+        manager.closeFileSystem(fork2.getFileSystem());
+        manager.closeFileSystem(fork.getFileSystem());
+    }
+
+    private void writeFile(final FileObject file, final int size) throws IOException
+    {
+        final OutputStream os = file.getContent().getOutputStream();
+        try
+        {
+            os.write(new byte[size]);
+        }
+        finally
+        {
+            os.close();
+        }
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.ram.test;
+
+import junit.framework.Test;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileSystem;
+import org.apache.commons.vfs2.provider.ram.RamFileSystemConfigBuilder;
+import org.apache.commons.vfs2.test.AbstractProviderTestConfig;
+import org.apache.commons.vfs2.test.ProviderTestConfig;
+import org.apache.commons.vfs2.test.ProviderTestSuite;
+
+/**
+ * Tests for the RAM file system storing content in small direct segments.
+ */
+public class SegmentedRamProviderTestCase extends AbstractProviderTestConfig implements
+        ProviderTestConfig
+{
+    /** A tiny segment size, so most reads and writes cross segment boundaries. */
+    private static final int SEGMENT_SIZE = 7;
+
+    private boolean inited = false;
+
+    private final FileSystemOptions opts = new FileSystemOptions();
+
+    public SegmentedRamProviderTestCase()
+    {
+        RamFileSystemConfigBuilder.getInstance().setSegmentSize(opts, SEGMENT_SIZE);
+        RamFileSystemConfigBuilder.getInstance().setDirectBuffers(opts, true);
+    }
+
+    /**
+     * Creates the test suite for the ram file system.
+     */
+    public static Test suite() throws Exception
+    {
+        return new ProviderTestSuite(new SegmentedRamProviderTestCase());
+    }
+
+    /**
+     * Prepares the file system manager.
+     */
+    @Override
+    public void prepare(final DefaultFileSystemManager manager)
+            throws Exception
+    {
+        manager.addProvider("ram", new RamFileProvider());
+        manager.addProvider("file", new DefaultLocalFileProvider());
+    }
+
+    /**
+     * Returns the base folder for tests.
+     */
+    @Override
+    public FileObject getBaseTestFolder(final FileSystemManager manager)
+            throws Exception
+    {
+        if (!inited)
+        {
+            // Import the test tree
+            final FileObject fo = manager.resolveFile("ram:/", opts);
+            final RamFileSystem fs = (RamFileSystem) fo.getFileSystem();
+            fs.importTree(getTestDirectory());
+            fo.close();
+
+            inited = true;
+        }
+
+        return manager.resolveFile("ram:/", opts);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.AbstractVfsTestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.sftp.SftpFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystem;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the reuse of file attributes and the batched stat of files on the embedded server.
+ */
+public class SftpAttributeCacheTestCase
+{
+    private static final int COUNT = 20;
+
+    private DefaultFileSystemManager manager;
+    private File baseDir;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        SftpProviderTestCase.setUpClass();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+        SftpProviderTestCase.tearDownClass();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        baseDir = new File(AbstractVfsTestCase.getTestDirectory(), "attrs");
+        FileUtils.deleteDirectory(baseDir);
+        new File(baseDir, "sub").mkdirs();
+        for (int i = 0; i < COUNT; i++)
+        {
+            writeFile("file" + i + ".txt", i);
+        }
+        writeFile("sub/a.txt", 1);
+        writeFile("sub/b.txt", 2);
+
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("sftp", new SftpFileProvider());
+        manager.init();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    private void writeFile(final String path, final int size) throws Exception
+    {
+        FileUtils.writeStringToFile(new File(baseDir, path), pad(size), "UTF-8");
+    }
+
+    private static String pad(final int size)
+    {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < size; i++)
+        {
+            content.append('x');
+        }
+        return content.toString();
+    }
+
+    private FileObject resolveFolder(final long cacheTimeout) throws Exception
+    {
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        SftpFileSystemConfigBuilder.getInstance().setAttributeCacheTimeout(opts, cacheTimeout);
+        return manager.resolveFile(SftpProviderTestCase.getConnectionUri() + "/attrs", opts);
+    }
+
+    @Test
+    public void testListingAttributesAreReused() throws Exception
+    {
+        final FileObject folder = resolveFolder(60000);
+        final FileObject[] children = folder.getChildren();
+        assertEquals(COUNT + 1, children.length);
+
+        final int stats = SftpProviderTestCase.getStatCount();
+        for (final FileObject child : children)
+        {
+            child.refresh();
+            if (child.getType() == FileType.FILE)
+            {
+                final int i = Integer.parseInt(child.getName().getBaseName().replaceAll("\\D", ""));
+                assertEquals(i, child.getContent().getSize());
+                assertTrue(child.getContent().getLastModifiedTime() > 0);
+            }
+        }
+        assertEquals(stats, SftpProviderTestCase.getStatCount());
+    }
+
+    @Test
+    public void testAttributesExpireByDefault() throws Exception
+    {
+        final FileObject folder = resolveFolder(0);
+        folder.getChildren();
+        final FileObject file = folder.resolveFile("file3.txt");
+        assertEquals(3, file.getContent().getSize());
+
+        writeFile("file3.txt", 7);
+        final int stats = SftpProviderTestCase.getStatCount();
+        file.refresh();
+        assertEquals(7, file.getContent().getSize());
+        assertTrue(SftpProviderTestCase.getStatCount() > stats);
+    }
+
+    @Test
+    public void testRefreshAll() throws Exception
+    {
+        final FileObject folder = resolveFolder(0);
+        final FileObject[] files = new FileObject[COUNT + 3];
+        for (int i = 0; i < COUNT; i++)
+        {
+            files[i] = folder.resolveFile("file" + i + ".txt");
+        }
+        files[COUNT] = folder.resolveFile("missing.txt");
+        files[COUNT + 1] = folder.resolveFile("sub/a.txt");
+        files[COUNT + 2] = folder.resolveFile("sub/b.txt");
+
+        final int stats = SftpProviderTestCase.getStatCount();
+        ((SftpFileSystem) folder.getFileSystem()).refreshAll(files);
+        for (int i = 0; i < COUNT; i++)
+        {
+            assertEquals(FileType.FILE, files[i].getType());
+            assertEquals(i, files[i].getContent().getSize());
+        }
+        assertFalse(files[COUNT].exists());
+        assertEquals(1, files[COUNT + 1].getContent().getSize());
+        assertEquals(2, files[COUNT + 2].getContent().getSize());
+
+        // the listing of the folder stats the folder, the files of the sub folder are stat'ed one by one
+        assertEquals(stats + 3, SftpProviderTestCase.getStatCount());
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.sftp.SftpChannelPool;
+import org.apache.commons.vfs2.provider.sftp.SftpFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystem;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the pool of SFTP channels against the embedded server.
+ */
+public class SftpChannelPoolTestCase
+{
+    private DefaultFileSystemManager manager;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        SftpProviderTestCase.setUpClass();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+        SftpProviderTestCase.tearDownClass();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("sftp", new SftpFileProvider());
+        manager.init();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+    }
+
+    private FileObject resolve(final FileSystemOptions opts) throws FileSystemException
+    {
+        return manager.resolveFile(SftpProviderTestCase.getConnectionUri() + "/read-tests/file1.txt", opts);
+    }
+
+    private static void closeAll(final List<InputStream> streams) throws Exception
+    {
+        for (final InputStream in : streams)
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testBoundedPool() throws Exception
+    {
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        builder.setChannelPoolMaxTotal(opts, 2);
+        builder.setChannelPoolMaxWait(opts, 200);
+        final FileObject file = resolve(opts);
+        final SftpChannelPool pool = ((SftpFileSystem) file.getFileSystem()).getChannelPool();
+
+        final List<InputStream> streams = new ArrayList<InputStream>();
+        try
+        {
+            // every open stream holds a channel
+            streams.add(file.getContent().getInputStream());
+            streams.add(file.resolveFile("../file space.txt").getContent().getInputStream());
+            assertEquals(2, pool.getActiveCount());
+            try
+            {
+                file.resolveFile("../empty.txt").getContent().getInputStream();
+                fail();
+            }
+            catch (final FileSystemException e)
+            {
+                // all channels are in use
+            }
+            assertEquals(1, pool.getTimeoutCount());
+            streams.remove(0).close();
+            streams.add(file.resolveFile("../empty.txt").getContent().getInputStream());
+        }
+        finally
+        {
+            closeAll(streams);
+        }
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception
+    {
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        builder.setChannelPoolMinIdle(opts, 1);
+        builder.setChannelIdleTimeout(opts, 100);
+        final FileObject file = resolve(opts);
+        final SftpChannelPool pool = ((SftpFileSystem) file.getFileSystem()).getChannelPool();
+
+        final List<InputStream> streams = new ArrayList<InputStream>();
+        for (int i = 0; i < 3; i++)
+        {
+            streams.add(file.getContent().getInputStream());
+        }
+        closeAll(streams);
+        assertEquals(3, pool.getIdleCount());
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getIdleCount() > 1 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, pool.getDestroyedCount());
+    }
+
+    @Test
+    public void testReaperStopsWithProvider() throws Exception
+    {
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        builder.setChannelPoolMinIdle(opts, 0);
+        builder.setChannelIdleTimeout(opts, 60000);
+        final FileObject file = resolve(opts);
+        file.getContent().getInputStream().close();
+        assertNotNull(findThread("SFTP channel reaper"));
+
+        // the pending reap does not keep the reaper alive
+        manager.close();
+        final Thread reaper = findThread("SFTP channel reaper");
+        if (reaper != null)
+        {
+            reaper.join(10000);
+            assertFalse(reaper.isAlive());
+        }
+    }
+
+    private static Thread findThread(final String name)
+    {
+        for (final Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (name.equals(thread.getName()) && thread.isAlive())
+            {
+                return thread;
+            }
+        }
+        return null;
+    }
+}
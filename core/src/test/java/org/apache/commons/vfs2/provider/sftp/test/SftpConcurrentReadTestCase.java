@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.AbstractVfsTestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.sftp.SftpFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that downloads from the embedded server do not wait for each other.
+ */
+public class SftpConcurrentReadTestCase
+{
+    private static final int COUNT = 64;
+
+    /** The time the server takes to open a file, in milliseconds. */
+    private static final long OPEN_DELAY = 200;
+
+    private DefaultFileSystemManager manager;
+    private File baseDir;
+    private FileObject folder;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        SftpProviderTestCase.setUpClass();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+        SftpProviderTestCase.tearDownClass();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        baseDir = new File(AbstractVfsTestCase.getTestDirectory(), "concurrent");
+        FileUtils.deleteDirectory(baseDir);
+        baseDir.mkdirs();
+        for (int i = 0; i < COUNT; i++)
+        {
+            FileUtils.writeStringToFile(new File(baseDir, "file" + i + ".txt"), "content " + i, "UTF-8");
+        }
+
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("sftp", new SftpFileProvider());
+        manager.init();
+
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        SftpFileSystemConfigBuilder.getInstance().setChannelPoolMaxTotal(opts, COUNT);
+        folder = manager.resolveFile(SftpProviderTestCase.getConnectionUri() + "/concurrent", opts);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        SftpProviderTestCase.setOpenDelay(0);
+        manager.close();
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    @Test
+    public void testConcurrentDownloads() throws Exception
+    {
+        SftpProviderTestCase.setOpenDelay(OPEN_DELAY);
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(COUNT);
+        try
+        {
+            final List<Future<String>> downloads = new ArrayList<Future<String>>();
+            for (int i = 0; i < COUNT; i++)
+            {
+                final FileObject file = folder.resolveFile("file" + i + ".txt");
+                downloads.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        start.await();
+                        final InputStream in = file.getContent().getInputStream();
+                        try
+                        {
+                            return IOUtils.toString(in, "UTF-8");
+                        }
+                        finally
+                        {
+                            in.close();
+                        }
+                    }
+                }));
+            }
+
+            final long begin = System.currentTimeMillis();
+            start.countDown();
+            for (int i = 0; i < COUNT; i++)
+            {
+                assertEquals("content " + i, downloads.get(i).get());
+            }
+            final long elapsed = System.currentTimeMillis() - begin;
+
+            // one download after the other would take COUNT times the delay
+            assertTrue("took " + elapsed + " ms", elapsed < COUNT * OPEN_DELAY / 4);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -20,8 +20,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
@@ -29,6 +31,7 @@ import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +41,7 @@ import junit.framework.TestSuite;
 
 import org.apache.commons.AbstractVfsTestCase;
 import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
 import org.apache.commons.vfs2.FileSystemManager;
 import org.apache.commons.vfs2.FileSystemOptions;
 import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
@@ -168,9 +172,47 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
      */
     static class TestNativeSshFile extends NativeSshFile
     {
+        private final File file;
+
         TestNativeSshFile(final String fileName, final File file, final String userName)
         {
             super(fileName, file, userName);
+            this.file = file;
+        }
+
+        /**
+         * Writes at the offset without truncating the file, as OpenSSH does, so the segments of an upload
+         * can be written at the same time.
+         */
+        @Override
+        public OutputStream createOutputStream(final long offset) throws IOException
+        {
+            if (!isWritable())
+            {
+                throw new IOException("No write permission : " + file.getName());
+            }
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.seek(offset);
+            return new OutputStream()
+            {
+                @Override
+                public void write(final int b) throws IOException
+                {
+                    raf.write(b);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException
+                {
+                    raf.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException
+                {
+                    raf.close();
+                }
+            };
         }
     }
 
@@ -182,8 +224,15 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
 
     private static String ConnectionUri;
 
+    private static volatile long OpenDelay;
+
+    private static volatile long LoginDelay;
+
     private static SshServer Server;
 
+    /** The number of stat requests the embedded server has received. */
+    private static final AtomicInteger StatCount = new AtomicInteger();
+
     private static final String TEST_URI = "test.sftp.uri";
 
     /** True if we are testing the SFTP stream proxy */
@@ -200,7 +249,7 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
      * @throws FtpException
      * @throws IOException
      */
-    private static void setUpClass() throws FtpException, IOException, InterruptedException
+    static void setUpClass() throws FtpException, IOException, InterruptedException
     {
         SocketPort = FreeSocketPortUtil.findFreeLocalPort();
         // Use %40 for @ in a URL
@@ -250,6 +299,7 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
             @Override
             public boolean authenticate(final String username, final String password, final ServerSession session)
             {
+                delayLogin();
                 return username != null && username.equals(password);
             }
         });
@@ -258,6 +308,7 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
             @Override
             public boolean authenticate(final String username, final PublicKey key, final ServerSession session)
             {
+                delayLogin();
                 // File f = new File("/Users/" + username + "/.ssh/authorized_keys");
                 return true;
             }
@@ -390,14 +441,104 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
      *
      * @throws InterruptedException
      */
-    private static void tearDownClass() throws InterruptedException
+    static void tearDownClass() throws InterruptedException
     {
         if (Server != null)
         {
             Server.stop();
+            Server = null;
+        }
+    }
+
+    /**
+     * Returns the URI of the embedded server.
+     */
+    static String getConnectionUri()
+    {
+        return ConnectionUri;
+    }
+
+    /**
+     * Delays the opening of files by the embedded server, as a slow link would.
+     *
+     * @param millis The delay in milliseconds, 0 opens files at once.
+     */
+    static void setOpenDelay(final long millis)
+    {
+        OpenDelay = millis;
+    }
+
+    /**
+     * Delays the logins to the embedded server, as a slow link would.
+     *
+     * @param millis The delay in milliseconds, 0 logs in at once.
+     */
+    static void setLoginDelay(final long millis)
+    {
+        LoginDelay = millis;
+    }
+
+    private static void delayLogin()
+    {
+        if (LoginDelay > 0)
+        {
+            try
+            {
+                Thread.sleep(LoginDelay);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
+    /**
+     * Returns the number of stat requests the embedded server has received so far.
+     */
+    static int getStatCount()
+    {
+        return StatCount.get();
+    }
+
+    private static void delayOpen() throws IOException
+    {
+        final long delay = OpenDelay;
+        if (delay > 0)
+        {
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while delaying an open.");
+            }
+        }
+    }
+
+    /**
+     * Returns the number of sessions connected to the embedded server.
+     */
+    static int getServerSessionCount()
+    {
+        return Server.getActiveSessions().size();
+    }
+
+    /**
+     * Creates the options to connect to the embedded server with.
+     */
+    static FileSystemOptions createFileSystemOptions() throws FileSystemException
+    {
+        final FileSystemOptions fileSystemOptions = new FileSystemOptions();
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        builder.setStrictHostKeyChecking(fileSystemOptions, "no");
+        builder.setUserInfo(fileSystemOptions, new TrustEveryoneUserInfo());
+        builder.setIdentityRepositoryFactory(fileSystemOptions, new TestIdentityRepositoryFactory());
+        return fileSystemOptions;
+    }
+
     public SftpProviderTestCase(final boolean streamProxyMode) throws IOException
     {
         this.streamProxyMode = streamProxyMode;
@@ -415,11 +556,8 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
             uri = ConnectionUri;
         }
 
-        final FileSystemOptions fileSystemOptions = new FileSystemOptions();
+        final FileSystemOptions fileSystemOptions = createFileSystemOptions();
         final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
-        builder.setStrictHostKeyChecking(fileSystemOptions, "no");
-        builder.setUserInfo(fileSystemOptions, new TrustEveryoneUserInfo());
-        builder.setIdentityRepositoryFactory(fileSystemOptions, new TestIdentityRepositoryFactory());
 
         if (streamProxyMode)
         {
@@ -670,6 +808,19 @@ public class SftpProviderTestCase extends AbstractProviderTestConfig
 
             switch (type)
             {
+                case SSH_FXP_OPEN:
+                {
+                    delayOpen();
+                    break;
+                }
+
+                case SSH_FXP_STAT:
+                case SSH_FXP_LSTAT:
+                {
+                    StatCount.incrementAndGet();
+                    break;
+                }
+
                 case SSH_FXP_SETSTAT:
                 case SSH_FXP_FSETSTAT:
                 {
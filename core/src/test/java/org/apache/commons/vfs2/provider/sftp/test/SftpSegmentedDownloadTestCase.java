@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.AbstractVfsTestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileUtil;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileReplicator;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpChannelPool;
+import org.apache.commons.vfs2.provider.sftp.SftpFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystem;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests segmented downloads from the embedded server.
+ */
+public class SftpSegmentedDownloadTestCase
+{
+    private static final int SEGMENT_SIZE = 256 * 1024;
+
+    /** 13 segments, the last one short. */
+    private static final int SIZE = 12 * SEGMENT_SIZE + 123;
+
+    private static final String NAME = "segmented-download.bin";
+
+    private static byte[] content;
+
+    private DefaultFileSystemManager manager;
+    private File baseDir;
+    private FileObject srcFile;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        SftpProviderTestCase.setUpClass();
+        content = new byte[SIZE];
+        new Random(1).nextBytes(content);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+        SftpProviderTestCase.tearDownClass();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        baseDir = new File(AbstractVfsTestCase.getTestDirectory(), "segmented");
+        FileUtils.deleteDirectory(baseDir);
+        baseDir.mkdirs();
+        FileUtils.writeByteArrayToFile(new File(AbstractVfsTestCase.getTestDirectory(), NAME), content);
+
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("sftp", new SftpFileProvider());
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("ram", new RamFileProvider());
+        manager.setReplicator(new DefaultFileReplicator(new File(baseDir, "temp")));
+        manager.init();
+
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        builder.setDownloadThreads(opts, 4);
+        builder.setDownloadSegmentSize(opts, SEGMENT_SIZE);
+        srcFile = manager.resolveFile(SftpProviderTestCase.getConnectionUri() + "/" + NAME, opts);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        new File(AbstractVfsTestCase.getTestDirectory(), NAME).delete();
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    @Test
+    public void testCopyToLocalFile() throws Exception
+    {
+        final SftpChannelPool pool = ((SftpFileSystem) srcFile.getFileSystem()).getChannelPool();
+        final long borrowed = pool.getBorrowedCount();
+
+        // a longer file is truncated
+        final File file = new File(baseDir, "copy.bin");
+        FileUtils.writeByteArrayToFile(file, new byte[SIZE + SEGMENT_SIZE]);
+        final FileObject destFile = manager.toFileObject(file);
+        destFile.copyFrom(srcFile, Selectors.SELECT_SELF);
+
+        assertArrayEquals(content, FileUtils.readFileToByteArray(file));
+        // every segment takes a channel of its own
+        assertTrue(pool.getBorrowedCount() - borrowed >= 13);
+    }
+
+    @Test
+    public void testCopyToRam() throws Exception
+    {
+        final FileObject destFile = manager.resolveFile("ram:///copy.bin");
+        destFile.copyFrom(srcFile, Selectors.SELECT_SELF);
+        assertArrayEquals(content, FileUtil.getContent(destFile));
+    }
+
+    @Test
+    public void testReplicate() throws Exception
+    {
+        final File replica = srcFile.getFileSystem().replicateFile(srcFile, Selectors.SELECT_SELF);
+        assertArrayEquals(content, FileUtils.readFileToByteArray(replica));
+    }
+}
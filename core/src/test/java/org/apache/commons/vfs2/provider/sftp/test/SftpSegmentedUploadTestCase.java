@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.AbstractVfsTestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.SegmentedUpload;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.ram.RamFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpChannelPool;
+import org.apache.commons.vfs2.provider.sftp.SftpFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystem;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests segmented uploads to the embedded server.
+ */
+public class SftpSegmentedUploadTestCase
+{
+    private static final int SEGMENT_SIZE = 256 * 1024;
+
+    /** 13 segments, the last one short. */
+    private static final int SIZE = 12 * SEGMENT_SIZE + 123;
+
+    private static final String NAME = "segmented-upload.bin";
+
+    private static byte[] content;
+
+    private DefaultFileSystemManager manager;
+    private File baseDir;
+    private File remote;
+    private FileObject destFile;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        SftpProviderTestCase.setUpClass();
+        content = new byte[SIZE];
+        new Random(2).nextBytes(content);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+        SftpProviderTestCase.tearDownClass();
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        baseDir = new File(AbstractVfsTestCase.getTestDirectory(), "segmented");
+        FileUtils.deleteDirectory(baseDir);
+        baseDir.mkdirs();
+        remote = new File(baseDir, NAME);
+
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("sftp", new SftpFileProvider());
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("ram", new RamFileProvider());
+        manager.init();
+
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        final SftpFileSystemConfigBuilder builder = SftpFileSystemConfigBuilder.getInstance();
+        builder.setUploadThreads(opts, 4);
+        builder.setUploadSegmentSize(opts, SEGMENT_SIZE);
+        destFile = manager.resolveFile(SftpProviderTestCase.getConnectionUri() + "/segmented/" + NAME, opts);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    @Test
+    public void testCopyFromLocalFile() throws Exception
+    {
+        final SftpChannelPool pool = ((SftpFileSystem) destFile.getFileSystem()).getChannelPool();
+        final long borrowed = pool.getBorrowedCount();
+
+        // a longer file is truncated
+        FileUtils.writeByteArrayToFile(remote, new byte[SIZE + SEGMENT_SIZE]);
+        final File file = new File(baseDir, "source.bin");
+        FileUtils.writeByteArrayToFile(file, content);
+        destFile.copyFrom(manager.toFileObject(file), Selectors.SELECT_SELF);
+
+        assertArrayEquals(content, FileUtils.readFileToByteArray(remote));
+        assertTrue(destFile.getContent().getSize() == SIZE);
+        // every segment takes a channel of its own
+        assertTrue(pool.getBorrowedCount() - borrowed >= 13);
+    }
+
+    @Test
+    public void testCopyFromRam() throws Exception
+    {
+        final FileObject srcFile = manager.resolveFile("ram:///source.bin");
+        final OutputStream out = srcFile.getContent().getOutputStream();
+        out.write(content);
+        out.close();
+
+        assertTrue(SegmentedUpload.copy(srcFile, destFile, 3, 1024 * 1024));
+        assertArrayEquals(content, FileUtils.readFileToByteArray(remote));
+    }
+
+    @Test
+    public void testSmallFileCopiedThroughStreams() throws Exception
+    {
+        final File file = new File(baseDir, "small.bin");
+        FileUtils.writeByteArrayToFile(file, new byte[] {1, 2, 3});
+        assertFalse(SegmentedUpload.copy(manager.toFileObject(file), destFile, 4, SEGMENT_SIZE));
+        assertArrayEquals(new byte[] {1, 2, 3}, FileUtils.readFileToByteArray(remote));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.sftp.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.sftp.SftpFileProvider;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystem;
+import org.apache.commons.vfs2.provider.sftp.SftpFileSystemConfigBuilder;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the SSH sessions of SFTP file systems against the embedded server.
+ */
+public class SftpSessionTestCase
+{
+    private static final long LOGIN_DELAY = 2000;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception
+    {
+        SftpProviderTestCase.setUpClass();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception
+    {
+        SftpProviderTestCase.tearDownClass();
+    }
+
+    private static DefaultFileSystemManager createManager() throws FileSystemException
+    {
+        final DefaultFileSystemManager manager = new DefaultFileSystemManager();
+        manager.addProvider("sftp", new SftpFileProvider());
+        manager.init();
+        return manager;
+    }
+
+    private static FileObject resolve(final DefaultFileSystemManager manager, final FileSystemOptions opts)
+        throws FileSystemException
+    {
+        return manager.resolveFile(SftpProviderTestCase.getConnectionUri() + "/read-tests/file1.txt", opts);
+    }
+
+    private static String read(final FileObject file) throws Exception
+    {
+        final InputStream in = file.getContent().getInputStream();
+        try
+        {
+            return IOUtils.toString(in, "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Waits for the server to notice connected and disconnected sessions.
+     */
+    private static void awaitServerSessions(final int count) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (SftpProviderTestCase.getServerSessionCount() != count && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(count, SftpProviderTestCase.getServerSessionCount());
+    }
+
+    @Test
+    public void testChannelsSpreadOverSessions() throws Exception
+    {
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        SftpFileSystemConfigBuilder.getInstance().setSessionCount(opts, 3);
+        final DefaultFileSystemManager manager = createManager();
+        try
+        {
+            final FileObject file = resolve(manager, opts);
+            final SftpFileSystem fs = (SftpFileSystem) file.getFileSystem();
+            assertEquals(1, fs.getSessionCount());
+
+            final List<InputStream> streams = new ArrayList<InputStream>();
+            try
+            {
+                for (int i = 0; i < 6; i++)
+                {
+                    streams.add(file.getContent().getInputStream());
+                }
+                assertEquals(3, fs.getSessionCount());
+                awaitServerSessions(3);
+                for (final InputStream in : streams)
+                {
+                    assertEquals("This is a test file.", IOUtils.toString(in, "UTF-8"));
+                }
+            }
+            finally
+            {
+                for (final InputStream in : streams)
+                {
+                    in.close();
+                }
+            }
+        }
+        finally
+        {
+            manager.close();
+        }
+        awaitServerSessions(0);
+    }
+
+    @Test
+    public void testSessionsSharedByFileSystems() throws Exception
+    {
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        final DefaultFileSystemManager manager1 = createManager();
+        final DefaultFileSystemManager manager2 = createManager();
+        try
+        {
+            final FileObject file1 = resolve(manager1, opts);
+            final FileObject file2 = resolve(manager2, opts);
+            assertNotSame(file1.getFileSystem(), file2.getFileSystem());
+            assertEquals("This is a test file.", read(file1));
+            assertEquals("This is a test file.", read(file2));
+            awaitServerSessions(1);
+
+            // the session stays connected while the other file system uses it
+            manager1.close();
+            assertEquals(1, ((SftpFileSystem) file2.getFileSystem()).getSessionCount());
+            assertEquals("This is a test file.", read(file2));
+            awaitServerSessions(1);
+        }
+        finally
+        {
+            manager1.close();
+            manager2.close();
+        }
+        awaitServerSessions(0);
+    }
+
+    @Test
+    public void testConnectingSessionDoesNotBlockGroup() throws Exception
+    {
+        final FileSystemOptions opts = SftpProviderTestCase.createFileSystemOptions();
+        SftpFileSystemConfigBuilder.getInstance().setSessionCount(opts, 2);
+        final DefaultFileSystemManager manager = createManager();
+        try
+        {
+            final FileObject file = resolve(manager, opts);
+            final InputStream first = file.getContent().getInputStream();
+            try
+            {
+                SftpProviderTestCase.setLoginDelay(LOGIN_DELAY);
+                // the first session is busy, so the next stream connects a second session
+                final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+                final Thread connector = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            read(file);
+                        }
+                        catch (final Throwable e)
+                        {
+                            failure.set(e);
+                        }
+                    }
+                };
+                connector.start();
+                Thread.sleep(LOGIN_DELAY / 4);
+
+                // meanwhile the connected session keeps serving channels
+                final long begin = System.currentTimeMillis();
+                assertEquals("This is a test file.", read(file));
+                final long elapsed = System.currentTimeMillis() - begin;
+                assertTrue("took " + elapsed + " ms", elapsed < LOGIN_DELAY / 2);
+
+                connector.join();
+                if (failure.get() != null)
+                {
+                    throw new AssertionError(failure.get());
+                }
+            }
+            finally
+            {
+                SftpProviderTestCase.setLoginDelay(0);
+                first.close();
+            }
+        }
+        finally
+        {
+            manager.close();
+        }
+        awaitServerSessions(0);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.tar.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.tar.TarFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading the entries of an uncompressed tar file in random order and concurrently.
+ */
+public class TarEntryIndexTestCase
+{
+    private static final String BASE_DIR = "target/test-classes/test-data/";
+
+    private static final int FILES = 300;
+
+    private DefaultFileSystemManager manager;
+
+    private File tarFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("tar", new TarFileProvider());
+        manager.init();
+
+        new File(BASE_DIR).mkdirs(); // if test is run standalone
+        tarFile = new File(BASE_DIR, "index.tar");
+        final TarArchiveOutputStream out = new TarArchiveOutputStream(new FileOutputStream(tarFile));
+        try
+        {
+            out.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+            for (int i = 0; i < FILES; i++)
+            {
+                final byte[] content = getContent(i).getBytes("US-ASCII");
+                final TarArchiveEntry entry = new TarArchiveEntry(getName(i));
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        tarFile.delete();
+    }
+
+    private static String getName(final int i)
+    {
+        // every third name needs a long name header
+        final StringBuilder name = new StringBuilder("dir" + i % 10 + "/file" + i);
+        if (i % 3 == 0)
+        {
+            for (int j = 0; j < 12; j++)
+            {
+                name.append("-long-name");
+            }
+        }
+        return name.append(".txt").toString();
+    }
+
+    private static String getContent(final int i)
+    {
+        final StringBuilder content = new StringBuilder();
+        for (int j = 0; j <= i % 50; j++)
+        {
+            content.append("content of ").append(i).append('\n');
+        }
+        return content.toString();
+    }
+
+    private void assertContent(final FileObject root, final int i) throws Exception
+    {
+        final InputStream in = root.resolveFile(getName(i)).getContent().getInputStream();
+        try
+        {
+            assertEquals(getContent(i), IOUtils.toString(in, "US-ASCII"));
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testReadBackwards() throws Exception
+    {
+        final FileObject root = manager.resolveFile("tar:" + tarFile.toURI() + "!/");
+        for (int i = FILES - 1; i >= 0; i--)
+        {
+            assertContent(root, i);
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception
+    {
+        final FileObject root = manager.resolveFile("tar:" + tarFile.toURI() + "!/");
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int first = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = first; i < FILES; i += threads.length)
+                        {
+                            assertContent(root, i);
+                        }
+                    }
+                    catch (final Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+        if (failure.get() != null)
+        {
+            throw new AssertionError(failure.get());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.tar.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.impl.DefaultFileReplicator;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.tar.TarFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests writing a new tar file through its file system.
+ */
+public class TarWriteTestCase
+{
+    private static final File BASE_DIR = new File("target/test-classes/test-data/tar-write");
+
+    private DefaultFileSystemManager manager;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        FileUtils.deleteDirectory(BASE_DIR);
+        BASE_DIR.mkdirs();
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("tar", new TarFileProvider());
+        manager.addProvider("tgz", new TarFileProvider());
+        manager.setTemporaryFileStore(new DefaultFileReplicator(new File(BASE_DIR, "temp")));
+        manager.init();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(BASE_DIR);
+    }
+
+    private static void write(final FileObject file, final byte[] content) throws Exception
+    {
+        final OutputStream out = file.getContent().getOutputStream();
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the entries of a tar stream.
+     * @return The content of the entries by name, null for folders.
+     */
+    private static Map<String, byte[]> readTar(final InputStream in) throws Exception
+    {
+        final Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        final TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        try
+        {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null)
+            {
+                entries.put(entry.getName(), entry.isDirectory() ? null : IOUtils.toByteArray(tar));
+            }
+        }
+        finally
+        {
+            tar.close();
+        }
+        return entries;
+    }
+
+    @Test
+    public void testWriteTar() throws Exception
+    {
+        final File file = new File(BASE_DIR, "new.tar");
+        final FileObject root = manager.resolveFile("tar:" + file.toURI() + "!/");
+        assertFalse(root.exists());
+        assertTrue(root.isWriteable());
+
+        write(root.resolveFile("dir/a.txt"), "content a".getBytes("US-ASCII"));
+        // a name longer than the 100 characters of the plain tar header
+        final StringBuilder longName = new StringBuilder("dir/");
+        for (int i = 0; i < 30; i++)
+        {
+            longName.append("long");
+        }
+        write(root.resolveFile(longName.toString()), "content b".getBytes("US-ASCII"));
+        assertEquals(FileType.FOLDER, root.getType());
+        assertEquals(2, root.resolveFile("dir").getChildren().length);
+        manager.closeFileSystem(root.getFileSystem());
+
+        final Map<String, byte[]> entries = readTar(new FileInputStream(file));
+        assertEquals(3, entries.size());
+        assertNull(entries.get("dir/"));
+        assertArrayEquals("content a".getBytes("US-ASCII"), entries.get("dir/a.txt"));
+        assertArrayEquals("content b".getBytes("US-ASCII"), entries.get(longName.toString()));
+    }
+
+    @Test
+    public void testWriteCompressedTar() throws Exception
+    {
+        final File file = new File(BASE_DIR, "new.tgz");
+        final FileObject root = manager.resolveFile("tgz:" + file.toURI() + "!/");
+
+        // a file too large to be held back in memory
+        final byte[] large = new byte[3 * 1024 * 1024];
+        new Random(1).nextBytes(large);
+        write(root.resolveFile("large.bin"), large);
+        write(root.resolveFile("small.txt"), "small".getBytes("US-ASCII"));
+        assertEquals(large.length, root.resolveFile("large.bin").getContent().getSize());
+        manager.closeFileSystem(root.getFileSystem());
+
+        final Map<String, byte[]> entries = readTar(new GZIPInputStream(new FileInputStream(file)));
+        assertEquals(2, entries.size());
+        assertArrayEquals(large, entries.get("large.bin"));
+
+        // the finished archive is read as usual
+        final InputStream in = manager.resolveFile("tgz:" + file.toURI() + "!/small.txt")
+            .getContent().getInputStream();
+        try
+        {
+            assertEquals("small", new String(IOUtils.toByteArray(in), "US-ASCII"));
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.xz.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.impl.DefaultFileReplicator;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.tar.TarFileProvider;
+import org.apache.commons.vfs2.provider.xz.XzFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests xz compressed files and xz compressed tar files.
+ */
+public class XzTestCase
+{
+    private static final File BASE_DIR = new File("target/test-classes/test-data/xz");
+
+    private DefaultFileSystemManager manager;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        FileUtils.deleteDirectory(BASE_DIR);
+        BASE_DIR.mkdirs();
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("xz", new XzFileProvider());
+        manager.addProvider("txz", new TarFileProvider());
+        manager.setTemporaryFileStore(new DefaultFileReplicator(new File(BASE_DIR, "temp")));
+        manager.init();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(BASE_DIR);
+    }
+
+    private static byte[] createData(final int size)
+    {
+        final byte[] data = new byte[size];
+        final Random random = new Random(1);
+        for (int i = 0; i < size; i++)
+        {
+            // compressible, but not trivially
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static void write(final FileObject file, final byte[] content) throws Exception
+    {
+        final OutputStream out = file.getContent().getOutputStream();
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] read(final FileObject file) throws Exception
+    {
+        final InputStream in = file.getContent().getInputStream();
+        try
+        {
+            return IOUtils.toByteArray(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testReadWrite() throws Exception
+    {
+        final File file = new File(BASE_DIR, "data.xz");
+        final byte[] data = createData(500000);
+        write(manager.resolveFile("xz:" + file.toURI() + "!/data"), data);
+
+        final InputStream in = new XZCompressorInputStream(new FileInputStream(file));
+        try
+        {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+        finally
+        {
+            in.close();
+        }
+        assertArrayEquals(data, read(manager.resolveFile("xz:" + file.toURI() + "!/data")));
+    }
+
+    @Test
+    public void testTar() throws Exception
+    {
+        final File file = new File(BASE_DIR, "archive.txz");
+        final FileObject root = manager.resolveFile("txz:" + file.toURI() + "!/");
+        final byte[] data = createData(200000);
+        write(root.resolveFile("dir/a.txt"), data);
+        write(root.resolveFile("b.txt"), "content b".getBytes("US-ASCII"));
+        manager.closeFileSystem(root.getFileSystem());
+
+        final FileObject archive = manager.resolveFile("txz:" + file.toURI() + "!/");
+        assertEquals(2, archive.getChildren().length);
+        assertArrayEquals(data, read(archive.resolveFile("dir/a.txt")));
+        assertArrayEquals("content b".getBytes("US-ASCII"), read(archive.resolveFile("b.txt")));
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.zip.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.zip.ZipFileProvider;
+import org.apache.commons.vfs2.provider.zip.ZipFileSystemConfigBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests a zip file with many entries, most folders of which have no entry of their own.
+ */
+public class LargeZipTestCase
+{
+    private static final String BASE_DIR = "target/test-classes/test-data/";
+
+    private static final int FOLDERS = 100;
+
+    private static final int FILES_PER_FOLDER = 200;
+
+    private DefaultFileSystemManager manager;
+
+    private File zipFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("zip", new ZipFileProvider());
+        manager.init();
+
+        new File(BASE_DIR).mkdirs(); // if test is run standalone
+        zipFile = new File(BASE_DIR, "large.zip");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+        try
+        {
+            // only the first folder has an entry of its own
+            out.putNextEntry(new ZipEntry("root/dir0/"));
+            out.closeEntry();
+            for (int dir = 0; dir < FOLDERS; dir++)
+            {
+                for (int file = 0; file < FILES_PER_FOLDER; file++)
+                {
+                    out.putNextEntry(new ZipEntry("root/dir" + dir + "/file " + file + ".txt"));
+                    out.write(("content " + dir + "/" + file).getBytes("US-ASCII"));
+                    out.closeEntry();
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        zipFile.delete();
+    }
+
+    @Test
+    public void testStructure() throws Exception
+    {
+        final FileObject root = manager.resolveFile("zip:" + zipFile.toURI() + "!/");
+        assertEquals(1, root.getChildren().length);
+
+        final FileObject folder = root.resolveFile("root");
+        assertEquals(FileType.FOLDER, folder.getType());
+        assertEquals(FOLDERS, folder.getChildren().length);
+
+        final FileObject implied = root.resolveFile("root/dir42");
+        assertEquals(FileType.FOLDER, implied.getType());
+        final String[] names = new String[FILES_PER_FOLDER];
+        final FileObject[] children = implied.getChildren();
+        for (int i = 0; i < children.length; i++)
+        {
+            names[i] = children[i].getName().getBaseName();
+        }
+        Arrays.sort(names);
+        assertEquals(FILES_PER_FOLDER, children.length);
+        assertEquals("file 0.txt", names[0]);
+
+        assertFalse(root.resolveFile("root/dir42/missing.txt").exists());
+    }
+
+    @Test
+    public void testReadEntry() throws Exception
+    {
+        final FileObject file = manager.resolveFile("zip:" + zipFile.toURI() + "!/root/dir99/file 7.txt");
+        assertEquals(FileType.FILE, file.getType());
+        final byte[] expected = "content 99/7".getBytes("US-ASCII");
+        assertEquals(expected.length, file.getContent().getSize());
+        final byte[] content = new byte[expected.length];
+        final InputStream in = file.getContent().getInputStream();
+        try
+        {
+            assertEquals(expected.length, in.read(content));
+        }
+        finally
+        {
+            in.close();
+        }
+        assertArrayEquals(expected, content);
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception
+    {
+        final FileSystemOptions opts = new FileSystemOptions();
+        ZipFileSystemConfigBuilder.getInstance().setMaxIdleHandles(opts, 3);
+        ZipFileSystemConfigBuilder.getInstance().setHandleIdleTimeout(opts, 100);
+        final FileObject root = manager.resolveFile("zip:" + zipFile.toURI() + "!/", opts);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int dir = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int file = 0; file < FILES_PER_FOLDER; file++)
+                        {
+                            final FileObject entry = root.resolveFile("root/dir" + dir + "/file " + file + ".txt");
+                            final InputStream in = entry.getContent().getInputStream();
+                            try
+                            {
+                                assertEquals("content " + dir + "/" + file, IOUtils.toString(in, "US-ASCII"));
+                            }
+                            finally
+                            {
+                                in.close();
+                            }
+                        }
+                    }
+                    catch (final Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+        if (failure.get() != null)
+        {
+            throw new AssertionError(failure.get());
+        }
+
+        // idle handles are closed after the timeout and reopened on demand
+        Thread.sleep(300);
+        final InputStream in = root.resolveFile("root/dir3/file 5.txt").getContent().getInputStream();
+        try
+        {
+            assertEquals("content 3/5", IOUtils.toString(in, "US-ASCII"));
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testMoreOpenStreamsThanIdleHandles() throws Exception
+    {
+        final FileSystemOptions opts = new FileSystemOptions();
+        ZipFileSystemConfigBuilder.getInstance().setMaxIdleHandles(opts, 2);
+        final FileObject root = manager.resolveFile("zip:" + zipFile.toURI() + "!/", opts);
+
+        // a single thread keeps more entry streams open than handles are kept idle
+        final InputStream[] streams = new InputStream[6];
+        try
+        {
+            for (int i = 0; i < streams.length; i++)
+            {
+                streams[i] = root.resolveFile("root/dir5/file " + i + ".txt").getContent().getInputStream();
+            }
+            for (int i = 0; i < streams.length; i++)
+            {
+                assertEquals("content 5/" + i, IOUtils.toString(streams[i], "US-ASCII"));
+            }
+        }
+        finally
+        {
+            for (final InputStream in : streams)
+            {
+                if (in != null)
+                {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReaperStopsWithProvider() throws Exception
+    {
+        final FileObject root = manager.resolveFile("zip:" + zipFile.toURI() + "!/");
+        final InputStream in = root.resolveFile("root/dir1/file 2.txt").getContent().getInputStream();
+        in.close();
+        assertNotNull(findThread("Zip handle reaper"));
+
+        manager.close();
+        final Thread reaper = findThread("Zip handle reaper");
+        if (reaper != null)
+        {
+            reaper.join(10000);
+            assertFalse(reaper.isAlive());
+        }
+    }
+
+    private static Thread findThread(final String name)
+    {
+        for (final Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (name.equals(thread.getName()) && thread.isAlive())
+            {
+                return thread;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.provider.zip.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+import org.apache.commons.vfs2.Selectors;
+import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
+import org.apache.commons.vfs2.provider.local.DefaultLocalFileProvider;
+import org.apache.commons.vfs2.provider.zip.ZipFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests writing a new zip file through its file system.
+ */
+public class ZipWriteTestCase
+{
+    private static final File BASE_DIR = new File("target/test-classes/test-data/zip-write");
+
+    private DefaultFileSystemManager manager;
+
+    private File zipFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        FileUtils.deleteDirectory(BASE_DIR);
+        BASE_DIR.mkdirs();
+        zipFile = new File(BASE_DIR, "new.zip");
+        manager = new DefaultFileSystemManager();
+        manager.addProvider("file", new DefaultLocalFileProvider());
+        manager.addProvider("zip", new ZipFileProvider());
+        manager.init();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.close();
+        FileUtils.deleteDirectory(BASE_DIR);
+    }
+
+    private static void write(final FileObject file, final String content) throws Exception
+    {
+        final OutputStream out = file.getContent().getOutputStream();
+        try
+        {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String read(final ZipFile zip, final String name) throws Exception
+    {
+        final InputStream in = zip.getInputStream(zip.getEntry(name));
+        try
+        {
+            return new String(IOUtils.toByteArray(in), "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testWriteEntries() throws Exception
+    {
+        final FileObject root = manager.resolveFile("zip:" + zipFile.toURI() + "!/");
+        assertFalse(root.exists());
+        assertTrue(root.getFileSystem().hasCapability(Capability.WRITE_CONTENT));
+
+        write(root.resolveFile("dir/a.txt"), "content a");
+        write(root.resolveFile("dir/sub/b.txt"), "content b");
+        write(root.resolveFile("c.txt"), "content c");
+        root.resolveFile("empty").createFolder();
+
+        // the new archive is listed while it is written
+        assertEquals(FileType.FOLDER, root.getType());
+        assertEquals(3, root.getChildren().length);
+        assertEquals(2, root.resolveFile("dir").getChildren().length);
+        assertEquals(9, root.resolveFile("dir/sub/b.txt").getContent().getSize());
+
+        manager.closeFileSystem(root.getFileSystem());
+
+        final ZipFile zip = new ZipFile(zipFile);
+        try
+        {
+            assertEquals(6, zip.size());
+            final ZipEntry folder = zip.getEntry("dir/sub/");
+            assertTrue(folder.isDirectory());
+            assertEquals("content a", read(zip, "dir/a.txt"));
+            assertEquals("content b", read(zip, "dir/sub/b.txt"));
+            assertEquals("content c", read(zip, "c.txt"));
+        }
+        finally
+        {
+            zip.close();
+        }
+
+        // the finished archive is read as usual
+        final FileObject written = manager.resolveFile("zip:" + zipFile.toURI() + "!/dir/a.txt");
+        final InputStream in = written.getContent().getInputStream();
+        try
+        {
+            assertEquals("content a", new String(IOUtils.toByteArray(in), "UTF-8"));
+        }
+        finally
+        {
+            in.close();
+        }
+        assertFalse(written.isWriteable());
+    }
+
+    @Test
+    public void testCopyFolder() throws Exception
+    {
+        final File source = new File(BASE_DIR, "source");
+        for (int i = 0; i < 100; i++)
+        {
+            FileUtils.writeStringToFile(new File(source, "dir" + i % 7 + "/file" + i + ".txt"), "content " + i);
+        }
+
+        final FileObject root = manager.resolveFile("zip:" + zipFile.toURI() + "!/");
+        root.copyFrom(manager.resolveFile(source.getAbsolutePath()), Selectors.SELECT_ALL);
+        manager.closeFileSystem(root.getFileSystem());
+
+        final ZipFile zip = new ZipFile(zipFile);
+        try
+        {
+            assertEquals(107, zip.size());
+            assertEquals("content 42", read(zip, "dir0/file42.txt"));
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testOneEntryAtATime() throws Exception
+    {
+        final FileObject root = manager.resolveFile("zip:" + zipFile.toURI() + "!/");
+        final OutputStream out = root.resolveFile("a.txt").getContent().getOutputStream();
+        try
+        {
+            root.resolveFile("b.txt").getContent().getOutputStream();
+            fail();
+        }
+        catch (final FileSystemException e)
+        {
+            assertEquals("vfs.provider/write.error", e.getCode());
+        }
+        out.close();
+
+        try
+        {
+            root.resolveFile("a.txt").getContent().getOutputStream();
+            fail();
+        }
+        catch (final FileSystemException e)
+        {
+            assertEquals("vfs.provider/write.error", e.getCode());
+        }
+        try
+        {
+            root.resolveFile("a.txt").getContent().getInputStream();
+            fail();
+        }
+        catch (final FileSystemException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.vfs2.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ReadAheadInputStream}.
+ */
+public class ReadAheadInputStreamTest
+{
+    private static byte[] createData(final int size)
+    {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+        {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    @Test
+    public void testReadsAllData() throws Exception
+    {
+        final byte[] data = createData(100000);
+        final InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 1000, 3, "test");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[777];
+        int n;
+        while ((n = in.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, n);
+        }
+        assertEquals(-1, in.read());
+        in.close();
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testSingleByteReads() throws Exception
+    {
+        final byte[] data = createData(5000);
+        final InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 64, 2, "test");
+        for (final byte b : data)
+        {
+            assertEquals(b & 0xFF, in.read());
+        }
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void testCloseClosesUnderlyingStream() throws Exception
+    {
+        final boolean[] closed = new boolean[1];
+        final InputStream source = new ByteArrayInputStream(createData(1000000))
+        {
+            @Override
+            public void close() throws IOException
+            {
+                closed[0] = true;
+            }
+        };
+        final InputStream in = new ReadAheadInputStream(source, 1024, 4, "test");
+        in.read();
+        in.close();
+        assertTrue(closed[0]);
+        try
+        {
+            in.read();
+            fail();
+        }
+        catch (final IOException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPropagatesReadError() throws Exception
+    {
+        final InputStream source = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                throw new IOException("broken");
+            }
+        };
+        final InputStream in = new ReadAheadInputStream(source, 16, 2, "test");
+        try
+        {
+            in.read();
+            fail();
+        }
+        catch (final IOException e)
+        {
+            assertEquals("broken", e.getMessage());
+        }
+        // the failure is not taken for the end of the stream
+        try
+        {
+            in.read(new byte[10], 0, 10);
+            fail();
+        }
+        catch (final IOException e)
+        {
+            assertEquals("broken", e.getMessage());
+        }
+        in.close();
+    }
+
+    @Test
+    public void testCloseWaitsForPendingRead() throws Exception
+    {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final AtomicBoolean inRead = new AtomicBoolean();
+        final AtomicBoolean closedWhileReading = new AtomicBoolean();
+        final InputStream source = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                return read(new byte[1], 0, 1);
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException
+            {
+                inRead.set(true);
+                reading.countDown();
+                // a blocking socket read which ignores interrupts
+                final long end = System.currentTimeMillis() + 200;
+                while (System.currentTimeMillis() < end)
+                {
+                    Thread.yield();
+                }
+                inRead.set(false);
+                return len;
+            }
+
+            @Override
+            public void close()
+            {
+                closedWhileReading.set(inRead.get());
+            }
+        };
+        final InputStream in = new ReadAheadInputStream(source, 16, 1, "test");
+        reading.await();
+        in.close();
+        assertFalse(closedWhileReading.get());
+    }
+}